@@ -0,0 +1,305 @@
+package com.yeahmobi.yscheduler.agentframework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskLog;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatusBatch;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatusBatchItem;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+
+/**
+ * scheduler与agent之间的二进制响应格式，日志以原始字节传输，不再base64。<br>
+ * 协商方式：client在请求头带上{@link #HEADER}，支持的agent以{@link #CONTENT_TYPE}返回二进制，
+ * 旧版本agent忽略该请求头，仍返回json，client按响应的Content-Type选择解析方式。<br>
+ * 格式：4字节magic，之后是若干帧，每帧为1字节类型 + 4字节长度 + 内容：<br>
+ * META帧（json：responseCode、errorMsg、responseType、throwable），必有且在最前；<br>
+ * JSON帧（responseData的json，其中TaskLog的data置空）；<br>
+ * LOG帧（日志原始字节，按出现顺序依次填回responseData中的TaskLog）。<br>
+ * 日志流（StreamingEventHandler）同样以magic开头，之后是CHUNK（txId + offset + 日志原始字节）、
+ * STATUS（txId + TaskStatus的json）、ERROR（txId + 错误信息）、LOAD（txId固定为0 + AgentLoad的json）帧，以END帧结束；
+ * 旧版本client按txId帧跳过不认识的LOAD帧。
+ * 若agent无法建立流，则返回普通的META开头的响应。
+ */
+public class AgentBinaryProtocol {
+
+    public static final String                 HEADER       = "X-YScheduler-Protocol";
+
+    public static final String                 VERSION      = "binary/1";
+
+    public static final String                 CONTENT_TYPE = "application/x-yscheduler-binary";
+
+    private static final int                   MAGIC        = 0x59534231;                                      // "YSB1"
+
+    private static final byte                  FRAME_META   = 1;
+    private static final byte                  FRAME_JSON   = 2;
+    private static final byte                  FRAME_LOG    = 3;
+    private static final byte                  FRAME_CHUNK  = 4;
+    private static final byte                  FRAME_STATUS = 5;
+    private static final byte                  FRAME_ERROR  = 6;
+    private static final byte                  FRAME_END    = 7;
+    private static final byte                  FRAME_LOAD   = 8;
+
+    /** responseType -> Class，避免每次都Class.forName */
+    private static final Map<String, Class<?>> TYPES        = new ConcurrentHashMap<String, Class<?>>();
+
+    static {
+        TYPES.put(TaskLog.class.getName(), TaskLog.class);
+        TYPES.put(TaskStatus.class.getName(), TaskStatus.class);
+        TYPES.put(TaskStatusBatch.class.getName(), TaskStatusBatch.class);
+        TYPES.put(Long.class.getName(), Long.class);
+        TYPES.put(String.class.getName(), String.class);
+        TYPES.put(AgentLoad.class.getName(), AgentLoad.class);
+    }
+
+    public static void write(AgentResponse<?> response, OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+
+        Map<String, Object> meta = new HashMap<String, Object>();
+        meta.put("responseCode", response.getResponseCode());
+        meta.put("errorMsg", response.getErrorMsg());
+        meta.put("responseType", response.getResponseType());
+        if (response.getThrowable() != null) {
+            // 与json响应一致，异常随响应返回
+            meta.put("throwable", response.getThrowable());
+        }
+        writeFrame(dos, FRAME_META, JSON.toJSONBytes(meta));
+
+        Object data = response.getResponseData();
+        if (data instanceof TaskLog) {
+            TaskLog log = (TaskLog) data;
+            writeFrame(dos, FRAME_LOG, log.getData(), log.getLength());
+        } else if (data instanceof TaskStatusBatch) {
+            // 日志单独成帧，json中只保留长度
+            List<TaskLog> logs = new ArrayList<TaskLog>();
+            TaskStatusBatch stripped = new TaskStatusBatch();
+            stripped.setLoad(((TaskStatusBatch) data).getLoad());
+            for (TaskStatusBatchItem item : ((TaskStatusBatch) data).getItems()) {
+                TaskStatusBatchItem copy = new TaskStatusBatchItem(item.getTxId());
+                copy.setStatus(item.getStatus());
+                copy.setErrorMsg(item.getErrorMsg());
+                if (item.getLog() != null) {
+                    copy.setLog(new TaskLog(null, item.getLog().getLength()));
+                    logs.add(item.getLog());
+                }
+                stripped.getItems().add(copy);
+            }
+            writeFrame(dos, FRAME_JSON, JSON.toJSONBytes(stripped));
+            for (TaskLog log : logs) {
+                writeFrame(dos, FRAME_LOG, log.getData(), log.getLength());
+            }
+        } else if (data != null) {
+            writeFrame(dos, FRAME_JSON, JSON.toJSONBytes(data));
+        }
+        dos.flush();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static <T> AgentResponse<T> read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a binary agent response");
+        }
+
+        if (dis.readByte() != FRAME_META) {
+            throw new IOException("Binary agent response must start with a meta frame");
+        }
+        Map<String, Object> meta = JSON.parseObject(readPayload(dis), Map.class);
+        AgentResponse response = new AgentResponse();
+        response.setResponseCode(AgentResponseCode.valueOf((String) meta.get("responseCode")));
+        response.setErrorMsg((String) meta.get("errorMsg"));
+        String responseType = (String) meta.get("responseType");
+        if (meta.get("throwable") != null) {
+            response.setThrowable(JSON.parseObject(JSON.toJSONString(meta.get("throwable")), Throwable.class));
+        }
+
+        Object data = null;
+        int type;
+        while ((type = dis.read()) != -1) {
+            byte[] payload = readPayload(dis);
+            if (type == FRAME_LOG) {
+                if (data == null) {
+                    data = new TaskLog(payload, payload.length);
+                } else {
+                    fillNextLog((TaskStatusBatch) data, payload);
+                }
+            } else if (type == FRAME_JSON) {
+                data = JSON.parseObject(payload, resolveType(responseType));
+            }
+        }
+        if (data != null) {
+            response.setResponseData(data);
+        }
+        response.setResponseType(responseType);
+        return response;
+    }
+
+    public static DataOutputStream startStream(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        return dos;
+    }
+
+    /**
+     * 日志从channel的offset处transferTo到输出，不用为每帧分配length大小的byte[]；<br>
+     * 输出是包装过的OutputStream，transferTo内部仍经过临时缓冲区复制，不是零拷贝
+     */
+    public static void writeChunk(DataOutputStream dos, long txId, FileChannel channel, long offset, int length)
+                                                                                                               throws IOException {
+        dos.writeByte(FRAME_CHUNK);
+        dos.writeInt(16 + length);
+        dos.writeLong(txId);
+        dos.writeLong(offset);
+        WritableByteChannel target = Channels.newChannel(dos);
+        long transferred = 0;
+        while (transferred < length) {
+            long n = channel.transferTo(offset + transferred, length - transferred, target);
+            if (n <= 0) {
+                // 帧长度已写出，无法补救，断开流由client按offset重连
+                throw new IOException("Log of transaction " + txId + " is shorter than expected");
+            }
+            transferred += n;
+        }
+    }
+
+    public static void writeStatus(DataOutputStream dos, long txId, TaskStatus status) throws IOException {
+        writeTxFrame(dos, FRAME_STATUS, txId, JSON.toJSONBytes(status));
+    }
+
+    public static void writeError(DataOutputStream dos, long txId, String errorMsg) throws IOException {
+        writeTxFrame(dos, FRAME_ERROR, txId, String.valueOf(errorMsg).getBytes("UTF-8"));
+    }
+
+    public static void writeLoad(DataOutputStream dos, AgentLoad load) throws IOException {
+        writeTxFrame(dos, FRAME_LOAD, 0, JSON.toJSONBytes(load));
+    }
+
+    public static void writeEnd(DataOutputStream dos) throws IOException {
+        writeFrame(dos, FRAME_END, new byte[0]);
+        dos.flush();
+    }
+
+    /**
+     * 读取日志流直到END帧，日志按buffer大小分段回调，读取过程中不再分配缓冲区
+     *
+     * @return 流正常结束返回null；agent没有建立流而是返回了普通响应时，返回该响应
+     */
+    public static AgentResponse<?> readStream(InputStream in, byte[] buffer, LogStreamListener listener)
+                                                                                                         throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a binary agent response");
+        }
+        while (true) {
+            int type = dis.readByte();
+            if (type == FRAME_META) {
+                // 普通响应，把已读的部分拼回去按普通响应解析
+                ByteArrayOutputStream head = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(head);
+                dos.writeInt(MAGIC);
+                dos.writeByte(FRAME_META);
+                return read(new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), in));
+            }
+            int length = dis.readInt();
+            if (type == FRAME_END) {
+                return null;
+            }
+            long txId = dis.readLong();
+            if (type == FRAME_CHUNK) {
+                long offset = dis.readLong();
+                int remaining = length - 16;
+                while (remaining > 0) {
+                    int n = Math.min(remaining, buffer.length);
+                    dis.readFully(buffer, 0, n);
+                    listener.onLog(txId, offset, buffer, n);
+                    offset += n;
+                    remaining -= n;
+                }
+            } else {
+                byte[] payload = new byte[length - 8];
+                dis.readFully(payload);
+                if (type == FRAME_STATUS) {
+                    TaskStatus status = JSON.parseObject(payload, TaskStatus.class);
+                    listener.onStatus(txId, status);
+                } else if (type == FRAME_ERROR) {
+                    listener.onError(txId, new String(payload, "UTF-8"));
+                } else if (type == FRAME_LOAD) {
+                    AgentLoad load = JSON.parseObject(payload, AgentLoad.class);
+                    listener.onLoad(load);
+                }
+            }
+        }
+    }
+
+    private static void writeTxFrame(DataOutputStream dos, byte type, long txId, byte[] payload) throws IOException {
+        dos.writeByte(type);
+        dos.writeInt(8 + payload.length);
+        dos.writeLong(txId);
+        dos.write(payload);
+    }
+
+    private static void fillNextLog(TaskStatusBatch batch, byte[] payload) throws IOException {
+        for (TaskStatusBatchItem item : batch.getItems()) {
+            if ((item.getLog() != null) && (item.getLog().getData() == null)) {
+                item.getLog().setData(payload);
+                return;
+            }
+        }
+        throw new IOException("Unexpected log frame");
+    }
+
+    private static Type resolveType(String responseType) throws IOException {
+        Class<?> clazz = TYPES.get(responseType);
+        if (clazz == null) {
+            try {
+                clazz = Class.forName(responseType);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unknown response type " + responseType);
+            }
+            TYPES.put(responseType, clazz);
+        }
+        return clazz;
+    }
+
+    private static void writeFrame(DataOutputStream dos, byte type, byte[] payload) throws IOException {
+        writeFrame(dos, type, payload, payload.length);
+    }
+
+    private static void writeFrame(DataOutputStream dos, byte type, byte[] payload, int length) throws IOException {
+        dos.writeByte(type);
+        dos.writeInt(length);
+        if (length > 0) {
+            dos.write(payload, 0, length);
+        }
+    }
+
+    private static byte[] readPayload(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length < 0) {
+            throw new EOFException("Negative frame length " + length);
+        }
+        byte[] payload = new byte[length];
+        dis.readFully(payload);
+        return payload;
+    }
+
+}
@@ -12,5 +12,7 @@ public enum AgentResponseCode {
     EVENT_NOT_SUPPORTED, //
     EVENT_HANDLER_ERROR, //
     UNKNOWN_ERROR, //
+    /** agent运行和排队的任务都已满，稍后重试或换一个agent */
+    BUSY, //
     ;
 }
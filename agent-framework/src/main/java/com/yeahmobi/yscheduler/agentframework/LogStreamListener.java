@@ -0,0 +1,20 @@
+package com.yeahmobi.yscheduler.agentframework;
+
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+
+/**
+ * 接收agent推送的日志流，data为复用的缓冲区，回调返回后内容即失效
+ */
+public interface LogStreamListener {
+
+    void onLog(long txId, long offset, byte[] data, int length);
+
+    void onStatus(long txId, TaskStatus status);
+
+    void onError(long txId, String errorMsg);
+
+    /** agent的负载，随状态心跳定期推送 */
+    void onLoad(AgentLoad load);
+
+}
@@ -3,15 +3,19 @@
  */
 package com.yeahmobi.yscheduler.agentframework.agent.event;
 
+import com.yeahmobi.yscheduler.agentframework.AgentResponseCode;
+
 /**
  * @author Leo.Liang
  */
 public class HandlerResult {
 
-    private boolean   success = true;
-    private String    errorMsg;
-    private Throwable throwable;
-    private Object    result;
+    private boolean           success = true;
+    private String            errorMsg;
+    private Throwable         throwable;
+    private Object            result;
+    /** 失败时返回给client的响应码，为空时为EVENT_HANDLER_ERROR */
+    private AgentResponseCode errorCode;
 
     public Throwable getThrowable() {
         return this.throwable;
@@ -63,4 +67,12 @@ public class HandlerResult {
         this.result = result;
     }
 
+    public AgentResponseCode getErrorCode() {
+        return this.errorCode;
+    }
+
+    public void setErrorCode(AgentResponseCode errorCode) {
+        this.errorCode = errorCode;
+    }
+
 }
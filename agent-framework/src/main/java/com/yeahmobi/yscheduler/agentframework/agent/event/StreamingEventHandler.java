@@ -0,0 +1,15 @@
+package com.yeahmobi.yscheduler.agentframework.agent.event;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * 以流的方式持续输出结果的EventHandler，仅在client协商了二进制协议时由AgentDispatchServlet调用，
+ * 数据格式见AgentBinaryProtocol的stream帧
+ */
+public interface StreamingEventHandler extends EventHandler {
+
+    public void onStream(Map<String, String> params, OutputStream out) throws IOException;
+
+}
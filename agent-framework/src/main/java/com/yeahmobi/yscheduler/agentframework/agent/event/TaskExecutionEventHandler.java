@@ -7,6 +7,9 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
 import com.yeahmobi.yscheduler.agentframework.agent.task.TaskExecutionContainer;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskLog;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatusBatch;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatusBatchItem;
 import com.yeahmobi.yscheduler.agentframework.exception.TaskNotFoundException;
 
 /**
@@ -14,9 +17,12 @@ import com.yeahmobi.yscheduler.agentframework.exception.TaskNotFoundException;
  */
 public abstract class TaskExecutionEventHandler implements EventHandler, ApplicationContextAware {
 
-    protected static final String PARAM_TX_ID  = "txId";
-    protected static final String PARAM_OFFSET = "offset";
-    protected static final String PARAM_LENGTH = "length";
+    protected static final String PARAM_TX_ID            = "txId";
+    protected static final String PARAM_OFFSET           = "offset";
+    protected static final String PARAM_LENGTH           = "length";
+    protected static final String PARAM_TX_IDS           = "txIds";
+    protected static final String PARAM_OFFSETS          = "offsets";
+    protected static final String PARAM_MAX_TOTAL_LENGTH = "maxTotalLength";
     private ApplicationContext    applicationContext;
 
     public void setApplicationContext(ApplicationContext applicationContext) {
@@ -111,4 +117,57 @@ public abstract class TaskExecutionEventHandler implements EventHandler, Applica
         }
     }
 
+    protected void checkStatusBatch(Map<String, String> params, HandlerResult handlerResult) {
+        String[] txIds = StringUtils.split(StringUtils.defaultString(params.get(PARAM_TX_IDS)), ',');
+        String[] offsets = StringUtils.split(StringUtils.defaultString(params.get(PARAM_OFFSETS)), ',');
+        String lengthStr = params.get(PARAM_LENGTH);
+        String maxTotalLengthStr = params.get(PARAM_MAX_TOTAL_LENGTH);
+
+        if (txIds.length != offsets.length) {
+            handlerResult.setSuccess(false);
+            handlerResult.setErrorMsg("Parameter txIds and offsets must have the same size.");
+            return;
+        }
+        for (int i = 0; i < txIds.length; i++) {
+            if (!StringUtils.isNumeric(txIds[i]) || !StringUtils.isNumeric(offsets[i])) {
+                handlerResult.setSuccess(false);
+                handlerResult.setErrorMsg("Parameter txIds and offsets must be numbers separated by comma.");
+                return;
+            }
+        }
+        if (!StringUtils.isNumeric(lengthStr)) {
+            handlerResult.setSuccess(false);
+            handlerResult.setErrorMsg("Parameter length can not be empty or null and must be numeric.");
+            return;
+        }
+        int length = Integer.valueOf(lengthStr);
+        long remaining = StringUtils.isNumeric(maxTotalLengthStr) ? Long.valueOf(maxTotalLengthStr) : Long.MAX_VALUE;
+
+        TaskStatusBatch batch = new TaskStatusBatch();
+        TaskExecutionContainer container = this.getTaskExecutionContainer();
+        for (int i = 0; i < txIds.length; i++) {
+            long txId = Long.valueOf(txIds[i]);
+            TaskStatusBatchItem item = new TaskStatusBatchItem(txId);
+            try {
+                // 先取状态再取日志，状态为已结束时日志也已写完
+                item.setStatus(container.checkStatus(txId));
+                int itemLength = (int) Math.min(length, remaining);
+                if (itemLength > 0) {
+                    TaskLog log = container.getLog(txId, Long.valueOf(offsets[i]), itemLength);
+                    if (log != null) {
+                        item.setLog(log);
+                        remaining -= log.getLength();
+                    }
+                }
+            } catch (TaskNotFoundException e) {
+                item.setErrorMsg(e.getMessage());
+            }
+            batch.getItems().add(item);
+        }
+        batch.setLoad(container.getLoad());
+
+        handlerResult.setResult(batch);
+        handlerResult.setSuccess(true);
+    }
+
 }
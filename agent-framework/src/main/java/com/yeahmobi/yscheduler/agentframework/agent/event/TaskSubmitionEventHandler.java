@@ -2,7 +2,9 @@ package com.yeahmobi.yscheduler.agentframework.agent.event;
 
 import java.util.Map;
 
+import com.yeahmobi.yscheduler.agentframework.AgentResponseCode;
 import com.yeahmobi.yscheduler.agentframework.agent.task.AgentTask;
+import com.yeahmobi.yscheduler.agentframework.exception.AgentBusyException;
 
 /**
  * @author Leo.Liang
@@ -18,6 +20,10 @@ public abstract class TaskSubmitionEventHandler extends TaskExecutionEventHandle
             handlerResult.setResult(txId);
             afterSubmit(params, handlerResult);
 
+        } catch (AgentBusyException e) {
+            handlerResult.setSuccess(false);
+            handlerResult.setErrorCode(AgentResponseCode.BUSY);
+            handlerResult.setErrorMsg(e.getMessage());
         } catch (IllegalArgumentException e) {
             handlerResult.setSuccess(false);
             handlerResult.setErrorMsg("Parameter invalid: " + e.getMessage());
@@ -2,18 +2,38 @@ package com.yeahmobi.yscheduler.agentframework.agent.event.common;
 
 import java.util.Map;
 
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
 import com.yeahmobi.yscheduler.agentframework.agent.event.EventHandler;
 import com.yeahmobi.yscheduler.agentframework.agent.event.HandlerResult;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskExecutionContainer;
 
 /**
+ * 在spring中配置时(有TaskExecutionContainer)，同时返回agent的负载和名额使用情况
+ *
  * @author Leo.Liang
  */
-public class PingEventHandler implements EventHandler {
+public class PingEventHandler implements EventHandler, ApplicationContextAware {
 
     public static final String EVENT_TYPE = "PING";
 
+    private ApplicationContext applicationContext;
+
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
     public void onEvent(Map<String, String> params, HandlerResult handlerResult) {
         handlerResult.setSuccess(true);
+        if (this.applicationContext != null) {
+            try {
+                handlerResult.setResult(this.applicationContext.getBean(TaskExecutionContainer.class).getLoad());
+            } catch (BeansException e) {
+                // 没有TaskExecutionContainer，只返回成功
+            }
+        }
     }
 
 }
@@ -0,0 +1,151 @@
+package com.yeahmobi.yscheduler.agentframework.agent.event.task;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.yeahmobi.yscheduler.agentframework.AgentBinaryProtocol;
+import com.yeahmobi.yscheduler.agentframework.agent.event.HandlerResult;
+import com.yeahmobi.yscheduler.agentframework.agent.event.StreamingEventHandler;
+import com.yeahmobi.yscheduler.agentframework.agent.event.TaskExecutionEventHandler;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskExecutionContainer;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
+import com.yeahmobi.yscheduler.agentframework.exception.TaskNotFoundException;
+
+/**
+ * 日志推送：持续跟踪多个transaction的日志文件，有新内容就以CHUNK帧推给scheduler。<br>
+ * 参数：txIds、offsets（逗号分隔，一一对应），maxDuration（可选，流的最长持续毫秒数，默认30秒，到期后由scheduler按最新offset重连）。<br>
+ * 1. 每轮先查状态再读日志，状态为已结束且日志已读到末尾时发送最终的STATUS帧，之后不再推送该transaction<br>
+ * 2. 运行中的transaction每隔STATUS_INTERVAL发送一次STATUS帧，兼作心跳，同时发送一次agent的LOAD帧<br>
+ * 3. 写出是阻塞的，scheduler读得慢时由TCP反压，本线程随之变慢，不会在内存中堆积<br>
+ * 4. 日志由FileChannel.transferTo写入response，省去每次请求4MB或每块64KB的byte[]分配；<br>
+ *    response不是FileChannel，transferTo内部仍经过临时缓冲区复制，并不是零拷贝
+ */
+public class TaskLogStreamEventHandler extends TaskExecutionEventHandler implements StreamingEventHandler {
+
+    public static final String EVENT_TYPE           = "TASK_LOG_STREAM";
+
+    private static final long  DEFAULT_MAX_DURATION = 30 * 1000L;
+
+    private static final long  STATUS_INTERVAL      = 5 * 1000L;
+
+    private static final long  IDLE_SLEEP           = 200;
+
+    private static final int   CHUNK_SIZE           = 64 * 1024;
+
+    /** 每轮每个transaction最多推送的块数，避免一个输出很快的task占满整条流 */
+    private static final int   MAX_CHUNKS_PER_ROUND = 16;
+
+    public void onEvent(Map<String, String> params, HandlerResult handlerResult) {
+        handlerResult.setSuccess(false);
+        handlerResult.setErrorMsg(EVENT_TYPE + " is only available with binary protocol.");
+    }
+
+    public void onStream(Map<String, String> params, OutputStream out) throws IOException {
+        String[] txIds = StringUtils.split(StringUtils.defaultString(params.get(PARAM_TX_IDS)), ',');
+        String[] offsets = StringUtils.split(StringUtils.defaultString(params.get(PARAM_OFFSETS)), ',');
+        String maxDurationStr = params.get("maxDuration");
+        long maxDuration = StringUtils.isNumeric(maxDurationStr) ? Long.valueOf(maxDurationStr) : DEFAULT_MAX_DURATION;
+
+        Map<Long, Tail> tails = new LinkedHashMap<Long, Tail>();
+        for (int i = 0; (i < txIds.length) && (i < offsets.length); i++) {
+            if (StringUtils.isNumeric(txIds[i]) && StringUtils.isNumeric(offsets[i])) {
+                tails.put(Long.valueOf(txIds[i]), new Tail(Long.valueOf(offsets[i])));
+            }
+        }
+
+        TaskExecutionContainer container = this.getTaskExecutionContainer();
+        DataOutputStream dos = AgentBinaryProtocol.startStream(out);
+        long deadline = System.currentTimeMillis() + maxDuration;
+        long lastStatusTime = 0;
+        try {
+            while (!tails.isEmpty() && (System.currentTimeMillis() < deadline)) {
+                boolean reportStatus = (System.currentTimeMillis() - lastStatusTime) >= STATUS_INTERVAL;
+                boolean wrote = false;
+                if (reportStatus) {
+                    // 流中的attempt不再批量轮询，负载随状态心跳推送
+                    AgentBinaryProtocol.writeLoad(dos, container.getLoad());
+                    wrote = true;
+                }
+
+                for (Iterator<Map.Entry<Long, Tail>> it = tails.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry<Long, Tail> entry = it.next();
+                    long txId = entry.getKey();
+                    Tail tail = entry.getValue();
+
+                    TaskStatus status;
+                    try {
+                        // 先查状态再读日志，状态为已结束时日志已全部写完
+                        status = container.checkStatus(txId);
+                        if (tail.channel == null) {
+                            tail.channel = container.openLog(txId);
+                        }
+                    } catch (TaskNotFoundException e) {
+                        AgentBinaryProtocol.writeError(dos, txId, e.getMessage());
+                        it.remove();
+                        wrote = true;
+                        continue;
+                    }
+
+                    boolean drained = true;
+                    if (tail.channel != null) {
+                        long size = tail.channel.size();
+                        for (int i = 0; (i < MAX_CHUNKS_PER_ROUND) && (tail.offset < size); i++) {
+                            int n = (int) Math.min(CHUNK_SIZE, size - tail.offset);
+                            AgentBinaryProtocol.writeChunk(dos, txId, tail.channel, tail.offset, n);
+                            tail.offset += n;
+                            wrote = true;
+                        }
+                        drained = tail.offset >= size;
+                    }
+
+                    if (status.getStatus().isCompleted() && drained) {
+                        AgentBinaryProtocol.writeStatus(dos, txId, status);
+                        IOUtils.closeQuietly(tail.channel);
+                        it.remove();
+                        wrote = true;
+                    } else if (reportStatus) {
+                        AgentBinaryProtocol.writeStatus(dos, txId, status);
+                        wrote = true;
+                    }
+                }
+
+                if (reportStatus) {
+                    lastStatusTime = System.currentTimeMillis();
+                }
+                if (wrote) {
+                    dos.flush();
+                } else {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(IDLE_SLEEP);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            AgentBinaryProtocol.writeEnd(dos);
+        } finally {
+            for (Tail tail : tails.values()) {
+                IOUtils.closeQuietly(tail.channel);
+            }
+        }
+    }
+
+    private static class Tail {
+
+        private long        offset;
+        private FileChannel channel;
+
+        Tail(long offset) {
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.yeahmobi.yscheduler.agentframework.agent.event.task;
+
+import java.util.Map;
+
+import com.yeahmobi.yscheduler.agentframework.agent.event.HandlerResult;
+import com.yeahmobi.yscheduler.agentframework.agent.event.TaskExecutionEventHandler;
+
+/**
+ * 一次查询多个transaction的状态和日志增量。<br>
+ * 参数：txIds、offsets（逗号分隔，一一对应），length（每个transaction最多返回的日志字节数），
+ * maxTotalLength（可选，所有日志合计的上限，超出部分留待下次查询）
+ */
+public class TaskStatusBatchEventHandler extends TaskExecutionEventHandler {
+
+    public static final String EVENT_TYPE = "TASK_STATUS_BATCH";
+
+    public void onEvent(Map<String, String> params, HandlerResult handlerResult) {
+        checkStatusBatch(params, handlerResult);
+    }
+}
@@ -0,0 +1,109 @@
+package com.yeahmobi.yscheduler.agentframework.agent.heartbeat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskExecutionContainer;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentMeta;
+import com.yeahmobi.yscheduler.agentframework.utils.HttpClientUtil;
+
+/**
+ * agent主动向scheduler发送心跳(POST heartbeat/agent/beat)，同时带上版本和负载，取代原来由scheduler调度的curl心跳任务。<br>
+ * agent.name为agent在scheduler上的名称，agent.heartbeat.url或agent.name为空时不发送。
+ */
+public class HeartbeatSender {
+
+    private static final Logger      LOGGER   = LoggerFactory.getLogger(HeartbeatSender.class);
+
+    private final String             url      = System.getProperty("agent.heartbeat.url");
+
+    private final String             name     = System.getProperty("agent.name");
+
+    private final long               interval = Long.parseLong(System.getProperty("agent.heartbeat.interval", "30000"));
+
+    private TaskExecutionContainer   taskExecutionContainer;
+
+    private ScheduledExecutorService scheduler;
+
+    // 上一次是否成功，只在状态变化时打日志，避免scheduler不可用时刷屏
+    private volatile boolean         lastSuccess = true;
+
+    public void start() {
+        if (StringUtils.isBlank(this.url) || StringUtils.isBlank(this.name)) {
+            LOGGER.info("agent.heartbeat.url or agent.name is not set, heartbeat sender is disabled");
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "agent-heartbeat-sender");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                beat();
+            }
+        }, 0, this.interval, TimeUnit.MILLISECONDS);
+        LOGGER.info("Heartbeat sender started, url={}, name={}, interval={}ms", new Object[] { this.url, this.name,
+                this.interval });
+    }
+
+    public void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    void beat() {
+        try {
+            AgentLoad load = this.taskExecutionContainer == null ? AgentLoad.collect(0) : this.taskExecutionContainer.getLoad();
+
+            Map<String, String> params = new HashMap<String, String>();
+            params.put("agentName", this.name);
+            params.put("agentVersion", AgentMeta.AGENT_VERSION);
+            params.put("runningTasks", String.valueOf(load.getRunningTasks()));
+            params.put("cpuLoad", String.valueOf(load.getCpuLoad()));
+            params.put("memoryUsage", String.valueOf(load.getMemoryUsage()));
+            params.put("maxTasks", String.valueOf(load.getMaxTasks()));
+            params.put("pendingTasks", String.valueOf(load.getPendingTasks()));
+
+            JSONObject result = JSON.parseObject(HttpClientUtil.post(this.url, params));
+            if (result.getBooleanValue("success")) {
+                if (!this.lastSuccess) {
+                    LOGGER.info("Heartbeat recovered, agentId={}", result.get("agentId"));
+                }
+                this.lastSuccess = true;
+            } else {
+                failed(result.getString("notice"), null);
+            }
+        } catch (Exception e) {
+            failed(e.getMessage(), e);
+        }
+    }
+
+    private void failed(String notice, Exception e) {
+        if (this.lastSuccess) {
+            LOGGER.warn("Heartbeat to " + this.url + " failed: " + notice, e);
+        }
+        this.lastSuccess = false;
+    }
+
+    public void setTaskExecutionContainer(TaskExecutionContainer taskExecutionContainer) {
+        this.taskExecutionContainer = taskExecutionContainer;
+    }
+
+}
@@ -14,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.agentframework.AgentBinaryProtocol;
 import com.yeahmobi.yscheduler.agentframework.AgentRequest;
 import com.yeahmobi.yscheduler.agentframework.AgentResponse;
 import com.yeahmobi.yscheduler.agentframework.AgentResponseCode;
@@ -22,6 +23,7 @@ import com.yeahmobi.yscheduler.agentframework.agent.event.EventHandler;
 import com.yeahmobi.yscheduler.agentframework.agent.event.EventMapper;
 import com.yeahmobi.yscheduler.agentframework.agent.event.EventMapperFactory;
 import com.yeahmobi.yscheduler.agentframework.agent.event.HandlerResult;
+import com.yeahmobi.yscheduler.agentframework.agent.event.StreamingEventHandler;
 import com.yeahmobi.yscheduler.agentframework.agent.event.common.PingEventHandler;
 
 /**
@@ -59,7 +61,10 @@ public class AgentDispatchServlet extends HttpServlet {
     }
 
     private void registerCommonEventHandler() {
-        this.eventMapper.add(EVENT_TYPE_PING, new PingEventHandler());
+        // spring中已配置的(可以返回负载)优先
+        if (this.eventMapper.findHandler(EVENT_TYPE_PING) == null) {
+            this.eventMapper.add(EVENT_TYPE_PING, new PingEventHandler());
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -104,6 +109,7 @@ public class AgentDispatchServlet extends HttpServlet {
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 
         AgentResponse<Object> agentRes = new AgentResponse<Object>();
+        boolean binary = AgentBinaryProtocol.VERSION.equals(req.getHeader(AgentBinaryProtocol.HEADER));
 
         String requestUri = req.getServletPath();
         if (!validateReqeustPath(requestUri)) {
@@ -120,6 +126,17 @@ public class AgentDispatchServlet extends HttpServlet {
                 if (handler == null) {
                     agentRes.setResponseCode(AgentResponseCode.EVENT_NOT_SUPPORTED);
                     log.error("Event type not supported(eventType={}).", agentReq.getEventType());
+                } else if ((handler instanceof StreamingEventHandler) && binary) {
+                    // 流式输出，由handler直接写response
+                    resp.setContentType(AgentBinaryProtocol.CONTENT_TYPE);
+                    try {
+                        ((StreamingEventHandler) handler).onStream(agentReq.getParams(), resp.getOutputStream());
+                        resp.flushBuffer();
+                    } catch (Throwable e) {
+                        // 已开始输出，无法再返回错误响应，client会按offset重连
+                        log.warn("Stream closed(eventType={}): {}", agentReq.getEventType(), e.getMessage());
+                    }
+                    return;
                 } else {
                     try {
                         HandlerResult handlerResult = new HandlerResult();
@@ -128,7 +145,8 @@ public class AgentDispatchServlet extends HttpServlet {
 
                         if (!handlerResult.isSuccess()) {
                             log.error("Event handler error(errMsg={}).", handlerResult.getErrorMsg());
-                            agentRes.setResponseCode(AgentResponseCode.EVENT_HANDLER_ERROR);
+                            AgentResponseCode code = handlerResult.getErrorCode();
+                            agentRes.setResponseCode(code != null ? code : AgentResponseCode.EVENT_HANDLER_ERROR);
                             agentRes.setErrorMsg(handlerResult.getErrorMsg());
                             agentRes.setThrowable(handlerResult.getThrowable());
                         } else {
@@ -152,7 +170,12 @@ public class AgentDispatchServlet extends HttpServlet {
             }
         }
 
-        writeResponse(resp, agentRes);
+        if (binary) {
+            resp.setContentType(AgentBinaryProtocol.CONTENT_TYPE);
+            AgentBinaryProtocol.write(agentRes, resp.getOutputStream());
+        } else {
+            writeResponse(resp, agentRes);
+        }
 
         resp.flushBuffer();
     }
@@ -1,7 +1,13 @@
 package com.yeahmobi.yscheduler.agentframework.agent.task;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -15,20 +21,44 @@ import com.yeahmobi.yscheduler.agentframework.agent.event.EventHandler;
 import com.yeahmobi.yscheduler.agentframework.agent.event.EventMapper;
 import com.yeahmobi.yscheduler.agentframework.agent.event.TaskSubmitionEventHandler;
 import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransaction.Meta;
+import com.yeahmobi.yscheduler.agentframework.exception.AgentBusyException;
 import com.yeahmobi.yscheduler.agentframework.exception.TaskNotFoundException;
 import com.yeahmobi.yscheduler.agentframework.exception.TaskSubmitException;
 import com.yeahmobi.yscheduler.agentframework.exception.TaskTransactionCreationException;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
 
 /**
+ * 准入控制：同时运行的transaction数不超过maxRunning(agent.task.maxRunning)，每种eventType另可用
+ * agent.task.maxRunning.&lt;eventType&gt;限制；超出的按提交顺序排队，排队数超过maxPending(agent.task.maxPending)时
+ * 拒绝提交(AgentBusyException，client收到BUSY)，由scheduler换一个agent或稍后重试。上限为0表示不限制。<br>
+ * agent重启后恢复的transaction已经在运行，不受限制，但占用名额。
+ *
  * @author Leo.Liang
  */
 public class DefaultTaskExecutionContainer implements TaskExecutionContainer {
 
     private static final Logger                        log                 = LoggerFactory.getLogger(DefaultTaskExecutionContainer.class);
 
+    private static final String                        MAX_RUNNING         = "agent.task.maxRunning";
+
     private ExecutorService                            workerPool          = Executors.newCachedThreadPool();
     private final ConcurrentMap<Long, TaskTransaction> runningTransactions = new ConcurrentHashMap<Long, TaskTransaction>();
 
+    private int                                        maxRunning          = Integer.parseInt(System.getProperty(MAX_RUNNING,
+                                                                                                                 "100"));
+    private int                                        maxPending          = Integer.parseInt(System.getProperty("agent.task.maxPending",
+                                                                                                                 "100"));
+    /** eventType -> 同时运行的上限，0表示只受maxRunning限制 */
+    private final Map<String, Integer>                 typeLimits          = new ConcurrentHashMap<String, Integer>();
+
+    // 以下由lock保护
+    private final Object                               lock                = new Object();
+    private int                                        running;
+    private final Map<String, Integer>                 typeRunning         = new HashMap<String, Integer>();
+    private final LinkedList<Pending>                  pendings            = new LinkedList<Pending>();
+    /** 已占了排队名额、正在创建transaction的数量 */
+    private int                                        reserved;
+
     private TaskTransactionManager                     taskTransactionManager;
     private EventMapper                                eventMapper;
 
@@ -53,6 +83,9 @@ public class DefaultTaskExecutionContainer implements TaskExecutionContainer {
                         AgentTask task = loadAgentTask(tx.getMeta());
 
                         TaskTransaction transaction = this.taskTransactionManager.getTransaction(tx.getId(), task);
+                        synchronized (this.lock) {
+                            acquire(task.getEventType());
+                        }
                         execTransaction(task, transaction);
 
                     } catch (Exception e) {
@@ -84,18 +117,56 @@ public class DefaultTaskExecutionContainer implements TaskExecutionContainer {
     }
 
     public long submit(AgentTask task) throws TaskSubmitException {
+        String eventType = task.getEventType();
+        boolean run;
+        synchronized (this.lock) {
+            // 有排队的先让排队的运行，保证顺序
+            run = this.pendings.isEmpty() && (this.reserved == 0) && canRun(eventType);
+            if (run) {
+                acquire(eventType);
+            } else if ((this.maxPending <= 0) || ((this.pendings.size() + this.reserved) < this.maxPending)) {
+                this.reserved++;
+            } else {
+                throw new AgentBusyException(String.format("Agent is busy, %s running, %s pending", this.running,
+                                                           this.pendings.size()));
+            }
+        }
+
+        TaskTransaction transaction;
         try {
-            TaskTransaction transaction = this.taskTransactionManager.createTransaction(task);
-            return execTransaction(task, transaction);
+            transaction = this.taskTransactionManager.createTransaction(task);
         } catch (TaskTransactionCreationException e) {
             log.error(String.format("Fail to submit task. (AgentTask's type=%s)", task.getClass().getName()), e);
+            synchronized (this.lock) {
+                if (run) {
+                    release(eventType);
+                } else {
+                    this.reserved--;
+                }
+            }
+            dispatchPendings();
             throw new TaskSubmitException(e);
         }
+
+        if (run) {
+            return execTransaction(task, transaction);
+        }
+        this.runningTransactions.put(transaction.getId(), transaction);
+        synchronized (this.lock) {
+            this.reserved--;
+            this.pendings.add(new Pending(task, transaction));
+        }
+        // 排队期间可能已有名额空出
+        dispatchPendings();
+        return transaction.getId();
     }
 
-    private long execTransaction(AgentTask task, final TaskTransaction transaction) throws TaskSubmitException {
+    /**
+     * 运行已占用名额的transaction
+     */
+    private long execTransaction(final AgentTask task, final TaskTransaction transaction) throws TaskSubmitException {
+        final long txId = transaction.getId();
         try {
-            final long txId = transaction.getId();
             this.runningTransactions.put(txId, transaction);
 
             this.workerPool.submit(new Callable<Void>() {
@@ -116,6 +187,7 @@ public class DefaultTaskExecutionContainer implements TaskExecutionContainer {
                         // }
                     } finally {
                         DefaultTaskExecutionContainer.this.runningTransactions.remove(txId);
+                        finished(task.getEventType());
                     }
 
                     return null;
@@ -126,10 +198,91 @@ public class DefaultTaskExecutionContainer implements TaskExecutionContainer {
 
         } catch (Throwable e) {
             log.error(String.format("Fail to submit task. (AgentTask's type=%s)", task.getClass().getName()), e);
+            this.runningTransactions.remove(txId);
+            finished(task.getEventType());
             throw new TaskSubmitException(e);
         }
     }
 
+    private void finished(String eventType) {
+        synchronized (this.lock) {
+            release(eventType);
+        }
+        dispatchPendings();
+    }
+
+    /**
+     * 按排队顺序运行有名额的transaction，某个eventType满了不影响后面其他eventType的
+     */
+    private void dispatchPendings() {
+        List<Pending> runnables = new ArrayList<Pending>();
+        synchronized (this.lock) {
+            Iterator<Pending> iterator = this.pendings.iterator();
+            while (iterator.hasNext() && ((this.maxRunning <= 0) || (this.running < this.maxRunning))) {
+                Pending pending = iterator.next();
+                String eventType = pending.task.getEventType();
+                if (canRun(eventType)) {
+                    iterator.remove();
+                    acquire(eventType);
+                    runnables.add(pending);
+                }
+            }
+        }
+        for (Pending pending : runnables) {
+            try {
+                execTransaction(pending.task, pending.transaction);
+            } catch (TaskSubmitException e) {
+                pending.transaction.error("Fail to run pending transaction: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 持有lock时调用
+     */
+    private boolean canRun(String eventType) {
+        if ((this.maxRunning > 0) && (this.running >= this.maxRunning)) {
+            return false;
+        }
+        int limit = getTypeLimit(eventType);
+        if (limit <= 0) {
+            return true;
+        }
+        Integer count = this.typeRunning.get(eventType);
+        return (count == null) || (count < limit);
+    }
+
+    /**
+     * 持有lock时调用
+     */
+    private void acquire(String eventType) {
+        this.running++;
+        Integer count = this.typeRunning.get(eventType);
+        this.typeRunning.put(eventType, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * 持有lock时调用
+     */
+    private void release(String eventType) {
+        this.running--;
+        Integer count = this.typeRunning.get(eventType);
+        if ((count == null) || (count <= 1)) {
+            this.typeRunning.remove(eventType);
+        } else {
+            this.typeRunning.put(eventType, count - 1);
+        }
+    }
+
+    private int getTypeLimit(String eventType) {
+        Integer limit = this.typeLimits.get(eventType);
+        if (limit == null) {
+            limit = Integer.parseInt(System.getProperty(MAX_RUNNING + "." + eventType, "0"));
+            this.typeLimits.put(eventType, limit);
+        }
+        return limit;
+    }
+
     public TaskStatus checkStatus(long transactionId) throws TaskNotFoundException {
         TaskTransaction transaction = findTransaction(transactionId);
         return new TaskStatus(transaction.getMeta().getStatus(), transaction.getMeta().getDuration(),
@@ -140,6 +293,10 @@ public class DefaultTaskExecutionContainer implements TaskExecutionContainer {
         return findTransaction(transactionId).getLog(offset, length);
     }
 
+    public FileChannel openLog(long transactionId) throws TaskNotFoundException, IOException {
+        return findTransaction(transactionId).openLog();
+    }
+
     private TaskTransaction findTransaction(long transactionId) throws TaskNotFoundException {
         TaskTransaction tx = this.runningTransactions.get(transactionId);
         if (tx != null) {
@@ -155,8 +312,62 @@ public class DefaultTaskExecutionContainer implements TaskExecutionContainer {
             throw new TaskNotFoundException(String.format("Task with transaction id {%s} not found or not running",
                                                           String.valueOf(transactionId)));
         } else {
+            synchronized (this.lock) {
+                Iterator<Pending> iterator = this.pendings.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().transaction == tx) {
+                        iterator.remove();
+                    }
+                }
+            }
+            // 排队中的直接结束，不会再运行
             tx.cancel();
             this.runningTransactions.remove(transactionId);
         }
     }
+
+    public int getRunningCount() {
+        synchronized (this.lock) {
+            return this.running;
+        }
+    }
+
+    public AgentLoad getLoad() {
+        int runningCount;
+        int pendingCount;
+        synchronized (this.lock) {
+            runningCount = this.running;
+            pendingCount = this.pendings.size() + this.reserved;
+        }
+        AgentLoad load = AgentLoad.collect(runningCount);
+        load.setPendingTasks(pendingCount);
+        load.setMaxTasks(Math.max(0, this.maxRunning));
+        return load;
+    }
+
+    public void setMaxRunning(int maxRunning) {
+        this.maxRunning = maxRunning;
+    }
+
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * eventType -> 同时运行的上限
+     */
+    public void setTypeLimits(Map<String, Integer> typeLimits) {
+        this.typeLimits.putAll(typeLimits);
+    }
+
+    private static class Pending {
+
+        final AgentTask       task;
+        final TaskTransaction transaction;
+
+        Pending(AgentTask task, TaskTransaction transaction) {
+            this.task = task;
+            this.transaction = transaction;
+        }
+    }
 }
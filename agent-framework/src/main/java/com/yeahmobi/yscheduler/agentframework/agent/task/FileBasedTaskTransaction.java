@@ -5,6 +5,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
@@ -46,6 +48,15 @@ public class FileBasedTaskTransaction<T extends AgentTask> implements TaskTransa
 
     private Context             context;
 
+    private TransactionIndex    index;
+
+    /** 执行中的transaction(task不为null)缓存日志的读channel，close时关闭；只用于查询的每次读取后关闭 */
+    private FileChannel         logChannel;
+
+    private boolean             logClosed;
+
+    private final Object        logLock        = new Object();
+
     public FileBasedTaskTransaction(long txId, T task, File baseDir) {
         this.id = txId;
         this.task = task;
@@ -137,47 +148,71 @@ public class FileBasedTaskTransaction<T extends AgentTask> implements TaskTransa
         return this.id;
     }
 
-    public TaskLog getLog(long offset, int length) {
+    public FileChannel openLog() throws IOException {
         File logFile = getLogFile();
-        if (logFile.exists()) {
-            FileInputStream fi = null;
-            try {
-                fi = new FileInputStream(logFile);
-                if ((offset < 0) || (length < 0)) {
-                    return new TaskLog(new byte[0], 0);
-                } else {
-                    if (logFile.length() <= offset) {
-                        return new TaskLog(new byte[0], 0);
-                    } else {
-                        fi.skip(offset);
-                        byte[] buffer = new byte[length];
-                        int remaining = length;
-                        while (remaining > 0) {
-                            int location = length - remaining;
-                            int count = fi.read(buffer, 0 + location, remaining);
-                            if (count == -1) { // EOF
-                                break;
+        if (!logFile.exists()) {
+            return null;
+        }
+        return new FileInputStream(logFile).getChannel();
+    }
+
+    public TaskLog getLog(long offset, int length) {
+        if ((offset >= 0) && (length >= 0)) {
+            synchronized (this.logLock) {
+                FileChannel channel = null;
+                try {
+                    channel = acquireLogChannel();
+                    if (channel != null) {
+                        long size = channel.size();
+                        if (size > offset) {
+                            // 按实际的新增长度分配，不再每次分配length大小的缓冲区
+                            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, size - offset));
+                            while (buffer.hasRemaining()) {
+                                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                                    break;
+                                }
                             }
-                            remaining -= count;
+                            return new TaskLog(buffer.array(), buffer.position());
                         }
-                        int readLength = length - remaining;
-
-                        return new TaskLog(buffer, readLength);
                     }
+                } catch (Throwable e) {
+                    log.error(String.format("Exception occurs while getting log(txId=%s)", Long.toString(this.id)), e);
+                } finally {
+                    releaseLogChannel(channel);
                 }
-
-            } catch (Throwable e) {
-                log.error(String.format("Exception occurs while getting log(txId=%s)", Long.toString(this.id)), e);
-            } finally {
-                IOUtils.closeQuietly(fi);
             }
         }
 
         return new TaskLog(new byte[0], 0);
     }
 
+    private FileChannel acquireLogChannel() throws IOException {
+        if (this.logChannel != null) {
+            return this.logChannel;
+        }
+        FileChannel channel = openLog();
+        if ((channel != null) && (this.task != null) && !this.logClosed) {
+            this.logChannel = channel;
+        }
+        return channel;
+    }
+
+    private void releaseLogChannel(FileChannel channel) {
+        if (channel != this.logChannel) {
+            IOUtils.closeQuietly(channel);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public void cancel() {
+        synchronized (this) {
+            // 还在排队，未开始执行，直接结束
+            if (this.meta.getStatus() == TaskTransactionStatus.INIT) {
+                this.cancelled = true;
+                endWithCancel(null);
+                return;
+            }
+        }
         try {
             this.task.getTaskExecutor().cancel(this);
             this.cancelled = true;
@@ -199,9 +234,14 @@ public class FileBasedTaskTransaction<T extends AgentTask> implements TaskTransa
             // 执行任务
             if (this.meta.getStatus() != TaskTransactionStatus.RUNNING) {
                 // 第一次运行
-                // 设置tx状态为运行中
-                this.meta.setStatus(TaskTransactionStatus.RUNNING);
-                flushMeta();
+                // 设置tx状态为运行中，与cancel互斥，排队时已取消的不再运行
+                synchronized (this) {
+                    if (this.meta.getStatus().isCompleted()) {
+                        return;
+                    }
+                    this.meta.setStatus(TaskTransactionStatus.RUNNING);
+                    flushMeta();
+                }
                 returnValue = this.task.getTaskExecutor().execute(this);
             } else {
                 // 恢复
@@ -227,6 +267,11 @@ public class FileBasedTaskTransaction<T extends AgentTask> implements TaskTransa
 
     public void close() {
         IOUtils.closeQuietly(this.logOutputStream);
+        synchronized (this.logLock) {
+            this.logClosed = true;
+            IOUtils.closeQuietly(this.logChannel);
+            this.logChannel = null;
+        }
     }
 
     public void init() {
@@ -238,9 +283,14 @@ public class FileBasedTaskTransaction<T extends AgentTask> implements TaskTransa
         this.context = new Context();
     }
 
+    void setIndex(TransactionIndex index) {
+        this.index = index;
+    }
+
     public void load() throws TaskNotFoundException {
         try {
-            this.meta = loadMeta();
+            Meta indexed = this.index == null ? null : this.index.get(this.id);
+            this.meta = indexed != null ? indexed : loadMeta();
             this.context = loadContext();
         } catch (Exception e) {
             throw new TaskNotFoundException(String.format("Task with transaction id {%s} not found",
@@ -277,6 +327,10 @@ public class FileBasedTaskTransaction<T extends AgentTask> implements TaskTransa
     }
 
     private void flushMeta() {
+        // 先写索引，索引中的状态不会比tx.meta旧
+        if (this.index != null) {
+            this.index.put(this.id, this.meta);
+        }
         try {
             FileUtils.writeStringToFile(getMetaFile(), this.meta.toString(), META_ENCODING);
         } catch (Throwable e) {
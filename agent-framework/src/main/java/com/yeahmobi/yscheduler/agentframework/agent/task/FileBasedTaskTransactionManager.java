@@ -7,7 +7,11 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -19,6 +23,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransaction.Meta;
 import com.yeahmobi.yscheduler.agentframework.exception.TaskNotFoundException;
 import com.yeahmobi.yscheduler.agentframework.exception.TaskTransactionCreationException;
 import com.yeahmobi.yscheduler.agentframework.exception.TaskTransactionManagerInitializeFailException;
@@ -32,6 +37,7 @@ public class FileBasedTaskTransactionManager implements TaskTransactionManager {
     private File                     baseDir;
     private String                   baseDirStr;
     private TransactionIdGenerator   idGenerator;
+    private TransactionIndex         index;
     private long                     preservedDay      = 2;
     private ScheduledExecutorService cleanTaskExecutor = Executors.newScheduledThreadPool(1, new ThreadFactory() {
 
@@ -62,6 +68,7 @@ public class FileBasedTaskTransactionManager implements TaskTransactionManager {
                                                                    transactionId,
                                                                    null,
                                                                    new File(this.baseDir, String.valueOf(transactionId)));
+        tx.setIndex(this.index);
         tx.load();
         return tx;
     }
@@ -73,6 +80,7 @@ public class FileBasedTaskTransactionManager implements TaskTransactionManager {
                                                                    transactionId,
                                                                    task,
                                                                    new File(this.baseDir, String.valueOf(transactionId)));
+        tx.setIndex(this.index);
         tx.load();
         return tx;
     }
@@ -80,20 +88,15 @@ public class FileBasedTaskTransactionManager implements TaskTransactionManager {
     public void init() throws TaskTransactionManagerInitializeFailException {
         try {
             ensureDirectoryExists(this.baseDir);
+            loadIndex();
             this.cleanTaskExecutor.scheduleAtFixedRate(new Runnable() {
 
                 public void run() {
-                    File[] files = FileBasedTaskTransactionManager.this.baseDir.listFiles();
-                    long lastPreservedTime = new Date().getTime()
-                                             - (FileBasedTaskTransactionManager.this.preservedDay * 24 * 60 * 60 * 1000L);
-                    for (File file : files) {
-                        if (file.isDirectory() && StringUtils.isNumeric(file.getName())) {
-                            if (file.lastModified() < lastPreservedTime) {
-                                FileUtils.deleteQuietly(file);
-                            }
-                        }
+                    try {
+                        clean();
+                    } catch (Throwable e) {
+                        log.error("Error when clean the expired transactions", e);
                     }
-
                 }
             }, 1, 60, TimeUnit.MINUTES);
             this.idGenerator = new TransactionIdGenerator(this.baseDir);
@@ -104,6 +107,79 @@ public class FileBasedTaskTransactionManager implements TaskTransactionManager {
         }
     }
 
+    /**
+     * 重放索引；索引不存在或损坏时扫描tx目录重建。<br>
+     * 只列一次目录(不读文件)，把索引之外的tx(如追加索引失败)补进索引，去掉目录已不存在的
+     */
+    private void loadIndex() throws IOException {
+        this.index = new TransactionIndex(this.baseDir);
+        boolean loaded = this.index.load();
+        Set<Long> txIds = new HashSet<Long>();
+        Map<Long, Meta> missing = new HashMap<Long, Meta>();
+        for (String name : this.baseDir.list()) {
+            if (!StringUtils.isNumeric(name)) {
+                continue;
+            }
+            long txId = Long.parseLong(name);
+            txIds.add(txId);
+            if (!loaded || !this.index.contains(txId)) {
+                try {
+                    File txDir = new File(this.baseDir, name);
+                    FileBasedTaskTransaction<AgentTask> tx = new FileBasedTaskTransaction<AgentTask>(txId, null, txDir);
+                    tx.load();
+                    missing.put(txId, tx.getMeta());
+                } catch (Exception e) {
+                    log.error(String.format("Error when load transaction(txId=%s), skip this transaction.", name), e);
+                }
+            }
+        }
+        if (!loaded) {
+            log.info("Rebuild transaction index with {} transactions", missing.size());
+            this.index.rebuild(missing);
+            return;
+        }
+        for (Map.Entry<Long, Meta> entry : missing.entrySet()) {
+            this.index.put(entry.getKey(), entry.getValue());
+        }
+        List<Long> removed = new ArrayList<Long>();
+        for (TransactionIndex.Record record : this.index.records()) {
+            if (!txIds.contains(record.txId)) {
+                removed.add(record.txId);
+            }
+        }
+        this.index.remove(removed);
+    }
+
+    /**
+     * 删除preservedDay之前结束的transaction，并压缩索引。<br>
+     * 未结束的(如agent重启后没能恢复的)和不在索引中的tx目录，和原来一样按目录的修改时间清理
+     */
+    void clean() throws IOException {
+        long lastPreservedTime = new Date().getTime() - (this.preservedDay * 24 * 60 * 60 * 1000L);
+        List<Long> expired = new ArrayList<Long>();
+        for (TransactionIndex.Record record : this.index.records()) {
+            File txDir = new File(this.baseDir, String.valueOf(record.txId));
+            boolean expire = record.status.isCompleted() ? (record.lastTime() < lastPreservedTime)
+                : (txDir.lastModified() < lastPreservedTime);
+            if (expire) {
+                FileUtils.deleteQuietly(txDir);
+                expired.add(record.txId);
+            }
+        }
+        this.index.remove(expired);
+
+        File[] files = this.baseDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory() && StringUtils.isNumeric(file.getName())
+                && !this.index.contains(Long.parseLong(file.getName())) && (file.lastModified() < lastPreservedTime)) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
     private void ensureDirectoryExists(File directory) throws IOException {
         FileUtils.forceMkdir(directory);
     }
@@ -113,22 +189,19 @@ public class FileBasedTaskTransactionManager implements TaskTransactionManager {
         long txId = this.idGenerator.nextId();
         FileBasedTaskTransaction tx = new FileBasedTaskTransaction(txId, task, new File(this.baseDir,
                                                                                         String.valueOf(txId)));
+        tx.setIndex(this.index);
         tx.init();
         return tx;
     }
 
     public List<TaskTransaction> getAllTransaction() throws TaskNotFoundException {
         List<TaskTransaction> list = new ArrayList<TaskTransaction>();
-        File[] files = FileBasedTaskTransactionManager.this.baseDir.listFiles();
-        for (File file : files) {
+        // 从索引中取，不再逐个读取tx.meta
+        for (TransactionIndex.Record record : this.index.records()) {
             try {
-                if (file.isDirectory() && StringUtils.isNumeric(file.getName())) {
-                    long transactionId = Long.parseLong(file.getName());
-                    TaskTransaction tx = this.getTransaction(transactionId);
-                    list.add(tx);
-                }
+                list.add(this.getTransaction(record.txId));
             } catch (Exception e) {
-                log.error(String.format("Error when load transaction(txId=%s), skip this transaction.", file.getName()),
+                log.error(String.format("Error when load transaction(txId=%s), skip this transaction.", record.txId),
                           e);
             }
         }
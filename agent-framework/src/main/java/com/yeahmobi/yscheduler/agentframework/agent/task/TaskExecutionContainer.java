@@ -1,7 +1,11 @@
 package com.yeahmobi.yscheduler.agentframework.agent.task;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
 import com.yeahmobi.yscheduler.agentframework.exception.TaskNotFoundException;
 import com.yeahmobi.yscheduler.agentframework.exception.TaskSubmitException;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
 
 /**
  * @author Leo.Liang
@@ -14,5 +18,17 @@ public interface TaskExecutionContainer {
 
     public TaskLog getLog(long transactionId, long offset, int length) throws TaskNotFoundException;
 
+    public FileChannel openLog(long transactionId) throws TaskNotFoundException, IOException;
+
     public void cancel(long transactionId) throws TaskNotFoundException;
+
+    /**
+     * 运行中的transaction数
+     */
+    public int getRunningCount();
+
+    /**
+     * agent的负载和名额使用情况，随心跳、ping和批量状态查询返回给scheduler
+     */
+    public AgentLoad getLoad();
 }
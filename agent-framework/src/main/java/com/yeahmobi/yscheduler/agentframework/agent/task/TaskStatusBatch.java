@@ -0,0 +1,33 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+
+/**
+ * TASK_STATUS_BATCH的返回结果，items与请求的txIds一一对应，load为agent当前的负载，旧版本agent没有
+ */
+public class TaskStatusBatch {
+
+    private List<TaskStatusBatchItem> items = new ArrayList<TaskStatusBatchItem>();
+
+    private AgentLoad                 load;
+
+    public List<TaskStatusBatchItem> getItems() {
+        return this.items;
+    }
+
+    public void setItems(List<TaskStatusBatchItem> items) {
+        this.items = items;
+    }
+
+    public AgentLoad getLoad() {
+        return this.load;
+    }
+
+    public void setLoad(AgentLoad load) {
+        this.load = load;
+    }
+
+}
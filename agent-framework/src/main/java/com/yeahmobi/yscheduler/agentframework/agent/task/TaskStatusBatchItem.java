@@ -0,0 +1,52 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task;
+
+/**
+ * 批量查询中单个transaction的结果：状态加上从请求offset开始的日志增量，找不到transaction时只有errorMsg
+ */
+public class TaskStatusBatchItem {
+
+    private long       txId;
+    private TaskStatus status;
+    private TaskLog    log;
+    private String     errorMsg;
+
+    public TaskStatusBatchItem() {
+    }
+
+    public TaskStatusBatchItem(long txId) {
+        this.txId = txId;
+    }
+
+    public long getTxId() {
+        return this.txId;
+    }
+
+    public void setTxId(long txId) {
+        this.txId = txId;
+    }
+
+    public TaskStatus getStatus() {
+        return this.status;
+    }
+
+    public void setStatus(TaskStatus status) {
+        this.status = status;
+    }
+
+    public TaskLog getLog() {
+        return this.log;
+    }
+
+    public void setLog(TaskLog log) {
+        this.log = log;
+    }
+
+    public String getErrorMsg() {
+        return this.errorMsg;
+    }
+
+    public void setErrorMsg(String errorMsg) {
+        this.errorMsg = errorMsg;
+    }
+
+}
@@ -2,6 +2,7 @@ package com.yeahmobi.yscheduler.agentframework.agent.task;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -28,8 +29,16 @@ public interface TaskTransaction<T extends AgentTask> {
 
     public void persistContext() throws IOException;
 
+    /**
+     * 读取从offset开始的日志，按实际读到的长度(最多length)分配
+     */
     public TaskLog getLog(long offset, int length);
 
+    /**
+     * 打开日志的只读channel，由调用者按位置读取并关闭，日志继续增长时可以接着读；日志文件还不存在时返回null
+     */
+    public FileChannel openLog() throws IOException;
+
     public void info(String msg);
 
     public void error(String errorMsg, Throwable t);
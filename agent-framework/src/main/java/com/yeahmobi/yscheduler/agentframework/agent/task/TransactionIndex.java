@@ -0,0 +1,314 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransaction.Meta;
+
+/**
+ * transaction meta的追加写索引(baseDir/tx.index)：每次写tx.meta前先追加一条记录，内存中保留txId -> 最新的记录。
+ * 启动时只需重放索引，不再逐个读取tx目录下的tx.meta；查询transaction的状态不需要打开文件。<br>
+ * 记录格式：4字节长度 + 内容 + 4字节crc32，内容为txId、状态、开始/结束时间、返回值、eventType、参数(json)；
+ * 状态按ordinal存储，TaskTransactionStatus只能在末尾追加。末尾不完整的记录(写入时宕机)在重放时截掉，
+ * 中间的记录crc不符时重建索引。
+ * 已结束的transaction不会再运行，不保留参数。<br>
+ * 追加失败时删除索引文件，下次启动从tx目录重建；清理过期transaction时重写(压缩)索引。
+ */
+class TransactionIndex {
+
+    private static final Logger       LOGGER    = LoggerFactory.getLogger(TransactionIndex.class);
+
+    static final String               FILE_NAME = "tx.index";
+
+    private static final Charset      UTF8      = Charset.forName("UTF-8");
+
+    private final File                file;
+
+    private final Map<Long, Record>   records   = new ConcurrentHashMap<Long, Record>();
+
+    // 以下由this保护
+    private FileChannel               channel;
+
+    /** 文件中的记录数，包括被后面的记录覆盖了的 */
+    private int                       appended;
+
+    TransactionIndex(File baseDir) {
+        this.file = new File(baseDir, FILE_NAME);
+    }
+
+    /**
+     * 重放索引文件
+     *
+     * @return false表示索引文件不存在或已损坏，需要调用rebuild
+     */
+    synchronized boolean load() throws IOException {
+        if (!this.file.exists()) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        try {
+            FileChannel fileChannel = raf.getChannel();
+            MappedByteBuffer buffer = fileChannel.map(MapMode.READ_ONLY, 0, fileChannel.size());
+            int count = 0;
+            int valid = 0;
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if ((length <= 0) || (buffer.remaining() < (length + 4))) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                buffer.get(data);
+                crc.reset();
+                crc.update(data);
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    if (buffer.hasRemaining()) {
+                        // 后面还有记录，不是写到一半的
+                        throw new IllegalStateException("Crc mismatch at position " + valid);
+                    }
+                    break;
+                }
+                Record record = Record.decode(ByteBuffer.wrap(data));
+                this.records.put(record.txId, record);
+                count++;
+                valid = buffer.position();
+            }
+            if (valid < fileChannel.size()) {
+                LOGGER.warn("Truncate {} bytes of incomplete records at the end of {}", fileChannel.size() - valid,
+                            this.file);
+                fileChannel.truncate(valid);
+            }
+            this.appended = count;
+        } catch (RuntimeException e) {
+            // 中间的记录损坏，只可能是文件被外部修改了
+            LOGGER.warn("Index file " + this.file + " is corrupted, rebuild it", e);
+            this.records.clear();
+            return false;
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+        open();
+        return true;
+    }
+
+    /**
+     * 以metas重写索引文件
+     */
+    synchronized void rebuild(Map<Long, Meta> metas) throws IOException {
+        this.records.clear();
+        for (Map.Entry<Long, Meta> entry : metas.entrySet()) {
+            this.records.put(entry.getKey(), Record.of(entry.getKey(), entry.getValue()));
+        }
+        rewrite();
+    }
+
+    /**
+     * 追加一条记录，失败时删除索引文件，内存中的记录照常更新
+     */
+    synchronized void put(long txId, Meta meta) {
+        Record record = Record.of(txId, meta);
+        this.records.put(txId, record);
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            write(this.channel, record);
+            this.appended++;
+        } catch (IOException e) {
+            LOGGER.error("Fail to append to " + this.file + ", it will be rebuilt on next startup", e);
+            IOUtils.closeQuietly(this.channel);
+            this.channel = null;
+            FileUtils.deleteQuietly(this.file);
+        }
+    }
+
+    /**
+     * @return 索引中没有时返回null
+     */
+    Meta get(long txId) {
+        Record record = this.records.get(txId);
+        return record == null ? null : record.toMeta();
+    }
+
+    boolean contains(long txId) {
+        return this.records.containsKey(txId);
+    }
+
+    Collection<Record> records() {
+        return this.records.values();
+    }
+
+    /**
+     * 删除记录并压缩索引文件
+     */
+    synchronized void remove(Collection<Long> txIds) throws IOException {
+        for (Long txId : txIds) {
+            this.records.remove(txId);
+        }
+        // 没有删除，且被覆盖的记录不多时不必压缩
+        if ((this.channel != null) && txIds.isEmpty() && (this.appended <= (this.records.size() * 2))) {
+            return;
+        }
+        rewrite();
+    }
+
+    synchronized void close() {
+        IOUtils.closeQuietly(this.channel);
+        this.channel = null;
+    }
+
+    private void rewrite() throws IOException {
+        IOUtils.closeQuietly(this.channel);
+        this.channel = null;
+        File tmp = new File(this.file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel tmpChannel = raf.getChannel();
+            List<Record> snapshot = new ArrayList<Record>(this.records.values());
+            for (Record record : snapshot) {
+                write(tmpChannel, record);
+            }
+            tmpChannel.force(false);
+            this.appended = snapshot.size();
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+        if (!tmp.renameTo(this.file)) {
+            throw new IOException("Fail to rename " + tmp + " to " + this.file);
+        }
+        open();
+    }
+
+    @SuppressWarnings("resource")
+    private void open() throws IOException {
+        this.channel = new RandomAccessFile(this.file, "rw").getChannel();
+        this.channel.position(this.channel.size());
+    }
+
+    private static void write(FileChannel channel, Record record) throws IOException {
+        byte[] data = record.encode();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 8);
+        buffer.putInt(data.length);
+        buffer.put(data);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static class Record {
+
+        final long                  txId;
+        final TaskTransactionStatus status;
+        final long                  start;
+        final long                  end;
+        final Integer               returnValue;
+        final String                eventType;
+        /** 参数的json，已结束的为null */
+        final String                params;
+
+        Record(long txId, TaskTransactionStatus status, long start, long end, Integer returnValue, String eventType,
+               String params) {
+            this.txId = txId;
+            this.status = status;
+            this.start = start;
+            this.end = end;
+            this.returnValue = returnValue;
+            this.eventType = eventType;
+            this.params = status.isCompleted() ? null : params;
+        }
+
+        static Record of(long txId, Meta meta) {
+            return new Record(txId, meta.getStatus(), meta.getStart() == null ? -1 : meta.getStart().getTime(),
+                              meta.getEnd() == null ? -1 : meta.getEnd().getTime(), meta.getReturnValue(),
+                              meta.getEventType(), meta.getTaskParams() == null ? null
+                                  : JSON.toJSONString(meta.getTaskParams()));
+        }
+
+        @SuppressWarnings("unchecked")
+        Meta toMeta() {
+            return new Meta(this.eventType, this.params == null ? null : JSON.parseObject(this.params, Map.class),
+                            this.status, this.start < 0 ? null : new Date(this.start),
+                            this.end < 0 ? null : new Date(this.end), this.returnValue);
+        }
+
+        /**
+         * 最后修改的时间
+         */
+        long lastTime() {
+            return Math.max(this.start, this.end);
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(this.txId);
+            out.writeByte(this.status.ordinal());
+            out.writeLong(this.start);
+            out.writeLong(this.end);
+            out.writeBoolean(this.returnValue != null);
+            out.writeInt(this.returnValue == null ? 0 : this.returnValue);
+            writeString(out, this.eventType);
+            writeString(out, this.params);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        static Record decode(ByteBuffer buffer) {
+            long txId = buffer.getLong();
+            TaskTransactionStatus status = TaskTransactionStatus.values()[buffer.get()];
+            long start = buffer.getLong();
+            long end = buffer.getLong();
+            boolean hasReturnValue = buffer.get() != 0;
+            int returnValue = buffer.getInt();
+            String eventType = readString(buffer);
+            String params = readString(buffer);
+            return new Record(txId, status, start, end, hasReturnValue ? returnValue : null, eventType, params);
+        }
+
+        private static void writeString(DataOutputStream out, String str) throws IOException {
+            if (str == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = str.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, UTF8);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task.shell;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按sha256存放附件内容的本地缓存(baseDir/blobs/前2位/sha256)，多个task、多个版本中相同的文件只下载一次。<br>
+ * 放到task的context目录时复制一份并校验sha256，不用硬链接：硬链接与blob共用inode，task修改文件或chmod会改坏缓存；
+ * 校验不通过的blob(被外部改过)从缓存中去掉，重新下载。<br>
+ * 总大小超过maxBytes时按最近使用淘汰，启动时按文件修改时间恢复顺序。
+ */
+class AttachmentCache {
+
+    private static final Logger               LOGGER = LoggerFactory.getLogger(AttachmentCache.class);
+
+    private final File                        blobDir;
+
+    private final File                        tmpDir;
+
+    private final long                        maxBytes;
+
+    /** sha256 -> 大小，按访问顺序，由this保护 */
+    private final LinkedHashMap<String, Long> blobs  = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    private long                              totalBytes;
+
+    AttachmentCache(File baseDir, long maxBytes) {
+        this.blobDir = new File(baseDir, "blobs");
+        this.tmpDir = new File(baseDir, "tmp");
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void init() throws IOException {
+        FileUtils.forceMkdir(this.blobDir);
+        FileUtils.deleteDirectory(this.tmpDir);
+        FileUtils.forceMkdir(this.tmpDir);
+
+        File[] files = FileUtils.listFiles(this.blobDir, null, true).toArray(new File[0]);
+        Arrays.sort(files, new Comparator<File>() {
+
+            public int compare(File o1, File o2) {
+                return Long.valueOf(o1.lastModified()).compareTo(o2.lastModified());
+            }
+        });
+        for (File file : files) {
+            this.blobs.put(file.getName(), file.length());
+            this.totalBytes += file.length();
+        }
+        evict(null);
+        LOGGER.info("Attachment cache loaded, {} blobs, {} bytes", this.blobs.size(), this.totalBytes);
+    }
+
+    synchronized boolean contains(String sha256) {
+        return this.blobs.containsKey(sha256);
+    }
+
+    /**
+     * 把blob复制到dst
+     *
+     * @return blob不存在(或刚被淘汰)、内容与sha256不符时返回false
+     */
+    boolean copyTo(String sha256, File dst) throws IOException {
+        synchronized (this) {
+            if (this.blobs.get(sha256) == null) {
+                return false;
+            }
+        }
+        File blob = getBlobFile(sha256);
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        InputStream in;
+        try {
+            in = new FileInputStream(blob);
+        } catch (FileNotFoundException e) {
+            // 被并发淘汰了
+            remove(sha256);
+            return false;
+        }
+        try {
+            OutputStream out = FileUtils.openOutputStream(dst);
+            try {
+                IOUtils.copyLarge(new DigestInputStream(in, digest), out);
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (!sha256.equals(Hex.encodeHexString(digest.digest()))) {
+            LOGGER.warn("Blob {} is corrupted, remove it from the cache", blob);
+            FileUtils.deleteQuietly(dst);
+            synchronized (this) {
+                remove(sha256);
+                FileUtils.deleteQuietly(blob);
+            }
+            return false;
+        }
+        // 记录最近使用，重启后据此恢复淘汰顺序
+        blob.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * 把in的内容存为blob，内容的sha256须与expectedSha256一致；不关闭in
+     */
+    void put(InputStream in, String expectedSha256) throws IOException {
+        File tmp = File.createTempFile("blob-", ".tmp", this.tmpDir);
+        try {
+            MessageDigest digest = DigestUtils.getSha256Digest();
+            long size;
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                size = IOUtils.copyLarge(new DigestInputStream(in, digest), out);
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+            String sha256 = Hex.encodeHexString(digest.digest());
+            if (!sha256.equals(expectedSha256)) {
+                throw new IOException(String.format("Sha256 mismatch, expected %s but got %s", expectedSha256,
+                                                    sha256));
+            }
+            tmp.setReadOnly();
+            File blob = getBlobFile(sha256);
+            FileUtils.forceMkdir(blob.getParentFile());
+            synchronized (this) {
+                if (!tmp.renameTo(blob)) {
+                    throw new IOException("Fail to rename " + tmp + " to " + blob);
+                }
+                Long old = this.blobs.put(sha256, size);
+                this.totalBytes += size - (old == null ? 0 : old);
+                evict(sha256);
+            }
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    private synchronized void remove(String sha256) {
+        Long size = this.blobs.remove(sha256);
+        if (size != null) {
+            this.totalBytes -= size;
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的blob，直到总大小不超过maxBytes，keep不淘汰
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> it = this.blobs.entrySet().iterator();
+        while ((this.totalBytes > this.maxBytes) && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            FileUtils.deleteQuietly(getBlobFile(entry.getKey()));
+            this.totalBytes -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    private File getBlobFile(String sha256) {
+        return new File(new File(this.blobDir, sha256.substring(0, 2)), sha256);
+    }
+}
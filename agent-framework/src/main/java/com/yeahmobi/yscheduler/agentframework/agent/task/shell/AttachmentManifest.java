@@ -0,0 +1,96 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task.shell;
+
+import java.util.List;
+
+/**
+ * storage返回的附件sha256清单(download?manifest=true)，与storage的FileManifest对应。<br>
+ * zip附件带上每个条目的sha256(目录的sha256为null)，storage无法解析zip时entries为null
+ */
+public class AttachmentManifest {
+
+    private long        version;
+    private String      fileName;
+    private String      sha256;
+    private long        size;
+    private List<Entry> entries;
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getSha256() {
+        return this.sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    public void setEntries(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    public static class Entry {
+
+        private String  name;
+        private String  sha256;
+        private long    size;
+        private boolean directory;
+
+        public String getName() {
+            return this.name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getSha256() {
+            return this.sha256;
+        }
+
+        public void setSha256(String sha256) {
+            this.sha256 = sha256;
+        }
+
+        public long getSize() {
+            return this.size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public boolean isDirectory() {
+            return this.directory;
+        }
+
+        public void setDirectory(boolean directory) {
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task.shell;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * 通过/proc判断进程是否存活，不需要fork(ps)。<br>
+ * pid可能在agent重启期间被复用，所以进程的启动时间晚于pid文件的写入时间时，认为原进程已经结束。
+ */
+class ProcessLiveness {
+
+    private static final File PROC        = new File("/proc");
+
+    /** 启动时间以clock tick计，Linux上USER_HZ固定为100 */
+    private static final long TICK_MILLIS = 10;
+
+    /** 启动时间和pid文件修改时间的精度误差 */
+    private static final long TOLERANCE   = 2000;
+
+    private static long       bootTime    = -1;
+
+    private ProcessLiveness() {
+    }
+
+    public static boolean isSupported() {
+        return new File(PROC, "self/stat").exists();
+    }
+
+    /**
+     * @param startedBefore 进程应在此时间之前启动，小于等于0表示不检查
+     */
+    public static boolean isAlive(int pid, long startedBefore) throws IOException {
+        File stat = new File(PROC, pid + "/stat");
+        String content;
+        try {
+            content = FileUtils.readFileToString(stat);
+        } catch (IOException e) {
+            // 进程不存在，或在读取时退出
+            if (!stat.exists()) {
+                return false;
+            }
+            throw e;
+        }
+        // 格式为: pid (comm) state ppid ...，comm中可能有空格和括号
+        String[] fields = StringUtils.split(content.substring(content.lastIndexOf(')') + 1));
+        // 僵尸进程已经结束，只是没被回收
+        if ("Z".equals(fields[0])) {
+            return false;
+        }
+        if (startedBefore <= 0) {
+            return true;
+        }
+        // starttime是第22个字段，在')'之后是第20个
+        long startTime = getBootTime() + (Long.parseLong(fields[19]) * TICK_MILLIS);
+        return startTime <= (startedBefore + TOLERANCE);
+    }
+
+    private static synchronized long getBootTime() throws IOException {
+        if (bootTime < 0) {
+            List<String> lines = FileUtils.readLines(new File(PROC, "stat"));
+            for (String line : lines) {
+                if (line.startsWith("btime ")) {
+                    bootTime = Long.parseLong(line.substring("btime ".length()).trim()) * 1000;
+                }
+            }
+            if (bootTime < 0) {
+                throw new IOException("btime not found in /proc/stat");
+            }
+        }
+        return bootTime;
+    }
+}
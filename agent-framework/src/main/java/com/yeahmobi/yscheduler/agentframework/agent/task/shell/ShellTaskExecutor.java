@@ -7,7 +7,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
@@ -22,9 +24,11 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ContentType;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 
+import com.alibaba.fastjson.JSON;
 import com.yeahmobi.yscheduler.agentframework.agent.task.BaseTaskExecutor;
 import com.yeahmobi.yscheduler.agentframework.agent.task.FileBasedTaskTransactionManager;
 import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransaction;
@@ -46,10 +50,18 @@ public class ShellTaskExecutor extends BaseTaskExecutor<ShellAgentTask> {
 
     private static final long               CHECK_INTERVAL       = 1;
 
+    private static final String             ZIP_SUFFIX           = ".zip";
+
     private String                          baseDir;
     private String                          shellDir;
     private String                          taskContextBaseDir;
 
+    /** 附件缓存的总大小上限，默认1G */
+    private long                            attachmentCacheSize  = Long.parseLong(System.getProperty("agent.attachment.cacheSize",
+                                                                                                     String.valueOf(1024L * 1024 * 1024)));
+
+    private AttachmentCache                 attachmentCache;
+
     private FileBasedTaskTransactionManager taskTransactionManager;
 
     private VariableManager                 variableManager;
@@ -84,6 +96,13 @@ public class ShellTaskExecutor extends BaseTaskExecutor<ShellAgentTask> {
 
         File taskContextBaseDirFile = new File(this.taskContextBaseDir);
         FileUtils.forceMkdir(taskContextBaseDirFile);
+
+        this.attachmentCache = new AttachmentCache(new File(taskContextBaseDirFile, ".cache"), this.attachmentCacheSize);
+        this.attachmentCache.init();
+    }
+
+    public void setAttachmentCacheSize(long attachmentCacheSize) {
+        this.attachmentCacheSize = attachmentCacheSize;
     }
 
     private String getShellPathPattern() {
@@ -110,13 +129,11 @@ public class ShellTaskExecutor extends BaseTaskExecutor<ShellAgentTask> {
                 taskTransaction.info("Attachment version: " + task.getAttachmentVersion());
                 downloadAttachment(task, taskTransaction);
             }
-            // 执行shell
+            // 执行shell，等待结束
             runShell(taskTransaction, txId, task);
-        }
-
-        // 论询pid和exitCode
-        while (checkRunningByPid(txId, task.getEventType())) {
-            TimeUnit.SECONDS.sleep(CHECK_INTERVAL);
+        } else {
+            // agent重启后恢复的，shell不是本进程的子进程，只能论询pid
+            waitForExit(txId, task.getEventType());
         }
 
         exitCode = getExitCode(txId, task.getEventType());
@@ -168,32 +185,25 @@ public class ShellTaskExecutor extends BaseTaskExecutor<ShellAgentTask> {
                 params.put("version", String.valueOf(attachmentVersion));
 
                 taskTransaction.info(String.format("Start to download attachment from %s", uri));
-                CloseableHttpResponse response = HttpClientUtil.getResponse(uri, params);
                 try {
-                    Header filenameHeader = response.getFirstHeader("filename");
-                    String filename = filenameHeader != null ? filenameHeader.getValue() : "unknown";
-
-                    taskTransaction.info(String.format("Attachment filename is %s", filename));
-
-                    // 通过filename判断是zip还是shell
-                    boolean isZip = false;
-                    if (StringUtils.endsWithIgnoreCase(filename, ".zip")) {
-                        isZip = true;
-                    }
-
-                    // 下载附件（并解压到指定目录）
-                    InputStream content = response.getEntity().getContent();
-                    if (isZip) {
-                        unzip(tempAttachmentDir, content, taskTransaction);
-                    } else {
-                        File dstFile = new File(tempAttachmentDir, filename);
-                        FileOutputStream dstFileOutput = new FileOutputStream(dstFile);
-                        try {
-                            IOUtils.copyLarge(content, dstFileOutput);
-                        } finally {
-                            IOUtils.closeQuietly(dstFileOutput);
+                    // 先取sha256清单，只下载缓存中没有的内容
+                    AttachmentManifest manifest = null;
+                    Map<String, String> manifestParams = new HashMap<String, String>(params);
+                    manifestParams.put("manifest", "true");
+                    CloseableHttpResponse response = HttpClientUtil.getResponse(uri, manifestParams);
+                    try {
+                        if (isJson(response)) {
+                            manifest = JSON.parseObject(IOUtils.toString(response.getEntity().getContent(), "UTF-8"),
+                                                        AttachmentManifest.class);
+                        } else {
+                            // 旧版本的storage不认识manifest参数，直接返回了附件
+                            extract(response, tempAttachmentDir, taskTransaction);
                         }
-                        makeExecutable(dstFile);
+                    } finally {
+                        response.close();
+                    }
+                    if (manifest != null) {
+                        syncFromCache(manifest, uri, params, tempAttachmentDir, taskTransaction);
                     }
                     taskTransaction.info("Attachment downloaded");
 
@@ -211,7 +221,6 @@ public class ShellTaskExecutor extends BaseTaskExecutor<ShellAgentTask> {
                     taskTransaction.info(String.format("Attachment version updated to %s", attachmentVersion));
 
                 } finally {
-                    response.close();
                     FileUtils.deleteDirectory(tempAttachmentDir);// ensure delete temp
                 }
             } finally {
@@ -225,6 +234,166 @@ public class ShellTaskExecutor extends BaseTaskExecutor<ShellAgentTask> {
         }
     }
 
+    private boolean isJson(CloseableHttpResponse response) {
+        ContentType contentType = ContentType.get(response.getEntity());
+        return (contentType != null) && ContentType.APPLICATION_JSON.getMimeType().equals(contentType.getMimeType());
+    }
+
+    /**
+     * 整个下载附件（zip则解压）到dir
+     */
+    private void extract(CloseableHttpResponse response, File dir, TaskTransaction<ShellAgentTask> taskTransaction)
+                                                                                                                 throws IOException {
+        Header filenameHeader = response.getFirstHeader("filename");
+        String filename = filenameHeader != null ? filenameHeader.getValue() : "unknown";
+
+        taskTransaction.info(String.format("Attachment filename is %s", filename));
+
+        // 下载附件（通过filename判断是zip还是shell，zip则解压到指定目录）
+        InputStream content = response.getEntity().getContent();
+        if (StringUtils.endsWithIgnoreCase(filename, ZIP_SUFFIX)) {
+            unzip(dir, content, taskTransaction);
+        } else {
+            File dstFile = new File(dir, filename);
+            FileOutputStream dstFileOutput = new FileOutputStream(dstFile);
+            try {
+                IOUtils.copyLarge(content, dstFileOutput);
+            } finally {
+                IOUtils.closeQuietly(dstFileOutput);
+            }
+            makeExecutable(dstFile);
+        }
+    }
+
+    /**
+     * 按清单从缓存复制到dir，缓存中没有的先下载：缺的内容超过一半时整个下载zip，否则逐个下载缺的条目
+     */
+    private void syncFromCache(AttachmentManifest manifest, String uri, Map<String, String> params, File dir,
+                               TaskTransaction<ShellAgentTask> taskTransaction) throws IOException {
+        boolean isZip = StringUtils.endsWithIgnoreCase(manifest.getFileName(), ZIP_SUFFIX);
+        if (isZip && (manifest.getEntries() == null)) {
+            // storage无法列出zip的条目
+            downloadWhole(uri, params, dir, taskTransaction);
+            return;
+        }
+        if (!isZip) {
+            File dstFile = new File(dir, manifest.getFileName());
+            if (!this.attachmentCache.copyTo(manifest.getSha256(), dstFile)) {
+                fetchBlob(uri, params, null, manifest.getSha256());
+                copyFromCache(manifest.getSha256(), dstFile);
+            }
+            makeExecutable(dstFile);
+            taskTransaction.info(String.format("Attachment %s (sha256:%s) copied from cache", manifest.getFileName(),
+                                               manifest.getSha256()));
+            return;
+        }
+
+        long totalBytes = 0;
+        long missingBytes = 0;
+        // 条目名 -> sha256，相同内容的条目只下载一次
+        Map<String, String> missing = new LinkedHashMap<String, String>();
+        for (AttachmentManifest.Entry entry : manifest.getEntries()) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            totalBytes += entry.getSize();
+            if (!this.attachmentCache.contains(entry.getSha256()) && !missing.containsValue(entry.getSha256())) {
+                missing.put(entry.getName(), entry.getSha256());
+                missingBytes += entry.getSize();
+            }
+        }
+        taskTransaction.info(String.format("Attachment cache: %d of %d entries missing (%d of %d bytes)",
+                                           missing.size(), manifest.getEntries().size(), missingBytes, totalBytes));
+        if ((missing.size() > 1) && ((missingBytes * 2) > totalBytes)) {
+            fetchZip(uri, params, missing);
+        } else {
+            for (Map.Entry<String, String> entry : missing.entrySet()) {
+                fetchBlob(uri, params, entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (AttachmentManifest.Entry entry : manifest.getEntries()) {
+            File dstFile = getEntryFile(dir, entry.getName());
+            if (entry.isDirectory()) {
+                FileUtils.forceMkdir(dstFile);
+                continue;
+            }
+            FileUtils.forceMkdir(dstFile.getParentFile());
+            if (!this.attachmentCache.copyTo(entry.getSha256(), dstFile)) {
+                // 刚下载的被淘汰了(缓存比附件还小)，或blob已损坏
+                fetchBlob(uri, params, entry.getName(), entry.getSha256());
+                copyFromCache(entry.getSha256(), dstFile);
+            }
+            makeExecutable(dstFile);
+        }
+    }
+
+    private void downloadWhole(String uri, Map<String, String> params, File dir,
+                               TaskTransaction<ShellAgentTask> taskTransaction) throws IOException {
+        CloseableHttpResponse response = HttpClientUtil.getResponse(uri, params);
+        try {
+            extract(response, dir, taskTransaction);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 下载附件(entryName为null)或zip中的一个条目放入缓存
+     */
+    private void fetchBlob(String uri, Map<String, String> params, String entryName, String sha256)
+                                                                                                 throws IOException {
+        Map<String, String> blobParams = new HashMap<String, String>(params);
+        if (entryName != null) {
+            blobParams.put("entry", entryName);
+        }
+        CloseableHttpResponse response = HttpClientUtil.getResponse(uri, blobParams);
+        try {
+            this.attachmentCache.put(response.getEntity().getContent(), sha256);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 整个下载zip，把missing(条目名 -> sha256)中的条目放入缓存
+     */
+    private void fetchZip(String uri, Map<String, String> params, Map<String, String> missing) throws IOException {
+        CloseableHttpResponse response = HttpClientUtil.getResponse(uri, params);
+        try {
+            ZipArchiveInputStream zipInput = new ZipArchiveInputStream(response.getEntity().getContent());
+            try {
+                ArchiveEntry entry;
+                while ((entry = zipInput.getNextEntry()) != null) {
+                    String sha256 = missing.get(entry.getName());
+                    if (!entry.isDirectory() && (sha256 != null)) {
+                        // put只读到当前条目的末尾
+                        this.attachmentCache.put(zipInput, sha256);
+                    }
+                }
+            } finally {
+                IOUtils.closeQuietly(zipInput);
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private void copyFromCache(String sha256, File dstFile) throws IOException {
+        if (!this.attachmentCache.copyTo(sha256, dstFile)) {
+            throw new IOException(String.format("Attachment blob %s is evicted right after download, "
+                                                + "agent.attachment.cacheSize may be too small", sha256));
+        }
+    }
+
+    private File getEntryFile(File dir, String entryName) throws IOException {
+        File file = new File(dir, entryName);
+        if (!file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator)) {
+            throw new IOException("Illegal entry name " + entryName);
+        }
+        return file;
+    }
+
     private void makeExecutable(File dstFile) {
         // 如果是shell，则设置成可执行
         if (StringUtils.endsWithIgnoreCase(dstFile.getName(), SHELL_SUFFIX)) {
@@ -302,26 +471,51 @@ public class ShellTaskExecutor extends BaseTaskExecutor<ShellAgentTask> {
         executor.execute(cmdLine);
     }
 
-    private void runShell(final TaskTransaction taskTransaction, long txId, ShellAgentTask task)
-                                                                                                throws ExecuteException,
-                                                                                                IOException {
-        CommandLine cmdLine = new CommandLine("bash");
-        cmdLine.addArgument(this.baseDir + "/shell/run.sh");
-        cmdLine.addArgument(this.baseDir);
-        cmdLine.addArgument(String.valueOf(txId));
-        cmdLine.addArgument(task.getEventType());
-        cmdLine.addArgument(task.getCommand(), false);
-
+    private void runShell(final TaskTransaction taskTransaction, long txId, ShellAgentTask task) throws IOException,
+                                                                                                InterruptedException {
         // 运行上下文目录(shell会在自己的上下文目录运行，这样shell若有下载文件等操作，就不会互相影响)
         // 注意：原来打算 command = "cd " + getAttachmentDir(task) + ";" + command;
         // 后来，“进去附件的操作”改在run.sh中，因为bash -c "多指令"时pid不准确，cancel有影响；
         String contextDir = getContextDir(task);
         FileUtils.forceMkdir(new File(contextDir));
-        cmdLine.addArgument(contextDir);
-        DefaultExecutor executor = new DefaultExecutor();
-        executor.setExitValues(null);
+        FileUtils.forceMkdir(new File(getShellDir(txId, task.getEventType())));
+
+        ProcessBuilder builder = new ProcessBuilder("bash", this.baseDir + "/shell/run.sh", this.baseDir,
+                                                    String.valueOf(txId), task.getEventType(), task.getCommand(),
+                                                    contextDir);
+        // shell的输出由run.sh写到tx.log，这里只有run.sh自身的错误，同样追加到tx.log
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(Redirect.appendTo(new File(this.baseDir + "/" + txId + "/tx.log")));
+        Process process = builder.start();
+        process.getOutputStream().close();
+        // run.sh等shell结束、写入exitcode后才退出
+        process.waitFor();
+    }
 
-        executor.execute(cmdLine);
+    /**
+     * 论询shell是否结束：有/proc时直接读取进程状态，否则调用check.sh
+     */
+    private void waitForExit(long txId, String eventType) throws IOException, InterruptedException {
+        if (!ProcessLiveness.isSupported()) {
+            while (checkRunningByPid(txId, eventType)) {
+                TimeUnit.SECONDS.sleep(CHECK_INTERVAL);
+            }
+            return;
+        }
+        File pidFile = new File(getShellDir(txId, eventType), "pid");
+        Integer pid = readInteger(pidFile);
+        if (pid == null) {
+            return;
+        }
+        // shell在pid文件写入前已经启动
+        long startedBefore = pidFile.lastModified();
+        while ((getExitCode(txId, eventType) == null) && ProcessLiveness.isAlive(pid, startedBefore)) {
+            TimeUnit.SECONDS.sleep(CHECK_INTERVAL);
+        }
+    }
+
+    private String getShellDir(long txId, String eventType) {
+        return this.baseDir + "/" + txId + "/" + eventType;
     }
 
     private boolean everStarted(long txId, String eventType) {
@@ -331,13 +525,16 @@ public class ShellTaskExecutor extends BaseTaskExecutor<ShellAgentTask> {
     }
 
     private Integer getExitCode(long txId, String eventType) {
-        File file = new File(this.baseDir + "/" + txId + "/" + eventType + "/exitcode");
+        return readInteger(new File(getShellDir(txId, eventType), "exitcode"));
+    }
+
+    private Integer readInteger(File file) {
         if (file.exists()) {
             FileInputStream fileInputStream = null;
             try {
                 fileInputStream = new FileInputStream(file);
-                String exitCodeStr = StringUtils.trim(IOUtils.toString(fileInputStream));
-                return Integer.parseInt(exitCodeStr);
+                String str = StringUtils.trim(IOUtils.toString(fileInputStream));
+                return Integer.parseInt(str);
             } catch (Exception e) {
                 return null;
             } finally {
@@ -1,5 +1,7 @@
 package com.yeahmobi.yscheduler.agentframework.client;
 
+import java.util.concurrent.Future;
+
 import com.yeahmobi.yscheduler.agentframework.AgentRequest;
 import com.yeahmobi.yscheduler.agentframework.AgentResponse;
 import com.yeahmobi.yscheduler.agentframework.exception.AgentClientException;
@@ -8,5 +10,10 @@ public interface AgentClient {
 
     public <T> AgentResponse<T> call(String host, AgentRequest request) throws AgentClientException;
 
+    /**
+     * 异步调用，异常通过Future.get抛出的ExecutionException返回
+     */
+    public <T> Future<AgentResponse<T>> callAsync(String host, AgentRequest request);
+
     public boolean ping(String host);
 }
@@ -0,0 +1,102 @@
+package com.yeahmobi.yscheduler.agentframework.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * 所有DefaultAgentClient共享的http连接池：按agent（route）复用keep-alive连接，后台线程定期关闭过期和空闲的连接。<br>
+ * 可通过系统属性配置：<br>
+ * ysheduler.agent.client.maxPerRoute 每个agent的最大连接数，默认20<br>
+ * ysheduler.agent.client.maxTotal 总连接数，默认200<br>
+ * ysheduler.agent.client.idleTimeout 空闲连接保留的毫秒数，默认30000<br>
+ * ysheduler.agent.client.asyncThreads callAsync使用的线程数，默认与maxTotal相同
+ */
+public class AgentHttpTransport {
+
+    private static final AgentHttpTransport          INSTANCE = new AgentHttpTransport();
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final CloseableHttpClient                httpClient;
+
+    private final ExecutorService                    asyncExecutor;
+
+    private final long                               idleTimeout;
+
+    private AgentHttpTransport() {
+        int maxPerRoute = Integer.parseInt(System.getProperty("ysheduler.agent.client.maxPerRoute", "20"));
+        int maxTotal = Integer.parseInt(System.getProperty("ysheduler.agent.client.maxTotal", "200"));
+        int asyncThreads = Integer.parseInt(System.getProperty("ysheduler.agent.client.asyncThreads",
+                                                               String.valueOf(maxTotal)));
+        this.idleTimeout = Long.parseLong(System.getProperty("ysheduler.agent.client.idleTimeout", "30000"));
+
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        this.connectionManager.setMaxTotal(maxTotal);
+        this.httpClient = HttpClients.custom().setConnectionManager(this.connectionManager).build();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<Runnable>(),
+                                                             new DaemonThreadFactory("agent-client-async-"));
+        executor.allowCoreThreadTimeOut(true);
+        this.asyncExecutor = executor;
+
+        Thread evictor = new DaemonThreadFactory("agent-client-evictor-").newThread(new Runnable() {
+
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        TimeUnit.SECONDS.sleep(5);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    AgentHttpTransport.this.connectionManager.closeExpiredConnections();
+                    AgentHttpTransport.this.connectionManager.closeIdleConnections(AgentHttpTransport.this.idleTimeout,
+                                                                                   TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+        evictor.start();
+    }
+
+    public static AgentHttpTransport getInstance() {
+        return INSTANCE;
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return this.httpClient;
+    }
+
+    public ExecutorService getAsyncExecutor() {
+        return this.asyncExecutor;
+    }
+
+    public PoolingHttpClientConnectionManager getConnectionManager() {
+        return this.connectionManager;
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String        prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, this.prefix + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -7,9 +7,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
@@ -19,16 +23,18 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.parser.deserializer.ExtraProcessor;
 import com.alibaba.fastjson.parser.deserializer.ExtraTypeProvider;
+import com.yeahmobi.yscheduler.agentframework.AgentBinaryProtocol;
 import com.yeahmobi.yscheduler.agentframework.AgentRequest;
 import com.yeahmobi.yscheduler.agentframework.AgentResponse;
 import com.yeahmobi.yscheduler.agentframework.AgentResponseCode;
+import com.yeahmobi.yscheduler.agentframework.LogStreamListener;
 import com.yeahmobi.yscheduler.agentframework.agent.task.TaskLog;
 import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
 import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransactionStatus;
@@ -43,10 +49,20 @@ public class DefaultAgentClient implements AgentClient {
 
     private static final int    DEFAULT_PORT    = 24368;
     private static final String EVENT_TYPE_PING = "ping";
+    private static final int    STREAM_BUFFER_SIZE = 64 * 1024;
     private int                 port            = DEFAULT_PORT;
     private String              agentName;
     private int                 connectTimeout  = 1000;
     private int                 socketTimeout   = 3000;
+    private boolean             binaryProtocol  = Boolean.parseBoolean(System.getProperty("ysheduler.agent.client.binary",
+                                                                                          "true"));
+
+    /**
+     * @param binaryProtocol 是否请求二进制响应，agent不支持时自动按json解析
+     */
+    public void setBinaryProtocol(boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+    }
 
     /**
      * @param connectTimeout the connectTimeout to set
@@ -94,6 +110,55 @@ public class DefaultAgentClient implements AgentClient {
         }
     }
 
+    public <T> Future<AgentResponse<T>> callAsync(final String host, final AgentRequest request) {
+        return AgentHttpTransport.getInstance().getAsyncExecutor().submit(new Callable<AgentResponse<T>>() {
+
+            public AgentResponse<T> call() throws AgentClientException {
+                return DefaultAgentClient.this.call(host, request);
+            }
+        });
+    }
+
+    /**
+     * 建立日志流并阻塞读取直到流结束，期间数据通过listener回调。agent每隔几秒会发送状态帧，
+     * 超过streamTimeout没有收到任何数据视为连接异常
+     *
+     * @return 流正常结束返回SUCCESS；agent不支持或处理失败时返回agent的响应码
+     */
+    public AgentResponseCode stream(String host, AgentRequest request, LogStreamListener listener, int streamTimeout)
+                                                                                                                   throws AgentClientException {
+        try {
+            RequestBuilder requestBuilder = RequestBuilder.post().setUri(buildURI(host, request.getEventType())).setConfig(RequestConfig.custom().setConnectTimeout(this.connectTimeout).setSocketTimeout(streamTimeout).build());
+            requestBuilder.addHeader(AgentBinaryProtocol.HEADER, AgentBinaryProtocol.VERSION);
+            requestBuilder.addParameter(AgentRequest.REQKEY_PARAMS, JSON.toJSONString(request.getParams()));
+
+            CloseableHttpResponse response = AgentHttpTransport.getInstance().getHttpClient().execute(requestBuilder.build());
+            try {
+                StatusLine statusLine = response.getStatusLine();
+                HttpEntity entity = response.getEntity();
+                if ((HttpStatus.SC_OK != statusLine.getStatusCode()) || (entity == null)) {
+                    throw new AgentClientException(String.format("Agent unavailable. (responseCode=%d, reason=%s)",
+                                                                 statusLine.getStatusCode(),
+                                                                 statusLine.getReasonPhrase()));
+                }
+                if (!isBinary(entity)) {
+                    // 旧版本agent
+                    AgentResponse<?> res = JSON.parseObject(IOUtils.toString(entity.getContent()), AgentResponse.class);
+                    return res.getResponseCode();
+                }
+                AgentResponse<?> res = AgentBinaryProtocol.readStream(entity.getContent(), new byte[STREAM_BUFFER_SIZE],
+                                                                      listener);
+                return res == null ? AgentResponseCode.SUCCESS : res.getResponseCode();
+            } finally {
+                response.close();
+            }
+        } catch (AgentClientException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AgentClientException("Fail to stream from agent.", e);
+        }
+    }
+
     public boolean ping(String host) {
         try {
             AgentResponse<?> resp = call(host, new AgentRequest(EVENT_TYPE_PING, null));
@@ -114,6 +179,9 @@ public class DefaultAgentClient implements AgentClient {
     private <T> AgentResponse<T> post(URI uri, Map<String, String> params) throws ClientProtocolException, IOException,
                                                                           AgentClientException {
         RequestBuilder requestBuilder = RequestBuilder.post().setUri(uri).setConfig(buildConfig());
+        if (this.binaryProtocol) {
+            requestBuilder.addHeader(AgentBinaryProtocol.HEADER, AgentBinaryProtocol.VERSION);
+        }
 
         for (Map.Entry<String, String> entry : params.entrySet()) {
             requestBuilder.addParameter(entry.getKey(), entry.getValue());
@@ -121,14 +189,18 @@ public class DefaultAgentClient implements AgentClient {
 
         HttpUriRequest uriRequest = requestBuilder.build();
 
-        CloseableHttpClient httpclient = HttpClientBuilder.create().build();
+        // 使用共享的连接池，只关闭response，连接归还连接池复用
+        CloseableHttpClient httpclient = AgentHttpTransport.getInstance().getHttpClient();
 
         CloseableHttpResponse response = httpclient.execute(uriRequest);
         try {
             StatusLine statusLine = response.getStatusLine();
             if (HttpStatus.SC_OK == statusLine.getStatusCode()) {
                 HttpEntity entity = response.getEntity();
-                if (entity != null) {
+                if ((entity != null) && isBinary(entity)) {
+                    return AgentBinaryProtocol.read(entity.getContent());
+                } else if (entity != null) {
+                    // 旧版本agent或未开启二进制协议，按json解析
                     return JSON.parseObject(IOUtils.toString(entity.getContent()), AgentResponse.class,
                                             new AgentResponseDataProcessor());
                 } else {
@@ -140,10 +212,16 @@ public class DefaultAgentClient implements AgentClient {
             }
 
         } finally {
-            httpclient.close();
+            EntityUtils.consumeQuietly(response.getEntity());
+            response.close();
         }
     }
 
+    private boolean isBinary(HttpEntity entity) {
+        Header contentType = entity.getContentType();
+        return (contentType != null) && StringUtils.startsWith(contentType.getValue(), AgentBinaryProtocol.CONTENT_TYPE);
+    }
+
     private static class AgentResponseDataProcessor implements ExtraProcessor, ExtraTypeProvider {
 
         @SuppressWarnings("unchecked")
@@ -0,0 +1,11 @@
+package com.yeahmobi.yscheduler.agentframework.exception;
+
+/**
+ * agent运行和排队的任务都已满，拒绝提交
+ */
+public class AgentBusyException extends TaskSubmitException {
+
+    public AgentBusyException(String message) {
+        super(message);
+    }
+}
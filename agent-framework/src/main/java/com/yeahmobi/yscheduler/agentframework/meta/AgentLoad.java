@@ -0,0 +1,130 @@
+package com.yeahmobi.yscheduler.agentframework.meta;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * agent所在机器的负载，随状态查询结果一起返回给scheduler，供选择agent时参考。<br>
+ * 取不到的项为-1，scheduler按未知处理。
+ */
+public class AgentLoad {
+
+    private static final File MEMINFO = new File("/proc/meminfo");
+
+    /** 1分钟平均负载/cpu核数 */
+    private double            cpuLoad      = -1;
+
+    /** 已用内存比例，0~1 */
+    private double            memoryUsage  = -1;
+
+    /** agent上运行中的transaction数 */
+    private int               runningTasks;
+
+    /** agent同时运行的transaction数上限，0表示不限制(或旧版本agent) */
+    private int               maxTasks;
+
+    /** 在agent上排队等待运行的transaction数 */
+    private int               pendingTasks;
+
+    public static AgentLoad collect(int runningTasks) {
+        AgentLoad load = new AgentLoad();
+        load.setRunningTasks(runningTasks);
+        double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        if (loadAverage >= 0) {
+            load.setCpuLoad(loadAverage / Runtime.getRuntime().availableProcessors());
+        }
+        load.setMemoryUsage(readMemoryUsage());
+        return load;
+    }
+
+    /**
+     * 从/proc/meminfo取MemTotal和MemAvailable，没有MemAvailable的老内核用MemFree+Buffers+Cached
+     */
+    private static double readMemoryUsage() {
+        if (!MEMINFO.canRead()) {
+            return -1;
+        }
+        try {
+            long total = -1;
+            long available = -1;
+            long free = 0;
+            List<String> lines = FileUtils.readLines(MEMINFO);
+            for (String line : lines) {
+                String[] items = StringUtils.split(line, ": ");
+                if ((items.length < 2) || !StringUtils.isNumeric(items[1])) {
+                    continue;
+                }
+                long value = Long.parseLong(items[1]);
+                if ("MemTotal".equals(items[0])) {
+                    total = value;
+                } else if ("MemAvailable".equals(items[0])) {
+                    available = value;
+                } else if ("MemFree".equals(items[0]) || "Buffers".equals(items[0]) || "Cached".equals(items[0])) {
+                    free += value;
+                }
+            }
+            if (total <= 0) {
+                return -1;
+            }
+            if (available < 0) {
+                available = free;
+            }
+            return Math.max(0, Math.min(1, (double) (total - available) / total));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public double getCpuLoad() {
+        return this.cpuLoad;
+    }
+
+    public void setCpuLoad(double cpuLoad) {
+        this.cpuLoad = cpuLoad;
+    }
+
+    public double getMemoryUsage() {
+        return this.memoryUsage;
+    }
+
+    public void setMemoryUsage(double memoryUsage) {
+        this.memoryUsage = memoryUsage;
+    }
+
+    public int getRunningTasks() {
+        return this.runningTasks;
+    }
+
+    public void setRunningTasks(int runningTasks) {
+        this.runningTasks = runningTasks;
+    }
+
+    public int getMaxTasks() {
+        return this.maxTasks;
+    }
+
+    public void setMaxTasks(int maxTasks) {
+        this.maxTasks = maxTasks;
+    }
+
+    public int getPendingTasks() {
+        return this.pendingTasks;
+    }
+
+    public void setPendingTasks(int pendingTasks) {
+        this.pendingTasks = pendingTasks;
+    }
+
+    @Override
+    public String toString() {
+        return "AgentLoad [cpuLoad=" + this.cpuLoad + ", memoryUsage=" + this.memoryUsage + ", runningTasks="
+               + this.runningTasks + ", maxTasks=" + this.maxTasks + ", pendingTasks=" + this.pendingTasks
+               + "]";
+    }
+
+}
@@ -97,6 +97,31 @@ public class HttpClientUtil {
 
     }
 
+    /**
+     * 以表单方式POST，返回响应内容
+     */
+    public static String post(String uri, Map<String, String> params) throws ClientProtocolException, IOException {
+        RequestBuilder requestBuilder = RequestBuilder.post().setUri(uri).setConfig(buildConfig(DEFAULT_CONNECT_TIMEOUT,
+                                                                                                DEFAULT_SOCKET_TIMEOUT));
+
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            requestBuilder.addParameter(entry.getKey(), entry.getValue());
+        }
+
+        CloseableHttpResponse response = httpclient.execute(requestBuilder.build());
+        try {
+            String result = getContent(response);
+            StatusLine statusLine = response.getStatusLine();
+            if (HttpStatus.SC_OK != statusLine.getStatusCode()) {
+                throw new IOException(String.format("Call Uri(%s) error: responseCode=%d, content=%s", uri,
+                                                    statusLine.getStatusCode(), StringUtils.abbreviate(result, 128)));
+            }
+            return result;
+        } finally {
+            response.close();
+        }
+    }
+
     private static RequestConfig buildConfig(int connectTimeout, int socketTimeout) {
         return RequestConfig.custom().setConnectTimeout(connectTimeout).setSocketTimeout(socketTimeout).build();
     }
@@ -0,0 +1,116 @@
+package com.yeahmobi.yscheduler.agentframework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Type;
+import java.util.Random;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.parser.deserializer.ExtraProcessor;
+import com.alibaba.fastjson.parser.deserializer.ExtraTypeProvider;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskLog;
+
+/**
+ * 模拟一个持续输出日志的task，对比json和二进制两种响应格式每次取日志的传输字节数和编解码cpu时间，直接运行main即可。<br>
+ * agent的getLog按请求的length（scheduler为4MB）分配缓冲区，json会把整个缓冲区base64，
+ * 二进制只传实际读到的字节，因此分别给出"4MB缓冲区"和"缓冲区等于实际长度"两种情况。
+ */
+public class AgentBinaryProtocolBenchmark {
+
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final int POLLS       = 200;
+
+    public static void main(String[] args) throws IOException {
+        // 每5秒一次轮询，每次新增约16KB日志
+        byte[] chunk = chattyLog(16 * 1024);
+
+        run(chunk, BUFFER_SIZE, false);
+        System.out.println(String.format("%-28s %14s %14s %16s %16s", "case", "json bytes", "binary bytes",
+                                         "json cpu us/poll", "binary cpu us/poll"));
+        run(chunk, BUFFER_SIZE, true);
+        run(chunk, chunk.length, true);
+    }
+
+    private static void run(byte[] chunk, int bufferSize, boolean print) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        System.arraycopy(chunk, 0, buffer, 0, chunk.length);
+        AgentResponse<TaskLog> response = new AgentResponse<TaskLog>();
+        response.setResponseData(new TaskLog(buffer, chunk.length));
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        int polls = bufferSize > chunk.length ? POLLS / 10 : POLLS;
+
+        long jsonBytes = 0;
+        long begin = bean.getCurrentThreadCpuTime();
+        for (int i = 0; i < polls; i++) {
+            byte[] wire = JSON.toJSONBytes(response);
+            jsonBytes = wire.length;
+            AgentResponse<TaskLog> back = JSON.parseObject(new String(wire, "UTF-8"), AgentResponse.class,
+                                                           new DataProcessor());
+            check(back, chunk);
+        }
+        long jsonCpu = bean.getCurrentThreadCpuTime() - begin;
+
+        long binaryBytes = 0;
+        begin = bean.getCurrentThreadCpuTime();
+        for (int i = 0; i < polls; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            AgentBinaryProtocol.write(response, out);
+            binaryBytes = out.size();
+            AgentResponse<TaskLog> back = AgentBinaryProtocol.read(new ByteArrayInputStream(out.toByteArray()));
+            check(back, chunk);
+        }
+        long binaryCpu = bean.getCurrentThreadCpuTime() - begin;
+
+        if (print) {
+            System.out.println(String.format("%-28s %14d %14d %16.0f %16.0f", "buffer=" + bufferSize + " log="
+                                                                              + chunk.length, jsonBytes, binaryBytes,
+                                             jsonCpu / 1e3 / polls, binaryCpu / 1e3 / polls));
+        }
+    }
+
+    private static void check(AgentResponse<TaskLog> response, byte[] chunk) {
+        TaskLog log = response.getResponseData();
+        if ((log.getLength() != chunk.length) || (log.getData()[chunk.length - 1] != chunk[chunk.length - 1])) {
+            throw new IllegalStateException("Decoded log mismatch");
+        }
+    }
+
+    private static byte[] chattyLog(int size) {
+        StringBuilder sb = new StringBuilder(size + 128);
+        Random random = new Random(0);
+        while (sb.length() < size) {
+            sb.append("2015-01-01 00:00:00 INFO processing record ").append(random.nextInt(1000000)).append('\n');
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    /**
+     * 与DefaultAgentClient中按responseType解析responseData的方式相同
+     */
+    private static class DataProcessor implements ExtraProcessor, ExtraTypeProvider {
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public void processExtra(Object object, String key, Object value) {
+            if ((object instanceof AgentResponse) && AgentResponse.FIELD_RESPONSE_DATA.equals(key)) {
+                ((AgentResponse) object).setResponseData(value);
+            }
+        }
+
+        @SuppressWarnings("rawtypes")
+        public Type getExtraType(Object object, String key) {
+            if ((object instanceof AgentResponse) && AgentResponse.FIELD_RESPONSE_DATA.equals(key)) {
+                try {
+                    return Class.forName(((AgentResponse) object).getResponseType());
+                } catch (ClassNotFoundException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.yeahmobi.yscheduler.agentframework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskLog;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatusBatch;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatusBatchItem;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransactionStatus;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+
+public class AgentBinaryProtocolTest {
+
+    @Test
+    public void testLong() throws Exception {
+        AgentResponse<Long> response = roundTrip(response(Long.valueOf(42)));
+        Assert.assertEquals(AgentResponseCode.SUCCESS, response.getResponseCode());
+        Assert.assertEquals(Long.valueOf(42), response.getResponseData());
+        Assert.assertEquals(Long.class.getName(), response.getResponseType());
+    }
+
+    @Test
+    public void testString() throws Exception {
+        AgentResponse<String> response = roundTrip(response("中文 & \"quoted\""));
+        Assert.assertEquals("中文 & \"quoted\"", response.getResponseData());
+    }
+
+    @Test
+    public void testNoData() throws Exception {
+        AgentResponse<Object> response = roundTrip(new AgentResponse<Object>());
+        Assert.assertEquals(AgentResponseCode.SUCCESS, response.getResponseCode());
+        Assert.assertNull(response.getResponseData());
+        Assert.assertNull(response.getResponseType());
+        Assert.assertNull(response.getThrowable());
+    }
+
+    @Test
+    public void testTaskStatus() throws Exception {
+        AgentResponse<TaskStatus> response = roundTrip(response(new TaskStatus(TaskTransactionStatus.FAIL, 1234, 2)));
+        TaskStatus status = response.getResponseData();
+        Assert.assertEquals(TaskTransactionStatus.FAIL, status.getStatus());
+        Assert.assertEquals(1234, status.getDuration());
+        Assert.assertEquals(Integer.valueOf(2), status.getReturnValue());
+    }
+
+    /**
+     * 日志以原始字节传输，只传length以内的部分
+     */
+    @Test
+    public void testTaskLog() throws Exception {
+        byte[] data = new byte[1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        AgentResponse<TaskLog> response = roundTrip(response(new TaskLog(data, 300)));
+        TaskLog log = response.getResponseData();
+        Assert.assertEquals(300, log.getLength());
+        Assert.assertArrayEquals(Arrays.copyOf(data, 300), log.getData());
+    }
+
+    @Test
+    public void testEmptyTaskLog() throws Exception {
+        AgentResponse<TaskLog> response = roundTrip(response(new TaskLog(new byte[0], 0)));
+        Assert.assertEquals(0, response.getResponseData().getLength());
+    }
+
+    @Test
+    public void testTaskStatusBatch() throws Exception {
+        TaskStatusBatch batch = new TaskStatusBatch();
+        AgentLoad load = new AgentLoad();
+        load.setCpuLoad(0.5);
+        load.setMemoryUsage(0.25);
+        load.setRunningTasks(3);
+        load.setMaxTasks(10);
+        load.setPendingTasks(1);
+        batch.setLoad(load);
+        batch.getItems().add(item(1, TaskTransactionStatus.RUNNING, "first".getBytes("UTF-8"), null));
+        batch.getItems().add(item(2, null, null, "Transaction 2 not found"));
+        batch.getItems().add(item(3, TaskTransactionStatus.SUCCESS, "third log".getBytes("UTF-8"), null));
+
+        TaskStatusBatch result = AgentBinaryProtocolTest.<TaskStatusBatch> roundTrip(response(batch)).getResponseData();
+
+        Assert.assertEquals(3, result.getItems().size());
+        TaskStatusBatchItem first = result.getItems().get(0);
+        Assert.assertEquals(1, first.getTxId());
+        Assert.assertEquals(TaskTransactionStatus.RUNNING, first.getStatus().getStatus());
+        Assert.assertEquals("first", new String(first.getLog().getData(), 0, first.getLog().getLength(), "UTF-8"));
+
+        TaskStatusBatchItem second = result.getItems().get(1);
+        Assert.assertEquals(2, second.getTxId());
+        Assert.assertNull(second.getLog());
+        Assert.assertEquals("Transaction 2 not found", second.getErrorMsg());
+
+        TaskStatusBatchItem third = result.getItems().get(2);
+        Assert.assertEquals(TaskTransactionStatus.SUCCESS, third.getStatus().getStatus());
+        Assert.assertEquals("third log", new String(third.getLog().getData(), 0, third.getLog().getLength(), "UTF-8"));
+
+        Assert.assertEquals(0.5, result.getLoad().getCpuLoad(), 0);
+        Assert.assertEquals(0.25, result.getLoad().getMemoryUsage(), 0);
+        Assert.assertEquals(3, result.getLoad().getRunningTasks());
+        Assert.assertEquals(10, result.getLoad().getMaxTasks());
+        Assert.assertEquals(1, result.getLoad().getPendingTasks());
+
+        // 写出时不修改原对象
+        Assert.assertEquals("first", new String(batch.getItems().get(0).getLog().getData(), "UTF-8"));
+    }
+
+    /**
+     * 出错时响应码、错误信息和异常都与json响应一致
+     */
+    @Test
+    public void testError() throws Exception {
+        AgentResponse<Object> error = new AgentResponse<Object>();
+        error.setResponseCode(AgentResponseCode.EVENT_HANDLER_ERROR);
+        error.setErrorMsg("Transaction 1 not found");
+        error.setThrowable(new IllegalArgumentException("bad txId"));
+
+        AgentResponse<Object> binary = roundTrip(error);
+        Assert.assertEquals(AgentResponseCode.EVENT_HANDLER_ERROR, binary.getResponseCode());
+        Assert.assertEquals("Transaction 1 not found", binary.getErrorMsg());
+        Assert.assertNull(binary.getResponseData());
+        Assert.assertNotNull(binary.getThrowable());
+        Assert.assertEquals("bad txId", binary.getThrowable().getMessage());
+
+        AgentResponse<?> json = JSON.parseObject(JSON.toJSONString(error), AgentResponse.class);
+        Assert.assertEquals(json.getResponseCode(), binary.getResponseCode());
+        Assert.assertEquals(json.getErrorMsg(), binary.getErrorMsg());
+        Assert.assertEquals(json.getThrowable().getClass(), binary.getThrowable().getClass());
+        Assert.assertEquals(json.getThrowable().getMessage(), binary.getThrowable().getMessage());
+    }
+
+    @Test
+    public void testErrorWithoutThrowable() throws Exception {
+        AgentResponse<Object> error = new AgentResponse<Object>();
+        error.setResponseCode(AgentResponseCode.BUSY);
+        error.setErrorMsg("Agent busy");
+
+        AgentResponse<Object> response = roundTrip(error);
+        Assert.assertEquals(AgentResponseCode.BUSY, response.getResponseCode());
+        Assert.assertEquals("Agent busy", response.getErrorMsg());
+        Assert.assertNull(response.getThrowable());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotBinary() throws Exception {
+        AgentBinaryProtocol.read(new ByteArrayInputStream(JSON.toJSONBytes(response(Long.valueOf(1)))));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncated() throws Exception {
+        byte[] data = encode(response(new TaskLog(new byte[100], 100)));
+        AgentBinaryProtocol.read(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 10)));
+    }
+
+    /**
+     * 日志流：CHUNK按buffer大小分段回调且offset连续，STATUS、ERROR、LOAD按顺序回调，END结束
+     */
+    @Test
+    public void testStream() throws Exception {
+        byte[] log = new byte[100];
+        for (int i = 0; i < log.length; i++) {
+            log[i] = (byte) i;
+        }
+        File file = File.createTempFile("stream", ".log");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(log);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataOutputStream dos = AgentBinaryProtocol.startStream(out);
+            AgentBinaryProtocol.writeChunk(dos, 1, raf.getChannel(), 10, 50);
+            AgentBinaryProtocol.writeStatus(dos, 1, new TaskStatus(TaskTransactionStatus.RUNNING, 5, null));
+            AgentBinaryProtocol.writeError(dos, 2, "Transaction 2 not found");
+            AgentLoad load = new AgentLoad();
+            load.setRunningTasks(3);
+            load.setMaxTasks(8);
+            AgentBinaryProtocol.writeLoad(dos, load);
+            AgentBinaryProtocol.writeChunk(dos, 1, raf.getChannel(), 60, 40);
+            AgentBinaryProtocol.writeStatus(dos, 1, new TaskStatus(TaskTransactionStatus.SUCCESS, 6, 0));
+            AgentBinaryProtocol.writeEnd(dos);
+
+            RecordingListener listener = new RecordingListener();
+            Assert.assertNull(AgentBinaryProtocol.readStream(new ByteArrayInputStream(out.toByteArray()),
+                                                             new byte[16], listener));
+
+            Assert.assertArrayEquals(Arrays.copyOfRange(log, 10, 100), listener.log.toByteArray());
+            // 50字节按16字节的buffer分4段，40字节分3段
+            Assert.assertEquals(Arrays.asList("log 1@10", "log 1@26", "log 1@42", "log 1@58", "status 1 RUNNING",
+                                              "error 2 Transaction 2 not found", "load 3/8", "log 1@60", "log 1@76",
+                                              "log 1@92", "status 1 SUCCESS"), listener.events);
+        } finally {
+            raf.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStreamRejected() throws Exception {
+        AgentResponse<Object> busy = new AgentResponse<Object>();
+        busy.setResponseCode(AgentResponseCode.EVENT_NOT_SUPPORTED);
+        busy.setErrorMsg("not supported");
+
+        RecordingListener listener = new RecordingListener();
+        AgentResponse<?> response = AgentBinaryProtocol.readStream(new ByteArrayInputStream(encode(busy)),
+                                                                   new byte[16], listener);
+        Assert.assertEquals(AgentResponseCode.EVENT_NOT_SUPPORTED, response.getResponseCode());
+        Assert.assertEquals("not supported", response.getErrorMsg());
+        Assert.assertTrue(listener.events.isEmpty());
+    }
+
+    /**
+     * 流在END帧之前断开时抛出异常，由client按offset重连
+     */
+    @Test(expected = EOFException.class)
+    public void testStreamBroken() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dos = AgentBinaryProtocol.startStream(out);
+        AgentBinaryProtocol.writeStatus(dos, 1, new TaskStatus(TaskTransactionStatus.RUNNING, 5, null));
+        dos.flush();
+        AgentBinaryProtocol.readStream(new ByteArrayInputStream(out.toByteArray()), new byte[16],
+                                       new RecordingListener());
+    }
+
+    @Test(expected = IOException.class)
+    public void testChunkBeyondFile() throws Exception {
+        File file = File.createTempFile("stream", ".log");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(new byte[10]);
+            AgentBinaryProtocol.writeChunk(AgentBinaryProtocol.startStream(new ByteArrayOutputStream()), 1,
+                                           raf.getChannel(), 0, 20);
+        } finally {
+            raf.close();
+            file.delete();
+        }
+    }
+
+    static class RecordingListener implements LogStreamListener {
+
+        final List<String>          events = new ArrayList<String>();
+        final ByteArrayOutputStream log    = new ByteArrayOutputStream();
+
+        public void onLog(long txId, long offset, byte[] data, int length) {
+            this.events.add("log " + txId + "@" + offset);
+            this.log.write(data, 0, length);
+        }
+
+        public void onStatus(long txId, TaskStatus status) {
+            this.events.add("status " + txId + " " + status.getStatus());
+        }
+
+        public void onError(long txId, String errorMsg) {
+            this.events.add("error " + txId + " " + errorMsg);
+        }
+
+        public void onLoad(AgentLoad load) {
+            this.events.add("load " + load.getRunningTasks() + "/" + load.getMaxTasks());
+        }
+    }
+
+    private static <T> AgentResponse<T> response(T data) {
+        AgentResponse<T> response = new AgentResponse<T>();
+        response.setResponseData(data);
+        return response;
+    }
+
+    private static TaskStatusBatchItem item(long txId, TaskTransactionStatus status, byte[] log, String errorMsg) {
+        TaskStatusBatchItem item = new TaskStatusBatchItem(txId);
+        if (status != null) {
+            item.setStatus(new TaskStatus(status, 10, null));
+        }
+        if (log != null) {
+            item.setLog(new TaskLog(log, log.length));
+        }
+        item.setErrorMsg(errorMsg);
+        return item;
+    }
+
+    private static byte[] encode(AgentResponse<?> response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AgentBinaryProtocol.write(response, out);
+        return out.toByteArray();
+    }
+
+    private static <T> AgentResponse<T> roundTrip(AgentResponse<?> response) throws IOException {
+        return AgentBinaryProtocol.read(new ByteArrayInputStream(encode(response)));
+    }
+}
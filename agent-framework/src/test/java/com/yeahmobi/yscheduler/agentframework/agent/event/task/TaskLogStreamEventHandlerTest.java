@@ -0,0 +1,276 @@
+package com.yeahmobi.yscheduler.agentframework.agent.event.task;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+
+import com.yeahmobi.yscheduler.agentframework.AgentBinaryProtocol;
+import com.yeahmobi.yscheduler.agentframework.LogStreamListener;
+import com.yeahmobi.yscheduler.agentframework.agent.event.HandlerResult;
+import com.yeahmobi.yscheduler.agentframework.agent.task.AgentTask;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskExecutionContainer;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskLog;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransactionStatus;
+import com.yeahmobi.yscheduler.agentframework.exception.TaskNotFoundException;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+
+public class TaskLogStreamEventHandlerTest {
+
+    private File                      dir;
+
+    private StubContainer             container;
+
+    private TaskLogStreamEventHandler handler;
+
+    @Before
+    public void before() throws IOException {
+        this.dir = File.createTempFile("logstream", "");
+        this.dir.delete();
+        this.dir.mkdirs();
+
+        this.container = new StubContainer();
+        StaticApplicationContext context = new StaticApplicationContext();
+        context.getBeanFactory().registerSingleton("taskExecutionContainer", this.container);
+        context.refresh();
+
+        this.handler = new TaskLogStreamEventHandler();
+        this.handler.setApplicationContext(context);
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(this.dir);
+    }
+
+    /**
+     * 已结束的transaction：推送offset之后的全部日志，然后发送最终状态
+     */
+    @Test
+    public void testCompleted() throws Exception {
+        byte[] log = content(200 * 1024);
+        this.container.add(1, TaskTransactionStatus.SUCCESS, log);
+
+        Recorder recorder = stream("1", "1000", null);
+
+        Assert.assertArrayEquals(Arrays.copyOfRange(log, 1000, log.length), recorder.log(1));
+        Assert.assertEquals(1000L, recorder.firstOffset(1));
+        Assert.assertEquals("status 1 SUCCESS", recorder.events.get(recorder.events.size() - 1));
+        Assert.assertTrue(this.container.allClosed());
+    }
+
+    @Test
+    public void testMultipleTransactions() throws Exception {
+        byte[] first = content(100);
+        byte[] second = content(300);
+        this.container.add(1, TaskTransactionStatus.FAIL, first);
+        this.container.add(2, TaskTransactionStatus.SUCCESS, second);
+
+        Recorder recorder = stream("1,2,3", "0,100,0", null);
+
+        Assert.assertArrayEquals(first, recorder.log(1));
+        Assert.assertArrayEquals(Arrays.copyOfRange(second, 100, 300), recorder.log(2));
+        Assert.assertTrue(recorder.events.contains("status 1 FAIL"));
+        Assert.assertTrue(recorder.events.contains("status 2 SUCCESS"));
+        Assert.assertTrue(recorder.events.contains("error 3 Transaction 3 not found"));
+        Assert.assertTrue(this.container.allClosed());
+    }
+
+    /**
+     * 运行中的transaction：推送已有日志和状态心跳，到maxDuration后以END结束，由scheduler重连
+     */
+    @Test
+    public void testRunningUntilDeadline() throws Exception {
+        byte[] log = content(500);
+        this.container.add(1, TaskTransactionStatus.RUNNING, log);
+
+        long begin = System.currentTimeMillis();
+        Recorder recorder = stream("1", "0", "300");
+
+        Assert.assertTrue((System.currentTimeMillis() - begin) >= 300);
+        Assert.assertArrayEquals(log, recorder.log(1));
+        Assert.assertTrue(recorder.events.contains("status 1 RUNNING"));
+        // 负载随状态心跳推送
+        Assert.assertEquals("load 2", recorder.events.get(0));
+        Assert.assertTrue(this.container.allClosed());
+    }
+
+    /**
+     * 流建立后追加的日志也会被推送
+     */
+    @Test
+    public void testTail() throws Exception {
+        final byte[] log = content(1000);
+        final File file = this.container.add(1, TaskTransactionStatus.RUNNING, Arrays.copyOf(log, 400));
+
+        Thread writer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    raf.seek(400);
+                    raf.write(log, 400, 600);
+                    raf.close();
+                    TaskLogStreamEventHandlerTest.this.container.statuses.put(1L, TaskTransactionStatus.SUCCESS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        writer.start();
+        Recorder recorder = stream("1", "0", "5000");
+        writer.join();
+
+        Assert.assertArrayEquals(log, recorder.log(1));
+        Assert.assertEquals("status 1 SUCCESS", recorder.events.get(recorder.events.size() - 1));
+    }
+
+    @Test
+    public void testJsonNotSupported() {
+        HandlerResult result = new HandlerResult();
+        this.handler.onEvent(new HashMap<String, String>(), result);
+        Assert.assertFalse(result.isSuccess());
+    }
+
+    private Recorder stream(String txIds, String offsets, String maxDuration) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("txIds", txIds);
+        params.put("offsets", offsets);
+        if (maxDuration != null) {
+            params.put("maxDuration", maxDuration);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.handler.onStream(params, out);
+
+        Recorder recorder = new Recorder();
+        Assert.assertNull(AgentBinaryProtocol.readStream(new ByteArrayInputStream(out.toByteArray()),
+                                                         new byte[8192], recorder));
+        return recorder;
+    }
+
+    private static byte[] content(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        return data;
+    }
+
+    private static class Recorder implements LogStreamListener {
+
+        private final List<String>                     events = new ArrayList<String>();
+        private final Map<Long, ByteArrayOutputStream> logs   = new HashMap<Long, ByteArrayOutputStream>();
+        private final Map<Long, Long>                  first  = new HashMap<Long, Long>();
+        private final Map<Long, Long>                  next   = new HashMap<Long, Long>();
+
+        public void onLog(long txId, long offset, byte[] data, int length) {
+            if (!this.logs.containsKey(txId)) {
+                this.logs.put(txId, new ByteArrayOutputStream());
+                this.first.put(txId, offset);
+            } else {
+                // offset连续
+                Assert.assertEquals(this.next.get(txId).longValue(), offset);
+            }
+            this.logs.get(txId).write(data, 0, length);
+            this.next.put(txId, offset + length);
+        }
+
+        public void onStatus(long txId, TaskStatus status) {
+            this.events.add("status " + txId + " " + status.getStatus());
+        }
+
+        public void onError(long txId, String errorMsg) {
+            this.events.add("error " + txId + " " + errorMsg);
+        }
+
+        public void onLoad(AgentLoad load) {
+            this.events.add("load " + load.getRunningTasks());
+        }
+
+        byte[] log(long txId) {
+            return this.logs.containsKey(txId) ? this.logs.get(txId).toByteArray() : new byte[0];
+        }
+
+        long firstOffset(long txId) {
+            return this.first.get(txId);
+        }
+    }
+
+    private class StubContainer implements TaskExecutionContainer {
+
+        private final Map<Long, TaskTransactionStatus> statuses = new ConcurrentHashMap<Long, TaskTransactionStatus>();
+        private final Map<Long, File>                  files    = new HashMap<Long, File>();
+        private final List<RandomAccessFile>           opened   = new ArrayList<RandomAccessFile>();
+
+        File add(long txId, TaskTransactionStatus status, byte[] log) throws IOException {
+            File file = new File(TaskLogStreamEventHandlerTest.this.dir, txId + ".log");
+            FileUtils.writeByteArrayToFile(file, log);
+            this.files.put(txId, file);
+            this.statuses.put(txId, status);
+            return file;
+        }
+
+        boolean allClosed() {
+            for (RandomAccessFile raf : this.opened) {
+                if (raf.getChannel().isOpen()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public TaskStatus checkStatus(long transactionId) throws TaskNotFoundException {
+            TaskTransactionStatus status = this.statuses.get(transactionId);
+            if (status == null) {
+                throw new TaskNotFoundException("Transaction " + transactionId + " not found");
+            }
+            return new TaskStatus(status, 1, null);
+        }
+
+        public FileChannel openLog(long transactionId) throws TaskNotFoundException, IOException {
+            RandomAccessFile raf = new RandomAccessFile(this.files.get(transactionId), "r");
+            this.opened.add(raf);
+            return raf.getChannel();
+        }
+
+        public long submit(AgentTask task) {
+            throw new UnsupportedOperationException();
+        }
+
+        public TaskLog getLog(long transactionId, long offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void cancel(long transactionId) {
+            throw new UnsupportedOperationException();
+        }
+
+        public int getRunningCount() {
+            return 0;
+        }
+
+        public AgentLoad getLoad() {
+            AgentLoad load = new AgentLoad();
+            load.setRunningTasks(2);
+            return load;
+        }
+    }
+}
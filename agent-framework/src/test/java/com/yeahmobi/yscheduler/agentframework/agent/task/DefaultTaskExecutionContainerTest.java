@@ -0,0 +1,295 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task;
+
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+
+import com.yeahmobi.yscheduler.agentframework.AgentResponseCode;
+import com.yeahmobi.yscheduler.agentframework.agent.event.HandlerResult;
+import com.yeahmobi.yscheduler.agentframework.agent.event.TaskSubmitionEventHandler;
+import com.yeahmobi.yscheduler.agentframework.exception.AgentBusyException;
+
+public class DefaultTaskExecutionContainerTest {
+
+    /** 开始执行的txId，按开始顺序 */
+    private final BlockingQueue<Long>        started      = new LinkedBlockingQueue<Long>();
+
+    private final Map<Long, StubTransaction> transactions = new ConcurrentHashMap<Long, StubTransaction>();
+
+    private DefaultTaskExecutionContainer    container;
+
+    @Before
+    public void before() {
+        this.container = new DefaultTaskExecutionContainer();
+        this.container.setTaskTransactionManager(new StubTransactionManager());
+    }
+
+    @After
+    public void after() {
+        for (StubTransaction transaction : this.transactions.values()) {
+            transaction.done.countDown();
+        }
+    }
+
+    /**
+     * 超出maxRunning的按提交顺序排队，有名额空出时依次运行
+     */
+    @Test
+    public void testMaxRunningFifo() throws Exception {
+        this.container.setMaxRunning(2);
+        this.container.setMaxPending(0);
+        for (int i = 0; i < 5; i++) {
+            this.container.submit(new StubTask("shell"));
+        }
+        assertStartedInAnyOrder(1, 2);
+        assertNothingStarted();
+        Assert.assertEquals(2, this.container.getRunningCount());
+        Assert.assertEquals(3, this.container.getLoad().getPendingTasks());
+        Assert.assertEquals(2, this.container.getLoad().getMaxTasks());
+
+        finish(2);
+        assertStarted(3);
+        finish(1);
+        assertStarted(4);
+        finish(3);
+        assertStarted(5);
+        Assert.assertEquals(0, this.container.getLoad().getPendingTasks());
+    }
+
+    /**
+     * 某个eventType满了只排队这个eventType，后面其他eventType的照常运行
+     */
+    @Test
+    public void testTypeLimit() throws Exception {
+        Map<String, Integer> typeLimits = new HashMap<String, Integer>();
+        typeLimits.put("shell", 1);
+        this.container.setMaxRunning(10);
+        this.container.setTypeLimits(typeLimits);
+
+        this.container.submit(new StubTask("shell"));
+        this.container.submit(new StubTask("shell"));
+        this.container.submit(new StubTask("http"));
+        assertStartedInAnyOrder(1, 3);
+        assertNothingStarted();
+
+        finish(1);
+        assertStarted(2);
+        Assert.assertEquals(2, this.container.getRunningCount());
+    }
+
+    /**
+     * 排队已满时拒绝提交，提交的handler返回BUSY
+     */
+    @Test
+    public void testBusy() throws Exception {
+        this.container.setMaxRunning(1);
+        this.container.setMaxPending(1);
+        this.container.submit(new StubTask("shell"));
+        this.container.submit(new StubTask("shell"));
+        try {
+            this.container.submit(new StubTask("shell"));
+            Assert.fail();
+        } catch (AgentBusyException e) {
+            // expected
+        }
+
+        StaticApplicationContext context = new StaticApplicationContext();
+        context.getBeanFactory().registerSingleton("taskExecutionContainer", this.container);
+        context.refresh();
+        TaskSubmitionEventHandler handler = new TaskSubmitionEventHandler() {
+
+            @Override
+            public AgentTask getTask(Map<String, String> params) {
+                return new StubTask("shell");
+            }
+        };
+        handler.setApplicationContext(context);
+        HandlerResult result = new HandlerResult();
+        handler.onEvent(Collections.<String, String> emptyMap(), result);
+        Assert.assertFalse(result.isSuccess());
+        Assert.assertEquals(AgentResponseCode.BUSY, result.getErrorCode());
+
+        // 有名额空出后可以再提交
+        assertStarted(1);
+        finish(1);
+        assertStarted(2);
+        result = new HandlerResult();
+        handler.onEvent(Collections.<String, String> emptyMap(), result);
+        Assert.assertTrue(result.isSuccess());
+    }
+
+    /**
+     * 取消排队中的transaction，不会再运行
+     */
+    @Test
+    public void testCancelPending() throws Exception {
+        this.container.setMaxRunning(1);
+        this.container.submit(new StubTask("shell"));
+        this.container.submit(new StubTask("shell"));
+        this.container.submit(new StubTask("shell"));
+        assertStarted(1);
+
+        this.container.cancel(2);
+        Assert.assertTrue(this.transactions.get(2L).cancelled);
+        Assert.assertEquals(1, this.container.getLoad().getPendingTasks());
+        finish(1);
+        assertStarted(3);
+        assertNothingStarted();
+    }
+
+    private void assertStarted(long... txIds) throws InterruptedException {
+        for (long txId : txIds) {
+            Assert.assertEquals(Long.valueOf(txId), this.started.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * 同时开始的在不同线程中执行，顺序不确定
+     */
+    private void assertStartedInAnyOrder(long... txIds) throws InterruptedException {
+        Set<Long> expected = new HashSet<Long>();
+        Set<Long> actual = new HashSet<Long>();
+        for (long txId : txIds) {
+            expected.add(txId);
+            actual.add(this.started.poll(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    private void assertNothingStarted() throws InterruptedException {
+        Assert.assertNull(this.started.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private void finish(long txId) {
+        this.transactions.get(txId).done.countDown();
+    }
+
+    private static class StubTask implements AgentTask {
+
+        private final String eventType;
+
+        StubTask(String eventType) {
+            this.eventType = eventType;
+        }
+
+        public TaskExecutor getTaskExecutor() {
+            return null;
+        }
+
+        public String getEventType() {
+            return this.eventType;
+        }
+
+        public String getTaskName() {
+            return this.eventType;
+        }
+
+        public Map<String, String> getTaskParams() {
+            return Collections.emptyMap();
+        }
+    }
+
+    private class StubTransactionManager implements TaskTransactionManager {
+
+        private long nextId = 1;
+
+        public TaskTransaction getTransaction(long transactionId) {
+            return DefaultTaskExecutionContainerTest.this.transactions.get(transactionId);
+        }
+
+        public TaskTransaction getTransaction(long transactionId, AgentTask task) {
+            return getTransaction(transactionId);
+        }
+
+        public synchronized TaskTransaction createTransaction(AgentTask task) {
+            StubTransaction transaction = new StubTransaction(this.nextId++, task);
+            DefaultTaskExecutionContainerTest.this.transactions.put(transaction.getId(), transaction);
+            return transaction;
+        }
+
+        public List<TaskTransaction> getAllTransaction() {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * execute在finish或cancel之前不返回
+     */
+    private class StubTransaction implements TaskTransaction<AgentTask> {
+
+        private final long           id;
+
+        private final AgentTask      task;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile boolean     cancelled;
+
+        StubTransaction(long id, AgentTask task) {
+            this.id = id;
+            this.task = task;
+        }
+
+        public long getId() {
+            return this.id;
+        }
+
+        public void execute() {
+            DefaultTaskExecutionContainerTest.this.started.add(this.id);
+            try {
+                this.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void cancel() {
+            this.cancelled = true;
+            this.done.countDown();
+        }
+
+        public Context getContext() {
+            return null;
+        }
+
+        public void persistContext() {
+        }
+
+        public TaskLog getLog(long offset, int length) {
+            return null;
+        }
+
+        public FileChannel openLog() {
+            return null;
+        }
+
+        public void info(String msg) {
+        }
+
+        public void error(String errorMsg, Throwable t) {
+        }
+
+        public Meta getMeta() {
+            return null;
+        }
+
+        public AgentTask getTask() {
+            return this.task;
+        }
+    }
+}
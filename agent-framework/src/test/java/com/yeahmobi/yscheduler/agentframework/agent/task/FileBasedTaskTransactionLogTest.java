@@ -0,0 +1,140 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileBasedTaskTransactionLogTest {
+
+    /** scheduler每次读取的长度(OUTPUT_BUFFER_SIZE) */
+    private static final int                    LENGTH = 4 * 1024 * 1024;
+
+    private File                                dir;
+
+    private File                                logFile;
+
+    private FileBasedTaskTransaction<AgentTask> tx;
+
+    @Before
+    public void before() throws IOException {
+        this.dir = File.createTempFile("txlog", "");
+        this.dir.delete();
+        this.dir.mkdirs();
+        this.logFile = new File(this.dir, "tx.log");
+        AgentTask task = new AbstractAgentTask("shell", new HashMap<String, String>()) {
+
+            public TaskExecutor getTaskExecutor() {
+                return null;
+            }
+        };
+        this.tx = new FileBasedTaskTransaction<AgentTask>(1, task, this.dir);
+    }
+
+    @After
+    public void after() throws IOException {
+        this.tx.close();
+        FileUtils.deleteDirectory(this.dir);
+    }
+
+    /**
+     * 跟踪追加的日志：每次只返回新增的部分，按实际长度分配
+     */
+    @Test
+    public void testTail() throws IOException {
+        assertEmpty(this.tx.getLog(0, LENGTH));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        FileOutputStream out = FileUtils.openOutputStream(this.logFile, true);
+        try {
+            long offset = 0;
+            for (int i = 0; i < 100; i++) {
+                byte[] line = line(i, 1024);
+                out.write(line);
+                expected.write(line);
+
+                TaskLog log = this.tx.getLog(offset, LENGTH);
+                Assert.assertEquals(line.length, log.getLength());
+                Assert.assertEquals(line.length, log.getData().length);
+                actual.write(log.getData(), 0, log.getLength());
+                offset += log.getLength();
+            }
+            assertEmpty(this.tx.getLog(offset, LENGTH));
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testOffsetAndLength() throws IOException {
+        byte[] content = line(0, 100);
+        FileUtils.writeByteArrayToFile(this.logFile, content);
+
+        TaskLog log = this.tx.getLog(10, 5);
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 10, 15), Arrays.copyOf(log.getData(), log.getLength()));
+        log = this.tx.getLog(90, LENGTH);
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 90, 100), Arrays.copyOf(log.getData(), log.getLength()));
+        assertEmpty(this.tx.getLog(100, LENGTH));
+        assertEmpty(this.tx.getLog(-1, LENGTH));
+        assertEmpty(this.tx.getLog(0, -1));
+        assertEmpty(this.tx.getLog(0, 0));
+    }
+
+    /**
+     * 只查询的transaction(没有task)和close之后的，每次打开再关闭channel
+     */
+    @Test
+    public void testLookupAndClosed() throws IOException {
+        byte[] content = line(0, 100);
+        FileUtils.writeByteArrayToFile(this.logFile, content);
+        FileBasedTaskTransaction<AgentTask> lookup = new FileBasedTaskTransaction<AgentTask>(1, null, this.dir);
+        Assert.assertEquals(100, lookup.getLog(0, LENGTH).getLength());
+
+        Assert.assertEquals(100, this.tx.getLog(0, LENGTH).getLength());
+        this.tx.close();
+        FileUtils.writeByteArrayToFile(this.logFile, content, true);
+        Assert.assertEquals(200, this.tx.getLog(0, LENGTH).getLength());
+        Assert.assertEquals(100, lookup.getLog(100, LENGTH).getLength());
+    }
+
+    @Test
+    public void testOpenLog() throws IOException {
+        Assert.assertNull(this.tx.openLog());
+
+        byte[] content = line(0, 100);
+        FileUtils.writeByteArrayToFile(this.logFile, content);
+        FileChannel channel = this.tx.openLog();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(200);
+            channel.read(buffer, 0);
+            Assert.assertArrayEquals(content, Arrays.copyOf(buffer.array(), buffer.position()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void assertEmpty(TaskLog log) {
+        Assert.assertEquals(0, log.getLength());
+    }
+
+    private static byte[] line(int i, int length) {
+        byte[] line = new byte[length];
+        for (int j = 0; j < length; j++) {
+            line[j] = (byte) ('a' + ((i + j) % 26));
+        }
+        return line;
+    }
+}
@@ -0,0 +1,95 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransaction.Meta;
+
+/**
+ * 对比100000个transaction时agent启动(getAllTransaction)和查询状态(getTransaction)的耗时：
+ * 原来逐个读取tx目录下的tx.meta(scan)，与重放tx.index(index)。直接运行main即可。<br>
+ * tx.meta刚写过，都在page cache中，实际冷启动时scan的差距更大。
+ */
+public class FileBasedTaskTransactionManagerBenchmark {
+
+    private static final int TRANSACTIONS = 100000;
+
+    /** 其中未结束的比例 */
+    private static final int RUNNING_PER  = 20;
+
+    private static final int LOOKUPS      = 100000;
+
+    public static void main(String[] args) throws Exception {
+        File baseDir = new File(System.getProperty("java.io.tmpdir"), "txindex-" + System.currentTimeMillis());
+        try {
+            prepare(baseDir);
+
+            // 第一次启动没有索引，扫描tx目录后重建
+            long begin = System.nanoTime();
+            FileBasedTaskTransactionManager scanManager = newManager(baseDir);
+            int scanCount = scanManager.getAllTransaction().size();
+            long scanNanos = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            FileBasedTaskTransactionManager indexManager = newManager(baseDir);
+            int indexCount = indexManager.getAllTransaction().size();
+            long indexNanos = System.nanoTime() - begin;
+
+            Random random = new Random(0);
+            begin = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                long txId = random.nextInt(TRANSACTIONS) + 1;
+                File txDir = new File(baseDir, String.valueOf(txId));
+                FileBasedTaskTransaction<AgentTask> tx = new FileBasedTaskTransaction<AgentTask>(txId, null, txDir);
+                tx.load();
+                tx.getMeta().getStatus();
+            }
+            long diskLookupNanos = System.nanoTime() - begin;
+
+            random = new Random(0);
+            begin = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                indexManager.getTransaction(random.nextInt(TRANSACTIONS) + 1).getMeta().getStatus();
+            }
+            long indexLookupNanos = System.nanoTime() - begin;
+
+            System.out.println(String.format("%d transactions, tx.index %d KB", TRANSACTIONS,
+                                             new File(baseDir, TransactionIndex.FILE_NAME).length() / 1024));
+            System.out.println(String.format("%8s %10s %12s %14s", "", "loaded", "startup ms", "lookup us/op"));
+            System.out.println(String.format("%8s %10d %12d %14.1f", "scan", scanCount, scanNanos / 1000000,
+                                             diskLookupNanos / 1000.0 / LOOKUPS));
+            System.out.println(String.format("%8s %10d %12d %14.1f", "index", indexCount, indexNanos / 1000000,
+                                             indexLookupNanos / 1000.0 / LOOKUPS));
+        } finally {
+            FileUtils.deleteDirectory(baseDir);
+        }
+    }
+
+    /**
+     * 按原来的目录结构写tx.meta，没有tx.index
+     */
+    private static void prepare(File baseDir) throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("command", "sh /data/job/report.sh --date=2015-01-01 --retry=3");
+        params.put("timeout", "3600");
+        Date now = new Date();
+        for (int i = 1; i <= TRANSACTIONS; i++) {
+            boolean running = (i % RUNNING_PER) == 0;
+            Meta meta = new Meta("shell", params, running ? TaskTransactionStatus.RUNNING
+                : TaskTransactionStatus.SUCCESS, now, running ? null : now, running ? null : 0);
+            FileUtils.writeStringToFile(new File(baseDir, i + "/tx.meta"), meta.toString(), "utf-8");
+        }
+    }
+
+    private static FileBasedTaskTransactionManager newManager(File baseDir) throws Exception {
+        FileBasedTaskTransactionManager manager = new FileBasedTaskTransactionManager();
+        manager.setBaseDir(baseDir.getPath());
+        manager.init();
+        return manager;
+    }
+}
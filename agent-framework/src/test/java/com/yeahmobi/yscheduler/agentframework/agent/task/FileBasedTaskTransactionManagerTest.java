@@ -0,0 +1,95 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileBasedTaskTransactionManagerTest {
+
+    private static final long               DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private File                            dir;
+
+    private FileBasedTaskTransactionManager manager;
+
+    @Before
+    public void before() throws Exception {
+        this.dir = File.createTempFile("txmanager", "");
+        this.dir.delete();
+        this.dir.mkdirs();
+        this.manager = new FileBasedTaskTransactionManager();
+        this.manager.setBaseDir(this.dir.getPath());
+        this.manager.setPreservedDay(2);
+        this.manager.init();
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(this.dir);
+    }
+
+    /**
+     * 未结束的和不在索引中的tx目录按修改时间清理
+     */
+    @Test
+    public void testCleanByAge() throws Exception {
+        long stale = this.manager.createTransaction(new StubTask()).getId();
+        long fresh = this.manager.createTransaction(new StubTask()).getId();
+        long old = System.currentTimeMillis() - (3 * DAY_MILLIS);
+        Assert.assertTrue(txDir(stale).setLastModified(old));
+
+        File unindexed = txDir(100);
+        unindexed.mkdirs();
+        Assert.assertTrue(unindexed.setLastModified(old));
+        File freshUnindexed = txDir(101);
+        freshUnindexed.mkdirs();
+        File other = new File(this.dir, "other");
+        other.mkdirs();
+        Assert.assertTrue(other.setLastModified(old));
+
+        this.manager.clean();
+        Assert.assertFalse(txDir(stale).exists());
+        Assert.assertTrue(txDir(fresh).exists());
+        Assert.assertFalse(unindexed.exists());
+        Assert.assertTrue(freshUnindexed.exists());
+        Assert.assertTrue(other.exists());
+
+        Set<Long> txIds = new HashSet<Long>();
+        for (TaskTransaction tx : this.manager.getAllTransaction()) {
+            txIds.add(tx.getId());
+        }
+        Assert.assertEquals(Collections.singleton(fresh), txIds);
+    }
+
+    private File txDir(long txId) {
+        return new File(this.dir, String.valueOf(txId));
+    }
+
+    private static class StubTask implements AgentTask {
+
+        public TaskExecutor getTaskExecutor() {
+            return null;
+        }
+
+        public String getEventType() {
+            return "shell";
+        }
+
+        public String getTaskName() {
+            return "shell";
+        }
+
+        public Map<String, String> getTaskParams() {
+            return Collections.singletonMap("command", "echo 1");
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransaction.Meta;
+
+public class TransactionIndexTest {
+
+    private File             dir;
+
+    private File             file;
+
+    private TransactionIndex index;
+
+    @Before
+    public void before() throws IOException {
+        this.dir = File.createTempFile("txindex", "");
+        this.dir.delete();
+        this.dir.mkdirs();
+        this.file = new File(this.dir, TransactionIndex.FILE_NAME);
+        this.index = new TransactionIndex(this.dir);
+    }
+
+    @After
+    public void after() throws IOException {
+        this.index.close();
+        FileUtils.deleteDirectory(this.dir);
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        Assert.assertFalse(this.index.load());
+        this.index.rebuild(Collections.<Long, Meta> emptyMap());
+        this.index.put(1, meta(TaskTransactionStatus.INIT));
+        this.index.put(2, meta(TaskTransactionStatus.RUNNING));
+        this.index.put(1, meta(TaskTransactionStatus.SUCCESS));
+
+        TransactionIndex reloaded = reload();
+        Assert.assertEquals(2, reloaded.records().size());
+        Meta first = reloaded.get(1);
+        Assert.assertEquals(TaskTransactionStatus.SUCCESS, first.getStatus());
+        Assert.assertEquals(Integer.valueOf(0), first.getReturnValue());
+        // 已结束的不保留参数
+        Assert.assertNull(first.getTaskParams());
+        Meta second = reloaded.get(2);
+        Assert.assertEquals("shell", second.getEventType());
+        Assert.assertEquals("echo 1", second.getTaskParams().get("command"));
+        Assert.assertNull(second.getEnd());
+        Assert.assertNull(reloaded.get(3));
+    }
+
+    /**
+     * 末尾写到一半的记录在重放时截掉，之后可以接着追加
+     */
+    @Test
+    public void testTornTailTruncated() throws IOException {
+        this.index.rebuild(Collections.<Long, Meta> emptyMap());
+        this.index.put(1, meta(TaskTransactionStatus.RUNNING));
+        this.index.put(2, meta(TaskTransactionStatus.RUNNING));
+        this.index.close();
+        long length = this.file.length();
+        long recordLength = length / 2;
+
+        // 只写了前一半
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        try {
+            raf.setLength(length + (recordLength / 2));
+            raf.seek(length);
+            raf.writeInt((int) recordLength - 8);
+        } finally {
+            raf.close();
+        }
+
+        this.index = new TransactionIndex(this.dir);
+        Assert.assertTrue(this.index.load());
+        Assert.assertEquals(length, this.file.length());
+        Assert.assertEquals(2, this.index.records().size());
+
+        this.index.put(3, meta(TaskTransactionStatus.RUNNING));
+        Assert.assertEquals(3, reload().records().size());
+    }
+
+    /**
+     * 最后一条记录crc不符，同样当作写到一半的截掉
+     */
+    @Test
+    public void testLastRecordCrcMismatchTruncated() throws IOException {
+        this.index.rebuild(Collections.<Long, Meta> emptyMap());
+        this.index.put(1, meta(TaskTransactionStatus.RUNNING));
+        this.index.put(2, meta(TaskTransactionStatus.RUNNING));
+        this.index.close();
+        long length = this.file.length();
+        flipByte(length - 10);
+
+        this.index = new TransactionIndex(this.dir);
+        Assert.assertTrue(this.index.load());
+        Assert.assertTrue(this.index.contains(1));
+        Assert.assertFalse(this.index.contains(2));
+        Assert.assertEquals(length / 2, this.file.length());
+    }
+
+    /**
+     * 中间的记录crc不符，不能只截掉后面的记录，需要从tx目录重建
+     */
+    @Test
+    public void testCrcMismatchRebuild() throws IOException {
+        this.index.rebuild(Collections.<Long, Meta> emptyMap());
+        for (long txId = 1; txId <= 3; txId++) {
+            this.index.put(txId, meta(TaskTransactionStatus.RUNNING));
+        }
+        this.index.close();
+        long length = this.file.length();
+        flipByte(10);
+
+        this.index = new TransactionIndex(this.dir);
+        Assert.assertFalse(this.index.load());
+        Assert.assertTrue(this.index.records().isEmpty());
+        // 重建前不改动文件
+        Assert.assertEquals(length, this.file.length());
+
+        Map<Long, Meta> metas = new HashMap<Long, Meta>();
+        metas.put(1L, meta(TaskTransactionStatus.RUNNING));
+        metas.put(2L, meta(TaskTransactionStatus.FAIL));
+        this.index.rebuild(metas);
+        TransactionIndex reloaded = reload();
+        Assert.assertEquals(2, reloaded.records().size());
+        Assert.assertEquals(TaskTransactionStatus.FAIL, reloaded.get(2).getStatus());
+    }
+
+    /**
+     * 删除记录或被覆盖的记录超过一半时重写索引文件
+     */
+    @Test
+    public void testCompaction() throws IOException {
+        this.index.rebuild(Collections.<Long, Meta> emptyMap());
+        this.index.put(1, meta(TaskTransactionStatus.SUCCESS));
+        this.index.put(2, meta(TaskTransactionStatus.SUCCESS));
+        long twoRecords = this.file.length();
+
+        this.index.put(1, meta(TaskTransactionStatus.SUCCESS));
+        this.index.put(1, meta(TaskTransactionStatus.SUCCESS));
+        // 4条记录，2个transaction，不压缩
+        this.index.remove(Collections.<Long> emptyList());
+        Assert.assertEquals(twoRecords * 2, this.file.length());
+
+        this.index.put(2, meta(TaskTransactionStatus.SUCCESS));
+        this.index.remove(Collections.<Long> emptyList());
+        Assert.assertEquals(twoRecords, this.file.length());
+
+        this.index.put(3, meta(TaskTransactionStatus.SUCCESS));
+        this.index.remove(Arrays.asList(1L, 3L));
+        Assert.assertEquals(twoRecords / 2, this.file.length());
+        Assert.assertFalse(new File(this.dir, TransactionIndex.FILE_NAME + ".tmp").exists());
+
+        // 压缩后继续追加
+        this.index.put(4, meta(TaskTransactionStatus.RUNNING));
+        TransactionIndex reloaded = reload();
+        Assert.assertEquals(2, reloaded.records().size());
+        Assert.assertTrue(reloaded.contains(2));
+        Assert.assertTrue(reloaded.contains(4));
+    }
+
+    private TransactionIndex reload() throws IOException {
+        this.index.close();
+        this.index = new TransactionIndex(this.dir);
+        Assert.assertTrue(this.index.load());
+        return this.index;
+    }
+
+    private void flipByte(long position) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        try {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Meta meta(TaskTransactionStatus status) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("command", "echo 1");
+        Date start = new Date(1000000L);
+        return new Meta("shell", params, status, start, status.isCompleted() ? new Date(2000000L) : null,
+                        status.isCompleted() ? Integer.valueOf(0) : null);
+    }
+}
@@ -0,0 +1,157 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task.shell;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AttachmentCacheTest {
+
+    private File            dir;
+
+    private AttachmentCache cache;
+
+    @Before
+    public void before() throws IOException {
+        this.dir = File.createTempFile("attachment", "");
+        this.dir.delete();
+        this.dir.mkdirs();
+        this.cache = new AttachmentCache(new File(this.dir, "cache"), 250);
+        this.cache.init();
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(this.dir);
+    }
+
+    @Test
+    public void testPutAndCopy() throws IOException {
+        byte[] content = content('a', 100);
+        String sha256 = put(content);
+        Assert.assertTrue(this.cache.contains(sha256));
+        Assert.assertEquals(100, this.cache.getTotalBytes());
+
+        File dst = new File(this.dir, "task/1/lib/a.jar");
+        Assert.assertTrue(this.cache.copyTo(sha256, dst));
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(dst));
+        Assert.assertFalse(this.cache.copyTo(DigestUtils.sha256Hex("missing"), new File(this.dir, "task/1/b.jar")));
+    }
+
+    /**
+     * task修改和chmod复制出去的文件，不影响缓存中的blob
+     */
+    @Test
+    public void testCopyIsIndependent() throws IOException {
+        byte[] content = content('a', 100);
+        String sha256 = put(content);
+        File first = new File(this.dir, "task/1/run.sh");
+        Assert.assertTrue(this.cache.copyTo(sha256, first));
+        Assert.assertTrue(first.setExecutable(true, false));
+        FileUtils.writeByteArrayToFile(first, content('x', 10));
+
+        File second = new File(this.dir, "task/2/run.sh");
+        Assert.assertTrue(this.cache.copyTo(sha256, second));
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(second));
+        Assert.assertFalse(second.canExecute());
+    }
+
+    @Test
+    public void testShaMismatch() throws IOException {
+        try {
+            this.cache.put(new ByteArrayInputStream(content('a', 100)), DigestUtils.sha256Hex("other"));
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertFalse(this.cache.contains(DigestUtils.sha256Hex("other")));
+        Assert.assertEquals(0, this.cache.getTotalBytes());
+        Assert.assertEquals(0, new File(this.dir, "cache/tmp").list().length);
+    }
+
+    /**
+     * blob被外部改过时复制失败并从缓存中去掉，由调用者重新下载
+     */
+    @Test
+    public void testCorruptedBlob() throws IOException {
+        byte[] content = content('a', 100);
+        String sha256 = put(content);
+        File blob = new File(this.dir, "cache/blobs/" + sha256.substring(0, 2) + "/" + sha256);
+        Assert.assertTrue(blob.setWritable(true));
+        FileUtils.writeByteArrayToFile(blob, content('b', 100));
+
+        File dst = new File(this.dir, "task/1/a.jar");
+        Assert.assertFalse(this.cache.copyTo(sha256, dst));
+        Assert.assertFalse(dst.exists());
+        Assert.assertFalse(blob.exists());
+        Assert.assertFalse(this.cache.contains(sha256));
+        Assert.assertEquals(0, this.cache.getTotalBytes());
+
+        put(content);
+        Assert.assertTrue(this.cache.copyTo(sha256, dst));
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(dst));
+    }
+
+    /**
+     * 超过maxBytes时淘汰最久未使用的，已复制出去的文件不受影响；重启后按修改时间恢复淘汰顺序
+     */
+    @Test
+    public void testEvict() throws Exception {
+        String a = put(content('a', 100));
+        String b = put(content('b', 100));
+        File dst = new File(this.dir, "task/1/a.jar");
+        // 使用a，b成为最久未使用的
+        Thread.sleep(1000);
+        Assert.assertTrue(this.cache.copyTo(a, dst));
+        Thread.sleep(1000);
+
+        String c = put(content('c', 100));
+        Assert.assertTrue(this.cache.contains(a));
+        Assert.assertFalse(this.cache.contains(b));
+        Assert.assertTrue(this.cache.contains(c));
+        Assert.assertEquals(200, this.cache.getTotalBytes());
+        Assert.assertTrue(dst.exists());
+
+        AttachmentCache reloaded = new AttachmentCache(new File(this.dir, "cache"), 150);
+        reloaded.init();
+        Assert.assertFalse(reloaded.contains(a));
+        Assert.assertTrue(reloaded.contains(c));
+        Assert.assertEquals(100, reloaded.getTotalBytes());
+    }
+
+    /**
+     * 比缓存还大的blob刚放入时保留，供这次复制
+     */
+    @Test
+    public void testLargerThanCache() throws IOException {
+        put(content('a', 100));
+        String b = put(content('b', 300));
+        Assert.assertTrue(this.cache.contains(b));
+        Assert.assertEquals(300, this.cache.getTotalBytes());
+        Assert.assertTrue(this.cache.copyTo(b, new File(this.dir, "task/1/b.jar")));
+
+        put(content('c', 100));
+        Assert.assertFalse(this.cache.contains(b));
+        Assert.assertEquals(100, this.cache.getTotalBytes());
+    }
+
+    private String put(byte[] content) throws IOException {
+        String sha256 = DigestUtils.sha256Hex(content);
+        this.cache.put(new ByteArrayInputStream(content), sha256);
+        return sha256;
+    }
+
+    private static byte[] content(char c, int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) c;
+        }
+        return content;
+    }
+}
@@ -0,0 +1,101 @@
+package com.yeahmobi.yscheduler.agentframework.agent.task.shell;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 需要Linux的/proc，其他系统上跳过
+ */
+public class ProcessLivenessTest {
+
+    private File    baseDir;
+
+    private Process process;
+
+    @Before
+    public void before() {
+        this.baseDir = new File(System.getProperty("java.io.tmpdir"), "liveness-" + System.currentTimeMillis());
+    }
+
+    @After
+    public void after() throws Exception {
+        if (this.process != null) {
+            this.process.destroy();
+            this.process.waitFor();
+        }
+        FileUtils.deleteDirectory(this.baseDir);
+    }
+
+    @Test
+    public void testSelf() throws Exception {
+        if (!ProcessLiveness.isSupported()) {
+            return;
+        }
+        int pid = Integer.parseInt(new File("/proc/self").getCanonicalFile().getName());
+        Assert.assertTrue(ProcessLiveness.isAlive(pid, 0));
+        Assert.assertTrue(ProcessLiveness.isAlive(pid, System.currentTimeMillis()));
+    }
+
+    /**
+     * 进程结束后不再存活
+     */
+    @Test
+    public void testExited() throws Exception {
+        if (!ProcessLiveness.isSupported()) {
+            return;
+        }
+        int pid = start("sleep");
+        Assert.assertTrue(ProcessLiveness.isAlive(pid, System.currentTimeMillis()));
+
+        this.process.destroy();
+        this.process.waitFor();
+        this.process = null;
+        Assert.assertFalse(ProcessLiveness.isAlive(pid, 0));
+    }
+
+    /**
+     * pid文件早于进程的启动时间，说明pid已被其他进程复用
+     */
+    @Test
+    public void testPidReused() throws Exception {
+        if (!ProcessLiveness.isSupported()) {
+            return;
+        }
+        int pid = start("sleep");
+        long pidFileTime = System.currentTimeMillis() - (60 * 1000L);
+        Assert.assertFalse(ProcessLiveness.isAlive(pid, pidFileTime));
+        Assert.assertTrue(ProcessLiveness.isAlive(pid, 0));
+    }
+
+    /**
+     * 进程名中的空格和括号不影响解析/proc/[pid]/stat
+     */
+    @Test
+    public void testCommWithParentheses() throws Exception {
+        if (!ProcessLiveness.isSupported()) {
+            return;
+        }
+        File command = new File(this.baseDir, "s (1) x");
+        FileUtils.copyFile(new File("/bin/sleep"), command);
+        command.setExecutable(true);
+        int pid = start(command.getPath());
+        Assert.assertTrue(ProcessLiveness.isAlive(pid, System.currentTimeMillis()));
+        Assert.assertFalse(ProcessLiveness.isAlive(pid, System.currentTimeMillis() - (60 * 1000L)));
+    }
+
+    /**
+     * 通过bash启动sleep，返回其pid
+     */
+    private int start(String sleep) throws Exception {
+        this.process = new ProcessBuilder("bash", "-c", "echo $$; exec \"$0\" 30", sleep).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(this.process.getInputStream()));
+        return Integer.parseInt(reader.readLine().trim());
+    }
+}
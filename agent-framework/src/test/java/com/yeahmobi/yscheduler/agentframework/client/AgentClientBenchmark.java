@@ -0,0 +1,158 @@
+package com.yeahmobi.yscheduler.agentframework.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+
+import com.alibaba.fastjson.JSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.yeahmobi.yscheduler.agentframework.AgentRequest;
+import com.yeahmobi.yscheduler.agentframework.AgentResponse;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransactionStatus;
+
+/**
+ * 对本地的桩agent测试每秒调用数，对比每次新建HttpClient（原实现）、共享连接池的call和callAsync，直接运行main即可。
+ */
+public class AgentClientBenchmark {
+
+    private static final String AGENT_NAME = "yscheduler";
+
+    private static final int    THREADS    = 8;
+
+    private static final int    CALLS      = 20000;
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = startStubAgent();
+        int port = server.getAddress().getPort();
+        try {
+            final DefaultAgentClient client = new DefaultAgentClient(port, AGENT_NAME);
+            final String oldUri = String.format("http://localhost:%d/%s/?%s=TASK_STATUS", port, AGENT_NAME,
+                                                AgentRequest.REQKEY_EVENT_TYPE);
+
+            Call oldCall = new Call() {
+
+                public void call() throws Exception {
+                    CloseableHttpClient httpclient = HttpClientBuilder.create().build();
+                    try {
+                        CloseableHttpResponse response = httpclient.execute(RequestBuilder.post().setUri(oldUri).addParameter(AgentRequest.REQKEY_PARAMS,
+                                                                                                                                "{\"txId\":\"1\"}").build());
+                        try {
+                            IOUtils.toString(response.getEntity().getContent());
+                        } finally {
+                            response.close();
+                        }
+                    } finally {
+                        httpclient.close();
+                    }
+                }
+            };
+            Call pooledCall = new Call() {
+
+                public void call() throws Exception {
+                    client.call("localhost", statusRequest());
+                }
+            };
+
+            // 预热
+            run(oldCall, CALLS / 10);
+            run(pooledCall, CALLS / 10);
+
+            System.out.println(String.format("new client per call: %.0f calls/s", run(oldCall, CALLS)));
+            System.out.println(String.format("pooled call:         %.0f calls/s", run(pooledCall, CALLS)));
+            System.out.println(String.format("pooled callAsync:    %.0f calls/s", runAsync(client, CALLS)));
+        } finally {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdown();
+        }
+    }
+
+    private interface Call {
+
+        void call() throws Exception;
+    }
+
+    private static AgentRequest statusRequest() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("txId", "1");
+        return new AgentRequest("TASK_STATUS", params);
+    }
+
+    private static double run(final Call call, final int calls) throws InterruptedException {
+        final AtomicLong remaining = new AtomicLong(calls);
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        long begin = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        while (remaining.decrementAndGet() >= 0) {
+                            call.call();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        latch.await();
+        return (calls * 1e9) / (System.nanoTime() - begin);
+    }
+
+    private static double runAsync(DefaultAgentClient client, int calls) throws Exception {
+        long begin = System.nanoTime();
+        List<Future<AgentResponse<TaskStatus>>> futures = new ArrayList<Future<AgentResponse<TaskStatus>>>(calls);
+        for (int i = 0; i < calls; i++) {
+            futures.add(client.<TaskStatus> callAsync("localhost", statusRequest()));
+        }
+        for (Future<AgentResponse<TaskStatus>> future : futures) {
+            future.get();
+        }
+        return (calls * 1e9) / (System.nanoTime() - begin);
+    }
+
+    private static HttpServer startStubAgent() throws IOException {
+        AgentResponse<TaskStatus> response = new AgentResponse<TaskStatus>();
+        response.setResponseData(new TaskStatus(TaskTransactionStatus.RUNNING, 10, null));
+        final byte[] body = JSON.toJSONBytes(response);
+
+        // 桩agent的响应头和响应体分两次写出，keep-alive时需关闭Nagle，否则每次调用会被delayed ack拖慢约40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.createContext("/" + AGENT_NAME + "/", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                IOUtils.toByteArray(exchange.getRequestBody());
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(THREADS * 2));
+        server.start();
+        return server;
+    }
+}
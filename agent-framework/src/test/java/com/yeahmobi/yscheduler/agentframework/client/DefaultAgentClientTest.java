@@ -0,0 +1,171 @@
+package com.yeahmobi.yscheduler.agentframework.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.yeahmobi.yscheduler.agentframework.AgentBinaryProtocol;
+import com.yeahmobi.yscheduler.agentframework.AgentRequest;
+import com.yeahmobi.yscheduler.agentframework.AgentResponse;
+import com.yeahmobi.yscheduler.agentframework.AgentResponseCode;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransactionStatus;
+import com.yeahmobi.yscheduler.agentframework.exception.AgentClientException;
+
+/**
+ * 对本地的桩agent验证共享连接池的call、callAsync，以及json和二进制两种响应
+ */
+public class DefaultAgentClientTest {
+
+    private static final String AGENT_NAME = "yscheduler";
+
+    private HttpServer          server;
+
+    private DefaultAgentClient  client;
+
+    /** 桩agent看到的客户端端口，每个端口对应一个连接 */
+    private final Set<Integer>  clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    private volatile int        statusCode  = 200;
+
+    @Before
+    public void before() throws IOException {
+        // 桩agent的响应头和响应体分两次写出，keep-alive时需关闭Nagle，否则每次调用会被delayed ack拖慢约40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 128);
+        this.server.createContext("/" + AGENT_NAME + "/", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                IOUtils.toByteArray(exchange.getRequestBody());
+                DefaultAgentClientTest.this.clientPorts.add(exchange.getRemoteAddress().getPort());
+
+                AgentResponse<TaskStatus> response = new AgentResponse<TaskStatus>();
+                response.setResponseData(new TaskStatus(TaskTransactionStatus.RUNNING, 10, null));
+                byte[] body;
+                if (AgentBinaryProtocol.VERSION.equals(exchange.getRequestHeaders().getFirst(AgentBinaryProtocol.HEADER))) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    AgentBinaryProtocol.write(response, out);
+                    body = out.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Type", AgentBinaryProtocol.CONTENT_TYPE);
+                } else {
+                    body = JSON.toJSONBytes(response);
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                }
+                exchange.sendResponseHeaders(DefaultAgentClientTest.this.statusCode, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.server.setExecutor(Executors.newFixedThreadPool(8));
+        this.server.start();
+
+        this.client = new DefaultAgentClient(this.server.getAddress().getPort(), AGENT_NAME);
+    }
+
+    @After
+    public void after() {
+        this.server.stop(0);
+        ((ExecutorService) this.server.getExecutor()).shutdown();
+    }
+
+    @Test
+    public void testCallBinary() throws Exception {
+        this.client.setBinaryProtocol(true);
+        assertStatus(this.client.<TaskStatus> call("localhost", statusRequest()));
+    }
+
+    @Test
+    public void testCallJson() throws Exception {
+        this.client.setBinaryProtocol(false);
+        assertStatus(this.client.<TaskStatus> call("localhost", statusRequest()));
+    }
+
+    /**
+     * 顺序调用复用同一个keep-alive连接，而不是每次新建连接
+     */
+    @Test
+    public void testConnectionReused() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            assertStatus(this.client.<TaskStatus> call("localhost", statusRequest()));
+        }
+        Assert.assertEquals(1, this.clientPorts.size());
+    }
+
+    @Test
+    public void testCallAsync() throws Exception {
+        List<Future<AgentResponse<TaskStatus>>> futures = new ArrayList<Future<AgentResponse<TaskStatus>>>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(this.client.<TaskStatus> callAsync("localhost", statusRequest()));
+        }
+        for (Future<AgentResponse<TaskStatus>> future : futures) {
+            assertStatus(future.get());
+        }
+        // 并发调用的连接数不超过每个agent的最大连接数
+        Assert.assertTrue(this.clientPorts.size() <= 20);
+    }
+
+    @Test
+    public void testAgentUnavailable() throws Exception {
+        this.statusCode = 500;
+        try {
+            this.client.call("localhost", statusRequest());
+            Assert.fail();
+        } catch (AgentClientException e) {
+            // expected
+        }
+        Assert.assertFalse(this.client.ping("localhost"));
+
+        // 出错后连接池仍可用
+        this.statusCode = 200;
+        assertStatus(this.client.<TaskStatus> call("localhost", statusRequest()));
+    }
+
+    @Test
+    public void testAgentDown() throws Exception {
+        DefaultAgentClient down = new DefaultAgentClient(this.server.getAddress().getPort(), AGENT_NAME);
+        after();
+        try {
+            down.call("localhost", statusRequest());
+            Assert.fail();
+        } catch (AgentClientException e) {
+            // expected
+        }
+        Assert.assertFalse(down.ping("localhost"));
+        before();
+    }
+
+    private static AgentRequest statusRequest() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("txId", "1");
+        return new AgentRequest("TASK_STATUS", params);
+    }
+
+    private static void assertStatus(AgentResponse<TaskStatus> response) {
+        Assert.assertEquals(AgentResponseCode.SUCCESS, response.getResponseCode());
+        Assert.assertEquals(TaskTransactionStatus.RUNNING, response.getResponseData().getStatus());
+        Assert.assertEquals(10, response.getResponseData().getDuration());
+    }
+}
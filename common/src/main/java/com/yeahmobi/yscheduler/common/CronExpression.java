@@ -0,0 +1,252 @@
+package com.yeahmobi.yscheduler.common;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.scheduling.support.CronSequenceGenerator;
+
+/**
+ * 预编译的crontab表达式（6位，秒 分 时 日 月 周），语义与spring的CronSequenceGenerator一致。<br>
+ * 各字段解析成位图，对无夏令时的时区直接在epoch秒上做日期运算，计算下次触发时间时除返回值外不分配对象；
+ * 有夏令时的时区退化为使用CronSequenceGenerator。<br>
+ * 实例不可变，线程安全，通过CrontabUtils按表达式缓存复用。
+ */
+public class CronExpression {
+
+    private static final long           SECONDS_PER_DAY = 24 * 60 * 60;
+
+    /** 最多往后找的天数，超过则认为表达式不可能触发（如2月30日） */
+    private static final long           MAX_SEARCH_DAYS = 366 * 8;
+
+    private final String                expression;
+
+    private final long                  seconds;
+
+    private final long                  minutes;
+
+    private final long                  hours;
+
+    /** bit 1-31 */
+    private final long                  daysOfMonth;
+
+    /** bit 1-12 */
+    private final long                  months;
+
+    /** bit 0-6，0为周日 */
+    private final long                  daysOfWeek;
+
+    private final long                  offsetMillis;
+
+    private final CronSequenceGenerator generator;
+
+    public CronExpression(String expression, TimeZone timeZone) {
+        // 用spring解析一次做校验，保证与原来能接受的表达式一致
+        CronSequenceGenerator validator = new CronSequenceGenerator(expression, timeZone);
+
+        String[] fields = StringUtils.split(expression);
+        this.expression = expression;
+        this.seconds = parseField(fields[0], 0, 60);
+        this.minutes = parseField(fields[1], 0, 60);
+        this.hours = parseField(fields[2], 0, 24);
+        this.daysOfMonth = parseField(StringUtils.replace(fields[3], "?", "*"), 0, 32) & ~1L;
+        this.months = parseField(replaceOrdinals(fields[4], "FOO,JAN,FEB,MAR,APR,MAY,JUN,JUL,AUG,SEP,OCT,NOV,DEC"),
+                                 1, 13);
+        long dow = parseField(replaceOrdinals(StringUtils.replace(fields[5], "?", "*"), "SUN,MON,TUE,WED,THU,FRI,SAT"),
+                              0, 8);
+        // 7也表示周日
+        if ((dow & (1L << 7)) != 0) {
+            dow = (dow | 1L) & ~(1L << 7);
+        }
+        this.daysOfWeek = dow;
+
+        if (timeZone.useDaylightTime()) {
+            this.offsetMillis = 0;
+            this.generator = validator;
+        } else {
+            this.offsetMillis = timeZone.getRawOffset();
+            this.generator = null;
+        }
+    }
+
+    public String getExpression() {
+        return this.expression;
+    }
+
+    public Date next(Date from) {
+        return new Date(next(from.getTime()));
+    }
+
+    /**
+     * 严格晚于from（按秒截断）的下一个触发时间
+     */
+    public long next(long from) {
+        if (this.generator != null) {
+            return this.generator.next(new Date(from)).getTime();
+        }
+
+        long local = floorDiv(from + this.offsetMillis, 1000) + 1;
+        long startDay = floorDiv(local, SECONDS_PER_DAY);
+
+        while (true) {
+            long day = floorDiv(local, SECONDS_PER_DAY);
+            if ((day - startDay) > MAX_SEARCH_DAYS) {
+                throw new IllegalStateException("Invalid cron expression \"" + this.expression
+                                                + "\" led to runaway search for next trigger");
+            }
+
+            // 由天数算出年月日，见 http://howardhinnant.github.io/date_algorithms.html
+            long z = day + 719468;
+            long era = (z >= 0 ? z : z - 146096) / 146097;
+            long doe = z - (era * 146097);
+            long yoe = ((doe - (doe / 1460)) + (doe / 36524) - (doe / 146096)) / 365;
+            long doy = doe - (((365 * yoe) + (yoe / 4)) - (yoe / 100));
+            long mp = ((5 * doy) + 2) / 153;
+            int dayOfMonth = (int) ((doy - (((153 * mp) + 2) / 5)) + 1);
+            int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+            long year = (yoe + (era * 400)) + (month <= 2 ? 1 : 0);
+
+            if ((this.months & (1L << month)) == 0) {
+                // 跳到下个月1号
+                int nextMonth = month == 12 ? 1 : month + 1;
+                long nextYear = month == 12 ? year + 1 : year;
+                local = daysFromCivil(nextYear, nextMonth, 1) * SECONDS_PER_DAY;
+                continue;
+            }
+
+            int dayOfWeek = (int) floorMod(day + 4, 7);
+            if (((this.daysOfMonth & (1L << dayOfMonth)) == 0) || ((this.daysOfWeek & (1L << dayOfWeek)) == 0)) {
+                local = (day + 1) * SECONDS_PER_DAY;
+                continue;
+            }
+
+            long dayStart = day * SECONDS_PER_DAY;
+            int secondOfDay = (int) (local - dayStart);
+            int hour = secondOfDay / 3600;
+            int minute = (secondOfDay / 60) % 60;
+            int second = secondOfDay % 60;
+
+            int nextHour = nextSetBit(this.hours, hour);
+            if (nextHour < 0) {
+                local = dayStart + SECONDS_PER_DAY;
+                continue;
+            }
+            if (nextHour > hour) {
+                local = dayStart + (nextHour * 3600L);
+                continue;
+            }
+
+            int nextMinute = nextSetBit(this.minutes, minute);
+            if (nextMinute < 0) {
+                local = dayStart + ((hour + 1) * 3600L);
+                continue;
+            }
+            if (nextMinute > minute) {
+                local = dayStart + (hour * 3600L) + (nextMinute * 60L);
+                continue;
+            }
+
+            int nextSecond = nextSetBit(this.seconds, second);
+            if (nextSecond < 0) {
+                local = dayStart + (hour * 3600L) + ((minute + 1) * 60L);
+                continue;
+            }
+
+            return ((dayStart + (hour * 3600L) + (minute * 60L) + nextSecond) * 1000) - this.offsetMillis;
+        }
+    }
+
+    /**
+     * 从from开始连续n个触发时间
+     */
+    public long[] nextN(long from, int n) {
+        long[] result = new long[n];
+        long time = from;
+        for (int i = 0; i < n; i++) {
+            time = next(time);
+            result[i] = time;
+        }
+        return result;
+    }
+
+    private static int nextSetBit(long bits, int from) {
+        long masked = bits & (-1L << from);
+        return masked == 0 ? -1 : Long.numberOfTrailingZeros(masked);
+    }
+
+    private static long daysFromCivil(long year, int month, int dayOfMonth) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - (era * 400);
+        long doy = ((((153 * (month > 2 ? month - 3 : month + 9)) + 2) / 5) + dayOfMonth) - 1;
+        long doe = (((yoe * 365) + (yoe / 4)) - (yoe / 100)) + doy;
+        return ((era * 146097) + doe) - 719468;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long r = x / y;
+        if (((x % y) != 0) && ((x < 0) != (y < 0))) {
+            r--;
+        }
+        return r;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - (floorDiv(x, y) * y);
+    }
+
+    private static String replaceOrdinals(String value, String commaSeparatedList) {
+        String[] list = StringUtils.split(commaSeparatedList, ',');
+        String result = value.toUpperCase();
+        for (int i = 0; i < list.length; i++) {
+            result = StringUtils.replace(result, list[i], String.valueOf(i));
+        }
+        return result;
+    }
+
+    private static long parseField(String value, int min, int max) {
+        long bits = 0;
+        for (String field : StringUtils.split(value, ',')) {
+            if (field.indexOf('/') < 0) {
+                int[] range = getRange(field, min, max);
+                for (int i = range[0]; i <= range[1]; i++) {
+                    bits |= 1L << i;
+                }
+            } else {
+                String[] split = StringUtils.split(field, '/');
+                int[] range = getRange(split[0], min, max);
+                if (split[0].indexOf('-') < 0) {
+                    range[1] = max - 1;
+                }
+                int delta = Integer.parseInt(split[1]);
+                for (int i = range[0]; i <= range[1]; i += delta) {
+                    bits |= 1L << i;
+                }
+            }
+        }
+        return bits;
+    }
+
+    private static int[] getRange(String field, int min, int max) {
+        int[] result = new int[2];
+        if (field.indexOf('*') >= 0) {
+            result[0] = min;
+            result[1] = max - 1;
+            return result;
+        }
+        if (field.indexOf('-') < 0) {
+            result[0] = result[1] = Integer.parseInt(field);
+        } else {
+            String[] split = StringUtils.split(field, '-');
+            result[0] = Integer.parseInt(split[0]);
+            result[1] = Integer.parseInt(split[1]);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CronExpression [" + this.expression + "]";
+    }
+
+}
@@ -1,13 +1,26 @@
 package com.yeahmobi.yscheduler.common;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
-import org.springframework.scheduling.support.CronSequenceGenerator;
 import org.springframework.scheduling.support.CronTrigger;
 
 public class CrontabUtils {
 
+    /** 缓存的表达式个数上限，不同的crontab通常远小于task数 */
+    private static final int                         CACHE_SIZE   = 4096;
+
+    /** 按原始表达式缓存编译结果，LRU淘汰 */
+    private static final Map<String, CronExpression> CACHE        = new CronExpressionCache();
+
+    /** 是否允许秒级的调度时间，由调度器的精确触发模式决定 */
+    private static final boolean                     SECOND_LEVEL = Boolean.parseBoolean(System.getProperty("ysheduler.schedule.precise",
+                                                                                                            "false"));
+
     /**
      * 兼容linux crontab，把5位的crontab表达式补全到6位
      */
@@ -26,7 +39,7 @@ public class CrontabUtils {
         }
 
         // quartz表达式秒位不是0
-        if (!newCrontab.trim().startsWith("0 ")) {
+        if (!SECOND_LEVEL && !newCrontab.trim().startsWith("0 ")) {
             throw new IllegalArgumentException("调度时间只支持到分钟级别！");
         }
         if (padding) {
@@ -36,12 +49,58 @@ public class CrontabUtils {
         }
     }
 
+    public static boolean isSecondLevelEnabled() {
+        return SECOND_LEVEL;
+    }
+
+    /**
+     * 获取编译好的表达式，首次使用时校验并编译
+     */
+    public static CronExpression compile(String expression) {
+        CronExpression compiled;
+        synchronized (CACHE) {
+            compiled = CACHE.get(expression);
+        }
+        if (compiled == null) {
+            compiled = new CronExpression(normalize(expression, true), Constants.TIMEZONE);
+            synchronized (CACHE) {
+                CACHE.put(expression, compiled);
+            }
+        }
+        return compiled;
+    }
+
     public static Date next(String expression, Date from) {
-        CronSequenceGenerator generator = new CronSequenceGenerator(normalize(expression, true), Constants.TIMEZONE);
-        return generator.next(from);
+        return compile(expression).next(from);
+    }
+
+    /**
+     * 从from开始连续n个触发时间
+     */
+    public static List<Date> nextN(String expression, Date from, int n) {
+        long[] times = compile(expression).nextN(from.getTime(), n);
+        List<Date> result = new ArrayList<Date>(n);
+        for (long time : times) {
+            result.add(new Date(time));
+        }
+        return result;
     }
 
     public static boolean validateLastScheduleTime(String expression, Date lastTime, Date time) {
         return time.equals(next(expression, lastTime));
     }
+
+    private static class CronExpressionCache extends LinkedHashMap<String, CronExpression> {
+
+        private static final long serialVersionUID = 1L;
+
+        public CronExpressionCache() {
+            super(256, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CronExpression> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    }
 }
@@ -17,6 +17,17 @@ public interface FileServer {
      */
     public void write(String nameSpace, String fileName, byte[] data, boolean append) throws FileServerException;
 
+    /**
+     * 同write，只写入data中从offset开始的length个字节，避免调用方为截取数据而复制
+     */
+    public void write(String nameSpace, String fileName, byte[] data, int offset, int length, boolean append)
+                                                                                                           throws FileServerException;
+
+    /**
+     * 保证之前写入的数据都已写到文件，在文件不再写入时调用(如attempt结束)，实现可借此释放该文件占用的资源
+     */
+    public void flush(String nameSpace, String fileName) throws FileServerException;
+
     /**
      * 获得下载链接，包括协议类型(HTTP, FTP等)，具体由fileServer决定
      */
@@ -32,4 +43,14 @@ public interface FileServer {
      */
     public byte[] getContent(String nameSpace, String fileName, int byteLimit) throws FileServerException;
 
+    /**
+     * 获得文件从<code>offset</code>开始的内容，最多<code>byteLimit</code>字节，offset不小于文件长度时返回空数组，用于增量读取
+     */
+    public byte[] getContent(String nameSpace, String fileName, long offset, int byteLimit) throws FileServerException;
+
+    /**
+     * 文件长度，文件不存在时返回0
+     */
+    public long getLength(String nameSpace, String fileName) throws FileServerException;
+
 }
@@ -0,0 +1,440 @@
+package com.yeahmobi.yscheduler.common.fileserver.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.yeahmobi.yscheduler.common.fileserver.FileServerException;
+
+/**
+ * 写缓冲的LocalFileBasedFileServer：每个文件的写入先在内存中合并，再通过保持打开的FileChannel批量追加，
+ * 不再每次写入都打开关闭文件；同时打开的文件数按LRU限制，被淘汰的只关闭文件，缓冲保留。<br>
+ * 持久性约定：
+ * <ul>
+ * <li>write返回时数据可能只在内存中</li>
+ * <li>以下情况数据会写入文件(操作系统缓存)：缓冲超过bufferSize；最早一次未写入的数据超过flushInterval；
+ * 调用flush；读取该文件(exists/getContent/getFileFromDownloadLink)；close</li>
+ * <li>进程崩溃时，每个文件最多丢失最近flushInterval内且不超过bufferSize的数据，文件中已有的内容始终是完整的前缀</li>
+ * <li>机器掉电时还取决于操作系统刷盘，syncOnFlush为true时flush和close会调用force保证落盘</li>
+ * </ul>
+ * 后台写入失败时未写出的数据保留在缓冲中，异常在该文件下一次write或flush时抛出；
+ * 部分写出后失败时，已写出的部分从缓冲中移除，不经缓冲直接写的大块数据则把文件截断回写入前的长度，重试不会产生重复内容。
+ */
+public class BufferedFileServer extends LocalFileBasedFileServer {
+
+    /** 单个文件缓冲的上限(字节) */
+    private int                                     bufferSize    = 64 * 1024;
+
+    /** 数据在内存中最多停留的时间(毫秒) */
+    private long                                    flushInterval = 1000;
+
+    /** 最多同时打开的文件数 */
+    private int                                     maxOpenFiles  = 512;
+
+    /** 超过该时间(毫秒)没有写入的文件释放缓冲 */
+    private long                                    idleTimeout   = 60 * 1000;
+
+    private boolean                                 syncOnFlush   = false;
+
+    private final ConcurrentHashMap<File, Appender> appenders     = new ConcurrentHashMap<File, Appender>();
+
+    /** 打开了文件的appender，按访问顺序排列，用于LRU淘汰 */
+    private final Map<Appender, Boolean>            openFiles     = new LinkedHashMap<Appender, Boolean>(16,
+                                                                                                       0.75f, true);
+
+    private ScheduledExecutorService                flusher;
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public void setSyncOnFlush(boolean syncOnFlush) {
+        this.syncOnFlush = syncOnFlush;
+    }
+
+    public synchronized void start() {
+        if (this.flusher != null) {
+            return;
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fileserver-flusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(this.flushInterval / 4, 10);
+        this.flusher.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                flushExpired();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台刷新，写出并关闭所有文件
+     */
+    public synchronized void close() throws FileServerException {
+        if (this.flusher != null) {
+            this.flusher.shutdownNow();
+            this.flusher = null;
+        }
+        IOException failure = null;
+        for (Appender appender : new ArrayList<Appender>(this.appenders.values())) {
+            try {
+                release(appender, this.syncOnFlush);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw new FileServerException("Flush files failed when close.", failure);
+        }
+    }
+
+    @Override
+    public void write(String nameSpace, String fileName, byte[] data, int offset, int length, boolean append)
+                                                                                                           throws FileServerException {
+        File file = getFile(nameSpace, fileName);
+        try {
+            Appender appender;
+            // 拿到的appender可能刚被flush或空闲清理关闭，重新获取
+            do {
+                appender = getAppender(file);
+            } while (!appender.write(data, offset, length, append));
+            touch(appender);
+        } catch (IOException e) {
+            throw new FileServerException(String.format("Append file failed(nameSpace=%s, fileName=%s).", nameSpace,
+                                                        fileName), e);
+        }
+    }
+
+    /**
+     * 写出该文件的缓冲并关闭文件，之后再写入会重新打开
+     */
+    @Override
+    public void flush(String nameSpace, String fileName) throws FileServerException {
+        Appender appender = this.appenders.get(getFile(nameSpace, fileName));
+        if (appender != null) {
+            try {
+                release(appender, this.syncOnFlush);
+            } catch (IOException e) {
+                throw new FileServerException(String.format("Flush file failed(nameSpace=%s, fileName=%s).",
+                                                            nameSpace, fileName), e);
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(String nameSpace, String fileName) throws FileServerException {
+        flushQuietly(getFile(nameSpace, fileName));
+        return super.exists(nameSpace, fileName);
+    }
+
+    @Override
+    public byte[] getContent(String nameSpace, String fileName, int byteLimit) throws FileServerException {
+        flushQuietly(getFile(nameSpace, fileName));
+        return super.getContent(nameSpace, fileName, byteLimit);
+    }
+
+    @Override
+    public byte[] getContent(String nameSpace, String fileName, long offset, int byteLimit)
+                                                                                         throws FileServerException {
+        flushQuietly(getFile(nameSpace, fileName));
+        return super.getContent(nameSpace, fileName, offset, byteLimit);
+    }
+
+    @Override
+    public long getLength(String nameSpace, String fileName) throws FileServerException {
+        flushQuietly(getFile(nameSpace, fileName));
+        return super.getLength(nameSpace, fileName);
+    }
+
+    @Override
+    public File getFileFromDownloadLink(String downloadLink) {
+        File file = super.getFileFromDownloadLink(downloadLink);
+        flushQuietly(file);
+        return file;
+    }
+
+    /**
+     * 以追加或覆盖方式打开文件
+     */
+    FileChannel openChannel(File file, boolean append) throws IOException {
+        return FileUtils.openOutputStream(file, append).getChannel();
+    }
+
+    private Appender getAppender(File file) {
+        if (this.flusher == null) {
+            start();
+        }
+        Appender appender = this.appenders.get(file);
+        if (appender == null) {
+            Appender created = new Appender(file);
+            appender = this.appenders.putIfAbsent(file, created);
+            if (appender == null) {
+                appender = created;
+            }
+        }
+        return appender;
+    }
+
+    /**
+     * 更新打开文件的LRU顺序，超出上限时关闭最久未用的文件。<br>
+     * 在appender的锁外调用，避免两个appender互相等待
+     */
+    private void touch(Appender appender) {
+        if (!appender.isOpen()) {
+            return;
+        }
+        List<Appender> evicted = null;
+        synchronized (this.openFiles) {
+            this.openFiles.put(appender, Boolean.TRUE);
+            if (this.openFiles.size() > this.maxOpenFiles) {
+                evicted = new ArrayList<Appender>();
+                Iterator<Appender> it = this.openFiles.keySet().iterator();
+                while (this.openFiles.size() > this.maxOpenFiles) {
+                    evicted.add(it.next());
+                    it.remove();
+                }
+            }
+        }
+        if (evicted != null) {
+            for (Appender e : evicted) {
+                e.closeFile();
+            }
+        }
+    }
+
+    /**
+     * 写出缓冲，关闭文件，并从管理中移除；写出失败时缓冲保留，appender仍可继续使用
+     */
+    private void release(Appender appender, boolean sync) throws IOException {
+        synchronized (this.openFiles) {
+            this.openFiles.remove(appender);
+        }
+        appender.close(sync);
+        this.appenders.remove(appender.file, appender);
+    }
+
+    /**
+     * 读取前写出缓冲，保证读到已写入的全部数据；失败时读到的只是旧内容，异常留到下次写入时抛出
+     */
+    private void flushQuietly(File file) {
+        Appender appender = this.appenders.get(file);
+        if (appender != null) {
+            appender.flushQuietly();
+            touch(appender);
+        }
+    }
+
+    private void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (Appender appender : this.appenders.values()) {
+            if (appender.isIdle(now - this.idleTimeout)) {
+                try {
+                    release(appender, false);
+                } catch (IOException e) {
+                    // 缓冲为空，只是关闭文件失败
+                }
+            } else if (appender.isExpired(now - this.flushInterval)) {
+                appender.flushQuietly();
+                touch(appender);
+            }
+        }
+    }
+
+    /**
+     * 单个文件的写缓冲和打开的FileChannel
+     */
+    private class Appender {
+
+        private final File           file;
+        private volatile FileChannel channel;
+        private byte[]               buffer;
+        private volatile int         count;
+        /** 缓冲中最早的数据写入的时间 */
+        private volatile long        bufferedTime;
+        private volatile long        lastWriteTime = System.currentTimeMillis();
+        private IOException          failure;
+        private boolean              closed;
+
+        Appender(File file) {
+            this.file = file;
+        }
+
+        boolean isOpen() {
+            return this.channel != null;
+        }
+
+        boolean isExpired(long expireTime) {
+            return (this.count > 0) && (this.bufferedTime <= expireTime);
+        }
+
+        boolean isIdle(long idleTime) {
+            return (this.count == 0) && (this.lastWriteTime <= idleTime);
+        }
+
+        /**
+         * @return 已被关闭时返回false，调用方需重新获取
+         */
+        synchronized boolean write(byte[] data, int offset, int length, boolean append) throws IOException {
+            if (this.closed) {
+                return false;
+            }
+            this.lastWriteTime = System.currentTimeMillis();
+            if (!append) {
+                // 覆盖写，丢弃缓冲，截断文件
+                this.count = 0;
+                this.failure = null;
+                closeFile();
+                this.channel = openChannel(this.file, false);
+            }
+            if ((this.count + length) > BufferedFileServer.this.bufferSize) {
+                flush(false);
+                if (length >= BufferedFileServer.this.bufferSize) {
+                    // 大块数据直接写
+                    writeDirectly(data, offset, length);
+                    return true;
+                }
+            } else {
+                throwFailure();
+            }
+            ensureCapacity(this.count + length);
+            System.arraycopy(data, offset, this.buffer, this.count, length);
+            if (this.count == 0) {
+                this.bufferedTime = this.lastWriteTime;
+            }
+            this.count += length;
+            return true;
+        }
+
+        synchronized void flush(boolean sync) throws IOException {
+            throwFailure();
+            if (this.count > 0) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(this.buffer, 0, this.count);
+                try {
+                    writeFully(byteBuffer);
+                } finally {
+                    // 部分写出后失败时只保留未写出的部分，重试时不会重复写入
+                    int written = byteBuffer.position();
+                    System.arraycopy(this.buffer, written, this.buffer, 0, this.count - written);
+                    this.count -= written;
+                }
+            }
+            if (sync && (this.channel != null)) {
+                this.channel.force(false);
+            }
+        }
+
+        synchronized void flushQuietly() {
+            if ((this.count > 0) && (this.failure == null)) {
+                try {
+                    flush(false);
+                } catch (IOException e) {
+                    this.failure = e;
+                }
+            }
+        }
+
+        /**
+         * 只关闭文件，缓冲保留，下次写出时重新打开
+         */
+        synchronized void closeFile() {
+            IOUtils.closeQuietly(this.channel);
+            this.channel = null;
+        }
+
+        synchronized void close(boolean sync) throws IOException {
+            if (this.closed) {
+                return;
+            }
+            try {
+                flush(sync);
+            } finally {
+                closeFile();
+            }
+            this.closed = true;
+            this.buffer = null;
+        }
+
+        private void writeFully(ByteBuffer byteBuffer) throws IOException {
+            if (this.channel == null) {
+                this.channel = openChannel(this.file, true);
+            }
+            while (byteBuffer.hasRemaining()) {
+                this.channel.write(byteBuffer);
+            }
+        }
+
+        /**
+         * 失败时截断回写入前的长度，调用方重试整块数据时不会重复写入
+         */
+        private void writeDirectly(byte[] data, int offset, int length) throws IOException {
+            if (this.channel == null) {
+                this.channel = openChannel(this.file, true);
+            }
+            long size = this.channel.size();
+            try {
+                writeFully(ByteBuffer.wrap(data, offset, length));
+            } catch (IOException e) {
+                try {
+                    this.channel.truncate(size);
+                } catch (IOException truncateFailure) {
+                    // 无法截断时关闭文件，下次写入重新打开
+                    closeFile();
+                }
+                throw e;
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (this.buffer == null) {
+                // 大部分文件写入量很小，缓冲按需增长
+                this.buffer = new byte[Math.max(Math.min(4096, BufferedFileServer.this.bufferSize), capacity)];
+            } else if (this.buffer.length < capacity) {
+                byte[] newBuffer = new byte[Math.min(Math.max(this.buffer.length * 2, capacity),
+                                                     BufferedFileServer.this.bufferSize)];
+                System.arraycopy(this.buffer, 0, newBuffer, 0, this.count);
+                this.buffer = newBuffer;
+            }
+        }
+
+        private void throwFailure() throws IOException {
+            if (this.failure != null) {
+                IOException e = this.failure;
+                this.failure = null;
+                throw e;
+            }
+        }
+    }
+
+}
@@ -2,7 +2,9 @@ package com.yeahmobi.yscheduler.common.fileserver.impl;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -41,15 +43,31 @@ public class LocalFileBasedFileServer implements FileServer {
     }
 
     public void write(String nameSpace, String fileName, byte[] data, boolean append) throws FileServerException {
+        write(nameSpace, fileName, data, 0, data.length, append);
+    }
+
+    public void write(String nameSpace, String fileName, byte[] data, int offset, int length, boolean append)
+                                                                                                           throws FileServerException {
+        FileOutputStream out = null;
         try {
-            FileUtils.writeByteArrayToFile(getFile(nameSpace, fileName), data, append);
+            out = FileUtils.openOutputStream(getFile(nameSpace, fileName), append);
+            out.write(data, offset, length);
+            out.close();
         } catch (IOException e) {
             throw new FileServerException(String.format("Append file failed(nameSpace=%s, fileName=%s).", nameSpace,
                                                         fileName), e);
+        } finally {
+            IOUtils.closeQuietly(out);
         }
     }
 
-    private File getFile(String nameSpace, String fileName) {
+    /**
+     * 每次写入都直接写文件，无需flush
+     */
+    public void flush(String nameSpace, String fileName) throws FileServerException {
+    }
+
+    protected File getFile(String nameSpace, String fileName) {
         return new File(this.baseDir, getFilePath(nameSpace, fileName));
     }
 
@@ -91,6 +109,31 @@ public class LocalFileBasedFileServer implements FileServer {
         }
     }
 
+    public byte[] getContent(String nameSpace, String fileName, long offset, int byteLimit)
+                                                                                         throws FileServerException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(getFile(nameSpace, fileName), "r");
+            long available = raf.length() - offset;
+            if (available <= 0) {
+                return new byte[0];
+            }
+            byte[] data = new byte[(int) Math.min(available, byteLimit)];
+            raf.seek(offset);
+            raf.readFully(data);
+            return data;
+        } catch (IOException e) {
+            throw new FileServerException(String.format("Get file content failed(nameSpace=%s, fileName=%s, offset=%d).",
+                                                        nameSpace, fileName, offset), e);
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    public long getLength(String nameSpace, String fileName) throws FileServerException {
+        return getFile(nameSpace, fileName).length();
+    }
+
     /**
      * 此方法是Local实现的独有，通过下载连接，获取File对象（downloadLink 不含 contextPath）
      */
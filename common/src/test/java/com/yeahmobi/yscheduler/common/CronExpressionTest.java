@@ -0,0 +1,318 @@
+package com.yeahmobi.yscheduler.common;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.scheduling.support.CronSequenceGenerator;
+
+/**
+ * 用固定种子随机生成的表达式和时间，对比CronExpression与原来的CronSequenceGenerator
+ */
+public class CronExpressionTest {
+
+    private static final int  EXPRESSIONS = 500;
+
+    private static final int  TIMES       = 40;
+
+    /** 2014-05-13 至 2015-06-17 */
+    private static final long BEGIN       = 1400000000000L;
+
+    private static final long RANGE       = 400L * 24 * 3600 * 1000;
+
+    @Test
+    public void testRandomExpressions() {
+        Random random = new Random(0);
+        int same = 0;
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            String expression = randomExpression(random);
+            same += assertSameAsOld(expression, Constants.TIMEZONE, random, TIMES);
+        }
+        // 只有少数时间点原实现的结果有误
+        Assert.assertTrue(same > ((EXPRESSIONS * TIMES * 9) / 10));
+    }
+
+    @Test
+    public void testFixedExpressions() {
+        String[] expressions = { "0 * * * * *", "0 */5 * * * *", "0 0 * * * *", "0 30 2 * * *",
+                "0 0 9-18 * * MON-FRI", "0 15,45 */2 1,15 * *", "0 0 0 29 2 *", "0 0 12 ? JAN,JUL SUN",
+                "0 10-40/3 0-5,20 * * 0-7", "0 0 0 31 * *", "0 59 23 31 12 *" };
+        Random random = new Random(0);
+        for (String expression : expressions) {
+            assertSameAsOld(expression, Constants.TIMEZONE, random, TIMES);
+        }
+    }
+
+    @Test
+    public void testOffsetTimeZone() {
+        Random random = new Random(0);
+        TimeZone timeZone = TimeZone.getTimeZone("GMT+8:00");
+        for (int i = 0; i < 50; i++) {
+            assertSameAsOld(randomExpression(random), timeZone, random, TIMES);
+        }
+    }
+
+    /**
+     * 有夏令时的时区退化为CronSequenceGenerator
+     */
+    @Test
+    public void testDaylightTimeZone() {
+        Random random = new Random(0);
+        TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+        for (int i = 0; i < 50; i++) {
+            assertSameAsOld(randomExpression(random), timeZone, random, 10);
+        }
+    }
+
+    /**
+     * 秒级的表达式。spring 4.0.0的CronSequenceGenerator跳到后面的分钟时不会把秒重置，不能作为对照
+     */
+    @Test
+    public void testSecondLevel() {
+        assertNext("*/10 * * * * *", "2014-12-14 15:12:31", "2014-12-14 15:12:40");
+        assertNext("*/10 * * * * *", "2014-12-14 15:12:50", "2014-12-14 15:13:00");
+        assertNext("*/32 7,18 * * * *", "2014-12-14 15:12:31", "2014-12-14 15:18:00");
+        assertNext("*/32 7,18 * * * *", "2014-12-14 15:18:00", "2014-12-14 15:18:32");
+        assertNext("*/32 7,18 * * * *", "2014-12-14 15:18:32", "2014-12-14 16:07:00");
+        assertNext("30 59 23 31 12 *", "2014-12-31 23:59:30", "2015-12-31 23:59:30");
+        assertNext("5,15 0 0 * * *", "2014-12-31 23:59:59", "2015-01-01 00:00:05");
+    }
+
+    @Test
+    public void testNextN() {
+        CronExpression expression = new CronExpression("0 0 9-18 * * MON-FRI", Constants.TIMEZONE);
+        long[] times = expression.nextN(BEGIN, 100);
+        long time = BEGIN;
+        for (long next : times) {
+            Assert.assertEquals(expression.next(time), next);
+            Assert.assertTrue(next > time);
+            time = next;
+        }
+    }
+
+    @Test
+    public void testCrontabUtils() {
+        Date from = new Date(BEGIN);
+        // 5位的linux crontab补齐秒位
+        Assert.assertEquals(oldNext("0 5 4 * * *", Constants.TIMEZONE, from), CrontabUtils.next("5 4 * * *", from));
+        Assert.assertSame(CrontabUtils.compile("5 4 * * *"), CrontabUtils.compile("5 4 * * *"));
+
+        List<Date> dates = CrontabUtils.nextN("0 */5 * * * *", from, 3);
+        Assert.assertEquals(3, dates.size());
+        Assert.assertEquals(CrontabUtils.next("0 */5 * * * *", from), dates.get(0));
+        Assert.assertEquals(CrontabUtils.next("0 */5 * * * *", dates.get(1)), dates.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidExpression() {
+        CrontabUtils.next("0 0 25 * * *", new Date(BEGIN));
+    }
+
+    /**
+     * 与原实现比较。原实现(spring 4.0.0)跳到下一小时或下一天时有时不会重置低位字段，返回不匹配表达式的时间，
+     * 这种情况下用逐天、逐分钟检查的方式确认新实现的结果是from之后第一个匹配的时间
+     *
+     * @return 与原实现结果一致的次数
+     */
+    private int assertSameAsOld(String expression, TimeZone timeZone, Random random, int times) {
+        CronExpression compiled = new CronExpression(expression, timeZone);
+        Matcher matcher = new Matcher(expression, timeZone);
+        int same = 0;
+        for (int i = 0; i < times; i++) {
+            Date from = new Date(BEGIN + (long) (random.nextDouble() * RANGE));
+            Date expected;
+            try {
+                expected = oldNext(expression, timeZone, from);
+            } catch (IllegalArgumentException e) {
+                // 原实现只往后找366天
+                if (timeZone.useDaylightTime()) {
+                    continue;
+                }
+                expected = null;
+            }
+            Date actual = compiled.next(from);
+            String message = expression + " from " + from;
+            if (actual.equals(expected)) {
+                same++;
+            } else {
+                if (expected != null) {
+                    Assert.assertFalse(message + ", old " + expected, matcher.matches(expected));
+                }
+                Assert.assertEquals(message, matcher.next(from), actual);
+            }
+        }
+        return same;
+    }
+
+    /**
+     * 不依赖被测代码的逐字段匹配，只支持秒位为0的表达式
+     */
+    private static class Matcher {
+
+        private final boolean[] minutes;
+        private final boolean[] hours;
+        private final boolean[] daysOfMonth;
+        private final boolean[] months;
+        private final boolean[] daysOfWeek;
+        private final TimeZone  timeZone;
+
+        Matcher(String expression, TimeZone timeZone) {
+            String[] fields = expression.toUpperCase().replace('?', '*').split(" ");
+            Assert.assertEquals("0", fields[0]);
+            String[] monthNames = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV",
+                    "DEC" };
+            for (int i = 0; i < monthNames.length; i++) {
+                fields[4] = fields[4].replace(monthNames[i], String.valueOf(i + 1));
+            }
+            String[] dayNames = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+            for (int i = 0; i < dayNames.length; i++) {
+                fields[5] = fields[5].replace(dayNames[i], String.valueOf(i));
+            }
+            this.minutes = parse(fields[1], 0, 59);
+            this.hours = parse(fields[2], 0, 23);
+            // 与spring一致，日的*/n从0开始计算
+            this.daysOfMonth = parse(fields[3], 0, 31);
+            this.months = parse(fields[4], 1, 12);
+            this.daysOfWeek = parse(fields[5], 0, 7);
+            this.daysOfWeek[0] |= this.daysOfWeek[7];
+            this.timeZone = timeZone;
+        }
+
+        boolean matches(Date time) {
+            Calendar calendar = Calendar.getInstance(this.timeZone);
+            calendar.setTime(time);
+            return matchesDay(calendar) && (calendar.get(Calendar.MILLISECOND) == 0)
+                   && (calendar.get(Calendar.SECOND) == 0) && this.hours[calendar.get(Calendar.HOUR_OF_DAY)]
+                   && this.minutes[calendar.get(Calendar.MINUTE)];
+        }
+
+        /**
+         * 从from的下一分钟开始逐天、逐分钟找第一个匹配的时间
+         */
+        Date next(Date from) {
+            Calendar calendar = Calendar.getInstance(this.timeZone);
+            calendar.setTime(from);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            calendar.add(Calendar.MINUTE, 1);
+            for (int day = 0; day < (366 * 8); day++) {
+                if (matchesDay(calendar)) {
+                    int date = calendar.get(Calendar.DATE);
+                    while (calendar.get(Calendar.DATE) == date) {
+                        if (matches(calendar.getTime())) {
+                            return calendar.getTime();
+                        }
+                        calendar.add(Calendar.MINUTE, 1);
+                    }
+                } else {
+                    calendar.add(Calendar.DATE, 1);
+                    calendar.set(Calendar.HOUR_OF_DAY, 0);
+                    calendar.set(Calendar.MINUTE, 0);
+                }
+            }
+            throw new IllegalStateException("No match after " + from);
+        }
+
+        private boolean matchesDay(Calendar calendar) {
+            return this.daysOfMonth[calendar.get(Calendar.DAY_OF_MONTH)]
+                   && this.months[calendar.get(Calendar.MONTH) + 1]
+                   && this.daysOfWeek[calendar.get(Calendar.DAY_OF_WEEK) - 1];
+        }
+
+        private static boolean[] parse(String field, int min, int max) {
+            boolean[] result = new boolean[max + 1];
+            for (String part : field.split(",")) {
+                String range = part;
+                int step = 1;
+                if (part.contains("/")) {
+                    range = part.substring(0, part.indexOf('/'));
+                    step = Integer.parseInt(part.substring(part.indexOf('/') + 1));
+                }
+                int begin;
+                int end;
+                if (range.equals("*")) {
+                    begin = min;
+                    end = max;
+                } else if (range.contains("-")) {
+                    begin = Integer.parseInt(range.substring(0, range.indexOf('-')));
+                    end = Integer.parseInt(range.substring(range.indexOf('-') + 1));
+                } else {
+                    begin = Integer.parseInt(range);
+                    end = part.contains("/") ? max : begin;
+                }
+                for (int i = begin; i <= end; i += step) {
+                    result[i] = true;
+                }
+            }
+            return result;
+        }
+    }
+
+    private void assertNext(String expression, String from, String expected) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        format.setTimeZone(Constants.TIMEZONE);
+        try {
+            Date actual = new CronExpression(expression, Constants.TIMEZONE).next(format.parse(from));
+            Assert.assertEquals(expression + " from " + from, expected, format.format(actual));
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * 原来的CrontabUtils.next
+     */
+    private Date oldNext(String expression, TimeZone timeZone, Date from) {
+        return new CronSequenceGenerator(expression, timeZone).next(from);
+    }
+
+    private String randomExpression(Random random) {
+        StringBuilder sb = new StringBuilder();
+        // 原实现只允许分钟级的表达式
+        sb.append("0 ");
+        sb.append(randomField(random, 0, 59)).append(' ');
+        sb.append(randomField(random, 0, 23)).append(' ');
+        // 日不超过28，避免与月份组合成不可能触发的表达式
+        sb.append(randomField(random, 1, 28)).append(' ');
+        sb.append(randomField(random, 1, 12)).append(' ');
+        sb.append(random.nextInt(3) == 0 ? randomField(random, 0, 6) : "*");
+        return sb.toString();
+    }
+
+    private String randomField(Random random, int min, int max) {
+        if (random.nextInt(5) == 0) {
+            return "*";
+        }
+        int count = random.nextInt(3) + 1;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            int a = min + random.nextInt((max - min) + 1);
+            int b = min + random.nextInt((max - min) + 1);
+            switch (random.nextInt(5)) {
+                case 1:
+                    sb.append("*/").append(random.nextInt(max - min) + 1);
+                    break;
+                case 2:
+                    sb.append(Math.min(a, b)).append('-').append(Math.max(a, b));
+                    break;
+                case 3:
+                    sb.append(Math.min(a, b)).append('-').append(Math.max(a, b)).append('/')
+                      .append(random.nextInt(5) + 1);
+                    break;
+                default:
+                    sb.append(a);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.yeahmobi.yscheduler.common;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.springframework.scheduling.support.CronSequenceGenerator;
+
+/**
+ * 对比每次新建CronSequenceGenerator（原实现）与编译缓存后的CrontabUtils.next的吞吐，直接运行main即可。<br>
+ * 运行前会先用随机时间校验两者结果一致。
+ */
+public class CrontabUtilsBenchmark {
+
+    private static final String[] CRONTABS   = { "0 * * * * *", "0 */5 * * * *", "0 0 * * * *", "0 30 2 * * *",
+            "0 0 9-18 * * MON-FRI", "0 15,45 */2 1,15 * *", "0 0 0 29 2 *", "0 0 12 ? JAN,JUL SUN",
+            "0 10-40/3 0-5,20 * * 0-7", "5 4 * * *" };
+
+    private static final int      ITERATIONS = 200000;
+
+    public static void main(String[] args) {
+        verify();
+
+        // 预热
+        runOld(ITERATIONS);
+        runNew(ITERATIONS);
+
+        long begin = System.nanoTime();
+        runOld(ITERATIONS);
+        long oldNanos = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        runNew(ITERATIONS);
+        long newNanos = System.nanoTime() - begin;
+
+        System.out.println(String.format("old next(): %.0f ops/s", (ITERATIONS * 1e9) / oldNanos));
+        System.out.println(String.format("new next(): %.0f ops/s", (ITERATIONS * 1e9) / newNanos));
+    }
+
+    private static void verify() {
+        Random random = new Random(0);
+        int pairs = 0;
+        for (String crontab : CRONTABS) {
+            for (int i = 0; i < 2000; i++, pairs++) {
+                Date from = new Date(1400000000000L + (long) (random.nextDouble() * 400L * 24 * 3600 * 1000));
+                Date expected = oldNext(crontab, from);
+                Date actual = CrontabUtils.next(crontab, from);
+                if (!expected.equals(actual)) {
+                    throw new IllegalStateException(crontab + " from " + from + ": expected " + expected + ", got "
+                                                    + actual);
+                }
+            }
+        }
+        System.out.println("verified " + pairs + " (expression, time) pairs over " + CRONTABS.length
+                           + " expressions");
+    }
+
+    private static Date oldNext(String expression, Date from) {
+        CronSequenceGenerator generator = new CronSequenceGenerator(CrontabUtils.normalize(expression, true),
+                                                                    Constants.TIMEZONE);
+        return generator.next(from);
+    }
+
+    private static long runOld(int iterations) {
+        long sum = 0;
+        Date from = new Date(1420070400000L);
+        for (int i = 0; i < iterations; i++) {
+            sum += oldNext(CRONTABS[i % 4], from).getTime();
+        }
+        return sum;
+    }
+
+    private static long runNew(int iterations) {
+        long sum = 0;
+        Date from = new Date(1420070400000L);
+        for (int i = 0; i < iterations; i++) {
+            sum += CrontabUtils.next(CRONTABS[i % 4], from).getTime();
+        }
+        return sum;
+    }
+}
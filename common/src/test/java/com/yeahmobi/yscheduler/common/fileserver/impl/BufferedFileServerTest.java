@@ -0,0 +1,357 @@
+package com.yeahmobi.yscheduler.common.fileserver.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.common.fileserver.FileServerException;
+
+/**
+ * 验证BufferedFileServer的持久性约定：读取、flush、close时数据写入文件，写入失败时数据不丢失也不重复
+ */
+public class BufferedFileServerTest {
+
+    private static final String NAMESPACE = "attempt";
+
+    private File                baseDir;
+
+    private FailingFileServer   fs;
+
+    @Before
+    public void before() throws IOException {
+        this.baseDir = File.createTempFile("fileserver", "");
+        this.baseDir.delete();
+        this.baseDir.mkdirs();
+        // 后台刷新间隔足够长，测试中只由读取、flush、close写出
+        this.fs = newFileServer(new File(this.baseDir, "buffered"), 60 * 1000);
+    }
+
+    @After
+    public void after() throws Exception {
+        this.fs.close();
+        FileUtils.deleteDirectory(this.baseDir);
+    }
+
+    /**
+     * 读取前写出缓冲，读到已写入的全部数据
+     */
+    @Test
+    public void testReadSeesBufferedData() throws Exception {
+        this.fs.write(NAMESPACE, "1.out", bytes("hello "), true);
+        this.fs.write(NAMESPACE, "1.out", bytes("world"), true);
+        // 还在缓冲中
+        Assert.assertEquals(0, rawFile("1.out").length());
+
+        Assert.assertTrue(this.fs.exists(NAMESPACE, "1.out"));
+        Assert.assertEquals("hello world", new String(this.fs.getContent(NAMESPACE, "1.out", 100), "UTF-8"));
+        Assert.assertEquals("hello", new String(this.fs.getContent(NAMESPACE, "1.out", 5), "UTF-8"));
+
+        this.fs.write(NAMESPACE, "1.out", bytes("!"), true);
+        Assert.assertEquals(12, this.fs.getLength(NAMESPACE, "1.out"));
+        Assert.assertEquals("world!", new String(this.fs.getContent(NAMESPACE, "1.out", 6L, 100), "UTF-8"));
+        Assert.assertEquals(0, this.fs.getContent(NAMESPACE, "1.out", 12L, 100).length);
+        Assert.assertEquals(0, this.fs.getLength(NAMESPACE, "2.out"));
+    }
+
+    @Test
+    public void testFlushInterval() throws Exception {
+        this.fs.close();
+        this.fs = newFileServer(new File(this.baseDir, "buffered"), 50);
+        this.fs.write(NAMESPACE, "1.out", bytes("line\n"), true);
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((rawFile("1.out").length() == 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("line\n", FileUtils.readFileToString(rawFile("1.out"), "UTF-8"));
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        this.fs.write(NAMESPACE, "1.out", bytes("abc"), true);
+        this.fs.flush(NAMESPACE, "1.out");
+        Assert.assertEquals("abc", FileUtils.readFileToString(rawFile("1.out"), "UTF-8"));
+
+        // flush后可以继续写入
+        this.fs.write(NAMESPACE, "1.out", bytes("def"), true);
+        this.fs.flush(NAMESPACE, "1.out");
+        Assert.assertEquals("abcdef", FileUtils.readFileToString(rawFile("1.out"), "UTF-8"));
+
+        // 没有写入过的文件flush不报错
+        this.fs.flush(NAMESPACE, "2.out");
+    }
+
+    @Test
+    public void testOverwrite() throws Exception {
+        this.fs.write(NAMESPACE, "1.out", bytes("old content"), true);
+        this.fs.flush(NAMESPACE, "1.out");
+        this.fs.write(NAMESPACE, "1.out", bytes("x"), true);
+        this.fs.write(NAMESPACE, "1.out", bytes("new"), false);
+        this.fs.flush(NAMESPACE, "1.out");
+        Assert.assertEquals("new", FileUtils.readFileToString(rawFile("1.out"), "UTF-8"));
+    }
+
+    /**
+     * 大量文件交替写入，打开的文件数超出上限时被淘汰的文件缓冲保留，结果与逐次写文件的LocalFileBasedFileServer一致
+     */
+    @Test
+    public void testSameAsLocal() throws Exception {
+        LocalFileBasedFileServer local = new LocalFileBasedFileServer();
+        local.setBaseDir(new File(this.baseDir, "local").getAbsolutePath());
+        this.fs.setMaxOpenFiles(4);
+
+        Random random = new Random(0);
+        int files = 20;
+        for (int i = 0; i < 2000; i++) {
+            String fileName = random.nextInt(files) + ".out";
+            byte[] data = new byte[random.nextInt(3000)];
+            random.nextBytes(data);
+            int offset = data.length == 0 ? 0 : random.nextInt(data.length);
+            int length = random.nextInt((data.length - offset) + 1);
+            this.fs.write(NAMESPACE, fileName, data, offset, length, true);
+            local.write(NAMESPACE, fileName, data, offset, length, true);
+        }
+        this.fs.close();
+
+        for (int f = 0; f < files; f++) {
+            Assert.assertArrayEquals(local.getContent(NAMESPACE, f + ".out", Integer.MAX_VALUE),
+                                     FileUtils.readFileToByteArray(rawFile(f + ".out")));
+        }
+    }
+
+    @Test
+    public void testCloseWritesAll() throws Exception {
+        for (int f = 0; f < 10; f++) {
+            this.fs.write(NAMESPACE, f + ".out", bytes("file " + f), true);
+        }
+        this.fs.close();
+        for (int f = 0; f < 10; f++) {
+            Assert.assertEquals("file " + f, FileUtils.readFileToString(rawFile(f + ".out"), "UTF-8"));
+        }
+    }
+
+    /**
+     * 缓冲写出一部分后失败：已写出的部分不再重复写入
+     */
+    @Test
+    public void testPartialFlushFailure() throws Exception {
+        byte[] data = new byte[100];
+        new Random(0).nextBytes(data);
+        this.fs.write(NAMESPACE, "1.out", data, true);
+
+        this.fs.allowance = 30;
+        try {
+            this.fs.flush(NAMESPACE, "1.out");
+            Assert.fail();
+        } catch (FileServerException e) {
+            // expected
+        }
+        Assert.assertEquals(30, rawFile("1.out").length());
+
+        this.fs.allowance = Long.MAX_VALUE;
+        this.fs.flush(NAMESPACE, "1.out");
+        Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(rawFile("1.out")));
+    }
+
+    /**
+     * 读取时的后台写出失败：异常在下一次写入时抛出，该次写入的数据不被接受，之前缓冲的数据不丢失不重复
+     */
+    @Test
+    public void testBackgroundFailureReportedOnWrite() throws Exception {
+        this.fs.write(NAMESPACE, "1.out", bytes("0123456789"), true);
+
+        this.fs.allowance = 4;
+        // 读取时写出失败，读到的是旧内容
+        Assert.assertEquals("0123", new String(this.fs.getContent(NAMESPACE, "1.out", 100), "UTF-8"));
+
+        this.fs.allowance = Long.MAX_VALUE;
+        try {
+            this.fs.write(NAMESPACE, "1.out", bytes("rejected"), true);
+            Assert.fail();
+        } catch (FileServerException e) {
+            // expected
+        }
+        this.fs.write(NAMESPACE, "1.out", bytes("abc"), true);
+        this.fs.flush(NAMESPACE, "1.out");
+        Assert.assertEquals("0123456789abc", FileUtils.readFileToString(rawFile("1.out"), "UTF-8"));
+    }
+
+    /**
+     * 不经缓冲直接写的大块数据失败时截断回写入前的长度，调用方重试整块不会重复
+     */
+    @Test
+    public void testDirectWriteFailure() throws Exception {
+        this.fs.write(NAMESPACE, "1.out", bytes("head"), true);
+
+        byte[] data = new byte[4096];
+        new Random(0).nextBytes(data);
+        this.fs.allowance = 1000;
+        try {
+            this.fs.write(NAMESPACE, "1.out", data, true);
+            Assert.fail();
+        } catch (FileServerException e) {
+            // expected
+        }
+        // 缓冲中的head已写出，大块数据被截断
+        Assert.assertEquals(4, rawFile("1.out").length());
+
+        this.fs.allowance = Long.MAX_VALUE;
+        this.fs.write(NAMESPACE, "1.out", data, true);
+        this.fs.flush(NAMESPACE, "1.out");
+
+        byte[] content = FileUtils.readFileToByteArray(rawFile("1.out"));
+        Assert.assertEquals(4 + data.length, content.length);
+        Assert.assertEquals("head", new String(content, 0, 4, "UTF-8"));
+        Assert.assertArrayEquals(data, Arrays.copyOfRange(content, 4, content.length));
+    }
+
+    private FailingFileServer newFileServer(File dir, long flushInterval) {
+        FailingFileServer server = new FailingFileServer();
+        server.setBaseDir(dir.getAbsolutePath());
+        server.setDownloadPathBase("/download/log");
+        server.setBufferSize(1024);
+        server.setFlushInterval(flushInterval);
+        server.start();
+        return server;
+    }
+
+    private File rawFile(String fileName) {
+        return this.fs.getFile(NAMESPACE, fileName);
+    }
+
+    private static byte[] bytes(String s) throws IOException {
+        return s.getBytes("UTF-8");
+    }
+
+    /**
+     * 可注入写入失败的BufferedFileServer：总共只允许写出allowance个字节，之后的写入抛出IOException
+     */
+    private static class FailingFileServer extends BufferedFileServer {
+
+        private volatile long allowance = Long.MAX_VALUE;
+
+        @Override
+        FileChannel openChannel(File file, boolean append) throws IOException {
+            return new FailingChannel(super.openChannel(file, append));
+        }
+
+        private class FailingChannel extends FileChannel {
+
+            private final FileChannel delegate;
+
+            FailingChannel(FileChannel delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                if (FailingFileServer.this.allowance <= 0) {
+                    throw new IOException("No space left on device");
+                }
+                int n = (int) Math.min(src.remaining(), FailingFileServer.this.allowance);
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + n);
+                int written = this.delegate.write(slice);
+                src.position(src.position() + written);
+                if (FailingFileServer.this.allowance != Long.MAX_VALUE) {
+                    FailingFileServer.this.allowance -= written;
+                }
+                return written;
+            }
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                return this.delegate.read(dst);
+            }
+
+            @Override
+            public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+                return this.delegate.read(dsts, offset, length);
+            }
+
+            @Override
+            public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long position() throws IOException {
+                return this.delegate.position();
+            }
+
+            @Override
+            public FileChannel position(long newPosition) throws IOException {
+                this.delegate.position(newPosition);
+                return this;
+            }
+
+            @Override
+            public long size() throws IOException {
+                return this.delegate.size();
+            }
+
+            @Override
+            public FileChannel truncate(long size) throws IOException {
+                this.delegate.truncate(size);
+                return this;
+            }
+
+            @Override
+            public void force(boolean metaData) throws IOException {
+                this.delegate.force(metaData);
+            }
+
+            @Override
+            public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                return this.delegate.transferTo(position, count, target);
+            }
+
+            @Override
+            public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(ByteBuffer dst, long position) throws IOException {
+                return this.delegate.read(dst, position);
+            }
+
+            @Override
+            public int write(ByteBuffer src, long position) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public FileLock lock(long position, long size, boolean shared) throws IOException {
+                return this.delegate.lock(position, size, shared);
+            }
+
+            @Override
+            public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+                return this.delegate.tryLock(position, size, shared);
+            }
+
+            @Override
+            protected void implCloseChannel() throws IOException {
+                this.delegate.close();
+            }
+        }
+    }
+}
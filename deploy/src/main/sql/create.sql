@@ -15,6 +15,7 @@ CREATE TABLE `agent` (
   `upgrade_task_id` bigint(20) DEFAULT NULL COMMENT '该agent用于升级的task',
   `create_time` datetime DEFAULT CURRENT_TIMESTAMP,
   `update_time` datetime DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP,
+  `heartbeat_time` datetime DEFAULT NULL COMMENT '最近一次心跳时间',
   PRIMARY KEY (`id`),
   UNIQUE KEY `name` (`name`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='机器表';
@@ -41,7 +42,7 @@ CREATE TABLE `attempt` (
 
 -- Create syntax for TABLE 'schedule_progress'
 CREATE TABLE `schedule_progress` (
-  `id` int(11) NOT NULL,
+  `id` int(11) NOT NULL COMMENT '调度分区+1，未开启多节点调度时只有1',
   `current_schedule_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '当前调度进度',
   `create_time` datetime DEFAULT NULL,
   `update_time` datetime DEFAULT NULL,
@@ -62,6 +63,7 @@ CREATE TABLE `task` (
   `last_status_dependency` tinyint(3) NOT NULL DEFAULT '1' COMMENT '上一次调度的状态依赖',
   `timeout` int(11) NOT NULL DEFAULT '60' COMMENT '执行超期时间（分）',
   `retry_times` int(11) NOT NULL DEFAULT '0' COMMENT '重试次数',
+  `priority` int(11) NOT NULL DEFAULT '0' COMMENT '优先级，越大越先派发',
   `description` varchar(1024) DEFAULT NULL COMMENT '对该任务的描述',
   `last_schedule_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
   `attachment` varchar(200) DEFAULT NULL COMMENT '任务文件',
@@ -69,7 +71,8 @@ CREATE TABLE `task` (
   `create_time` datetime DEFAULT CURRENT_TIMESTAMP,
   `update_time` datetime DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   PRIMARY KEY (`id`),
-  UNIQUE KEY `index_name` (`name`)
+  UNIQUE KEY `index_name` (`name`),
+  KEY `idx_update_time` (`update_time`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='任务表';
 
 -- Create syntax for TABLE 'task_authority'
@@ -130,7 +133,8 @@ CREATE TABLE `workflow` (
   `create_time` datetime DEFAULT CURRENT_TIMESTAMP,
   `update_time` datetime DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   PRIMARY KEY (`id`),
-  UNIQUE KEY `index_name` (`name`)
+  UNIQUE KEY `index_name` (`name`),
+  KEY `idx_update_time` (`update_time`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='工作流表';
 
 -- Create syntax for TABLE 'workflow_authority'
@@ -218,6 +222,32 @@ CREATE TABLE `team_workflow_instance_status` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='公共工作流的每个team的调度表';
 
 
+CREATE TABLE `scheduler_node` (
+  `node_id` varchar(100) NOT NULL COMMENT '调度节点标识',
+  `heartbeat_time` datetime NOT NULL COMMENT '最近一次心跳时间',
+  `create_time` datetime DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`node_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='调度节点';
+
+CREATE TABLE `scheduler_lease` (
+  `partition_id` int(11) NOT NULL COMMENT '分区',
+  `owner` varchar(100) DEFAULT NULL COMMENT '持有(或最后持有)租约的节点，为空表示已正常移交',
+  `expire_time` datetime NOT NULL COMMENT '租约到期时间',
+  `version` bigint(20) NOT NULL DEFAULT '0',
+  `update_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`partition_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='调度分区租约';
+
+CREATE TABLE `scheduler_command` (
+  `id` bigint(20) unsigned NOT NULL AUTO_INCREMENT,
+  `partition_id` int(11) NOT NULL COMMENT '目标分区，由持有该分区的节点执行',
+  `type` varchar(50) NOT NULL COMMENT '操作类型',
+  `target_id` bigint(20) NOT NULL COMMENT '操作的实例id',
+  `create_time` datetime DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  KEY `idx_partition_id` (`partition_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='发给分区持有节点的操作';
+
 INSERT INTO `schedule_progress` (`id`) VALUES (1);
 INSERT INTO `team` (`id`,`name`,`create_time`,`update_time`) VALUES (1,'admin',CURRENT_TIMESTAMP,CURRENT_TIMESTAMP);
 INSERT INTO `team` (`id`,`name`,`create_time`,`update_time`) VALUES (2,'platform',CURRENT_TIMESTAMP,CURRENT_TIMESTAMP);
@@ -0,0 +1,32 @@
+-- 已有数据库的升级脚本，新建的库直接使用create.sql，不需要执行
+
+-- 调度线程按update_time增量同步task和workflow
+ALTER TABLE `task` ADD KEY `idx_update_time` (`update_time`);
+ALTER TABLE `workflow` ADD KEY `idx_update_time` (`update_time`);
+
+-- 多节点调度的节点、分区租约和命令
+CREATE TABLE `scheduler_node` (
+  `node_id` varchar(100) NOT NULL COMMENT '调度节点标识',
+  `heartbeat_time` datetime NOT NULL COMMENT '最近一次心跳时间',
+  `create_time` datetime DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`node_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='调度节点';
+
+CREATE TABLE `scheduler_lease` (
+  `partition_id` int(11) NOT NULL COMMENT '分区',
+  `owner` varchar(100) DEFAULT NULL COMMENT '持有(或最后持有)租约的节点，为空表示已正常移交',
+  `expire_time` datetime NOT NULL COMMENT '租约到期时间',
+  `version` bigint(20) NOT NULL DEFAULT '0',
+  `update_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`partition_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='调度分区租约';
+
+CREATE TABLE `scheduler_command` (
+  `id` bigint(20) unsigned NOT NULL AUTO_INCREMENT,
+  `partition_id` int(11) NOT NULL COMMENT '目标分区，由持有该分区的节点执行',
+  `type` varchar(50) NOT NULL COMMENT '操作类型',
+  `target_id` bigint(20) NOT NULL COMMENT '操作的实例id',
+  `create_time` datetime DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  KEY `idx_partition_id` (`partition_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='发给分区持有节点的操作';
@@ -83,6 +83,14 @@ public class Agent {
      */
     private Date updateTime;
 
+    /**
+     * This field was generated by MyBatis Generator.
+     * This field corresponds to the database column agent.heartbeat_time
+     *
+     * @mbggenerated
+     */
+    private Date heartbeatTime;
+
     /**
      * This method was generated by MyBatis Generator.
      * This method returns the value of the database column agent.id
@@ -323,6 +331,30 @@ public class Agent {
         this.updateTime = updateTime;
     }
 
+    /**
+     * This method was generated by MyBatis Generator.
+     * This method returns the value of the database column agent.heartbeat_time
+     *
+     * @return the value of agent.heartbeat_time
+     *
+     * @mbggenerated
+     */
+    public Date getHeartbeatTime() {
+        return heartbeatTime;
+    }
+
+    /**
+     * This method was generated by MyBatis Generator.
+     * This method sets the value of the database column agent.heartbeat_time
+     *
+     * @param heartbeatTime the value for agent.heartbeat_time
+     *
+     * @mbggenerated
+     */
+    public void setHeartbeatTime(Date heartbeatTime) {
+        this.heartbeatTime = heartbeatTime;
+    }
+
     /**
      * This method was generated by MyBatis Generator.
      * This method corresponds to the database table agent
@@ -345,6 +377,7 @@ public class Agent {
         sb.append(", upgradeTaskId=").append(upgradeTaskId);
         sb.append(", createTime=").append(createTime);
         sb.append(", updateTime=").append(updateTime);
+        sb.append(", heartbeatTime=").append(heartbeatTime);
         sb.append("]");
         return sb.toString();
     }
@@ -376,7 +409,8 @@ public class Agent {
             && (this.getVersion() == null ? other.getVersion() == null : this.getVersion().equals(other.getVersion()))
             && (this.getUpgradeTaskId() == null ? other.getUpgradeTaskId() == null : this.getUpgradeTaskId().equals(other.getUpgradeTaskId()))
             && (this.getCreateTime() == null ? other.getCreateTime() == null : this.getCreateTime().equals(other.getCreateTime()))
-            && (this.getUpdateTime() == null ? other.getUpdateTime() == null : this.getUpdateTime().equals(other.getUpdateTime()));
+            && (this.getUpdateTime() == null ? other.getUpdateTime() == null : this.getUpdateTime().equals(other.getUpdateTime()))
+            && (this.getHeartbeatTime() == null ? other.getHeartbeatTime() == null : this.getHeartbeatTime().equals(other.getHeartbeatTime()));
     }
 
     /**
@@ -399,6 +433,7 @@ public class Agent {
         result = prime * result + ((getUpgradeTaskId() == null) ? 0 : getUpgradeTaskId().hashCode());
         result = prime * result + ((getCreateTime() == null) ? 0 : getCreateTime().hashCode());
         result = prime * result + ((getUpdateTime() == null) ? 0 : getUpdateTime().hashCode());
+        result = prime * result + ((getHeartbeatTime() == null) ? 0 : getHeartbeatTime().hashCode());
         return result;
     }
 }
\ No newline at end of file
@@ -824,6 +824,66 @@ public class AgentExample {
             addCriterion("update_time not between", value1, value2, "updateTime");
             return (Criteria) this;
         }
+
+        public Criteria andHeartbeatTimeIsNull() {
+            addCriterion("heartbeat_time is null");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeIsNotNull() {
+            addCriterion("heartbeat_time is not null");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeEqualTo(Date value) {
+            addCriterion("heartbeat_time =", value, "heartbeatTime");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeNotEqualTo(Date value) {
+            addCriterion("heartbeat_time <>", value, "heartbeatTime");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeGreaterThan(Date value) {
+            addCriterion("heartbeat_time >", value, "heartbeatTime");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeGreaterThanOrEqualTo(Date value) {
+            addCriterion("heartbeat_time >=", value, "heartbeatTime");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeLessThan(Date value) {
+            addCriterion("heartbeat_time <", value, "heartbeatTime");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeLessThanOrEqualTo(Date value) {
+            addCriterion("heartbeat_time <=", value, "heartbeatTime");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeIn(List<Date> values) {
+            addCriterion("heartbeat_time in", values, "heartbeatTime");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeNotIn(List<Date> values) {
+            addCriterion("heartbeat_time not in", values, "heartbeatTime");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeBetween(Date value1, Date value2) {
+            addCriterion("heartbeat_time between", value1, value2, "heartbeatTime");
+            return (Criteria) this;
+        }
+
+        public Criteria andHeartbeatTimeNotBetween(Date value1, Date value2) {
+            addCriterion("heartbeat_time not between", value1, value2, "heartbeatTime");
+            return (Criteria) this;
+        }
     }
 
     /**
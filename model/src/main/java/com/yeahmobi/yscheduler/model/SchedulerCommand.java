@@ -0,0 +1,66 @@
+package com.yeahmobi.yscheduler.model;
+
+import java.util.Date;
+
+/**
+ * 发给分区持有节点的操作，由持有该分区的节点取走并执行
+ */
+public class SchedulerCommand {
+
+    private Long    id;
+
+    private Integer partitionId;
+
+    private String  type;
+
+    private Long    targetId;
+
+    private Date    createTime;
+
+    public Long getId() {
+        return this.id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Integer getPartitionId() {
+        return this.partitionId;
+    }
+
+    public void setPartitionId(Integer partitionId) {
+        this.partitionId = partitionId;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public Long getTargetId() {
+        return this.targetId;
+    }
+
+    public void setTargetId(Long targetId) {
+        this.targetId = targetId;
+    }
+
+    public Date getCreateTime() {
+        return this.createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulerCommand [id=" + this.id + ", partitionId=" + this.partitionId + ", type=" + this.type
+               + ", targetId=" + this.targetId + "]";
+    }
+
+}
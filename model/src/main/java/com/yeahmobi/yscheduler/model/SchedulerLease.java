@@ -0,0 +1,66 @@
+package com.yeahmobi.yscheduler.model;
+
+import java.util.Date;
+
+/**
+ * 一个调度分区的租约。owner是持有或最后持有租约的节点，为null表示上一个持有者已正常移交
+ */
+public class SchedulerLease {
+
+    private Integer partitionId;
+
+    private String  owner;
+
+    private Date    expireTime;
+
+    private Long    version;
+
+    private Date    updateTime;
+
+    public Integer getPartitionId() {
+        return this.partitionId;
+    }
+
+    public void setPartitionId(Integer partitionId) {
+        this.partitionId = partitionId;
+    }
+
+    public String getOwner() {
+        return this.owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Date getExpireTime() {
+        return this.expireTime;
+    }
+
+    public void setExpireTime(Date expireTime) {
+        this.expireTime = expireTime;
+    }
+
+    public Long getVersion() {
+        return this.version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Date getUpdateTime() {
+        return this.updateTime;
+    }
+
+    public void setUpdateTime(Date updateTime) {
+        this.updateTime = updateTime;
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulerLease [partitionId=" + this.partitionId + ", owner=" + this.owner + ", expireTime="
+               + this.expireTime + ", version=" + this.version + "]";
+    }
+
+}
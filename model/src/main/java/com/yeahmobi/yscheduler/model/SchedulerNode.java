@@ -0,0 +1,45 @@
+package com.yeahmobi.yscheduler.model;
+
+import java.util.Date;
+
+/**
+ * 调度节点，心跳未过期的节点参与分区的均分
+ */
+public class SchedulerNode {
+
+    private String nodeId;
+
+    private Date   heartbeatTime;
+
+    private Date   createTime;
+
+    public String getNodeId() {
+        return this.nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public Date getHeartbeatTime() {
+        return this.heartbeatTime;
+    }
+
+    public void setHeartbeatTime(Date heartbeatTime) {
+        this.heartbeatTime = heartbeatTime;
+    }
+
+    public Date getCreateTime() {
+        return this.createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulerNode [nodeId=" + this.nodeId + ", heartbeatTime=" + this.heartbeatTime + "]";
+    }
+
+}
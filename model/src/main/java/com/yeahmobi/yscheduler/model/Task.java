@@ -94,6 +94,14 @@ public class Task {
      */
     private Integer retryTimes;
 
+    /**
+     * This field was generated by MyBatis Generator.
+     * This field corresponds to the database column task.priority
+     *
+     * @mbggenerated
+     */
+    private Integer priority;
+
     /**
      * This field was generated by MyBatis Generator.
      * This field corresponds to the database column task.description
@@ -414,6 +422,30 @@ public class Task {
         this.retryTimes = retryTimes;
     }
 
+    /**
+     * This method was generated by MyBatis Generator.
+     * This method returns the value of the database column task.priority
+     *
+     * @return the value of task.priority
+     *
+     * @mbggenerated
+     */
+    public Integer getPriority() {
+        return priority;
+    }
+
+    /**
+     * This method was generated by MyBatis Generator.
+     * This method sets the value of the database column task.priority
+     *
+     * @param priority the value for task.priority
+     *
+     * @mbggenerated
+     */
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
     /**
      * This method was generated by MyBatis Generator.
      * This method returns the value of the database column task.description
@@ -605,6 +637,7 @@ public class Task {
         sb.append(", lastStatusDependency=").append(lastStatusDependency);
         sb.append(", timeout=").append(timeout);
         sb.append(", retryTimes=").append(retryTimes);
+        sb.append(", priority=").append(priority);
         sb.append(", description=").append(description);
         sb.append(", lastScheduleTime=").append(lastScheduleTime);
         sb.append(", attachment=").append(attachment);
@@ -645,6 +678,7 @@ public class Task {
             && (this.getLastStatusDependency() == null ? other.getLastStatusDependency() == null : this.getLastStatusDependency().equals(other.getLastStatusDependency()))
             && (this.getTimeout() == null ? other.getTimeout() == null : this.getTimeout().equals(other.getTimeout()))
             && (this.getRetryTimes() == null ? other.getRetryTimes() == null : this.getRetryTimes().equals(other.getRetryTimes()))
+            && (this.getPriority() == null ? other.getPriority() == null : this.getPriority().equals(other.getPriority()))
             && (this.getDescription() == null ? other.getDescription() == null : this.getDescription().equals(other.getDescription()))
             && (this.getLastScheduleTime() == null ? other.getLastScheduleTime() == null : this.getLastScheduleTime().equals(other.getLastScheduleTime()))
             && (this.getAttachment() == null ? other.getAttachment() == null : this.getAttachment().equals(other.getAttachment()))
@@ -675,6 +709,7 @@ public class Task {
         result = prime * result + ((getLastStatusDependency() == null) ? 0 : getLastStatusDependency().hashCode());
         result = prime * result + ((getTimeout() == null) ? 0 : getTimeout().hashCode());
         result = prime * result + ((getRetryTimes() == null) ? 0 : getRetryTimes().hashCode());
+        result = prime * result + ((getPriority() == null) ? 0 : getPriority().hashCode());
         result = prime * result + ((getDescription() == null) ? 0 : getDescription().hashCode());
         result = prime * result + ((getLastScheduleTime() == null) ? 0 : getLastScheduleTime().hashCode());
         result = prime * result + ((getAttachment() == null) ? 0 : getAttachment().hashCode());
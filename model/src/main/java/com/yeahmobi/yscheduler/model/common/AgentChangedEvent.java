@@ -0,0 +1,23 @@
+package com.yeahmobi.yscheduler.model.common;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * agent新增、删除、修改或上下线后发布，缓存了agent列表的地方收到后失效缓存
+ */
+public class AgentChangedEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long        agentId;
+
+    public AgentChangedEvent(Object source, long agentId) {
+        super(source);
+        this.agentId = agentId;
+    }
+
+    public long getAgentId() {
+        return this.agentId;
+    }
+
+}
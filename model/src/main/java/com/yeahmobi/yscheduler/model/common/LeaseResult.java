@@ -0,0 +1,72 @@
+package com.yeahmobi.yscheduler.model.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 一轮租约维护的结果
+ */
+public class LeaseResult {
+
+    /** 本轮结束后持有的分区 */
+    private final Set<Integer>         owned      = new TreeSet<Integer>();
+
+    /** 本轮新获得的分区 -> 之前的owner，为null表示是正常移交过来的 */
+    private final Map<Integer, String> acquired   = new HashMap<Integer, String>();
+
+    /** 多出、但本节点仍有未完成实例而暂不移交的分区，不再调度新的实例，完成后再移交 */
+    private final Set<Integer>         draining   = new TreeSet<Integer>();
+
+    /** 续约失败，已被其他节点接手的分区 */
+    private final Set<Integer>         lost       = new TreeSet<Integer>();
+
+    /** 为了均分主动移交出去的分区 */
+    private final Set<Integer>         released   = new TreeSet<Integer>();
+
+    private int                        aliveNodes = 1;
+
+    public Set<Integer> getOwned() {
+        return this.owned;
+    }
+
+    public Map<Integer, String> getAcquired() {
+        return this.acquired;
+    }
+
+    public Set<Integer> getDraining() {
+        return this.draining;
+    }
+
+    public Set<Integer> getLost() {
+        return this.lost;
+    }
+
+    public Set<Integer> getReleased() {
+        return this.released;
+    }
+
+    public int getAliveNodes() {
+        return this.aliveNodes;
+    }
+
+    public void setAliveNodes(int aliveNodes) {
+        this.aliveNodes = aliveNodes;
+    }
+
+    /**
+     * 需要恢复未完成实例的分区，即全部新获得的分区：失效节点遗留的实例无人继续；正常移交的分区，
+     * 之前的节点只在本地没有运行中的实例时才移交，库中仍未完成的实例(如移交前后提交的)也由本节点接手
+     */
+    public Set<Integer> getRecovering() {
+        return new TreeSet<Integer>(this.acquired.keySet());
+    }
+
+    @Override
+    public String toString() {
+        return "LeaseResult [owned=" + this.owned + ", acquired=" + this.acquired.keySet() + ", lost=" + this.lost
+               + ", released=" + this.released + ", draining=" + this.draining + ", aliveNodes=" + this.aliveNodes + "]";
+    }
+
+}
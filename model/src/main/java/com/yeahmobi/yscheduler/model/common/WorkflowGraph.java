@@ -0,0 +1,246 @@
+package com.yeahmobi.yscheduler.model.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.yeahmobi.yscheduler.model.Task;
+import com.yeahmobi.yscheduler.model.WorkflowDetail;
+
+/**
+ * 编译后的workflow依赖图，不可变，可在线程间共享。<br>
+ * 节点按WorkflowDetail编号为0..size-1，前驱和后继用CSR形式的int数组保存：
+ * 节点i的后继是successors[successorOffsets[i]..successorOffsets[i+1])，前驱同理。<br>
+ * 依赖了workflow之外task的边被忽略。节点上的WorkflowDetail和Task是共享的，调用方不能修改。
+ */
+public class WorkflowGraph {
+
+    private final long               workflowId;
+
+    /** 构建时workflow的update_time，用于判断缓存是否过期 */
+    private final Date               updateTime;
+
+    private final long[]             taskIds;
+
+    private final WorkflowDetail[]   details;
+
+    private final Task[]             tasks;
+
+    private final Long[]             teamIds;
+
+    private final int[]              predecessorOffsets;
+
+    private final int[]              predecessors;
+
+    private final int[]              successorOffsets;
+
+    private final int[]              successors;
+
+    /** 拓扑序，有环时环上的节点按编号排在最后 */
+    private final int[]              topologicalOrder;
+
+    private final boolean            acyclic;
+
+    private final Map<Long, Integer> indexes;
+
+    private WorkflowGraph(long workflowId, Date updateTime, List<WorkflowGraphRow> nodes,
+                          List<List<Long>> dependencies) {
+        int size = nodes.size();
+        this.workflowId = workflowId;
+        this.updateTime = updateTime;
+        this.taskIds = new long[size];
+        this.details = new WorkflowDetail[size];
+        this.tasks = new Task[size];
+        this.teamIds = new Long[size];
+        this.indexes = new HashMap<Long, Integer>(size * 2);
+        for (int i = 0; i < size; i++) {
+            WorkflowGraphRow node = nodes.get(i);
+            this.details[i] = node.getDetail();
+            this.tasks[i] = node.getTask();
+            this.teamIds[i] = node.getTeamId();
+            this.taskIds[i] = node.getDetail().getTaskId();
+            if (!this.indexes.containsKey(this.taskIds[i])) {
+                this.indexes.put(this.taskIds[i], i);
+            }
+        }
+
+        // 前驱
+        this.predecessorOffsets = new int[size + 1];
+        int[] buffer = new int[16];
+        int edges = 0;
+        for (int i = 0; i < size; i++) {
+            this.predecessorOffsets[i] = edges;
+            for (Long dependencyTaskId : dependencies.get(i)) {
+                Integer predecessor = this.indexes.get(dependencyTaskId);
+                if (predecessor != null) {
+                    if (edges == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, edges * 2);
+                    }
+                    buffer[edges++] = predecessor;
+                }
+            }
+        }
+        this.predecessorOffsets[size] = edges;
+        this.predecessors = Arrays.copyOf(buffer, edges);
+
+        // 由前驱反转出后继
+        this.successorOffsets = new int[size + 1];
+        for (int p : this.predecessors) {
+            this.successorOffsets[p + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            this.successorOffsets[i + 1] += this.successorOffsets[i];
+        }
+        this.successors = new int[edges];
+        int[] fill = Arrays.copyOf(this.successorOffsets, size);
+        for (int i = 0; i < size; i++) {
+            for (int k = this.predecessorOffsets[i]; k < this.predecessorOffsets[i + 1]; k++) {
+                this.successors[fill[this.predecessors[k]]++] = i;
+            }
+        }
+
+        this.topologicalOrder = new int[size];
+        this.acyclic = sort(this.topologicalOrder);
+    }
+
+    /**
+     * 由selectGraphRows的结果构建，rows需按detail id排列
+     */
+    public static WorkflowGraph build(long workflowId, Date updateTime, List<WorkflowGraphRow> rows) {
+        List<WorkflowGraphRow> nodes = new ArrayList<WorkflowGraphRow>();
+        List<List<Long>> dependencies = new ArrayList<List<Long>>();
+        Long lastDetailId = null;
+        for (WorkflowGraphRow row : rows) {
+            if (!row.getDetailId().equals(lastDetailId)) {
+                nodes.add(row);
+                dependencies.add(new ArrayList<Long>());
+                lastDetailId = row.getDetailId();
+            }
+            if (row.getDependencyTaskId() != null) {
+                dependencies.get(dependencies.size() - 1).add(row.getDependencyTaskId());
+            }
+        }
+        return new WorkflowGraph(workflowId, updateTime, nodes, dependencies);
+    }
+
+    /**
+     * Kahn算法，返回是否无环
+     */
+    private boolean sort(int[] order) {
+        int size = this.taskIds.length;
+        int[] pending = new int[size];
+        int tail = 0;
+        for (int i = 0; i < size; i++) {
+            pending[i] = this.predecessorOffsets[i + 1] - this.predecessorOffsets[i];
+            if (pending[i] == 0) {
+                order[tail++] = i;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int node = order[head];
+            for (int k = this.successorOffsets[node]; k < this.successorOffsets[node + 1]; k++) {
+                if (--pending[this.successors[k]] == 0) {
+                    order[tail++] = this.successors[k];
+                }
+            }
+        }
+        if (tail == size) {
+            return true;
+        }
+        for (int i = 0; i < size; i++) {
+            if (pending[i] > 0) {
+                order[tail++] = i;
+            }
+        }
+        return false;
+    }
+
+    public long getWorkflowId() {
+        return this.workflowId;
+    }
+
+    public Date getUpdateTime() {
+        return this.updateTime;
+    }
+
+    public int size() {
+        return this.taskIds.length;
+    }
+
+    /**
+     * @return taskId对应的节点编号，不在workflow中返回-1
+     */
+    public int indexOf(long taskId) {
+        Integer index = this.indexes.get(taskId);
+        return index == null ? -1 : index;
+    }
+
+    public long getTaskId(int node) {
+        return this.taskIds[node];
+    }
+
+    public WorkflowDetail getDetail(int node) {
+        return this.details[node];
+    }
+
+    /**
+     * 不含command
+     */
+    public Task getTask(int node) {
+        return this.tasks[node];
+    }
+
+    public Long getTeamId(int node) {
+        return this.teamIds[node];
+    }
+
+    public int getPredecessorCount(int node) {
+        return this.predecessorOffsets[node + 1] - this.predecessorOffsets[node];
+    }
+
+    public int getPredecessor(int node, int i) {
+        return this.predecessors[this.predecessorOffsets[node] + i];
+    }
+
+    public int getSuccessorCount(int node) {
+        return this.successorOffsets[node + 1] - this.successorOffsets[node];
+    }
+
+    public int getSuccessor(int node, int i) {
+        return this.successors[this.successorOffsets[node] + i];
+    }
+
+    /**
+     * 节点依赖的taskId，即前驱的taskId
+     */
+    public List<Long> getDependencyTaskIds(int node) {
+        int count = getPredecessorCount(node);
+        List<Long> result = new ArrayList<Long>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(this.taskIds[getPredecessor(node, i)]);
+        }
+        return result;
+    }
+
+    /**
+     * 拓扑序的拷贝
+     */
+    public int[] getTopologicalOrder() {
+        return this.topologicalOrder.clone();
+    }
+
+    public boolean isAcyclic() {
+        return this.acyclic;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WorkflowGraph [workflowId=%s, updateTime=%s, nodes=%s, edges=%s, acyclic=%s]",
+                             this.workflowId, this.updateTime, this.taskIds.length, this.predecessors.length,
+                             this.acyclic);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.yeahmobi.yscheduler.model.common;
+
+import com.yeahmobi.yscheduler.model.Task;
+import com.yeahmobi.yscheduler.model.WorkflowDetail;
+
+/**
+ * WorkflowDetailDao.selectGraphRows的一行：一个节点和它的一条依赖，没有依赖的节点dependencyTaskId为null
+ */
+public class WorkflowGraphRow {
+
+    private Long           detailId;
+
+    private Long           dependencyId;
+
+    private Long           dependencyTaskId;
+
+    private Long           teamId;
+
+    private WorkflowDetail detail;
+
+    private Task           task;
+
+    public Long getDetailId() {
+        return this.detailId;
+    }
+
+    public void setDetailId(Long detailId) {
+        this.detailId = detailId;
+    }
+
+    public Long getDependencyId() {
+        return this.dependencyId;
+    }
+
+    public void setDependencyId(Long dependencyId) {
+        this.dependencyId = dependencyId;
+    }
+
+    public Long getDependencyTaskId() {
+        return this.dependencyTaskId;
+    }
+
+    public void setDependencyTaskId(Long dependencyTaskId) {
+        this.dependencyTaskId = dependencyTaskId;
+    }
+
+    public Long getTeamId() {
+        return this.teamId;
+    }
+
+    public void setTeamId(Long teamId) {
+        this.teamId = teamId;
+    }
+
+    public WorkflowDetail getDetail() {
+        return this.detail;
+    }
+
+    public void setDetail(WorkflowDetail detail) {
+        this.detail = detail;
+    }
+
+    public Task getTask() {
+        return this.task;
+    }
+
+    public void setTask(Task task) {
+        this.task = task;
+    }
+
+}
@@ -1,7 +1,12 @@
 package com.yeahmobi.yscheduler.model.dao;
 
+import com.yeahmobi.yscheduler.model.Agent;
 import com.yeahmobi.yscheduler.model.dao.mapper.AgentMapper;
 
 public interface AgentDao extends AgentMapper {
 
+    /**
+     * 只更新alive、version和heartbeat_time中不为null的字段
+     */
+    int updateHeartbeat(Agent agent);
 }
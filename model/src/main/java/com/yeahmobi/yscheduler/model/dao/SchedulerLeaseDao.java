@@ -0,0 +1,52 @@
+package com.yeahmobi.yscheduler.model.dao;
+
+import java.util.Date;
+import java.util.List;
+
+import com.yeahmobi.yscheduler.model.SchedulerCommand;
+import com.yeahmobi.yscheduler.model.SchedulerLease;
+import com.yeahmobi.yscheduler.model.SchedulerNode;
+
+public interface SchedulerLeaseDao {
+
+    List<SchedulerLease> selectAll();
+
+    int insert(SchedulerLease lease);
+
+    /**
+     * 按version做乐观锁，获取租约；库中的租约须已移交、在updateTime时已过期或owner就是自己
+     */
+    int acquire(SchedulerLease lease);
+
+    /**
+     * 只有owner仍是自己时才能续约，version加1，使其他节点按旧version的获取失败
+     */
+    int renew(SchedulerLease lease);
+
+    /**
+     * 正常移交：清空owner，租约立即过期
+     */
+    int handOff(SchedulerLease lease);
+
+    /**
+     * 租约立即过期，owner保留，接手的节点需要恢复该分区
+     */
+    int expire(SchedulerLease lease);
+
+    int updateHeartbeat(SchedulerNode node);
+
+    int insertNode(SchedulerNode node);
+
+    List<SchedulerNode> selectAliveNodes(Date heartbeatAfter);
+
+    int deleteNode(String nodeId);
+
+    int insertCommand(SchedulerCommand command);
+
+    List<SchedulerCommand> selectCommands(List<Integer> partitionIds);
+
+    /**
+     * 删除成功的节点才执行该命令，避免重复执行
+     */
+    int deleteCommand(long id);
+}
@@ -8,4 +8,9 @@ import com.yeahmobi.yscheduler.model.dao.mapper.TaskMapper;
 public interface TaskDao extends TaskMapper {
 
     List<Task> selectAll();
+
+    /**
+     * 只更新last_schedule_time，不改变update_time
+     */
+    int updateLastScheduleTime(Task task);
 }
@@ -1,7 +1,11 @@
 package com.yeahmobi.yscheduler.model.dao;
 
+import java.util.List;
+
+import com.yeahmobi.yscheduler.model.TaskInstance;
 import com.yeahmobi.yscheduler.model.dao.mapper.TaskInstanceMapper;
 
 public interface TaskInstanceDao extends TaskInstanceMapper {
 
+    int insertBatch(List<TaskInstance> instances);
 }
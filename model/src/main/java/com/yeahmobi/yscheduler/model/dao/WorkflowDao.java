@@ -1,7 +1,16 @@
 package com.yeahmobi.yscheduler.model.dao;
 
+import com.yeahmobi.yscheduler.model.Workflow;
 import com.yeahmobi.yscheduler.model.dao.mapper.WorkflowMapper;
 
 public interface WorkflowDao extends WorkflowMapper {
 
+    /**
+     * 只更新last_schedule_time，不改变update_time
+     */
+    int updateLastScheduleTime(Workflow workflow);
+
+    int touchByTaskId(long taskId);
+
+    int touchByTaskOwner(long owner);
 }
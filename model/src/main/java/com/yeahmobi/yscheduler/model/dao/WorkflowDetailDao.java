@@ -1,7 +1,11 @@
 package com.yeahmobi.yscheduler.model.dao;
 
+import java.util.List;
+
+import com.yeahmobi.yscheduler.model.common.WorkflowGraphRow;
 import com.yeahmobi.yscheduler.model.dao.mapper.WorkflowDetailMapper;
 
 public interface WorkflowDetailDao extends WorkflowDetailMapper {
 
+    List<WorkflowGraphRow> selectGraphRows(long workflowId);
 }
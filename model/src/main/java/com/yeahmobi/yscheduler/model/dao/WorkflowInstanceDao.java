@@ -1,7 +1,11 @@
 package com.yeahmobi.yscheduler.model.dao;
 
+import java.util.List;
+
+import com.yeahmobi.yscheduler.model.WorkflowInstance;
 import com.yeahmobi.yscheduler.model.dao.mapper.WorkflowInstanceMapper;
 
 public interface WorkflowInstanceDao extends WorkflowInstanceMapper {
 
+    int insertBatch(List<WorkflowInstance> instances);
 }
@@ -30,4 +30,9 @@ public interface AgentService {
     void updateStatus(long agentId, boolean enable);
 
     void updateVersion(long agentId, String agentVersion);
+
+    /**
+     * 以JDBC batch在一个事务中批量更新agent的alive、version和heartbeatTime，为null的字段不更新
+     */
+    void updateHeartbeats(List<Agent> agents);
 }
@@ -23,6 +23,11 @@ public interface AttemptService {
 
     void update(Attempt attempt);
 
+    /**
+     * 以JDBC batch在一个事务中批量更新，为null的字段不更新
+     */
+    void updateBatch(List<Attempt> attempts);
+
     String getOutputFileName(Attempt attempt);
 
 }
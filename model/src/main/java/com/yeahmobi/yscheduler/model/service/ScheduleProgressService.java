@@ -1,9 +1,17 @@
 package com.yeahmobi.yscheduler.model.service;
 
+import java.util.Set;
+
+/**
+ * 每个调度分区一条进度记录(id为分区+1)，未开启多节点调度时只有分区0
+ */
 public interface ScheduleProgressService {
 
-    Long getCurrentScheduleTime();
+    /**
+     * partitions中最早的调度进度，都没有记录时返回null
+     */
+    Long getCurrentScheduleTime(Set<Integer> partitions);
 
-    void saveCurrentScheduleTime(long currentScheduleTime);
+    void saveCurrentScheduleTime(Set<Integer> partitions, long currentScheduleTime);
 
 }
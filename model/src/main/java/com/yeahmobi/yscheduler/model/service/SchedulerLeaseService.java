@@ -0,0 +1,48 @@
+package com.yeahmobi.yscheduler.model.service;
+
+import java.util.List;
+import java.util.Set;
+
+import com.yeahmobi.yscheduler.model.SchedulerCommand;
+import com.yeahmobi.yscheduler.model.SchedulerLease;
+import com.yeahmobi.yscheduler.model.common.LeaseResult;
+
+/**
+ * 多个调度节点按分区划分task和workflow，每个分区同一时间只由一个持有租约的节点调度
+ */
+public interface SchedulerLeaseService {
+
+    /**
+     * 补齐0..partitionCount-1的租约记录，新建的记录视为由未知节点遗留，获得者需要恢复
+     */
+    void createPartitions(int partitionCount);
+
+    /**
+     * 一轮租约维护：刷新节点心跳，续约held中的分区；rebalance为true时再按存活节点数均分，
+     * 多出的分区正常移交(busy中的暂不移交，记为draining)，不足时获取已移交或已过期的分区
+     *
+     * @param held 节点当前认为自己持有的分区
+     * @param busy 本节点仍有运行中实例的分区，移交后会被接手的节点重复运行
+     * @param now 节点本地时间，节点之间的时钟偏差应远小于leaseTime
+     */
+    LeaseResult updateLeases(String nodeId, Set<Integer> held, Set<Integer> busy, int partitionCount, long leaseTime,
+                             long now, boolean rebalance);
+
+    /**
+     * 节点停止：删除节点，持有的租约立即过期，由其他节点接手并恢复
+     */
+    void removeNode(String nodeId, Set<Integer> held, long now);
+
+    List<SchedulerLease> listLeases();
+
+    /**
+     * 发送命令，由持有partitionId的节点执行
+     */
+    void sendCommand(int partitionId, String type, long targetId);
+
+    /**
+     * 取走发给partitions的命令，每个命令只会被一个节点取走
+     */
+    List<SchedulerCommand> takeCommands(Set<Integer> partitions);
+
+}
@@ -27,10 +27,18 @@ public interface TaskInstanceService {
 
     void save(TaskInstance instance);
 
+    /** 批量保存，已存在相同scheduleTime的忽略；不回填id */
+    void saveBatch(List<TaskInstance> instances);
+
+    List<TaskInstance> listScheduled(long taskId, TaskInstanceStatus status, Date begin, Date end);
+
     List<TaskInstance> getAllUncompleteds();
 
     void updateStatus(Long instanceId, TaskInstanceStatus status);
 
+    /** 以JDBC batch在一个事务中批量更新，为null的字段不更新 */
+    void updateBatch(List<TaskInstance> instances);
+
     void deleteByWorkflowInstanceId(long workflowInstanceId);
 
     List<TaskInstance> listByWorkflowInstanceId(Long instanceId, int pageNum, Paginator paginator);
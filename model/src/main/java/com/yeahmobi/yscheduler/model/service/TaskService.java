@@ -24,6 +24,9 @@ public interface TaskService {
 
     List<Task> list(TaskStatus status);
 
+    /** 列出update_time不早于time的task（包括PAUSED和REMOVED的），用于调度器增量同步 */
+    List<Task> listUpdatedSince(Date time);
+
     List<NameValuePair> list(long userId);
 
     List<NameValuePair> list();
@@ -42,6 +45,12 @@ public interface TaskService {
 
     void removeHeartbeatTask(long agentId, String name);
 
+    /** 暂停agent的心跳任务(agent已发送原生心跳)，只修改OPEN的 */
+    void pauseHeartbeatTask(long agentId, String name);
+
+    /** 重新开启agent的心跳任务，只修改PAUSED的，不补跑暂停期间的 */
+    void resumeHeartbeatTask(long agentId, String name);
+
     void addUpgradeTask(Agent agent);
 
     /** 物理删除task */
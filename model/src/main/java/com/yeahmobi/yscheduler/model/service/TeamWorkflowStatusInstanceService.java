@@ -13,6 +13,8 @@ public interface TeamWorkflowStatusInstanceService {
 
     void updateStatus(long teamId, long workflowInstanceId, WorkflowInstanceStatus status);
 
+    List<TeamWorkflowInstanceStatus> listByWorkflowInstanceId(long workflowInstanceId);
+
     void save(TeamWorkflowInstanceStatus status);
 
 }
@@ -4,6 +4,7 @@ import java.util.List;
 
 import com.yeahmobi.yscheduler.model.Task;
 import com.yeahmobi.yscheduler.model.WorkflowDetail;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraph;
 
 public interface WorkflowDetailService {
 
@@ -21,6 +22,11 @@ public interface WorkflowDetailService {
 
     List<Long> listDependencyTaskIds(long workflowId, long taskId);
 
+    /**
+     * workflow编译后的依赖图，按workflow id和update_time缓存，workflow不存在时返回null
+     */
+    WorkflowGraph getGraph(long workflowId);
+
     WorkflowDetail get(long workflowId, long taskId);
 
     int getTeamDelay(long workflowId, long userId);
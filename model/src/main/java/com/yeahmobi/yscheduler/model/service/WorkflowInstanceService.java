@@ -1,5 +1,6 @@
 package com.yeahmobi.yscheduler.model.service;
 
+import java.util.Date;
 import java.util.List;
 
 import com.yeahmobi.yscheduler.common.Paginator;
@@ -20,6 +21,11 @@ public interface WorkflowInstanceService {
 
     void save(WorkflowInstance instance);
 
+    /** 批量保存，已存在相同scheduleTime的忽略；不回填id */
+    void saveBatch(List<WorkflowInstance> instances);
+
+    List<WorkflowInstance> listScheduled(long workflowId, WorkflowInstanceStatus status, Date begin, Date end);
+
     List<WorkflowInstance> getAllRunning(boolean common);
 
     boolean existUncompleted(long workflowId);
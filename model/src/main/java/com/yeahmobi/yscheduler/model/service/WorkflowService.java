@@ -18,6 +18,9 @@ public interface WorkflowService {
 
     List<Workflow> listAll(WorkflowStatus status);
 
+    /** 列出update_time不早于time的workflow（包括PAUSED和REMOVED的），用于调度器增量同步 */
+    List<Workflow> listUpdatedSince(Date time);
+
     List<Workflow> listAllPrivate();
 
     List<Workflow> listAllCommon();
@@ -27,4 +30,13 @@ public interface WorkflowService {
     boolean nameExist(String name);
 
     void updateScheduleTime(long workflowId, Date time);
+
+    /** 更新workflow的update_time，workflow的节点或依赖变化时调用，使缓存的WorkflowGraph失效 */
+    void touch(long workflowId);
+
+    /** 更新包含该task的所有workflow的update_time，task的属性变化时调用 */
+    void touchByTask(long taskId);
+
+    /** 更新包含该用户的task的所有workflow的update_time，用户的team变化时调用 */
+    void touchByTaskOwner(long userId);
 }
@@ -3,14 +3,21 @@ package com.yeahmobi.yscheduler.model.service.impl;
 import java.util.Date;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
+
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import com.yeahmobi.yscheduler.common.Constants;
 import com.yeahmobi.yscheduler.common.Paginator;
 import com.yeahmobi.yscheduler.model.Agent;
 import com.yeahmobi.yscheduler.model.AgentExample;
+import com.yeahmobi.yscheduler.model.common.AgentChangedEvent;
 import com.yeahmobi.yscheduler.model.dao.AgentDao;
 import com.yeahmobi.yscheduler.model.service.AgentService;
 import com.yeahmobi.yscheduler.model.service.TaskService;
@@ -19,10 +26,25 @@ import com.yeahmobi.yscheduler.model.service.TaskService;
 public class AgentServiceImpl implements AgentService {
 
     @Autowired
-    private AgentDao    agentDao;
+    private AgentDao                  agentDao;
+
+    @Autowired
+    private TaskService               taskService;
 
     @Autowired
-    private TaskService taskService;
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private SqlSessionFactory         sqlSessionFactory;
+
+    // BATCH模式的AgentDao，语句在事务提交时一次发出
+    private AgentDao                  batchAgentDao;
+
+    @PostConstruct
+    public void init() {
+        SqlSessionTemplate batchSession = new SqlSessionTemplate(this.sqlSessionFactory, ExecutorType.BATCH);
+        this.batchAgentDao = batchSession.getMapper(AgentDao.class);
+    }
 
     public Agent get(long id) {
         return this.agentDao.selectByPrimaryKey(id);
@@ -91,6 +113,7 @@ public class AgentServiceImpl implements AgentService {
         this.taskService.addUpgradeTask(agent);
         // upgradeTaskId已经回填到agent中，此时可以更新
         this.agentDao.updateByPrimaryKeySelective(agent);
+        fireChanged(agent.getId());
     }
 
     public void remove(long agentId, String name) {
@@ -113,6 +136,7 @@ public class AgentServiceImpl implements AgentService {
             this.taskService.removeTask(agent.getUpgradeTaskId());
         }
         this.agentDao.deleteByPrimaryKey(agentId);
+        fireChanged(agentId);
     }
 
     public void update(long agentId, String ip, long teamId) {
@@ -122,6 +146,7 @@ public class AgentServiceImpl implements AgentService {
         agent.setTeamId(teamId);
         agent.setUpdateTime(new Date());
         this.agentDao.updateByPrimaryKeySelective(agent);
+        fireChanged(agentId);
     }
 
     public List<Agent> listInPlatform() {
@@ -171,6 +196,7 @@ public class AgentServiceImpl implements AgentService {
         Agent agent = this.agentDao.selectByPrimaryKey(agentId);
         agent.setEnable(enable);
         this.agentDao.updateByPrimaryKey(agent);
+        fireChanged(agentId);
     }
 
     public void updateVersion(long agentId, String agentVersion) {
@@ -179,4 +205,14 @@ public class AgentServiceImpl implements AgentService {
         this.agentDao.updateByPrimaryKey(agent);
     }
 
+    public void updateHeartbeats(List<Agent> agents) {
+        for (Agent agent : agents) {
+            this.batchAgentDao.updateHeartbeat(agent);
+        }
+    }
+
+    private void fireChanged(long agentId) {
+        this.eventPublisher.publishEvent(new AgentChangedEvent(this, agentId));
+    }
+
 }
@@ -3,7 +3,12 @@ package com.yeahmobi.yscheduler.model.service.impl;
 import java.util.Date;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
+
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -19,7 +24,19 @@ import com.yeahmobi.yscheduler.model.type.AttemptStatus;
 public class AttemptServiceImpl implements AttemptService {
 
     @Autowired
-    private AttemptDao attemptDao;
+    private AttemptDao         attemptDao;
+
+    @Autowired
+    private SqlSessionFactory  sqlSessionFactory;
+
+    // BATCH模式的AttemptDao，语句在事务提交时一次发出
+    private AttemptDao         batchAttemptDao;
+
+    @PostConstruct
+    public void init() {
+        SqlSessionTemplate batchSession = new SqlSessionTemplate(this.sqlSessionFactory, ExecutorType.BATCH);
+        this.batchAttemptDao = batchSession.getMapper(AttemptDao.class);
+    }
 
     public Attempt get(long id) {
         return this.attemptDao.selectByPrimaryKey(id);
@@ -95,6 +112,15 @@ public class AttemptServiceImpl implements AttemptService {
         this.attemptDao.updateByPrimaryKeySelective(attempt);
     }
 
+    public void updateBatch(List<Attempt> attempts) {
+        for (Attempt attempt : attempts) {
+            if (attempt.getUpdateTime() == null) {
+                attempt.setUpdateTime(new Date());
+            }
+            this.batchAttemptDao.updateByPrimaryKeySelective(attempt);
+        }
+    }
+
     public String getOutputFileName(Attempt attempt) {
         return String.valueOf(attempt.getId()) + ".log";
     }
@@ -1,37 +1,83 @@
 package com.yeahmobi.yscheduler.model.service.impl;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
 import com.yeahmobi.yscheduler.model.ScheduleProgress;
+import com.yeahmobi.yscheduler.model.ScheduleProgressExample;
 import com.yeahmobi.yscheduler.model.dao.ScheduleProgressDao;
 import com.yeahmobi.yscheduler.model.service.ScheduleProgressService;
 
 @Service
 public class ScheduleProgressServiceImpl implements ScheduleProgressService {
 
-    /** 仅使用一条记录存放进度 */
-    private static final Integer ID = 1;
-
     @Autowired
-    private ScheduleProgressDao  scheduleProgressDao;
+    private ScheduleProgressDao scheduleProgressDao;
 
-    public Long getCurrentScheduleTime() {
-        ScheduleProgress progress = this.scheduleProgressDao.selectByPrimaryKey(ID);
-        if (progress == null) {
+    public Long getCurrentScheduleTime(Set<Integer> partitions) {
+        if (partitions.isEmpty()) {
             return null;
         }
-        Date currentScheduleTime = progress.getCurrentScheduleTime();
-        return currentScheduleTime.getTime();
+        ScheduleProgressExample example = new ScheduleProgressExample();
+        example.createCriteria().andIdIn(toIds(partitions));
+        Long min = null;
+        for (ScheduleProgress progress : this.scheduleProgressDao.selectByExample(example)) {
+            Date currentScheduleTime = progress.getCurrentScheduleTime();
+            if ((currentScheduleTime != null) && ((min == null) || (currentScheduleTime.getTime() < min))) {
+                min = currentScheduleTime.getTime();
+            }
+        }
+        return min;
     }
 
-    public void saveCurrentScheduleTime(long currentScheduleTime) {
+    public void saveCurrentScheduleTime(Set<Integer> partitions, long currentScheduleTime) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = toIds(partitions);
+        Date now = new Date();
         ScheduleProgress scheduleProgress = new ScheduleProgress();
-        scheduleProgress.setId(ID);
         scheduleProgress.setCurrentScheduleTime(new Date(currentScheduleTime));
-        this.scheduleProgressDao.updateByPrimaryKey(scheduleProgress);
-        // this.scheduleProgressDao.insertOnDuplicateKeyUpdate(scheduleProgress);
+        scheduleProgress.setUpdateTime(now);
+        ScheduleProgressExample example = new ScheduleProgressExample();
+        example.createCriteria().andIdIn(ids);
+        if (this.scheduleProgressDao.updateByExampleSelective(scheduleProgress, example) == ids.size()) {
+            return;
+        }
+
+        // 补齐还没有记录的分区
+        Set<Integer> exists = new HashSet<Integer>();
+        for (ScheduleProgress progress : this.scheduleProgressDao.selectByExample(example)) {
+            exists.add(progress.getId());
+        }
+        for (Integer id : ids) {
+            if (!exists.contains(id)) {
+                ScheduleProgress progress = new ScheduleProgress();
+                progress.setId(id);
+                progress.setCurrentScheduleTime(new Date(currentScheduleTime));
+                progress.setCreateTime(now);
+                progress.setUpdateTime(now);
+                try {
+                    this.scheduleProgressDao.insert(progress);
+                } catch (DuplicateKeyException e) {
+                    // ignored 其他节点同时创建了
+                }
+            }
+        }
+    }
+
+    private List<Integer> toIds(Set<Integer> partitions) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Integer partition : partitions) {
+            ids.add(partition + 1);
+        }
+        return ids;
     }
 }
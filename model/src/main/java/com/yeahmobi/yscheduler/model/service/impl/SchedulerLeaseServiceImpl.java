@@ -0,0 +1,176 @@
+package com.yeahmobi.yscheduler.model.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import com.yeahmobi.yscheduler.model.SchedulerCommand;
+import com.yeahmobi.yscheduler.model.SchedulerLease;
+import com.yeahmobi.yscheduler.model.SchedulerNode;
+import com.yeahmobi.yscheduler.model.common.LeaseResult;
+import com.yeahmobi.yscheduler.model.dao.SchedulerLeaseDao;
+import com.yeahmobi.yscheduler.model.service.SchedulerLeaseService;
+
+@Service
+public class SchedulerLeaseServiceImpl implements SchedulerLeaseService {
+
+    /** 新建分区的owner，表示可能有未知节点遗留的实例 */
+    private static final String UNKNOWN_OWNER = "";
+
+    @Autowired
+    private SchedulerLeaseDao   schedulerLeaseDao;
+
+    public void createPartitions(int partitionCount) {
+        Set<Integer> exists = new HashSet<Integer>();
+        for (SchedulerLease lease : this.schedulerLeaseDao.selectAll()) {
+            exists.add(lease.getPartitionId());
+        }
+        Date now = new Date();
+        for (int i = 0; i < partitionCount; i++) {
+            if (!exists.contains(i)) {
+                SchedulerLease lease = new SchedulerLease();
+                lease.setPartitionId(i);
+                lease.setOwner(UNKNOWN_OWNER);
+                lease.setExpireTime(new Date(0));
+                lease.setUpdateTime(now);
+                try {
+                    this.schedulerLeaseDao.insert(lease);
+                } catch (DuplicateKeyException e) {
+                    // ignored 其他节点同时创建了
+                }
+            }
+        }
+    }
+
+    public LeaseResult updateLeases(String nodeId, Set<Integer> held, Set<Integer> busy, int partitionCount,
+                                    long leaseTime, long now, boolean rebalance) {
+        Date updateTime = new Date(now);
+        Date expireTime = new Date(now + leaseTime);
+        heartbeat(nodeId, updateTime);
+
+        LeaseResult result = new LeaseResult();
+        List<SchedulerLease> leases = this.schedulerLeaseDao.selectAll();
+
+        // 续约
+        for (Integer partitionId : held) {
+            if ((partitionId < partitionCount)
+                && (this.schedulerLeaseDao.renew(newLease(partitionId, nodeId, expireTime, updateTime)) == 1)) {
+                result.getOwned().add(partitionId);
+            } else {
+                result.getLost().add(partitionId);
+            }
+        }
+        if (!rebalance) {
+            return result;
+        }
+
+        List<SchedulerNode> aliveNodes = this.schedulerLeaseDao.selectAliveNodes(new Date(now - leaseTime));
+        result.setAliveNodes(Math.max(1, aliveNodes.size()));
+        int target = ((partitionCount + result.getAliveNodes()) - 1) / result.getAliveNodes();
+
+        if (result.getOwned().size() > target) {
+            // 多出的分区移交给其他节点，编号大的先移交；仍有运行中实例的分区等实例结束后再移交
+            List<Integer> owned = new ArrayList<Integer>(result.getOwned());
+            Collections.reverse(owned);
+            for (Integer partitionId : owned.subList(0, owned.size() - target)) {
+                if (busy.contains(partitionId)) {
+                    result.getDraining().add(partitionId);
+                    continue;
+                }
+                if (this.schedulerLeaseDao.handOff(newLease(partitionId, nodeId, updateTime, updateTime)) == 1) {
+                    result.getOwned().remove(partitionId);
+                    result.getReleased().add(partitionId);
+                }
+            }
+            return result;
+        }
+
+        for (SchedulerLease lease : leases) {
+            if (result.getOwned().size() >= target) {
+                break;
+            }
+            Integer partitionId = lease.getPartitionId();
+            if ((partitionId >= partitionCount) || result.getOwned().contains(partitionId)
+                || result.getLost().contains(partitionId)) {
+                continue;
+            }
+            // 已移交的、已过期的、或者是本节点上一次运行遗留的
+            String owner = lease.getOwner();
+            if ((owner == null) || (lease.getExpireTime().getTime() < now) || owner.equals(nodeId)) {
+                SchedulerLease acquire = newLease(partitionId, nodeId, expireTime, updateTime);
+                acquire.setVersion(lease.getVersion());
+                if (this.schedulerLeaseDao.acquire(acquire) == 1) {
+                    result.getOwned().add(partitionId);
+                    result.getAcquired().put(partitionId, owner);
+                }
+            }
+        }
+        return result;
+    }
+
+    public void removeNode(String nodeId, Set<Integer> held, long now) {
+        Date updateTime = new Date(now);
+        for (Integer partitionId : held) {
+            this.schedulerLeaseDao.expire(newLease(partitionId, nodeId, updateTime, updateTime));
+        }
+        this.schedulerLeaseDao.deleteNode(nodeId);
+    }
+
+    public List<SchedulerLease> listLeases() {
+        return this.schedulerLeaseDao.selectAll();
+    }
+
+    public void sendCommand(int partitionId, String type, long targetId) {
+        SchedulerCommand command = new SchedulerCommand();
+        command.setPartitionId(partitionId);
+        command.setType(type);
+        command.setTargetId(targetId);
+        command.setCreateTime(new Date());
+        this.schedulerLeaseDao.insertCommand(command);
+    }
+
+    public List<SchedulerCommand> takeCommands(Set<Integer> partitions) {
+        List<SchedulerCommand> taken = new ArrayList<SchedulerCommand>();
+        if (partitions.isEmpty()) {
+            return taken;
+        }
+        for (SchedulerCommand command : this.schedulerLeaseDao.selectCommands(new ArrayList<Integer>(partitions))) {
+            // 分区刚移交时新旧节点可能同时查到，删除成功的才执行
+            if (this.schedulerLeaseDao.deleteCommand(command.getId()) == 1) {
+                taken.add(command);
+            }
+        }
+        return taken;
+    }
+
+    private void heartbeat(String nodeId, Date now) {
+        SchedulerNode node = new SchedulerNode();
+        node.setNodeId(nodeId);
+        node.setHeartbeatTime(now);
+        if (this.schedulerLeaseDao.updateHeartbeat(node) == 0) {
+            node.setCreateTime(now);
+            try {
+                this.schedulerLeaseDao.insertNode(node);
+            } catch (DuplicateKeyException e) {
+                // ignored
+            }
+        }
+    }
+
+    private SchedulerLease newLease(Integer partitionId, String owner, Date expireTime, Date updateTime) {
+        SchedulerLease lease = new SchedulerLease();
+        lease.setPartitionId(partitionId);
+        lease.setOwner(owner);
+        lease.setExpireTime(expireTime);
+        lease.setUpdateTime(updateTime);
+        return lease;
+    }
+
+}
@@ -10,7 +10,10 @@ import javax.annotation.PostConstruct;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.Transformer;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -34,19 +37,27 @@ import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
 public class TaskInstanceServiceImpl implements TaskInstanceService {
 
     @Autowired
-    private TaskInstanceDao instanceDao;
+    private TaskInstanceDao   instanceDao;
 
     @Autowired
-    private TaskService     taskService;
+    private TaskService       taskService;
 
     @Autowired
-    private UserService     userService;
+    private UserService       userService;
 
     @Autowired
-    private TeamService     teamService;
+    private TeamService       teamService;
+
+    @Autowired
+    private SqlSessionFactory sqlSessionFactory;
+
+    // BATCH模式的TaskInstanceDao，语句在事务提交时一次发出
+    private TaskInstanceDao   batchInstanceDao;
 
     @PostConstruct
     public void init() {
+        SqlSessionTemplate batchSession = new SqlSessionTemplate(this.sqlSessionFactory, ExecutorType.BATCH);
+        this.batchInstanceDao = batchSession.getMapper(TaskInstanceDao.class);
     }
 
     public TaskInstance get(long id) {
@@ -115,6 +126,25 @@ public class TaskInstanceServiceImpl implements TaskInstanceService {
 
     }
 
+    public void saveBatch(List<TaskInstance> instances) {
+        if (instances.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        for (TaskInstance instance : instances) {
+            instance.setCreateTime(now);
+            instance.setUpdateTime(now);
+        }
+        this.instanceDao.insertBatch(instances);
+    }
+
+    public List<TaskInstance> listScheduled(long taskId, TaskInstanceStatus status, Date begin, Date end) {
+        TaskInstanceExample example = new TaskInstanceExample();
+        example.createCriteria().andTaskIdEqualTo(taskId).andStatusEqualTo(status).andScheduleTimeBetween(begin, end);
+        example.setOrderByClause("schedule_time");
+        return this.instanceDao.selectByExample(example);
+    }
+
     public List<TaskInstance> getAllUncompleteds() {
         TaskInstanceExample example = new TaskInstanceExample();
         example.createCriteria().andStatusEqualTo(TaskInstanceStatus.RUNNING);
@@ -138,6 +168,15 @@ public class TaskInstanceServiceImpl implements TaskInstanceService {
         this.instanceDao.updateByPrimaryKeySelective(record);
     }
 
+    public void updateBatch(List<TaskInstance> instances) {
+        for (TaskInstance instance : instances) {
+            if (instance.getUpdateTime() == null) {
+                instance.setUpdateTime(new Date());
+            }
+            this.batchInstanceDao.updateByPrimaryKeySelective(instance);
+        }
+    }
+
     public void deleteByWorkflowInstanceId(long workflowInstanceId) {
         TaskInstanceExample example = new TaskInstanceExample();
         example.createCriteria().andWorkflowInstanceIdEqualTo(workflowInstanceId);
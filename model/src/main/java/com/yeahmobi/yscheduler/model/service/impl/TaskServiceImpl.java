@@ -28,6 +28,7 @@ import com.yeahmobi.yscheduler.model.dao.TaskDao;
 import com.yeahmobi.yscheduler.model.service.AgentService;
 import com.yeahmobi.yscheduler.model.service.TaskService;
 import com.yeahmobi.yscheduler.model.service.UserService;
+import com.yeahmobi.yscheduler.model.service.WorkflowService;
 import com.yeahmobi.yscheduler.model.type.DependingStatus;
 import com.yeahmobi.yscheduler.model.type.TaskStatus;
 import com.yeahmobi.yscheduler.model.type.TaskType;
@@ -51,6 +52,9 @@ public class TaskServiceImpl implements TaskService {
     @Autowired
     private AgentService        agentService;
 
+    @Autowired
+    private WorkflowService     workflowService;
+
     private String              attachmentServerUri;
 
     @Value("#{confProperties['storageServerUri']}")
@@ -153,6 +157,7 @@ public class TaskServiceImpl implements TaskService {
             task.setLastScheduleTime(time);
         }
         this.taskDao.updateByPrimaryKeySelective(task);
+        this.workflowService.touchByTask(task.getId());
     }
 
     public boolean canModify(long taskId, long userId) {
@@ -182,11 +187,17 @@ public class TaskServiceImpl implements TaskService {
         return this.taskDao.selectByExampleWithBLOBs(example);
     }
 
+    public List<Task> listUpdatedSince(Date time) {
+        TaskExample example = new TaskExample();
+        example.createCriteria().andUpdateTimeGreaterThanOrEqualTo(time);
+        return this.taskDao.selectByExample(example);
+    }
+
     public void updateLastScheduleTime(Long id, Date scheduleTime) {
         Task record = new Task();
         record.setId(id);
         record.setLastScheduleTime(scheduleTime);
-        this.taskDao.updateByPrimaryKeySelective(record);
+        this.taskDao.updateLastScheduleTime(record);
     }
 
     public boolean hasTaskAttachedToAgent(long agentId) {
@@ -241,6 +252,30 @@ public class TaskServiceImpl implements TaskService {
         this.taskDao.deleteByExample(example);
     }
 
+    public void pauseHeartbeatTask(long agentId, String name) {
+        updateHeartbeatTaskStatus(agentId, name, TaskStatus.OPEN, TaskStatus.PAUSED);
+    }
+
+    public void resumeHeartbeatTask(long agentId, String name) {
+        updateHeartbeatTaskStatus(agentId, name, TaskStatus.PAUSED, TaskStatus.OPEN);
+    }
+
+    private void updateHeartbeatTaskStatus(long agentId, String name, TaskStatus from, TaskStatus to) {
+        Date time = new Date();
+        Task record = new Task();
+        record.setStatus(to);
+        record.setUpdateTime(time);
+        if (TaskStatus.OPEN.equals(to)) {
+            // 同update，重新开启时从现在开始调度
+            record.setLastScheduleTime(time);
+        }
+        TaskExample example = new TaskExample();
+        Criteria criteria = example.createCriteria();
+        criteria.andAgentIdEqualTo(agentId).andNameEqualTo(Constants.HEARTBEAT_TASK_NAME_PREFIX + name);
+        criteria.andStatusEqualTo(from);
+        this.taskDao.updateByExampleSelective(record, example);
+    }
+
     public void addUpgradeTask(Agent agent) {
         Task upgradeTask = new Task();
         upgradeTask.setAgentId(agent.getId());
@@ -266,6 +301,7 @@ public class TaskServiceImpl implements TaskService {
 
     public void removeTask(long taskId) {
         this.taskDao.deleteByPrimaryKey(taskId);
+        this.workflowService.touchByTask(taskId);
     }
 
     public List<Task> listHeartbeatTask() {
@@ -390,12 +426,14 @@ public class TaskServiceImpl implements TaskService {
         task.setAttachment(filename);
         task.setAttachmentVersion(version);
         this.taskDao.updateByPrimaryKey(task);
+        this.workflowService.touchByTask(taskId);
     }
 
     public void updateAgentId(long taskId, Long agentId) {
         Task task = this.taskDao.selectByPrimaryKey(taskId);
         task.setAgentId(agentId);
         this.taskDao.updateByPrimaryKey(task);
+        this.workflowService.touchByTask(taskId);
     }
 
 }
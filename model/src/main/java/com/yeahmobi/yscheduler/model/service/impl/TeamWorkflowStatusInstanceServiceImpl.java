@@ -41,6 +41,12 @@ public class TeamWorkflowStatusInstanceServiceImpl implements TeamWorkflowStatus
 
     }
 
+    public List<TeamWorkflowInstanceStatus> listByWorkflowInstanceId(long workflowInstanceId) {
+        TeamWorkflowInstanceStatusExample example = new TeamWorkflowInstanceStatusExample();
+        example.createCriteria().andWorkflowInstanceIdEqualTo(workflowInstanceId);
+        return this.workflowInstanceDao.selectByExample(example);
+    }
+
     public List<TeamWorkflowInstanceStatus> list(Query query, long userId, long workflowId, int pageNum,
                                                  Paginator paginator) {
         User user = this.userService.get(userId);
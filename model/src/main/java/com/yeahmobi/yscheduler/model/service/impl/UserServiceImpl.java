@@ -19,6 +19,7 @@ import com.yeahmobi.yscheduler.model.common.NameValuePair;
 import com.yeahmobi.yscheduler.model.dao.UserDao;
 import com.yeahmobi.yscheduler.model.service.TeamService;
 import com.yeahmobi.yscheduler.model.service.UserService;
+import com.yeahmobi.yscheduler.model.service.WorkflowService;
 
 @Service
 public class UserServiceImpl implements UserService {
@@ -29,6 +30,9 @@ public class UserServiceImpl implements UserService {
     @Autowired
     private TeamService         teamService;
 
+    @Autowired
+    private WorkflowService     workflowService;
+
     private static final String ADMIN = "admin";
 
     public User get(long id) {
@@ -131,7 +135,12 @@ public class UserServiceImpl implements UserService {
     }
 
     public void update(User user) {
+        User old = this.userDao.selectByPrimaryKey(user.getId());
         this.userDao.updateByPrimaryKeySelective(user);
+        if ((user.getTeamId() != null) && (old != null) && !user.getTeamId().equals(old.getTeamId())) {
+            // 节点的team在缓存的WorkflowGraph中
+            this.workflowService.touchByTaskOwner(user.getId());
+        }
     }
 
     public void regenToken(long userId) {
@@ -3,9 +3,11 @@ package com.yeahmobi.yscheduler.model.service.impl;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.Transformer;
+import org.apache.commons.lang.ObjectUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -15,6 +17,8 @@ import com.yeahmobi.yscheduler.model.WorkflowDetail;
 import com.yeahmobi.yscheduler.model.WorkflowDetailExample;
 import com.yeahmobi.yscheduler.model.WorkflowTaskDependency;
 import com.yeahmobi.yscheduler.model.common.NameValuePair;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraph;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraphRow;
 import com.yeahmobi.yscheduler.model.dao.WorkflowDetailDao;
 import com.yeahmobi.yscheduler.model.service.TaskService;
 import com.yeahmobi.yscheduler.model.service.UserService;
@@ -26,20 +30,26 @@ import com.yeahmobi.yscheduler.model.type.DependingStatus;
 @Service
 public class WorkflowDetailServiceImpl implements WorkflowDetailService {
 
+    /** 缓存的依赖图最长使用时间，兜底update_time按秒存储导致的同一秒内修改 */
+    private static final long                          GRAPH_TTL = Long.parseLong(System.getProperty("ysheduler.workflow.graphTtl",
+                                                                                                     "60000"));
+
+    private final ConcurrentHashMap<Long, CachedGraph> graphs    = new ConcurrentHashMap<Long, CachedGraph>();
+
     @Autowired
-    private WorkflowDetailDao             workflowDetailDao;
+    private WorkflowDetailDao                          workflowDetailDao;
 
     @Autowired
-    private WorkflowTaskDependencyService workflowTaskDependencyService;
+    private WorkflowTaskDependencyService              workflowTaskDependencyService;
 
     @Autowired
-    private TaskService                   taskService;
+    private TaskService                                taskService;
 
     @Autowired
-    private WorkflowService               workflowService;
+    private WorkflowService                            workflowService;
 
     @Autowired
-    private UserService                   userService;
+    private UserService                                userService;
 
     public List<WorkflowDetail> list(long workflowId) {
         WorkflowDetailExample example = new WorkflowDetailExample();
@@ -63,6 +73,24 @@ public class WorkflowDetailServiceImpl implements WorkflowDetailService {
         return result;
     }
 
+    public WorkflowGraph getGraph(long workflowId) {
+        Workflow workflow = this.workflowService.get(workflowId);
+        if (workflow == null) {
+            this.graphs.remove(workflowId);
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        CachedGraph cached = this.graphs.get(workflowId);
+        if ((cached != null) && (cached.expireTime > now)
+            && ObjectUtils.equals(cached.graph.getUpdateTime(), workflow.getUpdateTime())) {
+            return cached.graph;
+        }
+        List<WorkflowGraphRow> rows = this.workflowDetailDao.selectGraphRows(workflowId);
+        WorkflowGraph graph = WorkflowGraph.build(workflowId, workflow.getUpdateTime(), rows);
+        this.graphs.put(workflowId, new CachedGraph(graph, now + GRAPH_TTL));
+        return graph;
+    }
+
     public WorkflowDetail get(long workflowId, long taskId) {
         WorkflowDetailExample example = new WorkflowDetailExample();
         example.createCriteria().andWorkflowIdEqualTo(workflowId).andTaskIdEqualTo(taskId);
@@ -86,6 +114,7 @@ public class WorkflowDetailServiceImpl implements WorkflowDetailService {
             dependencyTasks.add(root.getId());
             add(detail);
             this.workflowTaskDependencyService.addDependencyTasks(detail.getId(), dependencyTasks);
+            this.workflowService.touch(workflow.getId());
         }
     }
 
@@ -139,6 +168,7 @@ public class WorkflowDetailServiceImpl implements WorkflowDetailService {
             this.workflowDetailDao.insertSelective(detail);
             this.workflowTaskDependencyService.addDependencyTasks(detail.getId(), dependencyTasks);
         }
+        this.workflowService.touch(workflowId);
     }
 
     public void save(long workflowId, List<WorkflowDetail> workflowDetails, List<List<Long>> dependencyList, long userId) {
@@ -165,6 +195,7 @@ public class WorkflowDetailServiceImpl implements WorkflowDetailService {
             this.workflowDetailDao.insertSelective(detail);
             this.workflowTaskDependencyService.addDependencyTasks(detail.getId(), dependencyTasks);
         }
+        this.workflowService.touch(workflowId);
 
     }
 
@@ -173,6 +204,7 @@ public class WorkflowDetailServiceImpl implements WorkflowDetailService {
         WorkflowDetail detail = get(workflowId, teamRoot.getId());
         detail.setDelay(delay);
         this.workflowDetailDao.updateByPrimaryKey(detail);
+        this.workflowService.touch(workflowId);
     }
 
     public List<WorkflowDetail> listAllExceptRootTask(long workflowId) {
@@ -189,4 +221,15 @@ public class WorkflowDetailServiceImpl implements WorkflowDetailService {
 
         return this.workflowDetailDao.selectByExample(example);
     }
+
+    private static class CachedGraph {
+
+        private final WorkflowGraph graph;
+        private final long          expireTime;
+
+        CachedGraph(WorkflowGraph graph, long expireTime) {
+            this.graph = graph;
+            this.expireTime = expireTime;
+        }
+    }
 }
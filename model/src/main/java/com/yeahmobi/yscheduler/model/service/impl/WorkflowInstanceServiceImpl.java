@@ -119,6 +119,34 @@ public class WorkflowInstanceServiceImpl implements WorkflowInstanceService {
 
     }
 
+    public void saveBatch(List<WorkflowInstance> instances) {
+        if (instances.isEmpty()) {
+            return;
+        }
+        Workflow workflow = this.workflowService.get(instances.get(0).getWorkflowId());
+        if ((workflow.getCommon() != null) && workflow.getCommon()) {
+            // 公共工作流需要为每个instance建team状态，逐条保存
+            for (WorkflowInstance instance : instances) {
+                save(instance);
+            }
+            return;
+        }
+        Date time = new Date();
+        for (WorkflowInstance instance : instances) {
+            instance.setCreateTime(time);
+            instance.setUpdateTime(time);
+        }
+        this.workflowInstanceDao.insertBatch(instances);
+    }
+
+    public List<WorkflowInstance> listScheduled(long workflowId, WorkflowInstanceStatus status, Date begin, Date end) {
+        WorkflowInstanceExample example = new WorkflowInstanceExample();
+        example.createCriteria().andWorkflowIdEqualTo(workflowId).andStatusEqualTo(status).andScheduleTimeBetween(begin,
+                                                                                                                   end);
+        example.setOrderByClause("schedule_time");
+        return this.workflowInstanceDao.selectByExample(example);
+    }
+
     @SuppressWarnings("unchecked")
     public List<WorkflowInstance> getAllRunning(boolean common) {
         List<Workflow> workflows = null;
@@ -197,13 +197,34 @@ public class WorkflowServiceImpl implements WorkflowService {
         return this.workflowDao.selectByExample(example);
     }
 
+    public List<Workflow> listUpdatedSince(Date time) {
+        WorkflowExample example = new WorkflowExample();
+        example.createCriteria().andUpdateTimeGreaterThanOrEqualTo(time);
+        return this.workflowDao.selectByExample(example);
+    }
+
     public void updateScheduleTime(long workflowId, Date time) {
         Workflow record = new Workflow();
         record.setId(workflowId);
         record.setLastScheduleTime(time);
+        this.workflowDao.updateLastScheduleTime(record);
+    }
+
+    public void touch(long workflowId) {
+        Workflow record = new Workflow();
+        record.setId(workflowId);
+        record.setUpdateTime(new Date());
         this.workflowDao.updateByPrimaryKeySelective(record);
     }
 
+    public void touchByTask(long taskId) {
+        this.workflowDao.touchByTaskId(taskId);
+    }
+
+    public void touchByTaskOwner(long userId) {
+        this.workflowDao.touchByTaskOwner(userId);
+    }
+
     public List<Workflow> listAllPrivate() {
         WorkflowExample example = new WorkflowExample();
         example.createCriteria().andCommonEqualTo(false);
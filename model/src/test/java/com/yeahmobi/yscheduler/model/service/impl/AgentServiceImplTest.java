@@ -2,6 +2,7 @@ package com.yeahmobi.yscheduler.model.service.impl;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -206,6 +207,29 @@ public class AgentServiceImplTest {
         assertAgent(agent, 1L, "agent1", true, true, "10.0.0.1", DEFAULT_TIME, new Date());
     }
 
+    @Test
+    @DatabaseSetup
+    public void testUpdateHeartbeats() throws Exception {
+        Date heartbeatTime = new Date();
+        Agent agent1 = new Agent();
+        agent1.setId(1L);
+        agent1.setVersion("0.6.0");
+        agent1.setHeartbeatTime(heartbeatTime);
+        Agent agent2 = new Agent();
+        agent2.setId(2L);
+        agent2.setAlive(false);
+        this.agentService.updateHeartbeats(Arrays.asList(agent1, agent2));
+
+        Agent agent = this.agentService.get(1);
+        Assert.assertEquals("0.6.0", agent.getVersion());
+        TestUtils.generallyEquals(heartbeatTime, agent.getHeartbeatTime());
+        // 心跳不改变update_time
+        assertAgent(agent, 1L, "agent1", true, true, "10.0.0.1", DEFAULT_TIME, DEFAULT_TIME);
+        agent = this.agentService.get(2);
+        Assert.assertNull(agent.getHeartbeatTime());
+        assertAgent(agent, 2L, "agent2", false, true, "10.0.0.2", DEFAULT_TIME, DEFAULT_TIME);
+    }
+
     @Test
     @DatabaseSetup
     public void testListInPlatform() throws Exception {
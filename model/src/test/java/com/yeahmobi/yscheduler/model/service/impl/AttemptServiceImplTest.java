@@ -2,6 +2,7 @@ package com.yeahmobi.yscheduler.model.service.impl;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -179,6 +180,28 @@ public class AttemptServiceImplTest {
 
     }
 
+    @Test
+    @DatabaseSetup
+    public void testUpdateBatch() throws Exception {
+        Attempt running = new Attempt();
+        running.setId(1L);
+        running.setDuration(120000L);
+        Attempt failed = new Attempt();
+        failed.setId(2L);
+        failed.setStatus(AttemptStatus.FAILED);
+        failed.setReturnValue(1);
+
+        this.attemptService.updateBatch(Arrays.asList(running, failed));
+
+        Attempt actual = this.attemptService.get(1L);
+        Assert.assertEquals(Long.valueOf(120000L), actual.getDuration());
+        Assert.assertEquals(AttemptStatus.SUCCESS, actual.getStatus());
+        actual = this.attemptService.get(2L);
+        Assert.assertEquals(AttemptStatus.FAILED, actual.getStatus());
+        Assert.assertEquals(Integer.valueOf(1), actual.getReturnValue());
+        Assert.assertEquals(Long.valueOf(60000L), actual.getDuration());
+    }
+
     @Test
     @DatabaseSetup
     public void testArchiveExistsAttempts() throws Exception {
@@ -1,7 +1,11 @@
 package com.yeahmobi.yscheduler.model.service.impl;
 
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -24,7 +28,9 @@ import com.yeahmobi.yunit.annotation.DatabaseSetup;
 @TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DbUnitTestExecutionListener.class })
 public class ScheduleProgressServiceImplTest {
 
-    private static final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final SimpleDateFormat sdf        = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    private static final Set<Integer>     PARTITION0 = Collections.singleton(0);
 
     @Autowired
     private ScheduleProgressService       scheduleProgressService;
@@ -32,7 +38,7 @@ public class ScheduleProgressServiceImplTest {
     @Test
     @DatabaseSetup
     public void testGet() throws Exception {
-        Long currentScheduleTime = this.scheduleProgressService.getCurrentScheduleTime();
+        Long currentScheduleTime = this.scheduleProgressService.getCurrentScheduleTime(PARTITION0);
 
         Assert.assertEquals(new Date(currentScheduleTime), sdf.parse("2014-11-26 17:00:00"));
     }
@@ -40,7 +46,7 @@ public class ScheduleProgressServiceImplTest {
     @Test
     @DatabaseSetup
     public void testGetScheduleProgressNull() throws Exception {
-        Long currentScheduleTime = this.scheduleProgressService.getCurrentScheduleTime();
+        Long currentScheduleTime = this.scheduleProgressService.getCurrentScheduleTime(PARTITION0);
 
         Assert.assertNull(currentScheduleTime);
     }
@@ -50,10 +56,26 @@ public class ScheduleProgressServiceImplTest {
     public void testSave() throws Exception {
         Date date = new Date();
         Long currentScheduleTime = date.getTime();
-        this.scheduleProgressService.saveCurrentScheduleTime(currentScheduleTime);
+        this.scheduleProgressService.saveCurrentScheduleTime(PARTITION0, currentScheduleTime);
 
-        Long actual = this.scheduleProgressService.getCurrentScheduleTime();
+        Long actual = this.scheduleProgressService.getCurrentScheduleTime(PARTITION0);
         Assert.assertEquals(currentScheduleTime, actual);
     }
 
+    /**
+     * 每个分区各自保存进度，读取时取最早的
+     */
+    @Test
+    @DatabaseSetup
+    public void testSavePartitions() throws Exception {
+        long time = sdf.parse("2014-11-26 18:00:00").getTime();
+        Set<Integer> partitions = new HashSet<Integer>(Arrays.asList(1, 2));
+        this.scheduleProgressService.saveCurrentScheduleTime(partitions, time);
+
+        Assert.assertEquals(Long.valueOf(time), this.scheduleProgressService.getCurrentScheduleTime(partitions));
+        Long min = this.scheduleProgressService.getCurrentScheduleTime(new HashSet<Integer>(Arrays.asList(0, 1)));
+        Assert.assertEquals(new Date(min), sdf.parse("2014-11-26 17:00:00"));
+        Assert.assertNull(this.scheduleProgressService.getCurrentScheduleTime(Collections.singleton(3)));
+    }
+
 }
@@ -0,0 +1,348 @@
+package com.yeahmobi.yscheduler.model.service.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+
+import com.yeahmobi.yscheduler.model.SchedulerCommand;
+import com.yeahmobi.yscheduler.model.SchedulerLease;
+import com.yeahmobi.yscheduler.model.common.LeaseResult;
+import com.yeahmobi.yscheduler.model.dao.SchedulerLeaseDao;
+import com.yeahmobi.yscheduler.model.service.SchedulerLeaseService;
+
+/**
+ * 在同一个JVM中模拟多个调度节点共用一个内嵌数据库，按轮次推进虚拟时间
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:applicationContext-test.xml" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+public class SchedulerLeaseServiceImplTest {
+
+    private static final int      PARTITIONS = 16;
+
+    private static final long     LEASE_TIME = 30 * 1000;
+
+    private static final long     INTERVAL   = LEASE_TIME / 3;
+
+    @Autowired
+    private SchedulerLeaseService schedulerLeaseService;
+
+    @Autowired
+    private SchedulerLeaseDao     schedulerLeaseDao;
+
+    @Autowired
+    private DataSource            dataSource;
+
+    private long                  now;
+
+    @Before
+    public void before() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
+        jdbcTemplate.update("delete from scheduler_lease");
+        jdbcTemplate.update("delete from scheduler_node");
+        jdbcTemplate.update("delete from scheduler_command");
+        this.schedulerLeaseService.createPartitions(PARTITIONS);
+        this.now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void testSingleNodeOwnsAll() throws Exception {
+        Node node = new Node("node-1");
+        node.round();
+
+        Assert.assertEquals(PARTITIONS, node.held.size());
+        // 新建的分区都需要恢复
+        Assert.assertEquals(node.held, node.recovered);
+        assertOwners(node);
+
+        // 续约不会重复获得
+        tick();
+        node.round();
+        Assert.assertEquals(PARTITIONS, node.held.size());
+        Assert.assertEquals(PARTITIONS, node.recovered.size());
+    }
+
+    @Test
+    public void testJoinRebalance() throws Exception {
+        Node node1 = new Node("node-1");
+        node1.round();
+        Assert.assertEquals(PARTITIONS, node1.held.size());
+
+        Node node2 = new Node("node-2");
+        Node node3 = new Node("node-3");
+        rounds(4, node1, node2, node3);
+
+        assertBalanced(node1, node2, node3);
+        assertOwners(node1, node2, node3);
+        // 正常移交过来的分区也要恢复库中未完成的实例
+        Assert.assertEquals(node2.held, node2.recovered);
+        Assert.assertEquals(node3.held, node3.recovered);
+    }
+
+    /**
+     * 仍有运行中实例的分区不移交，实例结束后再移交
+     */
+    @Test
+    public void testBusyNotHandedOff() throws Exception {
+        Node node1 = new Node("node-1");
+        node1.round();
+        node1.busy.addAll(node1.held);
+
+        Node node2 = new Node("node-2");
+        rounds(4, node1, node2);
+        Assert.assertEquals(PARTITIONS, node1.held.size());
+        Assert.assertTrue(node2.held.isEmpty());
+        Assert.assertEquals(PARTITIONS / 2, node1.draining.size());
+
+        node1.busy.clear();
+        rounds(4, node1, node2);
+        assertBalanced(node1, node2);
+        assertOwners(node1, node2);
+        Assert.assertTrue(node1.draining.isEmpty());
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        Node node1 = new Node("node-1");
+        Node node2 = new Node("node-2");
+        Node node3 = new Node("node-3");
+        rounds(4, node1, node2, node3);
+        assertBalanced(node1, node2, node3);
+        Set<Integer> orphans = new TreeSet<Integer>(node3.held);
+
+        // node3宕机，租约过期前其他节点不会接手
+        node1.recovered.clear();
+        node2.recovered.clear();
+        tick();
+        rounds(1, node1, node2);
+        assertDisjoint(node1, node2);
+        Assert.assertFalse(union(node1, node2).containsAll(orphans));
+
+        // 租约过期后由存活节点接手并恢复
+        rounds(4, node1, node2);
+        assertBalanced(node1, node2);
+        assertOwners(node1, node2);
+        Set<Integer> recovered = new TreeSet<Integer>(node1.recovered);
+        recovered.addAll(node2.recovered);
+        Assert.assertEquals(orphans, recovered);
+    }
+
+    @Test
+    public void testRemoveNode() throws Exception {
+        Node node1 = new Node("node-1");
+        Node node2 = new Node("node-2");
+        rounds(4, node1, node2);
+        assertBalanced(node1, node2);
+        Set<Integer> orphans = new TreeSet<Integer>(node2.held);
+
+        // 正常停止的节点租约立即过期，下一轮即被接手
+        node1.recovered.clear();
+        this.schedulerLeaseService.removeNode(node2.nodeId, node2.held, this.now);
+        tick();
+        node1.round();
+        Assert.assertEquals(PARTITIONS, node1.held.size());
+        Assert.assertEquals(orphans, node1.recovered);
+        assertOwners(node1);
+    }
+
+    @Test
+    public void testLostLease() throws Exception {
+        Node node1 = new Node("node-1");
+        node1.round();
+
+        // node1长时间未续约，租约被node2接手
+        this.now += LEASE_TIME + INTERVAL;
+        Node node2 = new Node("node-2");
+        node2.round();
+        Assert.assertEquals(PARTITIONS, node2.held.size());
+
+        node1.round();
+        Assert.assertEquals(PARTITIONS, node1.lost.size());
+        assertDisjoint(node1, node2);
+        assertOwners(node1, node2);
+
+        // 之后按存活节点重新均分
+        rounds(4, node1, node2);
+        assertBalanced(node1, node2);
+        assertOwners(node1, node2);
+    }
+
+    /**
+     * 过期后续约与其他节点获取同时发生：获取方按续约前读到的version和过期时间判断，不能成功，分区仍只属于续约方
+     */
+    @Test
+    public void testRenewAfterExpiryRacesAcquire() throws Exception {
+        Node node1 = new Node("node-1");
+        node1.round();
+        this.now += LEASE_TIME + INTERVAL;
+
+        // node2读到已过期的租约后，node1先续约成功
+        List<SchedulerLease> stale = this.schedulerLeaseDao.selectAll();
+        for (SchedulerLease lease : stale) {
+            Assert.assertTrue(lease.getExpireTime().getTime() < this.now);
+        }
+        node1.round();
+        Assert.assertEquals(PARTITIONS, node1.held.size());
+
+        for (SchedulerLease lease : stale) {
+            SchedulerLease acquire = new SchedulerLease();
+            acquire.setPartitionId(lease.getPartitionId());
+            acquire.setOwner("node-2");
+            acquire.setExpireTime(new Date(this.now + LEASE_TIME));
+            acquire.setUpdateTime(new Date(this.now));
+            acquire.setVersion(lease.getVersion());
+            Assert.assertEquals(0, this.schedulerLeaseDao.acquire(acquire));
+            // version相同时也按过期时间拒绝
+            acquire.setVersion(lease.getVersion() + 1);
+            Assert.assertEquals(0, this.schedulerLeaseDao.acquire(acquire));
+        }
+        assertOwners(node1);
+
+        Node node2 = new Node("node-2");
+        node2.round();
+        Assert.assertTrue(node2.held.isEmpty());
+        node1.round();
+        Assert.assertTrue(node1.lost.isEmpty());
+        assertOwners(node1);
+    }
+
+    @Test
+    public void testRenewOnly() throws Exception {
+        Node node1 = new Node("node-1");
+        node1.round();
+        Node node2 = new Node("node-2");
+        node2.rebalance = false;
+        rounds(3, node1, node2);
+        Assert.assertTrue(node2.held.isEmpty());
+        // node2只续约不获取，但它的心跳使node1移交了一半分区
+        Assert.assertEquals(PARTITIONS / 2, node1.held.size());
+    }
+
+    @Test
+    public void testCommands() throws Exception {
+        this.schedulerLeaseService.sendCommand(1, "CANCEL_TASK_INSTANCE", 10L);
+        this.schedulerLeaseService.sendCommand(2, "CANCEL_TASK_INSTANCE", 20L);
+
+        List<SchedulerCommand> commands = this.schedulerLeaseService.takeCommands(Collections.singleton(1));
+        Assert.assertEquals(1, commands.size());
+        Assert.assertEquals(Long.valueOf(10L), commands.get(0).getTargetId());
+        // 每个命令只会被取走一次
+        Assert.assertTrue(this.schedulerLeaseService.takeCommands(Collections.singleton(1)).isEmpty());
+
+        commands = this.schedulerLeaseService.takeCommands(new TreeSet<Integer>(Arrays.asList(1, 2, 3)));
+        Assert.assertEquals(1, commands.size());
+        Assert.assertEquals("CANCEL_TASK_INSTANCE", commands.get(0).getType());
+        Assert.assertEquals(Long.valueOf(20L), commands.get(0).getTargetId());
+    }
+
+    private void rounds(int count, Node... nodes) {
+        for (int i = 0; i < count; i++) {
+            tick();
+            for (Node node : nodes) {
+                node.round();
+            }
+        }
+    }
+
+    private void tick() {
+        this.now += INTERVAL;
+    }
+
+    private void assertBalanced(Node... nodes) {
+        int target = ((PARTITIONS + nodes.length) - 1) / nodes.length;
+        for (Node node : nodes) {
+            Assert.assertTrue(node.nodeId + " owns " + node.held, node.held.size() <= target);
+        }
+        assertDisjoint(nodes);
+        Assert.assertEquals(PARTITIONS, union(nodes).size());
+    }
+
+    private void assertDisjoint(Node... nodes) {
+        int total = 0;
+        for (Node node : nodes) {
+            total += node.held.size();
+        }
+        Assert.assertEquals(total, union(nodes).size());
+    }
+
+    /**
+     * 库中的owner与各节点认为自己持有的分区一致
+     */
+    private void assertOwners(Node... nodes) {
+        Map<Integer, String> expected = new HashMap<Integer, String>();
+        for (Node node : nodes) {
+            for (Integer partitionId : node.held) {
+                expected.put(partitionId, node.nodeId);
+            }
+        }
+        for (SchedulerLease lease : this.schedulerLeaseService.listLeases()) {
+            if (expected.containsKey(lease.getPartitionId())) {
+                Assert.assertEquals(expected.get(lease.getPartitionId()), lease.getOwner());
+                Assert.assertTrue(lease.getExpireTime().getTime() >= this.now);
+            }
+        }
+    }
+
+    private Set<Integer> union(Node... nodes) {
+        Set<Integer> union = new HashSet<Integer>();
+        for (Node node : nodes) {
+            union.addAll(node.held);
+        }
+        return union;
+    }
+
+    /**
+     * 一个调度节点的租约状态，round相当于调度节点的一次租约维护
+     */
+    private class Node {
+
+        final String       nodeId;
+        final Set<Integer> held      = new TreeSet<Integer>();
+        final Set<Integer> recovered = new TreeSet<Integer>();
+        final Set<Integer> lost      = new TreeSet<Integer>();
+        final Set<Integer> busy      = new TreeSet<Integer>();
+        final Set<Integer> draining  = new TreeSet<Integer>();
+        boolean            rebalance = true;
+
+        Node(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        void round() {
+            LeaseResult result = SchedulerLeaseServiceImplTest.this.schedulerLeaseService.updateLeases(this.nodeId,
+                                                                                                       this.held,
+                                                                                                       this.busy,
+                                                                                                       PARTITIONS,
+                                                                                                       LEASE_TIME,
+                                                                                                       SchedulerLeaseServiceImplTest.this.now,
+                                                                                                       this.rebalance);
+            this.held.clear();
+            this.held.addAll(result.getOwned());
+            this.recovered.addAll(result.getRecovering());
+            this.lost.addAll(result.getLost());
+            this.draining.clear();
+            this.draining.addAll(result.getDraining());
+            Assert.assertTrue(this.held.containsAll(result.getAcquired().keySet()));
+        }
+    }
+
+}
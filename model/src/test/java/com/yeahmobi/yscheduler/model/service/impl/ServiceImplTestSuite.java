@@ -18,6 +18,7 @@ import org.junit.runners.Suite.SuiteClasses;
                        WorkflowTaskInstanceServiceImplTest.class,//
                        TeamServiceImplTest.class,//
                        TeamWorkflowInstanceStatusServiceImplTest.class,//
+                       SchedulerLeaseServiceImplTest.class,//
 })
 public class ServiceImplTestSuite {
 
@@ -1,6 +1,7 @@
 package com.yeahmobi.yscheduler.model.service.impl;
 
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -231,6 +232,27 @@ public class TaskInstanceServiceImplTest {
                            "2014-11-26 17:38:00", sdf.format(now), null, TaskInstanceStatus.RUNNING, 2L, 2L);
     }
 
+    @Test
+    @DatabaseSetup
+    public void testUpdateBatch() throws Exception {
+        Date now = new Date();
+        TaskInstance success = new TaskInstance();
+        success.setId(1L);
+        success.setStatus(TaskInstanceStatus.SUCCESS);
+        success.setEndTime(now);
+        TaskInstance running = new TaskInstance();
+        running.setId(2L);
+        running.setStatus(TaskInstanceStatus.RUNNING);
+        running.setStartTime(now);
+        this.instanceService.updateBatch(Arrays.asList(success, running));
+
+        assertTaskInstance(this.instanceService.get(1L), Long.valueOf(1), sdf.parse("2014-11-26 17:37:00"), now,
+                           "2014-11-26 17:38:00", "2014-11-26 17:38:10", sdf.format(now), TaskInstanceStatus.SUCCESS,
+                           1L, 1L);
+        assertTaskInstance(this.instanceService.get(2L), Long.valueOf(2), sdf.parse("2014-11-26 17:37:00"), now,
+                           "2014-11-26 17:38:00", sdf.format(now), null, TaskInstanceStatus.RUNNING, 2L, 2L);
+    }
+
     @Test
     @DatabaseSetup
     public void testSave() throws Exception {
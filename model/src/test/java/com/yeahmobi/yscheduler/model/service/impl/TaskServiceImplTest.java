@@ -289,6 +289,19 @@ public class TaskServiceImplTest {
         Assert.assertEquals(0, this.taskService.listHeartbeatTask().size());
     }
 
+    @Test
+    @DatabaseSetup
+    public void testPauseAndResumeHeartbeatTask() throws Exception {
+        Agent agent = new Agent();
+        agent.setId(100L);
+        agent.setName("test100");
+        this.taskService.addHeartbeatTask(agent);
+        this.taskService.pauseHeartbeatTask(100L, "test100");
+        Assert.assertEquals(TaskStatus.PAUSED, this.taskService.listHeartbeatTask().get(0).getStatus());
+        this.taskService.resumeHeartbeatTask(100L, "test100");
+        Assert.assertEquals(TaskStatus.OPEN, this.taskService.listHeartbeatTask().get(0).getStatus());
+    }
+
     @Test
     @DatabaseSetup
     public void testAddUpgradeTaskAndListUpgradeTasks() throws Exception {
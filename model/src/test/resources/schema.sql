@@ -9,6 +9,7 @@ CREATE TABLE agent (
   upgrade_task_id bigint,
   create_time datetime DEFAULT CURRENT_TIMESTAMP,
   update_time datetime NOT NULL,
+  heartbeat_time datetime DEFAULT NULL,
   PRIMARY KEY (id),
   UNIQUE KEY `INDEX_NAME` (`name`)
 );
@@ -99,6 +100,7 @@ CREATE TABLE task (
   last_status_dependency tinyint NOT NULL DEFAULT '1',
   timeout int NOT NULL DEFAULT '60',
   retry_times int NOT NULL DEFAULT '0',
+  priority int NOT NULL DEFAULT '0',
   description varchar(1024) DEFAULT NULL,
   last_schedule_time datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
   attachment varchar(200) DEFAULT NULL,
@@ -197,6 +199,31 @@ where (`task_instance`.`schedule_time` is not null) union select `workflow_insta
 on((`workflow_instance`.`workflow_id` = `workflow`.`id`))) where (`workflow_instance`.`schedule_time` is not null);
 
 
+CREATE TABLE scheduler_node (
+  node_id varchar(100) NOT NULL,
+  heartbeat_time datetime NOT NULL,
+  create_time datetime DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (node_id)
+);
+
+CREATE TABLE scheduler_lease (
+  partition_id int NOT NULL,
+  owner varchar(100) DEFAULT NULL,
+  expire_time datetime NOT NULL,
+  version bigint NOT NULL DEFAULT 0,
+  update_time datetime DEFAULT NULL,
+  PRIMARY KEY (partition_id)
+);
+
+CREATE TABLE scheduler_command (
+  id bigint NOT NULL AUTO_INCREMENT,
+  partition_id int NOT NULL,
+  type varchar(50) NOT NULL,
+  target_id bigint NOT NULL,
+  create_time datetime DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+
 INSERT INTO schedule_progress (id, current_schedule_time, create_time, update_time) VALUES (1, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP);
 INSERT INTO team (id,name,create_time,update_time) VALUES (1,'admin',CURRENT_TIMESTAMP,CURRENT_TIMESTAMP);
 INSERT INTO team (id,name,create_time,update_time) VALUES (2,'platform',CURRENT_TIMESTAMP,CURRENT_TIMESTAMP);
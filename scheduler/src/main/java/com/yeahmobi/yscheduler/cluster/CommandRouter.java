@@ -0,0 +1,227 @@
+package com.yeahmobi.yscheduler.cluster;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
+import com.yeahmobi.yscheduler.model.SchedulerCommand;
+import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.Workflow;
+import com.yeahmobi.yscheduler.model.WorkflowInstance;
+import com.yeahmobi.yscheduler.model.service.SchedulerLeaseService;
+import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
+import com.yeahmobi.yscheduler.model.service.WorkflowInstanceService;
+import com.yeahmobi.yscheduler.model.service.WorkflowService;
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
+import com.yeahmobi.yscheduler.workflow.WorkflowExecutor;
+
+/**
+ * web上的操作(提交、取消、重跑)交给实例所属分区的持有节点执行：本节点调度该分区时直接执行，否则写入命令表，
+ * 由持有节点每隔commandInterval取走执行。取消总是先在本节点执行一次，因为租约过期被接手的分区，
+ * 已经在运行的实例仍在原节点完成。<br>
+ * 未开启多节点调度时本节点持有唯一的分区，全部直接执行。
+ */
+@Service
+public class CommandRouter {
+
+    private static final Logger     LOGGER          = LoggerFactory.getLogger(CommandRouter.class);
+
+    /** 取命令的间隔(毫秒) */
+    private final long              commandInterval = Long.parseLong(System.getProperty("ysheduler.cluster.commandInterval",
+                                                                                        "1000"));
+
+    private AtomicBoolean           closed          = new AtomicBoolean(false);
+
+    private CommandThread           commandThread;
+
+    @Autowired
+    private PartitionManager        partitionManager;
+
+    @Autowired
+    private SchedulerLeaseService   schedulerLeaseService;
+
+    @Autowired
+    private TaskInstanceExecutor    taskInstanceExecutor;
+
+    @Autowired
+    private WorkflowExecutor        workflowExecutor;
+
+    @Autowired
+    private TaskInstanceService     taskInstanceService;
+
+    @Autowired
+    private WorkflowInstanceService workflowInstanceService;
+
+    @Autowired
+    private WorkflowService         workflowService;
+
+    enum CommandType {
+        CANCEL_TASK_INSTANCE, SUBMIT_TASK_INSTANCE, CANCEL_WORKFLOW_INSTANCE, SUBMIT_WORKFLOW_INSTANCE,
+        RESTORE_WORKFLOW_INSTANCE
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!this.partitionManager.isEnabled()) {
+            return;
+        }
+        this.commandThread = new CommandThread();
+        this.commandThread.setName("partition-command");
+        this.commandThread.setDaemon(true);
+        this.commandThread.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        if ((this.commandThread != null) && this.closed.compareAndSet(false, true)) {
+            this.commandThread.interrupt();
+        }
+    }
+
+    /**
+     * 提交已保存为READY的task instance
+     */
+    public void submitTaskInstance(TaskInstance instance) {
+        int partition = partitionOf(instance);
+        if (this.partitionManager.owns(partition)) {
+            this.taskInstanceExecutor.submit(instance);
+        } else {
+            send(partition, CommandType.SUBMIT_TASK_INSTANCE, instance.getId());
+        }
+    }
+
+    public void cancelTaskInstance(long instanceId) {
+        this.taskInstanceExecutor.cancel(instanceId);
+        TaskInstance instance = this.taskInstanceService.get(instanceId);
+        if (instance != null) {
+            int partition = partitionOf(instance);
+            if (!this.partitionManager.owns(partition)) {
+                send(partition, CommandType.CANCEL_TASK_INSTANCE, instanceId);
+            }
+        }
+    }
+
+    /**
+     * 提交已保存为INITED的工作流实例
+     */
+    public void submitWorkflowInstance(Workflow workflow, WorkflowInstance workflowInstance) {
+        int partition = this.partitionManager.partitionOf(workflowInstance.getWorkflowId());
+        if (this.partitionManager.owns(partition)) {
+            this.workflowExecutor.submit(workflow, workflowInstance);
+        } else {
+            send(partition, CommandType.SUBMIT_WORKFLOW_INSTANCE, workflowInstance.getId());
+        }
+    }
+
+    public void restoreWorkflowInstance(WorkflowInstance workflowInstance) {
+        int partition = this.partitionManager.partitionOf(workflowInstance.getWorkflowId());
+        WorkflowInstanceStatus status = workflowInstance.getStatus();
+        if (this.partitionManager.owns(partition) || !status.isCompleted()
+            || (status == WorkflowInstanceStatus.SUCCESS)) {
+            // 不能重跑的也在本节点执行，直接抛出原因
+            this.workflowExecutor.restore(workflowInstance);
+        } else {
+            send(partition, CommandType.RESTORE_WORKFLOW_INSTANCE, workflowInstance.getId());
+        }
+    }
+
+    public void cancelWorkflowInstance(long workflowInstanceId) {
+        this.workflowExecutor.cancel(workflowInstanceId);
+        WorkflowInstance workflowInstance = this.workflowInstanceService.get(workflowInstanceId);
+        if ((workflowInstance != null) && (workflowInstance.getWorkflowId() != null)) {
+            int partition = this.partitionManager.partitionOf(workflowInstance.getWorkflowId());
+            if (!this.partitionManager.owns(partition)) {
+                send(partition, CommandType.CANCEL_WORKFLOW_INSTANCE, workflowInstanceId);
+            }
+        }
+    }
+
+    /**
+     * 工作流中的task instance跟随所属的workflow
+     */
+    private int partitionOf(TaskInstance instance) {
+        long partitionKey = instance.getTaskId();
+        if (instance.getWorkflowInstanceId() != null) {
+            WorkflowInstance workflowInstance = this.workflowInstanceService.get(instance.getWorkflowInstanceId());
+            if (workflowInstance != null) {
+                partitionKey = workflowInstance.getWorkflowId();
+            }
+        }
+        return this.partitionManager.partitionOf(partitionKey);
+    }
+
+    private void send(int partition, CommandType type, long targetId) {
+        this.schedulerLeaseService.sendCommand(partition, type.name(), targetId);
+        LOGGER.info(String.format("Command %s of %s sent to the owner of partition %s", type, targetId, partition));
+    }
+
+    /**
+     * 执行发给本节点持有分区的命令，等待移交的分区仍由本节点执行
+     */
+    void execute(SchedulerCommand command) {
+        long targetId = command.getTargetId();
+        switch (CommandType.valueOf(command.getType())) {
+            case CANCEL_TASK_INSTANCE:
+                this.taskInstanceExecutor.cancel(targetId);
+                break;
+            case SUBMIT_TASK_INSTANCE:
+                TaskInstance instance = this.taskInstanceService.get(targetId);
+                if ((instance != null) && (instance.getStatus() == TaskInstanceStatus.READY)) {
+                    this.taskInstanceExecutor.submit(instance);
+                }
+                break;
+            case CANCEL_WORKFLOW_INSTANCE:
+                this.workflowExecutor.cancel(targetId);
+                break;
+            case SUBMIT_WORKFLOW_INSTANCE:
+                WorkflowInstance workflowInstance = this.workflowInstanceService.get(targetId);
+                if ((workflowInstance != null) && (workflowInstance.getStatus() == WorkflowInstanceStatus.INITED)) {
+                    this.workflowExecutor.submit(this.workflowService.get(workflowInstance.getWorkflowId()),
+                                                 workflowInstance);
+                }
+                break;
+            case RESTORE_WORKFLOW_INSTANCE:
+                this.workflowExecutor.restore(this.workflowInstanceService.get(targetId));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private class CommandThread extends Thread {
+
+        @Override
+        public void run() {
+            while (!CommandRouter.this.closed.get()) {
+                try {
+                    Thread.sleep(CommandRouter.this.commandInterval);
+                } catch (InterruptedException e) {
+                    // ignored. maybe will close.
+                    continue;
+                }
+                try {
+                    Set<Integer> held = CommandRouter.this.partitionManager.getHeld();
+                    for (SchedulerCommand command : CommandRouter.this.schedulerLeaseService.takeCommands(held)) {
+                        try {
+                            execute(command);
+                        } catch (Exception e) {
+                            LOGGER.error("Error when execute " + command, e);
+                        }
+                    }
+                } catch (Throwable e) {
+                    LOGGER.error("Error when take the commands", e);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.yeahmobi.yscheduler.cluster;
+
+import java.util.Set;
+
+/**
+ * 本节点持有的分区变化时回调，在租约线程中执行
+ */
+public interface PartitionListener {
+
+    /**
+     * @param partitions 新获得的分区，或者待移交(draining)后又不需要移交、重新可以调度的分区
+     * @param recovering 其中新获得、需要恢复库中未完成实例的分区
+     */
+    void onAssigned(Set<Integer> partitions, Set<Integer> recovering);
+
+    /**
+     * 失去了分区。正常移交的分区在本节点已没有运行中的实例；租约过期被接手的，已经在本节点运行的实例仍在本节点完成
+     */
+    void onRevoked(Set<Integer> partitions);
+
+    /**
+     * 本节点仍有运行中实例的分区，这些分区暂不移交，避免接手的节点恢复时重复运行
+     */
+    Set<Integer> getBusyPartitions();
+
+}
@@ -0,0 +1,277 @@
+package com.yeahmobi.yscheduler.cluster;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Service;
+
+import com.yeahmobi.yscheduler.metrics.MetricsSource;
+import com.yeahmobi.yscheduler.model.common.LeaseResult;
+import com.yeahmobi.yscheduler.model.service.SchedulerLeaseService;
+
+/**
+ * 多个调度节点通过数据库租约划分task和workflow：task按taskId、workflow按workflowId映射到分区，
+ * 每个节点只调度、运行和恢复自己持有租约的分区，工作流中的task instance和attempt跟随所属的workflow。<br>
+ * 节点每隔leaseTime/3续约一次，并按存活节点数均分分区：节点加入时其他节点移交多出的分区，仍有运行中实例的
+ * 分区先停止调度(draining)，实例结束后再移交；节点失效后其租约过期，由其他节点接手。新获得的分区都会恢复库中的未完成实例。<br>
+ * 未开启(ysheduler.cluster.enabled)时只有一个分区，始终由本节点持有，不访问租约表。
+ */
+@Service
+public class PartitionManager implements MetricsSource, ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Logger     LOGGER              = LoggerFactory.getLogger(PartitionManager.class);
+
+    private final boolean           enabled             = Boolean.parseBoolean(System.getProperty("ysheduler.cluster.enabled",
+                                                                                                  "false"));
+
+    private final int               partitionCount      = this.enabled ? Integer.parseInt(System.getProperty("ysheduler.cluster.partitions",
+                                                                                                             "64")) : 1;
+
+    /** 租约时长(毫秒)，节点之间的时钟偏差应远小于该值 */
+    private final long              leaseTime           = Long.parseLong(System.getProperty("ysheduler.cluster.leaseTime",
+                                                                                            "30000"));
+
+    private final String            nodeId              = System.getProperty("ysheduler.cluster.nodeId",
+                                                                             ManagementFactory.getRuntimeMXBean().getName());
+
+    private volatile Set<Integer>   owned               = Collections.emptySet();
+
+    /** 持有但等待移交的分区，不再调度新的实例 */
+    private volatile Set<Integer>   draining            = Collections.emptySet();
+
+    /** 最近一次续约成功时租约的到期时间，超过后即使未收到失去分区的结果也不再调度 */
+    private volatile long           leaseDeadline;
+
+    private volatile int            aliveNodes          = 1;
+
+    /** 启动时获得的、需要恢复未完成实例的分区 */
+    private volatile Set<Integer>   recoveringOnStartup = Collections.emptySet();
+
+    /** 容器启动完成前只续约，不获取新分区，避免监听者还未注册 */
+    private volatile boolean        ready;
+
+    private List<PartitionListener> listeners           = new CopyOnWriteArrayList<PartitionListener>();
+
+    private AtomicBoolean           closed              = new AtomicBoolean(false);
+
+    private LeaseThread             leaseThread;
+
+    @Autowired
+    private SchedulerLeaseService   schedulerLeaseService;
+
+    @PostConstruct
+    public void init() {
+        if (!this.enabled) {
+            this.owned = Collections.singleton(0);
+            this.recoveringOnStartup = this.owned;
+            this.leaseDeadline = Long.MAX_VALUE;
+            return;
+        }
+        this.schedulerLeaseService.createPartitions(this.partitionCount);
+        LeaseResult result = renew(true);
+        this.recoveringOnStartup = Collections.unmodifiableSet(result.getRecovering());
+        LOGGER.info(String.format("Node %s started with partitions %s of %s, %s to recover, %s nodes alive",
+                                  this.nodeId, this.owned, this.partitionCount, this.recoveringOnStartup,
+                                  this.aliveNodes));
+
+        this.leaseThread = new LeaseThread();
+        this.leaseThread.setName("partition-lease");
+        this.leaseThread.setDaemon(true);
+        this.leaseThread.start();
+    }
+
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        this.ready = true;
+    }
+
+    /**
+     * 停止续约，租约立即过期，由其他节点接手并恢复
+     */
+    @PreDestroy
+    public void close() {
+        if (!this.enabled || !this.closed.compareAndSet(false, true)) {
+            return;
+        }
+        this.leaseThread.interrupt();
+        try {
+            this.leaseThread.join(this.leaseTime);
+            this.schedulerLeaseService.removeNode(this.nodeId, this.owned, System.currentTimeMillis());
+        } catch (Exception e) {
+            LOGGER.error("Error when release the partitions of node " + this.nodeId, e);
+        }
+        this.owned = Collections.emptySet();
+    }
+
+    public void addListener(PartitionListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public int partitionOf(long id) {
+        return (int) Math.abs(id % this.partitionCount);
+    }
+
+    public boolean ownsTask(long taskId) {
+        return owns(partitionOf(taskId));
+    }
+
+    public boolean ownsWorkflow(long workflowId) {
+        return owns(partitionOf(workflowId));
+    }
+
+    /**
+     * 是否由本节点调度该分区，等待移交的分区不再调度
+     */
+    public boolean owns(int partition) {
+        return this.owned.contains(partition) && !this.draining.contains(partition)
+               && (System.currentTimeMillis() < this.leaseDeadline);
+    }
+
+    /**
+     * 本节点调度的分区
+     */
+    public Set<Integer> getOwned() {
+        if (System.currentTimeMillis() >= this.leaseDeadline) {
+            return Collections.emptySet();
+        }
+        Set<Integer> owned = new TreeSet<Integer>(this.owned);
+        owned.removeAll(this.draining);
+        return owned;
+    }
+
+    /**
+     * 本节点持有租约的分区，包括等待移交的
+     */
+    public Set<Integer> getHeld() {
+        return this.owned;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * 启动时获得的分区中，需要恢复未完成实例的分区；未开启时为全部
+     */
+    public Set<Integer> getRecoveringOnStartup() {
+        return this.recoveringOnStartup;
+    }
+
+    public String getNodeId() {
+        return this.nodeId;
+    }
+
+    public String getMetricsName() {
+        return "PartitionManager";
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("enabled", this.enabled);
+        metrics.put("nodeId", this.nodeId);
+        metrics.put("partitionCount", this.partitionCount);
+        metrics.put("aliveNodes", this.aliveNodes);
+        metrics.put("owned", this.owned);
+        metrics.put("draining", this.draining);
+        if (this.enabled) {
+            metrics.put("leaseRemainingMs", Math.max(0, this.leaseDeadline - System.currentTimeMillis()));
+        }
+        return metrics;
+    }
+
+    private LeaseResult renew(boolean rebalance) {
+        Set<Integer> busy = new HashSet<Integer>();
+        for (PartitionListener listener : this.listeners) {
+            busy.addAll(listener.getBusyPartitions());
+        }
+        long now = System.currentTimeMillis();
+        LeaseResult result = this.schedulerLeaseService.updateLeases(this.nodeId, this.owned, busy,
+                                                                     this.partitionCount, this.leaseTime, now,
+                                                                     rebalance);
+        this.owned = Collections.unmodifiableSet(new TreeSet<Integer>(result.getOwned()));
+        if (rebalance) {
+            this.draining = Collections.unmodifiableSet(new TreeSet<Integer>(result.getDraining()));
+        }
+        this.leaseDeadline = now + this.leaseTime;
+        if (rebalance) {
+            this.aliveNodes = result.getAliveNodes();
+        }
+        return result;
+    }
+
+    private class LeaseThread extends Thread {
+
+        @Override
+        public void run() {
+            while (!PartitionManager.this.closed.get()) {
+                try {
+                    Thread.sleep(PartitionManager.this.leaseTime / 3);
+                } catch (InterruptedException e) {
+                    // ignored. maybe will close.
+                    continue;
+                }
+                try {
+                    Set<Integer> draining = PartitionManager.this.draining;
+                    LeaseResult result = renew(PartitionManager.this.ready);
+                    fireChanged(result, draining);
+                } catch (Throwable e) {
+                    LOGGER.error("Error when renew the partition leases", e);
+                }
+            }
+        }
+
+        private void fireChanged(LeaseResult result, Set<Integer> lastDraining) {
+            if (!result.getLost().isEmpty()) {
+                LOGGER.warn(String.format("Partitions %s of node %s were taken over by other nodes, "
+                                          + "the running instances of them may be run twice", result.getLost(),
+                                          PartitionManager.this.nodeId));
+            }
+            Set<Integer> revoked = new TreeSet<Integer>(result.getLost());
+            revoked.addAll(result.getReleased());
+            if (!revoked.isEmpty()) {
+                LOGGER.info(String.format("Node %s revoked partitions %s", PartitionManager.this.nodeId, revoked));
+                for (PartitionListener listener : PartitionManager.this.listeners) {
+                    try {
+                        listener.onRevoked(revoked);
+                    } catch (Exception e) {
+                        LOGGER.error(e.getMessage(), e);
+                    }
+                }
+            }
+            // 不再需要移交的分区恢复调度
+            Set<Integer> undrained = new TreeSet<Integer>(lastDraining);
+            undrained.removeAll(PartitionManager.this.draining);
+            undrained.retainAll(result.getOwned());
+            if (!result.getAcquired().isEmpty() || !undrained.isEmpty()) {
+                Set<Integer> assigned = new TreeSet<Integer>(result.getAcquired().keySet());
+                assigned.addAll(undrained);
+                Set<Integer> recovering = result.getRecovering();
+                LOGGER.info(String.format("Node %s assigned partitions %s, %s to recover",
+                                          PartitionManager.this.nodeId, assigned, recovering));
+                for (PartitionListener listener : PartitionManager.this.listeners) {
+                    try {
+                        listener.onAssigned(assigned, recovering);
+                    } catch (Exception e) {
+                        LOGGER.error(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+}
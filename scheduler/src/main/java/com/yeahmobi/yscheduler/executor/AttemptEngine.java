@@ -0,0 +1,22 @@
+package com.yeahmobi.yscheduler.executor;
+
+import java.util.Map;
+
+/**
+ * 驱动AttemptStateMachine执行的引擎
+ */
+public interface AttemptEngine {
+
+    void execute(AttemptStateMachine machine);
+
+    /** 已提交但还未开始执行第一步的attempt数 */
+    int getQueueSize();
+
+    /** 已开始执行且未结束的attempt数 */
+    int getActiveCount();
+
+    Map<String, Object> getMetrics();
+
+    void close();
+
+}
@@ -13,4 +13,6 @@ public interface AttemptExecutor {
 
     void cancel(long instanceId);
 
+    void addListener(AttemptListener listener);
+
 }
@@ -0,0 +1,15 @@
+package com.yeahmobi.yscheduler.executor;
+
+import com.yeahmobi.yscheduler.model.Attempt;
+
+/**
+ * attempt结束时的回调
+ */
+public interface AttemptListener {
+
+    /**
+     * attempt结束（状态已写回db）后在attempt的执行线程中回调，实现不应阻塞
+     */
+    void onCompleted(Attempt attempt);
+
+}
@@ -0,0 +1,15 @@
+package com.yeahmobi.yscheduler.executor;
+
+/**
+ * 把一个attempt的执行拆成若干步，每步只做一次短暂的操作（提交、查状态、取日志等），步与步之间的等待不占用线程
+ */
+public interface AttemptStateMachine {
+
+    /**
+     * 执行一步
+     *
+     * @return 距下一步的毫秒数，小于0表示已结束
+     */
+    long step();
+
+}
@@ -14,4 +14,6 @@ public interface TaskInstanceExecutor {
 
     void cancel(long instanceId);
 
+    void addListener(TaskInstanceListener listener);
+
 }
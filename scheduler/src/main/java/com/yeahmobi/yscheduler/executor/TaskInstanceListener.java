@@ -0,0 +1,15 @@
+package com.yeahmobi.yscheduler.executor;
+
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+
+/**
+ * task instance结束时的回调
+ */
+public interface TaskInstanceListener {
+
+    /**
+     * instance结束（状态已写回db）后在instance-controller线程中回调，实现不应阻塞
+     */
+    void onCompleted(long instanceId, TaskInstanceStatus status);
+
+}
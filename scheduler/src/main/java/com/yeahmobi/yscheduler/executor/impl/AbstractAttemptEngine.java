@@ -0,0 +1,70 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yeahmobi.yscheduler.executor.AttemptEngine;
+
+/**
+ * 统计排队数、运行数和准入延迟（从提交到开始执行第一步的时间）
+ */
+public abstract class AbstractAttemptEngine implements AttemptEngine {
+
+    private final AtomicInteger queued              = new AtomicInteger();
+
+    private final AtomicInteger active              = new AtomicInteger();
+
+    private final AtomicLong    admittedCount       = new AtomicLong();
+
+    private final AtomicLong    totalAdmissionDelay = new AtomicLong();
+
+    private final AtomicLong    maxAdmissionDelay   = new AtomicLong();
+
+    protected void onQueued() {
+        this.queued.incrementAndGet();
+    }
+
+    protected void onAdmitted(long submitTime) {
+        this.queued.decrementAndGet();
+        this.active.incrementAndGet();
+
+        long delay = System.currentTimeMillis() - submitTime;
+        this.admittedCount.incrementAndGet();
+        this.totalAdmissionDelay.addAndGet(delay);
+        long max;
+        while (delay > (max = this.maxAdmissionDelay.get())) {
+            if (this.maxAdmissionDelay.compareAndSet(max, delay)) {
+                break;
+            }
+        }
+    }
+
+    protected void onFinished() {
+        this.active.decrementAndGet();
+    }
+
+    public int getQueueSize() {
+        return this.queued.get();
+    }
+
+    public int getActiveCount() {
+        return this.active.get();
+    }
+
+    protected abstract String getMode();
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        long count = this.admittedCount.get();
+        metrics.put("mode", getMode());
+        metrics.put("queueSize", getQueueSize());
+        metrics.put("activeCount", getActiveCount());
+        metrics.put("admittedCount", count);
+        metrics.put("admissionLatencyAvgMs", count == 0 ? 0 : this.totalAdmissionDelay.get() / count);
+        metrics.put("admissionLatencyMaxMs", this.maxAdmissionDelay.get());
+        return metrics;
+    }
+
+}
@@ -0,0 +1,271 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * attempt派发前的准入队列：等待的item按team分队，team内按优先级从高到低、同优先级先进先出。<br>
+ * 有空闲名额时，在未达到上限的team中选运行数/权重最小的team派发，使各team按权重分享运行名额；
+ * 全局运行数达到maxRunning，或team运行数达到其上限时，item继续等待，直到release。<br>
+ * 按team记录从入队到派发的等待时间分布，供调整权重和上限。
+ */
+class AdmissionQueue<T> {
+
+    /** 等待时间分布的桶上界(毫秒)，最后一个桶不设上界 */
+    private static final long[]      BUCKETS      = { 100, 1000, 5000, 30000, 60000, 300000, 1800000 };
+
+    private static final String[]    BUCKET_NAMES = { "<=100ms", "<=1s", "<=5s", "<=30s", "<=1m", "<=5m", "<=30m",
+            ">30m" };
+
+    /** team内优先级高的先派发，同优先级先入队的先派发 */
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+
+        public int compare(Entry o1, Entry o2) {
+            if (o1.priority != o2.priority) {
+                return o1.priority > o2.priority ? -1 : 1;
+            }
+            return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+        }
+    };
+
+    /** 全局运行数上限，小于等于0表示不限 */
+    private final int                maxRunning;
+
+    /** team运行数的默认上限，小于等于0表示不限 */
+    private final int                defaultTeamCap;
+
+    private final Map<Long, Integer> teamCaps;
+
+    private final Map<Long, Integer> teamWeights;
+
+    private final Map<Long, Team>    teams        = new TreeMap<Long, Team>();
+
+    private final Histogram          total        = new Histogram();
+
+    private int                      running;
+
+    private int                      waiting;
+
+    private long                     sequence;
+
+    AdmissionQueue(int maxRunning, int defaultTeamCap, Map<Long, Integer> teamCaps, Map<Long, Integer> teamWeights) {
+        this.maxRunning = maxRunning;
+        this.defaultTeamCap = defaultTeamCap;
+        this.teamCaps = teamCaps;
+        this.teamWeights = teamWeights;
+    }
+
+    /**
+     * 解析"teamId:value,teamId:value"形式的配置，格式不对的项忽略
+     */
+    static Map<Long, Integer> parseTeamValues(String config) {
+        Map<Long, Integer> result = new HashMap<Long, Integer>();
+        if (StringUtils.isBlank(config)) {
+            return result;
+        }
+        for (String item : StringUtils.split(config, ',')) {
+            String[] pair = StringUtils.split(item.trim(), ':');
+            if ((pair.length == 2) && StringUtils.isNumeric(pair[0].trim()) && StringUtils.isNumeric(pair[1].trim())) {
+                result.put(Long.parseLong(pair[0].trim()), Integer.parseInt(pair[1].trim()));
+            }
+        }
+        return result;
+    }
+
+    synchronized void offer(T item, long teamId, int priority, long now) {
+        getTeam(teamId).waiting.add(new Entry(item, priority, this.sequence++, now));
+        this.waiting++;
+    }
+
+    /**
+     * 从等待中移除，返回是否在等待
+     */
+    synchronized boolean remove(T item, long teamId) {
+        Team team = this.teams.get(teamId);
+        if (team == null) {
+            return false;
+        }
+        for (Entry entry : team.waiting) {
+            if (entry.item.equals(item)) {
+                team.waiting.remove(entry);
+                this.waiting--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取出下一个可以派发的item并计入运行数，没有时返回null
+     */
+    @SuppressWarnings("unchecked")
+    synchronized T poll(long now) {
+        if ((this.maxRunning > 0) && (this.running >= this.maxRunning)) {
+            return null;
+        }
+        Team best = null;
+        for (Team team : this.teams.values()) {
+            if (team.waiting.isEmpty() || ((team.cap > 0) && (team.running >= team.cap))) {
+                continue;
+            }
+            if ((best == null) || before(team, best)) {
+                best = team;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        Entry entry = best.waiting.poll();
+        this.waiting--;
+        best.running++;
+        this.running++;
+        long waited = Math.max(0, now - entry.enqueueTime);
+        best.histogram.record(waited);
+        this.total.record(waited);
+        return (T) entry.item;
+    }
+
+    /**
+     * 运行数/权重小的team先派发，相同时比较队首的优先级和入队顺序
+     */
+    private boolean before(Team team, Team other) {
+        long share = (long) team.running * other.weight;
+        long otherShare = (long) other.running * team.weight;
+        if (share != otherShare) {
+            return share < otherShare;
+        }
+        return ENTRY_ORDER.compare(team.waiting.peek(), other.waiting.peek()) < 0;
+    }
+
+    /**
+     * 不经过排队直接计入运行数，用于恢复时已在运行的attempt
+     */
+    synchronized void addRunning(long teamId) {
+        getTeam(teamId).running++;
+        this.running++;
+    }
+
+    synchronized void release(long teamId) {
+        Team team = this.teams.get(teamId);
+        if ((team != null) && (team.running > 0)) {
+            team.running--;
+            this.running--;
+        }
+    }
+
+    synchronized int getWaiting() {
+        return this.waiting;
+    }
+
+    synchronized int getRunning() {
+        return this.running;
+    }
+
+    synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("maxRunning", this.maxRunning);
+        metrics.put("running", this.running);
+        metrics.put("waiting", this.waiting);
+        metrics.put("waitTime", this.total.toMap());
+        List<Map<String, Object>> teamMetrics = new ArrayList<Map<String, Object>>();
+        for (Team team : this.teams.values()) {
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            item.put("teamId", team.teamId);
+            item.put("weight", team.weight);
+            item.put("cap", team.cap);
+            item.put("running", team.running);
+            item.put("waiting", team.waiting.size());
+            item.put("waitTime", team.histogram.toMap());
+            teamMetrics.add(item);
+        }
+        metrics.put("teams", teamMetrics);
+        return metrics;
+    }
+
+    private Team getTeam(long teamId) {
+        Team team = this.teams.get(teamId);
+        if (team == null) {
+            Integer weight = this.teamWeights.get(teamId);
+            Integer cap = this.teamCaps.get(teamId);
+            team = new Team(teamId, ((weight == null) || (weight <= 0)) ? 1 : weight,
+                            cap == null ? this.defaultTeamCap : cap);
+            this.teams.put(teamId, team);
+        }
+        return team;
+    }
+
+    private static class Entry {
+
+        final Object item;
+        final int    priority;
+        final long   sequence;
+        final long   enqueueTime;
+
+        Entry(Object item, int priority, long sequence, long enqueueTime) {
+            this.item = item;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    private static class Team {
+
+        final long                 teamId;
+        final int                  weight;
+        final int                  cap;
+        final PriorityQueue<Entry> waiting   = new PriorityQueue<Entry>(16, ENTRY_ORDER);
+        final Histogram            histogram = new Histogram();
+        int                        running;
+
+        Team(long teamId, int weight, int cap) {
+            this.teamId = teamId;
+            this.weight = weight;
+            this.cap = cap;
+        }
+    }
+
+    /**
+     * 按BUCKETS分桶计数，另记总数、总和与最大值
+     */
+    private static class Histogram {
+
+        final long[] counts = new long[BUCKETS.length + 1];
+        long         count;
+        long         sum;
+        long         max;
+
+        void record(long value) {
+            int i = 0;
+            while ((i < BUCKETS.length) && (value > BUCKETS[i])) {
+                i++;
+            }
+            this.counts[i]++;
+            this.count++;
+            this.sum += value;
+            this.max = Math.max(this.max, value);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("count", this.count);
+            map.put("avgMs", this.count == 0 ? 0 : this.sum / this.count);
+            map.put("maxMs", this.max);
+            Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+            for (int i = 0; i < this.counts.length; i++) {
+                buckets.put(BUCKET_NAMES[i], this.counts[i]);
+            }
+            map.put("buckets", Collections.unmodifiableMap(buckets));
+            return map;
+        }
+    }
+}
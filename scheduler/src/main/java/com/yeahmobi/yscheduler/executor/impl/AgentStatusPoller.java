@@ -0,0 +1,385 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.yeahmobi.yscheduler.agentframework.AgentRequest;
+import com.yeahmobi.yscheduler.agentframework.AgentResponse;
+import com.yeahmobi.yscheduler.agentframework.AgentResponseCode;
+import com.yeahmobi.yscheduler.agentframework.LogStreamListener;
+import com.yeahmobi.yscheduler.agentframework.agent.event.task.TaskLogStreamEventHandler;
+import com.yeahmobi.yscheduler.agentframework.agent.event.task.TaskStatusBatchEventHandler;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatusBatch;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatusBatchItem;
+import com.yeahmobi.yscheduler.agentframework.client.DefaultAgentClient;
+import com.yeahmobi.yscheduler.agentframework.exception.AgentClientException;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+import com.yeahmobi.yscheduler.loadbalance.AgentLoadbalance;
+
+/**
+ * 按agent合并轮询：每个周期对同一个agent上所有运行中的attempt只发一次TASK_STATUS_BATCH请求，
+ * 结果交回各attempt，由attempt自己的状态机处理。<br>
+ * 不支持该事件的旧版本agent会被标记一段时间，期间由attempt自己逐个轮询。<br>
+ * 开启日志流时，对每个agent保持一个TASK_LOG_STREAM长连接，由agent推送新增日志、状态和负载，流中的attempt不再批量轮询；
+ * 流每隔一段时间由agent结束，下个周期按最新偏移量重新建立，期间新增的attempt也随之加入。
+ */
+class AgentStatusPoller {
+
+    private static final Logger                   LOGGER                     = LoggerFactory.getLogger(AgentStatusPoller.class);
+
+    /** 每个attempt每次最多取的日志字节数 */
+    private static final int                      ITEM_LOG_LENGTH            = 256 * 1024;
+
+    /** 每次请求所有attempt日志合计的上限 */
+    private static final int                      MAX_TOTAL_LOG_LENGTH       = 4 * 1024 * 1024;
+
+    private static final long                     UNSUPPORTED_RETRY_INTERVAL = 10 * 60 * 1000L;
+
+    /** 每个日志流的最长持续时间，到期由agent结束 */
+    private static final long                     STREAM_MAX_DURATION        = 30 * 1000L;
+
+    /** 超过该时间没有收到任何数据视为连接异常，agent至少每5秒会发一次状态 */
+    private static final int                      STREAM_TIMEOUT             = 15 * 1000;
+
+    private static final long                     STREAM_RETRY_INTERVAL      = 60 * 1000L;
+
+    private final Set<Target>                     targets                    = Collections.newSetFromMap(new ConcurrentHashMap<Target, Boolean>());
+
+    /** agentId -> 到该时间之前不再尝试批量请求 */
+    private final Map<Long, Long>                 unsupportedAgents          = new ConcurrentHashMap<Long, Long>();
+
+    /** 正在请求中的agent，上次请求未返回时本轮跳过，避免慢agent堆积请求 */
+    private final Set<Long>                       inflightAgents             = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /** agentId -> 到该时间之前不再尝试日志流 */
+    private final Map<Long, Long>                 unsupportedStreams         = new ConcurrentHashMap<Long, Long>();
+
+    /** agentId -> 正在日志流中的attempt */
+    private final Map<Long, Set<Target>>          streams                    = new ConcurrentHashMap<Long, Set<Target>>();
+
+    private final long                            interval;
+
+    private final boolean                         streaming;
+
+    private final ScheduledExecutorService        timer;
+
+    private final ExecutorService                 callers;
+
+    private final ExecutorService                 streamers;
+
+    /** 批量结果和日志流中带回的agent负载交给负载均衡 */
+    private volatile AgentLoadbalance             agentLoadbalance;
+
+    AgentStatusPoller(long interval, int threads, boolean streaming) {
+        this.interval = interval;
+        this.streaming = streaming;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("agent-status-poller-"));
+        this.callers = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("agent-status-caller-"));
+        // 每个agent最多一个流，线程数随agent数
+        this.streamers = Executors.newCachedThreadPool(new CustomizableThreadFactory("agent-log-stream-"));
+    }
+
+    void setAgentLoadbalance(AgentLoadbalance agentLoadbalance) {
+        this.agentLoadbalance = agentLoadbalance;
+    }
+
+    void start() {
+        this.timer.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    pollAll();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error when poll agent status", e);
+                }
+            }
+        }, this.interval, this.interval, TimeUnit.MILLISECONDS);
+    }
+
+    void close() {
+        this.timer.shutdownNow();
+        this.callers.shutdownNow();
+        this.streamers.shutdownNow();
+    }
+
+    void register(Target target) {
+        this.targets.add(target);
+    }
+
+    void unregister(Target target) {
+        this.targets.remove(target);
+    }
+
+    boolean isSupported(long agentId) {
+        Long until = this.unsupportedAgents.get(agentId);
+        if (until == null) {
+            return true;
+        }
+        if (System.currentTimeMillis() >= until) {
+            this.unsupportedAgents.remove(agentId);
+            return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return this.targets.size();
+    }
+
+    int streamCount() {
+        return this.streams.size();
+    }
+
+    private boolean isStreamSupported(long agentId) {
+        if (!this.streaming) {
+            return false;
+        }
+        Long until = this.unsupportedStreams.get(agentId);
+        if (until == null) {
+            return true;
+        }
+        if (System.currentTimeMillis() >= until) {
+            this.unsupportedStreams.remove(agentId);
+            return true;
+        }
+        return false;
+    }
+
+    private void pollAll() {
+        Map<Long, List<Target>> groups = new HashMap<Long, List<Target>>();
+        for (Target target : this.targets) {
+            List<Target> group = groups.get(target.getAgentId());
+            if (group == null) {
+                group = new ArrayList<Target>();
+                groups.put(target.getAgentId(), group);
+            }
+            group.add(target);
+        }
+
+        for (Map.Entry<Long, List<Target>> entry : groups.entrySet()) {
+            final long agentId = entry.getKey();
+            final List<Target> group = entry.getValue();
+            if (!isSupported(agentId)) {
+                continue;
+            }
+            Set<Target> streamed = this.streams.get(agentId);
+            if ((streamed == null) && isStreamSupported(agentId)) {
+                startStream(agentId, group);
+                continue;
+            }
+            if (streamed != null) {
+                // 流建立之后才加入的attempt，在流结束前继续批量轮询
+                group.removeAll(streamed);
+                if (group.isEmpty()) {
+                    continue;
+                }
+            }
+            if (!this.inflightAgents.add(agentId)) {
+                continue;
+            }
+            this.callers.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        poll(agentId, group);
+                    } finally {
+                        AgentStatusPoller.this.inflightAgents.remove(agentId);
+                    }
+                }
+            });
+        }
+    }
+
+    private void poll(long agentId, List<Target> group) {
+        List<String> txIds = new ArrayList<String>(group.size());
+        List<String> offsets = new ArrayList<String>(group.size());
+        long[] requestOffsets = new long[group.size()];
+        for (int i = 0; i < group.size(); i++) {
+            Target target = group.get(i);
+            requestOffsets[i] = target.getOffset();
+            txIds.add(String.valueOf(target.getTransactionId()));
+            offsets.add(String.valueOf(requestOffsets[i]));
+        }
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("txIds", StringUtils.join(txIds, ','));
+        params.put("offsets", StringUtils.join(offsets, ','));
+        params.put("length", String.valueOf(ITEM_LOG_LENGTH));
+        params.put("maxTotalLength", String.valueOf(MAX_TOTAL_LOG_LENGTH));
+
+        Target first = group.get(0);
+        DefaultAgentClient agentClient = first.getAgentClient();
+        try {
+            AgentResponse<TaskStatusBatch> res = agentClient.call(first.getHost(),
+                                                                  new AgentRequest(TaskStatusBatchEventHandler.EVENT_TYPE,
+                                                                                   params));
+            if (AgentResponseCode.EVENT_NOT_SUPPORTED.equals(res.getResponseCode())) {
+                LOGGER.info("Agent(id={}) does not support {}, fall back to polling one by one", agentId,
+                            TaskStatusBatchEventHandler.EVENT_TYPE);
+                this.unsupportedAgents.put(agentId, System.currentTimeMillis() + UNSUPPORTED_RETRY_INTERVAL);
+                return;
+            }
+            if (!AgentResponseCode.SUCCESS.equals(res.getResponseCode())) {
+                throw new AgentClientException("Agent return failed when check status batch, response code is "
+                                               + res.getResponseCode() + ", errorMsg is " + res.getErrorMsg());
+            }
+
+            AgentLoadbalance loadbalance = this.agentLoadbalance;
+            if ((loadbalance != null) && (res.getResponseData().getLoad() != null)) {
+                loadbalance.onLoadReported(agentId, res.getResponseData().getLoad());
+            }
+
+            List<TaskStatusBatchItem> items = res.getResponseData().getItems();
+            for (int i = 0; i < group.size(); i++) {
+                Target target = group.get(i);
+                TaskStatusBatchItem item = i < items.size() ? items.get(i) : null;
+                if ((item == null) || (item.getTxId() != target.getTransactionId())) {
+                    target.onPollFailed(new AgentClientException("No status returned by agent for txId "
+                                                                 + target.getTransactionId()));
+                } else if (item.getErrorMsg() != null) {
+                    target.onPollFailed(new AgentClientException("Agent return failed when check status, errorMsg is "
+                                                                 + item.getErrorMsg()));
+                } else {
+                    target.onPolled(item, requestOffsets[i]);
+                }
+            }
+        } catch (AgentClientException e) {
+            for (Target target : group) {
+                target.onPollFailed(e);
+            }
+        }
+    }
+
+    private void startStream(final long agentId, final List<Target> group) {
+        final Map<Long, Target> txTargets = new HashMap<Long, Target>();
+        List<String> txIds = new ArrayList<String>(group.size());
+        List<String> offsets = new ArrayList<String>(group.size());
+        for (Target target : group) {
+            txTargets.put(target.getTransactionId(), target);
+            txIds.add(String.valueOf(target.getTransactionId()));
+            offsets.add(String.valueOf(target.getOffset()));
+        }
+
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put("txIds", StringUtils.join(txIds, ','));
+        params.put("offsets", StringUtils.join(offsets, ','));
+        params.put("maxDuration", String.valueOf(STREAM_MAX_DURATION));
+
+        Set<Target> streamed = Collections.newSetFromMap(new ConcurrentHashMap<Target, Boolean>());
+        streamed.addAll(group);
+        this.streams.put(agentId, streamed);
+        this.streamers.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    stream(agentId, group.get(0), params, txTargets);
+                } finally {
+                    AgentStatusPoller.this.streams.remove(agentId);
+                }
+            }
+        });
+    }
+
+    private void stream(final long agentId, Target first, Map<String, String> params,
+                        final Map<Long, Target> txTargets) {
+        LogStreamListener listener = new LogStreamListener() {
+
+            public void onLog(long txId, long offset, byte[] data, int length) {
+                Target target = txTargets.get(txId);
+                if (target != null) {
+                    target.onLog(offset, data, length);
+                }
+            }
+
+            public void onStatus(long txId, TaskStatus status) {
+                Target target = txTargets.get(txId);
+                if (target != null) {
+                    TaskStatusBatchItem item = new TaskStatusBatchItem(txId);
+                    item.setStatus(status);
+                    target.onPolled(item, target.getOffset());
+                }
+            }
+
+            public void onError(long txId, String errorMsg) {
+                Target target = txTargets.get(txId);
+                if (target != null) {
+                    target.onPollFailed(new AgentClientException("Agent return failed when stream log, errorMsg is "
+                                                                 + errorMsg));
+                }
+            }
+
+            public void onLoad(AgentLoad load) {
+                AgentLoadbalance loadbalance = AgentStatusPoller.this.agentLoadbalance;
+                if (loadbalance != null) {
+                    loadbalance.onLoadReported(agentId, load);
+                }
+            }
+        };
+
+        try {
+            AgentResponseCode code = first.getAgentClient().stream(first.getHost(),
+                                                                   new AgentRequest(TaskLogStreamEventHandler.EVENT_TYPE,
+                                                                                    params), listener, STREAM_TIMEOUT);
+            if (AgentResponseCode.EVENT_NOT_SUPPORTED.equals(code)) {
+                LOGGER.info("Agent(id={}) does not support {}, fall back to batch polling", agentId,
+                            TaskLogStreamEventHandler.EVENT_TYPE);
+                this.unsupportedStreams.put(agentId, System.currentTimeMillis() + UNSUPPORTED_RETRY_INTERVAL);
+            } else if (!AgentResponseCode.SUCCESS.equals(code)) {
+                LOGGER.warn("Log stream from agent(id={}) failed, response code is {}", agentId, code);
+                this.unsupportedStreams.put(agentId, System.currentTimeMillis() + STREAM_RETRY_INTERVAL);
+            }
+        } catch (AgentClientException e) {
+            // 流中断不影响attempt，一段时间内改为批量轮询，之后按最新偏移量重新建立
+            LOGGER.warn(String.format("Log stream from agent(id=%s) broken", agentId), e);
+            this.unsupportedStreams.put(agentId, System.currentTimeMillis() + STREAM_RETRY_INTERVAL);
+        }
+    }
+
+    /**
+     * 被轮询的attempt
+     */
+    interface Target {
+
+        long getAgentId();
+
+        String getHost();
+
+        DefaultAgentClient getAgentClient();
+
+        long getTransactionId();
+
+        /** 已读取的日志偏移量 */
+        long getOffset();
+
+        /**
+         * @param requestOffset 请求时使用的日志偏移量，与当前偏移量不一致时日志部分已过期
+         */
+        void onPolled(TaskStatusBatchItem item, long requestOffset);
+
+        void onPollFailed(Exception e);
+
+        /**
+         * 日志流推送的日志，data在回调返回后即失效
+         *
+         * @param offset data在日志中的起始偏移量，与已读取部分重叠时需跳过重叠部分
+         */
+        void onLog(long offset, byte[] data, int length);
+
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.yeahmobi.yscheduler.executor.AttemptStateMachine;
+
+/**
+ * 有界线程池：attempt的每一步在线程池中执行，线程数有上限，超出的在队列中等待；
+ * 两步之间的等待（如等agent的下一次状态）不占用线程，由定时线程到期后再放回线程池，
+ * 因此线程数只限制同时进行的agent调用，运行中的attempt数由准入队列的maxRunning限制
+ */
+public class BoundedPoolAttemptEngine extends AbstractAttemptEngine {
+
+    private static final Logger               LOGGER = LoggerFactory.getLogger(BoundedPoolAttemptEngine.class);
+
+    private final ThreadPoolExecutor          executor;
+
+    /** 只负责把到期的attempt放回线程池 */
+    private final ScheduledThreadPoolExecutor timer;
+
+    public BoundedPoolAttemptEngine(int poolSize) {
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new CustomizableThreadFactory("attempt-pool-"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timer = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("attempt-timer-"));
+    }
+
+    public void execute(AttemptStateMachine machine) {
+        onQueued();
+        this.executor.execute(new Driver(machine, System.currentTimeMillis()));
+    }
+
+    @Override
+    protected String getMode() {
+        return "pool";
+    }
+
+    public void close() {
+        this.timer.shutdownNow();
+        this.executor.shutdownNow();
+    }
+
+    private class Driver implements Runnable {
+
+        private final AttemptStateMachine machine;
+        private final long                submitTime;
+        private boolean                   started;
+
+        Driver(AttemptStateMachine machine, long submitTime) {
+            this.machine = machine;
+            this.submitTime = submitTime;
+        }
+
+        public void run() {
+            if (!this.started) {
+                this.started = true;
+                onAdmitted(this.submitTime);
+            }
+            long delay;
+            try {
+                // 不需要等待的步骤直接在当前线程执行
+                do {
+                    delay = this.machine.step();
+                } while (delay == 0);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error when execute attempt", e);
+                delay = -1;
+            }
+            if (delay < 0) {
+                onFinished();
+                return;
+            }
+            try {
+                BoundedPoolAttemptEngine.this.timer.schedule(new Runnable() {
+
+                    public void run() {
+                        submit();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 已关闭
+                onFinished();
+            }
+        }
+
+        private void submit() {
+            try {
+                BoundedPoolAttemptEngine.this.executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // 已关闭
+                onFinished();
+            }
+        }
+    }
+
+}
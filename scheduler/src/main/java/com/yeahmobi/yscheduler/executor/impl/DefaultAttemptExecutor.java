@@ -5,13 +5,15 @@ import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -23,7 +25,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import com.yeahmobi.yscheduler.agentframework.AgentRequest;
@@ -36,16 +37,23 @@ import com.yeahmobi.yscheduler.agentframework.agent.event.task.TaskLogEventHandl
 import com.yeahmobi.yscheduler.agentframework.agent.event.task.TaskStatusEventHandler;
 import com.yeahmobi.yscheduler.agentframework.agent.task.TaskLog;
 import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatus;
+import com.yeahmobi.yscheduler.agentframework.agent.task.TaskStatusBatchItem;
 import com.yeahmobi.yscheduler.agentframework.agent.task.TaskTransactionStatus;
 import com.yeahmobi.yscheduler.agentframework.client.DefaultAgentClient;
 import com.yeahmobi.yscheduler.agentframework.exception.AgentClientException;
+import com.yeahmobi.yscheduler.cluster.PartitionListener;
+import com.yeahmobi.yscheduler.cluster.PartitionManager;
 import com.yeahmobi.yscheduler.common.Constants;
 import com.yeahmobi.yscheduler.common.fileserver.FileServer;
 import com.yeahmobi.yscheduler.common.fileserver.FileServerException;
 import com.yeahmobi.yscheduler.common.variable.VariableException;
 import com.yeahmobi.yscheduler.common.variable.VariableManager;
+import com.yeahmobi.yscheduler.executor.AttemptEngine;
 import com.yeahmobi.yscheduler.executor.AttemptExecutor;
+import com.yeahmobi.yscheduler.executor.AttemptListener;
+import com.yeahmobi.yscheduler.executor.AttemptStateMachine;
 import com.yeahmobi.yscheduler.loadbalance.AgentLoadbalance;
+import com.yeahmobi.yscheduler.metrics.MetricsSource;
 import com.yeahmobi.yscheduler.model.Agent;
 import com.yeahmobi.yscheduler.model.Attempt;
 import com.yeahmobi.yscheduler.model.Task;
@@ -65,18 +73,42 @@ import com.yeahmobi.yscheduler.notice.NoticeService;
 import com.yeahmobi.yscheduler.variable.DefaultVariableContext;
 
 @Service
-public class DefaultAttemptExecutor implements AttemptExecutor {
+public class DefaultAttemptExecutor implements AttemptExecutor, MetricsSource {
 
     private static final Logger     LOGGER             = LoggerFactory.getLogger(DefaultAttemptExecutor.class);
 
     private static final int        OUTPUT_BUFFER_SIZE = 4 * 1024 * 1024;
 
-    ExecutorService                 executorService    = Executors.newCachedThreadPool(new CustomizableThreadFactory(
-                                                                                                                     "attempt-pool-"));
+    /**
+     * attempt执行引擎：pool为有界线程池加排队，reactor为少量线程驱动所有attempt的状态机。
+     * 两种引擎在两步之间都不占用线程，运行中的attempt数由准入队列的maxRunning限制
+     */
+    private final String            engineMode         = System.getProperty("ysheduler.attempt.engine", "pool");
+
+    /** 引擎线程数，不配置时pool为200，reactor为8 */
+    private final int               engineThreads      = Integer.parseInt(System.getProperty("ysheduler.attempt.engine.threads",
+                                                                                             "0"));
+
+    private AttemptEngine           engine;
+
+    /** 是否按agent合并轮询attempt的状态和日志 */
+    private final boolean           batchPolling       = Boolean.parseBoolean(System.getProperty("ysheduler.attempt.batchPolling",
+                                                                                                 "true"));
+
+    /** 是否由agent推送日志，agent不支持时自动退回轮询 */
+    private final boolean           logStreaming       = Boolean.parseBoolean(System.getProperty("ysheduler.attempt.logStreaming",
+                                                                                                 "true"));
+
+    private AgentStatusPoller       poller             = new AgentStatusPoller(5000, 8, this.logStreaming);
 
     /** 以<instanceId,Pair>键值对在内存中存放运行中的Attempt，便于InstanceExecutor查询Attempt状态 */
     private Map<Long, Pair>         attemptMap         = new ConcurrentHashMap<Long, Pair>();
 
+    private List<AttemptListener>   listeners          = new CopyOnWriteArrayList<AttemptListener>();
+
+    /** 以<port,client>复用agent client */
+    private Map<Integer, DefaultAgentClient> agentClients = new ConcurrentHashMap<Integer, DefaultAgentClient>();
+
     @Autowired
     private TaskService             taskService;
 
@@ -86,6 +118,9 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
     @Autowired
     private AttemptService          attemptService;
 
+    @Autowired
+    private StatusWriter            statusWriter;
+
     @Autowired
     private WorkflowService         workflowService;
 
@@ -110,6 +145,9 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
     @Autowired
     private NoticeService           noticeService;
 
+    @Autowired
+    private PartitionManager        partitionManager;
+
     private AtomicBoolean           closed             = new AtomicBoolean(false);
 
     private String                  attachmentServerUri;
@@ -119,18 +157,80 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
 
     @PostConstruct
     public void init() {
+        this.engine = createEngine();
+        this.poller.setAgentLoadbalance(this.agentLoadbalance);
+        if (this.batchPolling) {
+            this.poller.start();
+        }
         this.attachmentServerUri = this.storageServerUri + "/download";
-        // 从db中加载上次未结束的attempt
+        // 从db中加载本节点负责恢复的、上次未结束的attempt
+        recover(this.partitionManager.getRecoveringOnStartup());
+        this.partitionManager.addListener(new PartitionListener() {
+
+            public void onAssigned(Set<Integer> partitions, Set<Integer> recovering) {
+                if (!recovering.isEmpty()) {
+                    recover(recovering);
+                }
+            }
+
+            public void onRevoked(Set<Integer> partitions) {
+                // 租约过期被接手时，已在运行的attempt继续在本节点完成
+            }
+
+            public Set<Integer> getBusyPartitions() {
+                Set<Integer> busy = new HashSet<Integer>();
+                for (Pair pair : DefaultAttemptExecutor.this.attemptMap.values()) {
+                    long partitionKey = pair.workflow != null ? pair.workflow.getId() : pair.task.getId();
+                    busy.add(DefaultAttemptExecutor.this.partitionManager.partitionOf(partitionKey));
+                }
+                return busy;
+            }
+        });
+    }
+
+    /**
+     * 加载属于partitions、尚未在本节点运行的attempt，工作流中的attempt按workflow分区
+     */
+    private void recover(Set<Integer> partitions) {
         List<Attempt> attemptList = this.attemptService.getAllUncompleteds();
         for (Attempt attempt : attemptList) {
+            if (this.attemptMap.containsKey(attempt.getInstanceId())) {
+                continue;
+            }
             Pair pair = buildPair(attempt);
-            if (pair != null) {
+            if (pair == null) {
+                continue;
+            }
+            long partitionKey = pair.workflow != null ? pair.workflow.getId() : pair.task.getId();
+            if (partitions.contains(this.partitionManager.partitionOf(partitionKey))) {
                 putPair(pair);
-                this.executorService.submit(new InnerTask(pair));
+                this.engine.execute(new InnerTask(pair));
             }
         }
     }
 
+    private AttemptEngine createEngine() {
+        if ("reactor".equals(this.engineMode)) {
+            return new ReactorAttemptEngine(this.engineThreads > 0 ? this.engineThreads : 8);
+        }
+        if (!"pool".equals(this.engineMode)) {
+            LOGGER.warn("Unknown attempt engine mode '" + this.engineMode + "', use 'pool' instead");
+        }
+        return new BoundedPoolAttemptEngine(this.engineThreads > 0 ? this.engineThreads : 200);
+    }
+
+    public String getMetricsName() {
+        return "attemptExecutor";
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = this.engine.getMetrics();
+        metrics.put("runningAttempts", this.attemptMap.size());
+        metrics.put("batchPolledAttempts", this.poller.size());
+        metrics.put("logStreams", this.poller.streamCount());
+        return metrics;
+    }
+
     private byte[] getOutput(Pair pair, long offset, int length) throws AgentClientException {
         DefaultAgentClient agentClient = pair.agentClient;
         String host = pair.host;
@@ -146,6 +246,10 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
         if (AgentResponseCode.SUCCESS.equals(res.getResponseCode())) {
             TaskLog log = res.getResponseData();
             if (log.getLength() > 0) {
+                // agent按实际长度返回，一般不需要再复制
+                if (log.getData().length == log.getLength()) {
+                    return log.getData();
+                }
                 byte[] data = new byte[log.getLength()];
                 System.arraycopy(log.getData(), 0, data, 0, log.getLength());
                 return data;
@@ -178,7 +282,10 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
         }
     }
 
-    private long submitToAgent(Pair pair, Map<String, String> params) throws AgentClientException {
+    /**
+     * @return transactionId，agent名额已满(BUSY)时返回null
+     */
+    private Long submitToAgent(Pair pair, Map<String, String> params) throws AgentClientException {
         DefaultAgentClient agentClient = pair.agentClient;
         String host = pair.host;
 
@@ -188,6 +295,8 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
         if (AgentResponseCode.SUCCESS.equals(res.getResponseCode())) {
             long txId = res.getResponseData();
             return txId;
+        } else if (AgentResponseCode.BUSY.equals(res.getResponseCode())) {
+            return null;
         } else {
             throw new AgentClientException("Agent return failed when submit shellcmd, response code is "
                                            + res.getResponseCode() + ", errorMsg is " + res.getErrorMsg());
@@ -250,7 +359,8 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
     @PreDestroy
     public void close() {
         if (this.closed.compareAndSet(false, true)) {
-            this.executorService.shutdownNow();
+            this.poller.close();
+            this.engine.close();
         }
     }
 
@@ -286,7 +396,7 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
         if (pair != null) {
             this.attemptService.save(attempt);
             putPair(pair);
-            this.executorService.submit(new InnerTask(pair));
+            this.engine.execute(new InnerTask(pair));
         }
     }
 
@@ -312,23 +422,78 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
         }
     }
 
+    public void addListener(AttemptListener listener) {
+        this.listeners.add(listener);
+    }
+
+    private void fireCompleted(Attempt attempt) {
+        for (AttemptListener listener : this.listeners) {
+            try {
+                listener.onCompleted(attempt);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error when notify attempt completed", e);
+            }
+        }
+    }
+
+    /**
+     * AgentStatusPoller交回的一次轮询结果
+     */
+    private static class Polled {
+
+        final TaskStatusBatchItem item;
+        final long                requestOffset;
+        final Exception           error;
+
+        Polled(TaskStatusBatchItem item, long requestOffset, Exception error) {
+            this.item = item;
+            this.requestOffset = requestOffset;
+            this.error = error;
+        }
+    }
+
+    private enum State {
+        START, SUBMIT, POLL, LOG_FULLY, FINISHED
+    }
+
     public boolean isRunning(long instanceId) {
         Pair pair = this.attemptMap.get(instanceId);
         return (pair != null) && (pair.attempt.getStatus() == AttemptStatus.RUNNING);
     }
 
     /**
-     * 负责执行一个attempt
+     * 负责执行一个attempt，拆成提交、轮询状态、读完日志几个阶段，由AttemptEngine驱动，轮询间隔期间不占用线程
      */
-    private class InnerTask implements Runnable {
+    private class InnerTask implements AttemptStateMachine, AgentStatusPoller.Target {
 
         private static final int FETCH_INTERVAL              = 5000;
 
         private static final int SUBMIT_AGENT_MAX_TRY_COUNT  = 3;
         private static final int GET_FULLY_LOG_MAX_TRY_COUNT = 3;
 
-        private final Pair       pair;
-        private final String     outputFileName;
+        /** agent名额已满时重试的间隔 */
+        private static final int BUSY_RETRY_INTERVAL         = 5000;
+        /** agent一直满时最多等待的时间 */
+        private static final int BUSY_MAX_WAIT               = 30 * 60 * 1000;
+
+        private final Pair                    pair;
+        private final String                  outputFileName;
+
+        private volatile State                state           = State.START;
+        private Map<String, String>           params;
+        private int                           tryCount        = 1;
+        private TaskStatus                    agentStatus;
+        private long                          failedStartTime = -1;
+        private volatile long                 offset          = 0;
+        private int                           logFailCount    = 0;
+        private final AtomicReference<Polled> polled          = new AtomicReference<Polled>();
+        private long                          lastPolledTime  = System.currentTimeMillis();
+        /** 已计入负载均衡的agent，结束时归还 */
+        private Long                          startedAgentId;
+        /** agent是否由负载均衡从team内选出，是则agent忙时可以换一个 */
+        private boolean                       balanced;
+        /** 开始遇到agent忙的时间 */
+        private long                          busyStartTime   = -1;
 
         public InnerTask(Pair pair) {
             this.pair = pair;
@@ -339,10 +504,6 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
             this.writeLogToFileServer(msg, true, appendLineSeparator);
         }
 
-        private void appendLogToFileServer(byte[] data) throws FileServerException {
-            this.writeLogToFileServer(data, true);
-        }
-
         private void writeLogToFileServer(String msg, boolean append, boolean appendLineSeparator)
                                                                                                   throws FileServerException {
             if (appendLineSeparator) {
@@ -360,140 +521,316 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
                                                          this.outputFileName, data, append);
         }
 
-        public void run() {
+        private void appendLogToFileServer(byte[] data, int offset, int length) throws FileServerException {
+            DefaultAttemptExecutor.this.fileServer.write(Constants.FILESERVER_NAMESPACE_ATTEMPTLOG,
+                                                         this.outputFileName, data, offset, length, true);
+        }
 
+        public long step() {
+            Attempt attempt = this.pair.attempt;
             try {
-                // 执行attempt
-                Attempt attempt = this.pair.attempt;
-                attempt.setOutput(this.outputFileName);
-
                 try {
-                    Agent agent = getAgent(attempt);
-                    buildAgantClient(agent);
-
-                    writeLogToFileServer(String.format("Attempt started at %s, submit to agent(id=%s, host=%s)",
-                                                       DateFormatUtils.format(new Date(), Constants.DATE_FORMAT_PATTERN),
-                                                       agent.getId(), agent.getIp()), false, true);
-
-                    // 没有txId，说明是新提交(不是从db load的attempt)，需要提交
-                    if (attempt.getTransactionId() == null) {
-                        Map<String, String> params = getParams(this.pair);
-
-                        int tryCount = 1;
-                        do {
-                            try {
-                                long transactionId = submitToAgent(this.pair, params);
-                                attempt.setTransactionId(transactionId);
-                            } catch (AgentClientException e) {
-                                String msg = "Submit to agent failed for " + tryCount + " times.";
-                                if (tryCount >= SUBMIT_AGENT_MAX_TRY_COUNT) {
-                                    attempt.setStatus(AttemptStatus.FAILED);
-                                    throw new AgentClientException(msg + " It is considered failed.", e);
-                                } else {
-                                    appendLogToFileServer(msg, true);
-                                    TimeUnit.SECONDS.sleep(tryCount);
-                                }
-                                tryCount++;
-                            }
-                        } while (attempt.getTransactionId() == null);
-
-                        DefaultAttemptExecutor.this.attemptService.update(attempt);
+                    switch (this.state) {
+                        case START:
+                            return start(attempt);
+                        case SUBMIT:
+                            return submit(attempt);
+                        case POLL:
+                            return poll(attempt);
+                        case LOG_FULLY:
+                            return logFully(attempt);
+                        default:
+                            // 已结束
+                            return -1;
                     }
+                } catch (VariableException e) {
+                    logException(e);
+                    if ((attempt.getStatus() == null) || !attempt.getStatus().isCompleted()) {
+                        attempt.setStatus(AttemptStatus.COMPLETE_WITH_UNKNOWN_STATUS);
+                    }
+                } catch (AgentClientException e) {
+                    // 异常结束
+                    logException(e);
+                    if ((attempt.getStatus() == null) || !attempt.getStatus().isCompleted()) {
+                        attempt.setStatus(AttemptStatus.COMPLETE_WITH_UNKNOWN_STATUS);
+                    }
+                } catch (IllegalStateException e) {
+                    // (获取不到agent)异常结束
+                    logException(e);
+                    attempt.setStatus(AttemptStatus.FAILED);
+                }
+                finish(attempt);
+            } catch (FileServerException e) {
+                // 文件系统问题，报警通知admin
+                DefaultAttemptExecutor.this.noticeService.alertInnerError("Write log to fileserver error: "
+                                                                          + e.getMessage());
+                LOGGER.error("Write log to fileserver error", e);
+                // 日志写不了也要结束attempt，归还负载均衡计数和准入名额，agent上的任务结果未知
+                if (this.state != State.FINISHED) {
+                    if ((attempt.getStatus() == null) || !attempt.getStatus().isCompleted()) {
+                        attempt.setStatus(AttemptStatus.COMPLETE_WITH_UNKNOWN_STATUS);
+                    }
+                    finish(attempt);
+                }
+            }
+            return -1;
+        }
 
-                    // 写一个文件头进去log中
-                    appendLogToFileServer(String.format("Output of task(%s)'s attempt(%s):", this.pair.task.getId(),
-                                                        attempt.getId()), true);
+        private long start(Attempt attempt) throws VariableException, FileServerException, AgentClientException {
+            // 执行attempt
+            attempt.setOutput(this.outputFileName);
 
-                    this.pair.txId = attempt.getTransactionId();
+            Agent agent = getAgent(attempt);
+            buildAgantClient(agent);
+            this.startedAgentId = agent.getId();
+            DefaultAttemptExecutor.this.agentLoadbalance.onStarted(agent.getId());
 
-                    TaskStatus agentStatus = null;
+            writeLogToFileServer(String.format("Attempt started at %s, submit to agent(id=%s, host=%s)",
+                                               DateFormatUtils.format(new Date(), Constants.DATE_FORMAT_PATTERN),
+                                               agent.getId(), agent.getIp()), false, true);
 
-                    long failedStartTime = -1;
+            // 没有txId，说明是新提交(不是从db load的attempt)，需要提交
+            if (attempt.getTransactionId() == null) {
+                this.params = getParams(this.pair);
+                this.state = State.SUBMIT;
+                return submit(attempt);
+            }
+            return submitted(attempt);
+        }
 
-                    long offset = 0;
+        private long submit(Attempt attempt) throws FileServerException, AgentClientException {
+            try {
+                Long transactionId = submitToAgent(this.pair, this.params);
+                if (transactionId == null) {
+                    return busy(attempt);
+                }
+                attempt.setTransactionId(transactionId);
+            } catch (AgentClientException e) {
+                String msg = "Submit to agent failed for " + this.tryCount + " times.";
+                if (this.tryCount >= SUBMIT_AGENT_MAX_TRY_COUNT) {
+                    attempt.setStatus(AttemptStatus.FAILED);
+                    throw new AgentClientException(msg + " It is considered failed.", e);
+                }
+                appendLogToFileServer(msg, true);
+                return TimeUnit.SECONDS.toMillis(this.tryCount++);
+            }
+
+            // 恢复时要根据transactionId找回agent上的任务，立即写库
+            DefaultAttemptExecutor.this.statusWriter.updateAttempt(attempt, true);
+            return submitted(attempt);
+        }
+
+        /**
+         * agent名额已满：不计入提交失败次数；agent由负载均衡选出的，换一个(可能还是同一个，team内都满时)，指定的则等待后重试
+         */
+        private long busy(Attempt attempt) throws FileServerException, AgentClientException {
+            long agentId = attempt.getAgentId();
+            DefaultAttemptExecutor.this.agentLoadbalance.onBusy(agentId);
+            long now = System.currentTimeMillis();
+            if (this.busyStartTime < 0) {
+                this.busyStartTime = now;
+            } else if ((now - this.busyStartTime) > BUSY_MAX_WAIT) {
+                attempt.setStatus(AttemptStatus.FAILED);
+                throw new AgentClientException("Agent is busy for " + TimeUnit.MILLISECONDS.toMinutes(BUSY_MAX_WAIT)
+                                               + " minutes. It is considered failed.");
+            }
+            if (!this.balanced) {
+                appendLogToFileServer(String.format("Agent(id=%s) is busy, retry later.", agentId), true);
+                return BUSY_RETRY_INTERVAL;
+            }
+            DefaultAttemptExecutor.this.agentLoadbalance.onFinished(agentId);
+            this.startedAgentId = null;
+            attempt.setAgentId(null);
+            Agent agent = getAgent(attempt);
+            buildAgantClient(agent);
+            this.startedAgentId = agent.getId();
+            DefaultAttemptExecutor.this.agentLoadbalance.onStarted(agent.getId());
+            appendLogToFileServer(String.format("Agent(id=%s) is busy, submit to agent(id=%s, host=%s)", agentId,
+                                                agent.getId(), agent.getIp()), true);
+            // 换了agent的立即提交，仍是同一个的等待后重试
+            return agent.getId() == agentId ? BUSY_RETRY_INTERVAL : 0;
+        }
 
-                    // 提交任务之后delay一下再去checkStatus
-                    TimeUnit.SECONDS.sleep(1);
+        private long submitted(Attempt attempt) throws FileServerException {
+            // 写一个文件头进去log中
+            appendLogToFileServer(String.format("Output of task(%s)'s attempt(%s):", this.pair.task.getId(),
+                                                attempt.getId()), true);
 
-                    do {
-                        try {
-                            agentStatus = checkStatus(this.pair);
+            this.pair.txId = attempt.getTransactionId();
+            this.state = State.POLL;
 
-                            byte[] output = getOutput(this.pair, offset, OUTPUT_BUFFER_SIZE);
+            // 提交任务之后delay一下再去checkStatus
+            return TimeUnit.SECONDS.toMillis(1);
+        }
 
-                            if (output != null) {
-                                appendLogToFileServer(output);
-                                offset += output.length;
-                            }
+        private long poll(Attempt attempt) throws AgentClientException {
+            boolean batch = DefaultAttemptExecutor.this.batchPolling
+                            && DefaultAttemptExecutor.this.poller.isSupported(attempt.getAgentId());
+            if (batch) {
+                DefaultAttemptExecutor.this.poller.register(this);
+            } else {
+                DefaultAttemptExecutor.this.poller.unregister(this);
+            }
 
-                            attempt.setDuration(agentStatus.getDuration());
-                            DefaultAttemptExecutor.this.attemptService.update(attempt);
-                            failedStartTime = -1;
-                        } catch (Exception e) {
-                            if (failedStartTime == -1) {
-                                failedStartTime = System.currentTimeMillis();
-                            } else {
-                                if ((System.currentTimeMillis() - failedStartTime) > (5 * 60 * 1000L)) {
-                                    throw new AgentClientException("Get status/log from agent failed for 5 minutes.", e);
-                                }
-                            }
-                        } finally {
-                            // sleep park
-                            if ((agentStatus != null) && !agentStatus.getStatus().isCompleted()) {
-                                TimeUnit.MILLISECONDS.sleep(FETCH_INTERVAL);
-                            }
+            try {
+                if (batch) {
+                    Polled polled = this.polled.getAndSet(null);
+                    if (polled == null) {
+                        // 还没有新的轮询结果
+                        if ((System.currentTimeMillis() - this.lastPolledTime) > (5 * 60 * 1000L)) {
+                            throw new AgentClientException("No status polled from agent for 5 minutes.");
                         }
+                        return TimeUnit.SECONDS.toMillis(1);
+                    }
+                    this.lastPolledTime = System.currentTimeMillis();
+                    if (polled.error != null) {
+                        throw polled.error;
+                    }
+                    this.agentStatus = polled.item.getStatus();
+                    TaskLog log = polled.item.getLog();
+                    if ((log != null) && (log.getLength() > 0)) {
+                        appendOutput(polled.requestOffset, log.getData(), log.getLength());
+                    }
+                } else {
+                    this.agentStatus = checkStatus(this.pair);
+                    long outputOffset = this.offset;
+                    byte[] output = getOutput(this.pair, outputOffset, OUTPUT_BUFFER_SIZE);
+                    if (output != null) {
+                        appendOutput(outputOffset, output, output.length);
+                    }
+                }
 
-                    } while ((agentStatus == null) || ((agentStatus != null) && !agentStatus.getStatus().isCompleted()));
+                attempt.setDuration(this.agentStatus.getDuration());
+                // 只刷新duration，合并后定时写库
+                DefaultAttemptExecutor.this.statusWriter.updateAttempt(attempt, false);
+                this.failedStartTime = -1;
+            } catch (Exception e) {
+                if (this.failedStartTime == -1) {
+                    this.failedStartTime = System.currentTimeMillis();
+                } else {
+                    if ((System.currentTimeMillis() - this.failedStartTime) > (5 * 60 * 1000L)) {
+                        throw new AgentClientException("Get status/log from agent failed for 5 minutes.", e);
+                    }
+                }
+            }
 
-                    // 运行结束后日志可能还没有读完，所以继续读完
-                    logFully(offset);
+            if (this.agentStatus == null) {
+                return TimeUnit.SECONDS.toMillis(1);
+            }
+            if (!this.agentStatus.getStatus().isCompleted()) {
+                return batch ? TimeUnit.SECONDS.toMillis(1) : FETCH_INTERVAL;
+            }
+            // 运行结束后日志可能还没有读完，所以继续读完
+            DefaultAttemptExecutor.this.poller.unregister(this);
+            this.state = State.LOG_FULLY;
+            return 0;
+        }
 
-                    // 正常结束
-                    attempt.setStatus(tranformStatus(agentStatus.getStatus()));
-                    attempt.setReturnValue(agentStatus.getReturnValue());
+        /**
+         * 追加从from开始的日志：已写过的部分跳过，与当前偏移量之间有空洞的丢弃（之后会按当前偏移量重新取）。
+         * 轮询和日志流都会调用，以此保证日志不重复
+         */
+        private synchronized void appendOutput(long from, byte[] data, int length) throws FileServerException {
+            long skip = this.offset - from;
+            if ((this.state == State.FINISHED) || (skip < 0) || (skip >= length)) {
+                return;
+            }
+            appendLogToFileServer(data, (int) skip, (int) (length - skip));
+            this.offset += length - skip;
+        }
 
-                } catch (VariableException e) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    e.printStackTrace(new PrintStream(baos));
-                    appendLogToFileServer(StringUtils.trimToEmpty(e.getMessage()), true);
-                    appendLogToFileServer(baos.toString(), true);
-                    if ((attempt.getStatus() == null) || !attempt.getStatus().isCompleted()) {
-                        attempt.setStatus(AttemptStatus.COMPLETE_WITH_UNKNOWN_STATUS);
-                    }
-                } catch (AgentClientException e) {
-                    // 异常结束
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    e.printStackTrace(new PrintStream(baos));
-                    appendLogToFileServer(StringUtils.trimToEmpty(e.getMessage()), true);
-                    appendLogToFileServer(baos.toString(), true);
-                    if ((attempt.getStatus() == null) || !attempt.getStatus().isCompleted()) {
-                        attempt.setStatus(AttemptStatus.COMPLETE_WITH_UNKNOWN_STATUS);
-                    }
-                } catch (IllegalStateException e) {
-                    // (获取不到agent)异常结束
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    e.printStackTrace(new PrintStream(baos));
-                    appendLogToFileServer(StringUtils.trimToEmpty(e.getMessage()), true);
-                    appendLogToFileServer(baos.toString(), true);
-                    attempt.setStatus(AttemptStatus.FAILED);
-                } finally {
-                    attempt.setEndTime(new Date());
+        public long getAgentId() {
+            return this.pair.attempt.getAgentId();
+        }
+
+        public String getHost() {
+            return this.pair.host;
+        }
+
+        public DefaultAgentClient getAgentClient() {
+            return this.pair.agentClient;
+        }
+
+        public long getTransactionId() {
+            return this.pair.txId;
+        }
+
+        public long getOffset() {
+            return this.offset;
+        }
+
+        public void onPolled(TaskStatusBatchItem item, long requestOffset) {
+            this.polled.set(new Polled(item, requestOffset, null));
+        }
+
+        public void onPollFailed(Exception e) {
+            this.polled.set(new Polled(null, this.offset, e));
+        }
+
+        public void onLog(long from, byte[] data, int length) {
+            try {
+                appendOutput(from, data, length);
+            } catch (FileServerException e) {
+                onPollFailed(e);
+            }
+        }
+
+        private long logFully(Attempt attempt) throws FileServerException, AgentClientException {
+            try {
+                long outputOffset = this.offset;
+                byte[] output = getOutput(this.pair, outputOffset, OUTPUT_BUFFER_SIZE);
+
+                if (output != null) {
+                    appendOutput(outputOffset, output, output.length);
+                    this.logFailCount = 0;
+                    return 0;
+                }
+            } catch (AgentClientException e) {
+                if (++this.logFailCount == GET_FULLY_LOG_MAX_TRY_COUNT) {
+                    throw new AgentClientException("Get log from agent failed for 3 times.", e);
                 }
+                return TimeUnit.SECONDS.toMillis(this.logFailCount);
+            }
 
-                // 将结果写回db
-                DefaultAttemptExecutor.this.attemptService.update(attempt);
-                // 移除
-                DefaultAttemptExecutor.this.attemptMap.remove(attempt.getInstanceId());
+            // 正常结束
+            attempt.setStatus(tranformStatus(this.agentStatus.getStatus()));
+            attempt.setReturnValue(this.agentStatus.getReturnValue());
+            finish(attempt);
+            return -1;
+        }
 
-            } catch (InterruptedException e) {
-                // 一般是关闭程序时才会关闭线程池，才会中断，故不做任何事情，让线程结束
+        private void finish(Attempt attempt) {
+            this.state = State.FINISHED;
+            DefaultAttemptExecutor.this.poller.unregister(this);
+            if (this.startedAgentId != null) {
+                DefaultAttemptExecutor.this.agentLoadbalance.onFinished(this.startedAgentId);
+                this.startedAgentId = null;
+            }
+            attempt.setEndTime(new Date());
+
+            // 日志写完再更新状态，页面看到attempt结束时日志已完整
+            try {
+                DefaultAttemptExecutor.this.fileServer.flush(Constants.FILESERVER_NAMESPACE_ATTEMPTLOG,
+                                                             this.outputFileName);
             } catch (FileServerException e) {
-                // 文件系统问题，报警通知admin
-                DefaultAttemptExecutor.this.noticeService.alertInnerError("Write log to fileserver error: "
+                DefaultAttemptExecutor.this.noticeService.alertInnerError("Flush log to fileserver error: "
                                                                           + e.getMessage());
-                LOGGER.error("Write log to fileserver error", e);
+                LOGGER.error("Flush log to fileserver error", e);
             }
+
+            // 将结果写回db
+            DefaultAttemptExecutor.this.statusWriter.updateAttempt(attempt, true);
+            // 移除
+            DefaultAttemptExecutor.this.attemptMap.remove(attempt.getInstanceId());
+            // 通知attempt已结束
+            fireCompleted(attempt);
+        }
+
+        private void logException(Exception e) throws FileServerException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            e.printStackTrace(new PrintStream(baos));
+            appendLogToFileServer(StringUtils.trimToEmpty(e.getMessage()), true);
+            appendLogToFileServer(baos.toString(), true);
         }
 
         private void buildAgantClient(Agent agent) {
@@ -504,11 +841,15 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
             if (split.length > 1) {
                 port = Integer.parseInt(split[1]);
             }
-            DefaultAgentClient agentClient = new DefaultAgentClient(port, Constants.AGENT_CONTEXT);
-            if (port > 0) {
-                agentClient = new DefaultAgentClient(port, Constants.AGENT_CONTEXT);
-            } else {
-                agentClient = new DefaultAgentClient(Constants.AGENT_CONTEXT);
+            // client本身无状态，连接池由AgentHttpTransport共享，按端口复用即可
+            DefaultAgentClient agentClient = DefaultAttemptExecutor.this.agentClients.get(port);
+            if (agentClient == null) {
+                if (port > 0) {
+                    agentClient = new DefaultAgentClient(port, Constants.AGENT_CONTEXT);
+                } else {
+                    agentClient = new DefaultAgentClient(Constants.AGENT_CONTEXT);
+                }
+                DefaultAttemptExecutor.this.agentClients.put(port, agentClient);
             }
 
             this.pair.agentClient = agentClient;
@@ -524,32 +865,10 @@ public class DefaultAttemptExecutor implements AttemptExecutor {
                 User user = DefaultAttemptExecutor.this.userService.get(this.pair.task.getOwner());
                 agent = DefaultAttemptExecutor.this.agentLoadbalance.getActiveAgent(user.getTeamId());
                 attempt.setAgentId(agent.getId());
+                this.balanced = true;
             }
             return agent;
         }
-
-        private void logFully(long offset) throws FileServerException, AgentClientException, InterruptedException {
-            int failCount = 0;
-            while (true) {
-                try {
-                    byte[] output = getOutput(this.pair, offset, OUTPUT_BUFFER_SIZE);
-
-                    if (output != null) {
-                        appendLogToFileServer(output);
-                        offset += output.length;
-                    } else {
-                        break;
-                    }
-                    failCount = 0;
-                } catch (AgentClientException e) {
-                    if (++failCount == GET_FULLY_LOG_MAX_TRY_COUNT) {
-                        throw new AgentClientException("Get log from agent failed for 3 times.", e);
-                    } else {
-                        TimeUnit.SECONDS.sleep(failCount);
-                    }
-                }
-            }
-        }
     }
 
     public void cancel(long instanceId) {
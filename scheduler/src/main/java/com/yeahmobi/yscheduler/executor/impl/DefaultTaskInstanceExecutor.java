@@ -1,12 +1,18 @@
 package com.yeahmobi.yscheduler.executor.impl;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -18,33 +24,69 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.yeahmobi.yscheduler.cluster.PartitionListener;
+import com.yeahmobi.yscheduler.cluster.PartitionManager;
 import com.yeahmobi.yscheduler.executor.AttemptExecutor;
+import com.yeahmobi.yscheduler.executor.AttemptListener;
 import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
+import com.yeahmobi.yscheduler.executor.TaskInstanceListener;
+import com.yeahmobi.yscheduler.metrics.MetricsSource;
 import com.yeahmobi.yscheduler.model.Attempt;
 import com.yeahmobi.yscheduler.model.Task;
 import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.User;
+import com.yeahmobi.yscheduler.model.WorkflowInstance;
 import com.yeahmobi.yscheduler.model.service.AttemptService;
 import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
 import com.yeahmobi.yscheduler.model.service.TaskService;
+import com.yeahmobi.yscheduler.model.service.UserService;
+import com.yeahmobi.yscheduler.model.service.WorkflowInstanceService;
 import com.yeahmobi.yscheduler.model.type.AttemptStatus;
 import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
 import com.yeahmobi.yscheduler.notice.NoticeService;
 
 @Service
-public class DefaultTaskInstanceExecutor implements TaskInstanceExecutor {
+public class DefaultTaskInstanceExecutor implements TaskInstanceExecutor, AttemptListener, MetricsSource {
 
     private static final Logger         LOGGER              = LoggerFactory.getLogger(DefaultTaskInstanceExecutor.class);
 
+    /** 兜底的全量检查间隔，正常情况下instance由事件驱动 */
+    private static final long           RECONCILE_INTERVAL  = 10 * 1000;
+
     private Map<Long, Pair>             instanceMap         = new ConcurrentHashMap<Long, Pair>();
 
     private ConcurrentSkipListSet<Long> instancesToBeCancel = new ConcurrentSkipListSet<Long>();
 
+    private BlockingQueue<Event>        events              = new LinkedBlockingQueue<Event>();
+
+    private List<TaskInstanceListener>  listeners           = new CopyOnWriteArrayList<TaskInstanceListener>();
+
+    /** 全局运行数上限，默认与pool引擎的默认线程数一致，小于等于0表示不限 */
+    private final int                   maxRunning          = Integer.parseInt(System.getProperty("ysheduler.dispatch.maxRunning",
+                                                                                                  "200"));
+
+    /** team运行数的默认上限，小于等于0表示不限 */
+    private final int                   teamCap             = Integer.parseInt(System.getProperty("ysheduler.dispatch.teamCap",
+                                                                                                  "0"));
+
+    /** 按team的运行数上限，形如"teamId:cap,teamId:cap" */
+    private final String                teamCaps            = System.getProperty("ysheduler.dispatch.teamCaps", "");
+
+    /** 按team的权重，形如"teamId:weight,teamId:weight"，未配置的team权重为1 */
+    private final String                teamWeights         = System.getProperty("ysheduler.dispatch.teamWeights", "");
+
+    /** 新的attempt先进入准入队列，按team权重和task优先级派发给attemptExecutor */
+    private AdmissionQueue<Pair>        admissionQueue;
+
     @Autowired
     private TaskService                 taskService;
 
     @Autowired
     private TaskInstanceService         instanceService;
 
+    @Autowired
+    private StatusWriter                statusWriter;
+
     @Autowired
     private AttemptExecutor             attemptExecutor;
 
@@ -54,17 +96,51 @@ public class DefaultTaskInstanceExecutor implements TaskInstanceExecutor {
     @Autowired
     private NoticeService               noticeService;
 
+    @Autowired
+    private WorkflowInstanceService     workflowInstanceService;
+
+    @Autowired
+    private PartitionManager            partitionManager;
+
+    @Autowired
+    private UserService                 userService;
+
     private AtomicBoolean               closed              = new AtomicBoolean(false);
 
     private ControllerThread            controllerThread;
 
     @PostConstruct
     public void init() {
-        // 加载RUNNING和READY的instance
-        List<TaskInstance> instanceList = this.instanceService.getAllUncompleteds();
-        for (TaskInstance instance : instanceList) {
-            putPair(instance);
-        }
+        this.admissionQueue = new AdmissionQueue<Pair>(this.maxRunning, this.teamCap,
+                                                       AdmissionQueue.parseTeamValues(this.teamCaps),
+                                                       AdmissionQueue.parseTeamValues(this.teamWeights));
+        this.attemptExecutor.addListener(this);
+
+        // 加载本节点负责恢复的RUNNING和READY的instance
+        recover(this.partitionManager.getRecoveringOnStartup());
+        this.partitionManager.addListener(new PartitionListener() {
+
+            public void onAssigned(Set<Integer> partitions, Set<Integer> recovering) {
+                if (!recovering.isEmpty()) {
+                    recover(recovering);
+                }
+            }
+
+            public void onRevoked(Set<Integer> partitions) {
+                // 租约过期被接手时，已在运行的instance继续在本节点完成
+            }
+
+            public Set<Integer> getBusyPartitions() {
+                // 工作流中的instance由工作流引擎计入
+                Set<Integer> busy = new HashSet<Integer>();
+                for (Pair pair : DefaultTaskInstanceExecutor.this.instanceMap.values()) {
+                    if (pair.instance.getWorkflowInstanceId() == null) {
+                        busy.add(DefaultTaskInstanceExecutor.this.partitionManager.partitionOf(pair.task.getId()));
+                    }
+                }
+                return busy;
+            }
+        });
 
         // 启动后台执行线程
         this.controllerThread = new ControllerThread();
@@ -80,129 +156,246 @@ public class DefaultTaskInstanceExecutor implements TaskInstanceExecutor {
         }
     }
 
+    /**
+     * 加载属于partitions、尚未在本节点运行的RUNNING和READY的instance，工作流中的instance按workflow分区
+     */
+    private void recover(Set<Integer> partitions) {
+        Map<Long, Long> workflowIds = new HashMap<Long, Long>();
+        List<TaskInstance> instanceList = this.instanceService.getAllUncompleteds();
+        for (TaskInstance instance : instanceList) {
+            if (this.instanceMap.containsKey(instance.getId())) {
+                continue;
+            }
+            long partitionKey = instance.getTaskId();
+            Long workflowInstanceId = instance.getWorkflowInstanceId();
+            if (workflowInstanceId != null) {
+                Long workflowId = workflowIds.get(workflowInstanceId);
+                if (workflowId == null) {
+                    WorkflowInstance workflowInstance = this.workflowInstanceService.get(workflowInstanceId);
+                    workflowId = workflowInstance == null ? instance.getTaskId() : workflowInstance.getWorkflowId();
+                    workflowIds.put(workflowInstanceId, workflowId);
+                }
+                partitionKey = workflowId;
+            }
+            if (partitions.contains(this.partitionManager.partitionOf(partitionKey))) {
+                putPair(instance);
+                this.events.offer(new Event(instance.getId(), null));
+            }
+        }
+    }
+
     private void putPair(TaskInstance instance) {
         if (instance.getStatus() == TaskInstanceStatus.READY) {
             this.attemptService.archiveExistsAttempts(instance.getId());
         }
 
         if (!TaskInstanceStatus.RUNNING.equals(instance.getStatus())) {
-            this.instanceService.updateStatus(instance.getId(), TaskInstanceStatus.RUNNING);
+            this.statusWriter.updateInstanceStatus(instance.getId(), TaskInstanceStatus.RUNNING);
         }
         Long taskId = instance.getTaskId();
         Task task = this.taskService.get(taskId);
         if (task != null) {
-            Pair pair = new Pair(task, instance);
+            Pair pair = new Pair(task, instance, getTeamId(task));
             this.instanceMap.put(instance.getId(), pair);
         }
     }
 
+    /**
+     * task owner所在的team，没有team的都归为0
+     */
+    private long getTeamId(Task task) {
+        User user = task.getOwner() == null ? null : this.userService.get(task.getOwner());
+        return ((user == null) || (user.getTeamId() == null)) ? 0L : user.getTeamId();
+    }
+
     public void submit(final TaskInstance instance) {
         // 提交给map
         putPair(instance);
+        this.events.offer(new Event(instance.getId(), null));
+    }
+
+    public void onCompleted(Attempt attempt) {
+        this.events.offer(new Event(attempt.getInstanceId(), attempt));
     }
 
     /**
      * 负责：<br>
      * 1. 更新instance的状态<br>
-     * 2. 在attempt失败时决定是否重试
+     * 2. 在attempt失败时决定是否重试<br>
+     * 由submit、cancel和attempt结束的事件驱动，立即处理；另外每隔RECONCILE_INTERVAL全量检查一遍作为兜底，并检查超时
      */
     private class ControllerThread extends Thread {
 
         @Override
         public void run() {
 
+            long nextReconcileTime = 0;
             while (!DefaultTaskInstanceExecutor.this.closed.get()) {
-                Iterator<Entry<Long, Pair>> iterator = DefaultTaskInstanceExecutor.this.instanceMap.entrySet().iterator();
-                while (iterator.hasNext() && !DefaultTaskInstanceExecutor.this.closed.get()) {
-                    Entry<Long, Pair> entry = iterator.next();
-                    try {
-                        long instanceId = entry.getKey();
-                        Pair pair = entry.getValue();
-                        Task task = pair.task;
-                        TaskInstance instance = pair.instance;
-
-                        // 是否取消
-                        boolean isCancelled = isCancelled(instanceId);
-
-                        // 若有正在运行的attempt，则检查是否有cancel和超时的操作。(此时instance状态仍是running，同时不需要重试，故不做任何事情)
-                        if (DefaultTaskInstanceExecutor.this.attemptExecutor.isRunning(instanceId)) {
-                            if (isCancelled) {
-                                // 如果是待取消的task，则取消运行
-                                DefaultTaskInstanceExecutor.this.attemptExecutor.cancel(instanceId);
-                            } else {
-                                // 超时只是报警，无做其他处理，故在loop里每次检查一下即可
-                                checkTimeout(pair);
-                            }
-                            continue;
-                        }
-
-                        // 判断该instance的最新attempt的状态(访问db)
-                        // 1. 如果是成功
-                        // -- 更新instance状态为success(更新db)，从map中移除该instance
-                        // 2. 如果是失败或没有任何attempt
-                        // -- 则判断该instance的attempt数量(访问db)
-                        // ---(1)若未达到retryCount
-                        // ----- 创建attempt，提交给AttemptExecutor
-                        // ---(2)若达到retryCount
-                        // ----- 更新instance状态为failed(更新db)，从map中移除该instance
-                        Attempt attempt = DefaultTaskInstanceExecutor.this.attemptService.getLastOne(instanceId);
-                        if ((attempt == null) || (attempt.getStatus() == AttemptStatus.FAILED)
-                            || (attempt.getStatus() == AttemptStatus.COMPLETE_WITH_UNKNOWN_STATUS)) {
-                            // 失败时，尝试重试的逻辑
-                            // -- 重试次数未满
-                            // --- 未取消，则重试
-                            // --- 已取消，则cancelled
-                            // -- 重试次数已满，则failed
-                            int count = DefaultTaskInstanceExecutor.this.attemptService.countActive(instanceId);
-                            int retryTimes = task.getRetryTimes();
-                            if (count < (retryTimes + 1)) {
-                                if (!isCancelled) {
-                                    Attempt attempt0 = new Attempt();
-                                    attempt0.setStatus(AttemptStatus.RUNNING);
-                                    attempt0.setAgentId(task.getAgentId());
-                                    attempt0.setTaskId(task.getId());
-                                    attempt0.setInstanceId(instance.getId());
-                                    attempt0.setStartTime(new Date());
-                                    attempt0.setActive(true);
-                                    DefaultTaskInstanceExecutor.this.attemptExecutor.submit(attempt0);
-                                } else {
-                                    endWithCancelled(instanceId);
-                                }
-                            } else {
-                                endWithFailed(instanceId);
-                            }
-                        } else if (attempt.getStatus() == AttemptStatus.SUCCESS) {
-                            endWithSuccess(instanceId);
-                            notifySuccessIfTimeout(pair);
-                        } else if (attempt.getStatus() == AttemptStatus.CANCELLED) {
-                            endWithCancelled(instanceId);
-                        }
-                    } catch (RuntimeException e) {
-                        // log and continue
-                        LOGGER.error("Error when deel with instance, but controller thread will still go on.", e);
-                    } finally {
-                        try {
-                            TimeUnit.MILLISECONDS.sleep(20);
-                        } catch (InterruptedException e) {
-                            // TODO ignore
-                        }
+                try {
+                    long now = System.currentTimeMillis();
+                    if (now >= nextReconcileTime) {
+                        reconcile();
+                        dispatch();
+                        nextReconcileTime = now + RECONCILE_INTERVAL;
+                        continue;
                     }
+
+                    Event event = DefaultTaskInstanceExecutor.this.events.poll(nextReconcileTime - now,
+                                                                              TimeUnit.MILLISECONDS);
+                    if (event != null) {
+                        handle(event.instanceId, event.attempt);
+                        dispatch();
+                    }
+                } catch (InterruptedException e) {
+                    // ignored. maybe will close.
+                } catch (Throwable e) {
+                    // log and continue
+                    LOGGER.error("Error when deel with instance, but controller thread will still go on.", e);
+                }
+            }
+        }
+
+        private void reconcile() {
+            for (Long instanceId : DefaultTaskInstanceExecutor.this.instanceMap.keySet()) {
+                if (DefaultTaskInstanceExecutor.this.closed.get()) {
+                    return;
+                }
+                try {
+                    handle(instanceId, null);
+                } catch (RuntimeException e) {
+                    // log and continue
+                    LOGGER.error("Error when deel with instance, but controller thread will still go on.", e);
                 }
+            }
 
-                // 清理instancesToBeCancel中，已经无用的instanceId
-                Iterator<Long> it = DefaultTaskInstanceExecutor.this.instancesToBeCancel.iterator();
-                while (it.hasNext()) {
-                    Long id = it.next();
-                    if (!DefaultTaskInstanceExecutor.this.instanceMap.containsKey(id)) {
-                        it.remove();
+            // 清理instancesToBeCancel中，已经无用的instanceId
+            Iterator<Long> it = DefaultTaskInstanceExecutor.this.instancesToBeCancel.iterator();
+            while (it.hasNext()) {
+                Long id = it.next();
+                if (!DefaultTaskInstanceExecutor.this.instanceMap.containsKey(id)) {
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * @param completedAttempt 事件带来的刚结束的attempt，为null时从db查最新的attempt
+         */
+        private void handle(long instanceId, Attempt completedAttempt) {
+            Pair pair = DefaultTaskInstanceExecutor.this.instanceMap.get(instanceId);
+            if (pair == null) {
+                return;
+            }
+            Task task = pair.task;
+
+            // 在准入队列中等待的，只检查取消和超时
+            if (pair.queued) {
+                if (isCancelled(instanceId)) {
+                    DefaultTaskInstanceExecutor.this.admissionQueue.remove(pair, pair.teamId);
+                    pair.queued = false;
+                    endWithCancelled(instanceId);
+                } else {
+                    checkTimeout(pair);
+                }
+                return;
+            }
+
+            // 若有正在运行的attempt，则检查是否有cancel和超时的操作。(此时instance状态仍是running，同时不需要重试，故不做任何事情)
+            if (DefaultTaskInstanceExecutor.this.attemptExecutor.isRunning(instanceId)) {
+                if (!pair.admitted) {
+                    // 恢复的attempt未经过准入队列，也计入运行数
+                    DefaultTaskInstanceExecutor.this.admissionQueue.addRunning(pair.teamId);
+                    pair.admitted = true;
+                }
+                if (isCancelled(instanceId)) {
+                    // 如果是待取消的task，则取消运行
+                    DefaultTaskInstanceExecutor.this.attemptExecutor.cancel(instanceId);
+                } else {
+                    // 超时只是报警，无做其他处理，故在loop里每次检查一下即可
+                    checkTimeout(pair);
+                }
+                return;
+            }
+
+            // attempt已结束，归还运行名额
+            if (pair.admitted) {
+                DefaultTaskInstanceExecutor.this.admissionQueue.release(pair.teamId);
+                pair.admitted = false;
+            }
+
+            // 是否取消
+            boolean isCancelled = isCancelled(instanceId);
+
+            // 判断该instance的最新attempt的状态
+            // 1. 如果是成功
+            // -- 更新instance状态为success(更新db)，从map中移除该instance
+            // 2. 如果是失败或没有任何attempt
+            // -- 则判断该instance的attempt数量
+            // ---(1)若未达到retryCount
+            // ----- 进入准入队列，轮到时创建attempt，提交给AttemptExecutor
+            // ---(2)若达到retryCount
+            // ----- 更新instance状态为failed(更新db)，从map中移除该instance
+            // 事件带来的attempt若不是最近提交的（已被兜底检查处理过），则以db为准
+            Attempt attempt = completedAttempt;
+            if ((attempt == null) || (pair.lastAttemptId == null) || !pair.lastAttemptId.equals(attempt.getId())) {
+                attempt = DefaultTaskInstanceExecutor.this.attemptService.getLastOne(instanceId);
+            }
+            if ((attempt == null) || (attempt.getStatus() == AttemptStatus.FAILED)
+                || (attempt.getStatus() == AttemptStatus.COMPLETE_WITH_UNKNOWN_STATUS)) {
+                // 失败时，尝试重试的逻辑
+                // -- 重试次数未满
+                // --- 未取消，则重试
+                // --- 已取消，则cancelled
+                // -- 重试次数已满，则failed
+                if (pair.attemptCount < 0) {
+                    pair.attemptCount = DefaultTaskInstanceExecutor.this.attemptService.countActive(instanceId);
+                }
+                int retryTimes = task.getRetryTimes();
+                if (pair.attemptCount < (retryTimes + 1)) {
+                    if (!isCancelled) {
+                        int priority = task.getPriority() == null ? 0 : task.getPriority();
+                        DefaultTaskInstanceExecutor.this.admissionQueue.offer(pair, pair.teamId, priority,
+                                                                              System.currentTimeMillis());
+                        pair.queued = true;
+                    } else {
+                        endWithCancelled(instanceId);
                     }
+                } else {
+                    endWithFailed(instanceId);
                 }
+            } else if (attempt.getStatus() == AttemptStatus.SUCCESS) {
+                endWithSuccess(instanceId);
+                notifySuccessIfTimeout(pair);
+            } else if (attempt.getStatus() == AttemptStatus.CANCELLED) {
+                endWithCancelled(instanceId);
+            }
+        }
 
+        /**
+         * 派发准入队列中有名额的instance，创建attempt并提交
+         */
+        private void dispatch() {
+            Pair pair;
+            while ((pair = DefaultTaskInstanceExecutor.this.admissionQueue.poll(System.currentTimeMillis())) != null) {
+                pair.queued = false;
+                pair.admitted = true;
+                Task task = pair.task;
+                Attempt attempt0 = new Attempt();
+                attempt0.setStatus(AttemptStatus.RUNNING);
+                attempt0.setAgentId(task.getAgentId());
+                attempt0.setTaskId(task.getId());
+                attempt0.setInstanceId(pair.instance.getId());
+                attempt0.setStartTime(new Date());
+                attempt0.setActive(true);
                 try {
-                    TimeUnit.MILLISECONDS.sleep(100);
-                } catch (InterruptedException e) {
-                    // ignored
+                    DefaultTaskInstanceExecutor.this.attemptExecutor.submit(attempt0);
+                } catch (RuntimeException e) {
+                    // 名额在下次检查该instance时归还，并重新排队
+                    LOGGER.error("Error when submit attempt of instance " + pair.instance.getId(), e);
+                    continue;
                 }
+                pair.lastAttemptId = attempt0.getId();
+                pair.attemptCount++;
             }
         }
 
@@ -215,19 +408,36 @@ public class DefaultTaskInstanceExecutor implements TaskInstanceExecutor {
     }
 
     private void endWithSuccess(long instanceId) {
-        DefaultTaskInstanceExecutor.this.instanceService.updateStatus(instanceId, TaskInstanceStatus.SUCCESS);
+        DefaultTaskInstanceExecutor.this.statusWriter.updateInstanceStatus(instanceId, TaskInstanceStatus.SUCCESS);
         DefaultTaskInstanceExecutor.this.instanceMap.remove(instanceId);
+        fireCompleted(instanceId, TaskInstanceStatus.SUCCESS);
     }
 
     private void endWithFailed(long instanceId) {
-        DefaultTaskInstanceExecutor.this.instanceService.updateStatus(instanceId, TaskInstanceStatus.FAILED);
+        DefaultTaskInstanceExecutor.this.statusWriter.updateInstanceStatus(instanceId, TaskInstanceStatus.FAILED);
         DefaultTaskInstanceExecutor.this.instanceMap.remove(instanceId);
         this.noticeService.taskFail(instanceId);
+        fireCompleted(instanceId, TaskInstanceStatus.FAILED);
     }
 
     private void endWithCancelled(long instanceId) {
-        DefaultTaskInstanceExecutor.this.instanceService.updateStatus(instanceId, TaskInstanceStatus.CANCELLED);
+        DefaultTaskInstanceExecutor.this.statusWriter.updateInstanceStatus(instanceId, TaskInstanceStatus.CANCELLED);
         DefaultTaskInstanceExecutor.this.instanceMap.remove(instanceId);
+        fireCompleted(instanceId, TaskInstanceStatus.CANCELLED);
+    }
+
+    public void addListener(TaskInstanceListener listener) {
+        this.listeners.add(listener);
+    }
+
+    private void fireCompleted(long instanceId, TaskInstanceStatus status) {
+        for (TaskInstanceListener listener : this.listeners) {
+            try {
+                listener.onCompleted(instanceId, status);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error when notify task instance completed", e);
+            }
+        }
     }
 
     // private void endWithUnknown(long instanceId) {
@@ -244,19 +454,51 @@ public class DefaultTaskInstanceExecutor implements TaskInstanceExecutor {
         }
     }
 
+    private static class Event {
+
+        final long    instanceId;
+        final Attempt attempt;
+
+        Event(long instanceId, Attempt attempt) {
+            this.instanceId = instanceId;
+            this.attempt = attempt;
+        }
+    }
+
     private static class Pair {
 
         Task         task;
         TaskInstance instance;
+        long         teamId;
         boolean      timeout;
-
-        public Pair(Task task, TaskInstance instance) {
+        /** 已有的active attempt数，-1表示未知，需要从db查 */
+        int          attemptCount = -1;
+        /** 最近一次提交的attempt的id */
+        Long         lastAttemptId;
+        /** 是否在准入队列中等待 */
+        boolean      queued;
+        /** 是否占用了准入队列的运行名额 */
+        boolean      admitted;
+
+        public Pair(Task task, TaskInstance instance, long teamId) {
             super();
             this.task = task;
             this.instance = instance;
+            this.teamId = teamId;
         }
     }
 
+    public String getMetricsName() {
+        return "taskInstanceExecutor";
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("runningInstances", this.instanceMap.size());
+        metrics.put("admission", this.admissionQueue.getMetrics());
+        return metrics;
+    }
+
     private boolean isRunning(long instanceId) {
         Pair pair = this.instanceMap.get(instanceId);
         return (pair != null) && (pair.instance.getStatus() == TaskInstanceStatus.RUNNING);
@@ -297,6 +539,7 @@ public class DefaultTaskInstanceExecutor implements TaskInstanceExecutor {
         if (pair != null) {
             if (!pair.instance.getStatus().isCompleted()) {
                 this.instancesToBeCancel.add(instanceId);
+                this.events.offer(new Event(instanceId, null));
             }
         }
     }
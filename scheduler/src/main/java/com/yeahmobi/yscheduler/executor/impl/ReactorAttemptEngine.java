@@ -0,0 +1,77 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.yeahmobi.yscheduler.executor.AttemptStateMachine;
+
+/**
+ * 少量线程驱动所有attempt的状态机：每步执行完后按返回的延迟重新排入定时队列，等待期间不占用线程，
+ * 因此运行中的attempt数不受线程数限制
+ */
+public class ReactorAttemptEngine extends AbstractAttemptEngine {
+
+    private static final Logger               LOGGER = LoggerFactory.getLogger(ReactorAttemptEngine.class);
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    public ReactorAttemptEngine(int threads) {
+        this.executor = new ScheduledThreadPoolExecutor(threads, new CustomizableThreadFactory("attempt-reactor-"));
+    }
+
+    public void execute(AttemptStateMachine machine) {
+        onQueued();
+        this.executor.execute(new Driver(machine, System.currentTimeMillis()));
+    }
+
+    @Override
+    protected String getMode() {
+        return "reactor";
+    }
+
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    private class Driver implements Runnable {
+
+        private final AttemptStateMachine machine;
+        private final long                submitTime;
+        private boolean                   started;
+
+        Driver(AttemptStateMachine machine, long submitTime) {
+            this.machine = machine;
+            this.submitTime = submitTime;
+        }
+
+        public void run() {
+            if (!this.started) {
+                this.started = true;
+                onAdmitted(this.submitTime);
+            }
+            long delay;
+            try {
+                delay = this.machine.step();
+            } catch (RuntimeException e) {
+                LOGGER.error("Error when execute attempt", e);
+                delay = -1;
+            }
+            if (delay < 0) {
+                onFinished();
+                return;
+            }
+            try {
+                ReactorAttemptEngine.this.executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 已关闭
+                onFinished();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import com.yeahmobi.yscheduler.metrics.MetricsSource;
+import com.yeahmobi.yscheduler.model.Attempt;
+import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.service.AttemptService;
+import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+
+/**
+ * 合并attempt和task instance的状态写库：同一行在一个周期内的多次更新只保留最新值，
+ * 每隔interval以JDBC batch在一个事务中写出。<br>
+ * 结束状态以及恢复时必须看到的修改(如attempt的transactionId)用flushNow=true提交，在调用线程上立即写出这一行，
+ * 连同它之前缓存的修改一起。写库串行进行，后提交的值不会被先提交的覆盖；写失败的修改放回缓存，下次重试。
+ */
+@Service
+public class StatusWriter implements MetricsSource {
+
+    private static final Logger      LOGGER           = LoggerFactory.getLogger(StatusWriter.class);
+
+    /** 定时写库的间隔，运行中的attempt每5秒轮询一次duration，间隔越长合并得越多 */
+    private final long               interval         = Long.parseLong(System.getProperty("ysheduler.statusWriter.interval",
+                                                                                          "10000"));
+
+    // <attemptId,待写的修改>，由lock保护
+    private Map<Long, Attempt>       pendingAttempts  = new LinkedHashMap<Long, Attempt>();
+
+    // <instanceId,待写的修改>，由lock保护
+    private Map<Long, TaskInstance>  pendingInstances = new LinkedHashMap<Long, TaskInstance>();
+
+    private final Object             lock             = new Object();
+
+    // 保证写库串行
+    private final Object             flushLock        = new Object();
+
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    private AttemptService           attemptService;
+
+    @Autowired
+    private TaskInstanceService      instanceService;
+
+    private final AtomicLong         submitted        = new AtomicLong();
+
+    private final AtomicLong         written          = new AtomicLong();
+
+    private final AtomicLong         batches          = new AtomicLong();
+
+    private final AtomicLong         failures         = new AtomicLong();
+
+    public StatusWriter() {
+    }
+
+    StatusWriter(AttemptService attemptService, TaskInstanceService instanceService) {
+        this.attemptService = attemptService;
+        this.instanceService = instanceService;
+    }
+
+    @PostConstruct
+    public void init() {
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("status-writer-"));
+        this.flusher.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error when flush status", e);
+                }
+            }
+        }, this.interval, this.interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        this.flusher.shutdownNow();
+        flush();
+    }
+
+    /**
+     * 提交attempt的修改，只取执行过程中会变化的字段，attempt对象本身可以继续修改
+     */
+    public void updateAttempt(Attempt attempt, boolean flushNow) {
+        Attempt record = new Attempt();
+        record.setId(attempt.getId());
+        record.setAgentId(attempt.getAgentId());
+        record.setTransactionId(attempt.getTransactionId());
+        record.setStatus(attempt.getStatus());
+        record.setReturnValue(attempt.getReturnValue());
+        record.setStartTime(attempt.getStartTime());
+        record.setEndTime(attempt.getEndTime());
+        record.setDuration(attempt.getDuration());
+        record.setOutput(attempt.getOutput());
+        record.setUpdateTime(new Date());
+        this.submitted.incrementAndGet();
+        if (!flushNow) {
+            synchronized (this.lock) {
+                mergeAttempt(this.pendingAttempts, record);
+            }
+            return;
+        }
+        synchronized (this.flushLock) {
+            Map<Long, Attempt> attempts = new LinkedHashMap<Long, Attempt>();
+            synchronized (this.lock) {
+                Attempt old = this.pendingAttempts.remove(record.getId());
+                if (old != null) {
+                    attempts.put(old.getId(), old);
+                }
+            }
+            mergeAttempt(attempts, record);
+            write(attempts, new LinkedHashMap<Long, TaskInstance>());
+        }
+    }
+
+    /**
+     * 提交task instance的状态，与TaskInstanceService.updateStatus相同，开始和结束时间取提交时的时间；结束状态立即写出
+     */
+    public void updateInstanceStatus(long instanceId, TaskInstanceStatus status) {
+        Date now = new Date();
+        TaskInstance record = new TaskInstance();
+        record.setId(instanceId);
+        record.setStatus(status);
+        record.setUpdateTime(now);
+        if (status.isCompleted()) {
+            record.setEndTime(now);
+        } else if (TaskInstanceStatus.RUNNING.equals(status)) {
+            record.setStartTime(now);
+        }
+        this.submitted.incrementAndGet();
+        if (!status.isCompleted()) {
+            synchronized (this.lock) {
+                mergeInstance(this.pendingInstances, record);
+            }
+            return;
+        }
+        synchronized (this.flushLock) {
+            Map<Long, TaskInstance> instances = new LinkedHashMap<Long, TaskInstance>();
+            synchronized (this.lock) {
+                TaskInstance old = this.pendingInstances.remove(record.getId());
+                if (old != null) {
+                    instances.put(old.getId(), old);
+                }
+            }
+            mergeInstance(instances, record);
+            write(new LinkedHashMap<Long, Attempt>(), instances);
+        }
+    }
+
+    /**
+     * 写出所有缓存的修改，失败时放回缓存并抛出异常
+     */
+    void flush() {
+        synchronized (this.flushLock) {
+            Map<Long, Attempt> attempts;
+            Map<Long, TaskInstance> instances;
+            synchronized (this.lock) {
+                if (this.pendingAttempts.isEmpty() && this.pendingInstances.isEmpty()) {
+                    return;
+                }
+                attempts = this.pendingAttempts;
+                instances = this.pendingInstances;
+                this.pendingAttempts = new LinkedHashMap<Long, Attempt>();
+                this.pendingInstances = new LinkedHashMap<Long, TaskInstance>();
+            }
+            write(attempts, instances);
+        }
+    }
+
+    /**
+     * 持有flushLock时调用，写失败的修改放回缓存，之后又提交的修改更新，覆盖在上面
+     */
+    private void write(Map<Long, Attempt> attempts, Map<Long, TaskInstance> instances) {
+        try {
+            if (!attempts.isEmpty()) {
+                this.attemptService.updateBatch(new ArrayList<Attempt>(attempts.values()));
+                this.batches.incrementAndGet();
+                this.written.addAndGet(attempts.size());
+                attempts.clear();
+            }
+            if (!instances.isEmpty()) {
+                this.instanceService.updateBatch(new ArrayList<TaskInstance>(instances.values()));
+                this.batches.incrementAndGet();
+                this.written.addAndGet(instances.size());
+            }
+        } catch (RuntimeException e) {
+            this.failures.incrementAndGet();
+            synchronized (this.lock) {
+                for (Attempt attempt : this.pendingAttempts.values()) {
+                    mergeAttempt(attempts, attempt);
+                }
+                for (TaskInstance instance : this.pendingInstances.values()) {
+                    mergeInstance(instances, instance);
+                }
+                this.pendingAttempts = attempts;
+                this.pendingInstances = instances;
+            }
+            throw e;
+        }
+    }
+
+    private static void mergeAttempt(Map<Long, Attempt> pending, Attempt record) {
+        Attempt old = pending.get(record.getId());
+        if (old == null) {
+            pending.put(record.getId(), record);
+            return;
+        }
+        if (record.getAgentId() != null) {
+            old.setAgentId(record.getAgentId());
+        }
+        if (record.getTransactionId() != null) {
+            old.setTransactionId(record.getTransactionId());
+        }
+        if (record.getStatus() != null) {
+            old.setStatus(record.getStatus());
+        }
+        if (record.getReturnValue() != null) {
+            old.setReturnValue(record.getReturnValue());
+        }
+        if (record.getStartTime() != null) {
+            old.setStartTime(record.getStartTime());
+        }
+        if (record.getEndTime() != null) {
+            old.setEndTime(record.getEndTime());
+        }
+        if (record.getDuration() != null) {
+            old.setDuration(record.getDuration());
+        }
+        if (record.getOutput() != null) {
+            old.setOutput(record.getOutput());
+        }
+        old.setUpdateTime(record.getUpdateTime());
+    }
+
+    private static void mergeInstance(Map<Long, TaskInstance> pending, TaskInstance record) {
+        TaskInstance old = pending.get(record.getId());
+        if (old == null) {
+            pending.put(record.getId(), record);
+            return;
+        }
+        old.setStatus(record.getStatus());
+        if (record.getStartTime() != null) {
+            old.setStartTime(record.getStartTime());
+        }
+        if (record.getEndTime() != null) {
+            old.setEndTime(record.getEndTime());
+        }
+        old.setUpdateTime(record.getUpdateTime());
+    }
+
+    public String getMetricsName() {
+        return "statusWriter";
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        synchronized (this.lock) {
+            metrics.put("pendingAttempts", this.pendingAttempts.size());
+            metrics.put("pendingInstances", this.pendingInstances.size());
+        }
+        metrics.put("submitted", this.submitted.get());
+        metrics.put("written", this.written.get());
+        metrics.put("batches", this.batches.get());
+        metrics.put("failures", this.failures.get());
+        return metrics;
+    }
+}
@@ -1,5 +1,6 @@
 package com.yeahmobi.yscheduler.loadbalance;
 
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
 import com.yeahmobi.yscheduler.model.Agent;
 
 public interface AgentLoadbalance {
@@ -8,4 +9,15 @@ public interface AgentLoadbalance {
     /** 从指定agent group组获取可用一个agent(排除disable和非active的) */
     Agent getActiveAgent(long teamId);
 
+    /** attempt开始在agent上运行，包括指定了agent和恢复的attempt，与onFinished成对调用 */
+    void onStarted(long agentId);
+
+    void onFinished(long agentId);
+
+    /** agent上报的负载 */
+    void onLoadReported(long agentId, AgentLoad load);
+
+    /** 提交时agent返回BUSY，名额已满 */
+    void onBusy(long agentId);
+
 }
@@ -0,0 +1,298 @@
+package com.yeahmobi.yscheduler.loadbalance.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Service;
+
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+import com.yeahmobi.yscheduler.loadbalance.AgentLoadbalance;
+import com.yeahmobi.yscheduler.metrics.MetricsSource;
+import com.yeahmobi.yscheduler.model.Agent;
+import com.yeahmobi.yscheduler.model.common.AgentChangedEvent;
+import com.yeahmobi.yscheduler.model.service.AgentService;
+import com.yeahmobi.yscheduler.monitor.ActiveAgentManager;
+
+/**
+ * 按负载选择agent：负载分 = max(本节点在该agent上运行中的attempt数, agent上报的运行中transaction数)
+ * + agent上排队的transaction数 + CPU_WEIGHT * cpu负载 + MEMORY_WEIGHT * 内存使用率，上报超过REPORT_EXPIRE未更新的部分不计；
+ * 名额已满(上报的运行数达到上限，或提交时agent返回BUSY)的再加FULL_PENALTY，排在未满的后面。<br>
+ * 策略(ysheduler.loadbalance.strategy)：leastLoaded选team内负载分最小的agent，分数相同的轮流选；
+ * p2c随机取两个选负载分小的，agent很多时开销固定；roundRobin按team轮询，不看负载。<br>
+ * team的enable agent列表缓存在内存中，agent变化(AgentChangedEvent)时失效，另每隔CACHE_EXPIRE重新加载，
+ * 以便感知其他调度节点上的修改；是否active在每次选择时判断。
+ */
+@Service
+public class LoadAwareAgentLoadbalance implements AgentLoadbalance, MetricsSource,
+                                       ApplicationListener<AgentChangedEvent> {
+
+    private static final Logger                          LOGGER        = LoggerFactory.getLogger(LoadAwareAgentLoadbalance.class);
+
+    static final String                                  LEAST_LOADED  = "leastLoaded";
+
+    static final String                                  P2C           = "p2c";
+
+    static final String                                  ROUND_ROBIN   = "roundRobin";
+
+    /** cpu负载为1(满负荷)时相当于多运行的attempt数 */
+    private static final double                          CPU_WEIGHT    = 4;
+
+    /** 内存用满时相当于多运行的attempt数 */
+    private static final double                          MEMORY_WEIGHT = 4;
+
+    private static final long                            REPORT_EXPIRE = 60 * 1000L;
+
+    /** 名额已满的agent额外的负载分，team内都满时仍选分数最小的 */
+    private static final double                          FULL_PENALTY  = 1000;
+
+    /** 返回BUSY后，在BUSY_EXPIRE内或下次上报负载前视为已满 */
+    private static final long                            BUSY_EXPIRE   = 10 * 1000L;
+
+    private static final long                            CACHE_EXPIRE  = 60 * 1000L;
+
+    private final String                                 strategy;
+
+    /** agentId -> 本节点在该agent上运行中的attempt数 */
+    private final ConcurrentHashMap<Long, AtomicInteger> inflights     = new ConcurrentHashMap<Long, AtomicInteger>();
+
+    /** agentId -> 最近一次上报的负载 */
+    private final Map<Long, Report>                      reports       = new ConcurrentHashMap<Long, Report>();
+
+    /** agentId -> 最近一次返回BUSY的时间 */
+    private final Map<Long, Long>                        busyTimes     = new ConcurrentHashMap<Long, Long>();
+
+    /** teamId -> enable的agent列表 */
+    private final Map<Long, TeamAgents>                  teamAgents    = new ConcurrentHashMap<Long, TeamAgents>();
+
+    /** 每次失效加1，加载期间发生过失效的结果不放入缓存 */
+    private final AtomicLong                             generation    = new AtomicLong();
+
+    /** teamId -> 轮询计数 */
+    private final ConcurrentHashMap<Long, AtomicInteger> counters      = new ConcurrentHashMap<Long, AtomicInteger>();
+
+    private final Random                                 random        = new Random();
+
+    @Autowired
+    private ActiveAgentManager                           activeAgentManager;
+
+    @Autowired
+    private AgentService                                 agentService;
+
+    public LoadAwareAgentLoadbalance() {
+        this(System.getProperty("ysheduler.loadbalance.strategy", LEAST_LOADED));
+    }
+
+    LoadAwareAgentLoadbalance(String strategy) {
+        if (!LEAST_LOADED.equals(strategy) && !P2C.equals(strategy) && !ROUND_ROBIN.equals(strategy)) {
+            LOGGER.warn("Unknown loadbalance strategy '" + strategy + "', use '" + LEAST_LOADED + "' instead");
+            strategy = LEAST_LOADED;
+        }
+        this.strategy = strategy;
+    }
+
+    public Agent getActiveAgent(long teamId) {
+        List<Agent> list = new ArrayList<Agent>();
+        for (Agent agent : getAgents(teamId)) {
+            if (this.activeAgentManager.isActive(agent.getId())) {
+                list.add(agent);
+            }
+        }
+        if (list.size() == 0) {
+            throw new IllegalStateException(String.format("No active agent by team(%s)", teamId));
+        }
+        return select(teamId, list);
+    }
+
+    /**
+     * 按策略从candidates(非空)中选一个
+     */
+    Agent select(long teamId, List<Agent> candidates) {
+        int size = candidates.size();
+        int start = nextIndex(teamId);
+        if ((size == 1) || ROUND_ROBIN.equals(this.strategy)) {
+            return candidates.get(start % size);
+        }
+        if (P2C.equals(this.strategy)) {
+            // 不重复地随机取两个
+            int i = this.random.nextInt(size);
+            int j = this.random.nextInt(size - 1);
+            if (j >= i) {
+                j++;
+            }
+            Agent first = candidates.get(i);
+            Agent second = candidates.get(j);
+            return score(second.getId()) < score(first.getId()) ? second : first;
+        }
+        // 从轮询位置开始找，分数相同时不总是落在列表前面的agent上
+        Agent best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Agent agent = candidates.get((start + i) % size);
+            double score = score(agent.getId());
+            if (score < bestScore) {
+                best = agent;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private int nextIndex(long teamId) {
+        AtomicInteger counter = this.counters.get(teamId);
+        if (counter == null) {
+            counter = new AtomicInteger();
+            AtomicInteger old = this.counters.putIfAbsent(teamId, counter);
+            if (old != null) {
+                counter = old;
+            }
+        }
+        return counter.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    double score(long agentId) {
+        AtomicInteger inflight = this.inflights.get(agentId);
+        double tasks = inflight == null ? 0 : inflight.get();
+        double score = 0;
+        long now = System.currentTimeMillis();
+        Long busyTime = this.busyTimes.get(agentId);
+        boolean full = (busyTime != null) && ((now - busyTime) <= BUSY_EXPIRE);
+        Report report = this.reports.get(agentId);
+        if ((report != null) && ((now - report.time) <= REPORT_EXPIRE)) {
+            // 上报的数量包含其他调度节点提交的transaction，本节点刚提交的可能还没有算进去，取大的
+            tasks = Math.max(tasks, report.load.getRunningTasks()) + report.load.getPendingTasks();
+            int maxTasks = report.load.getMaxTasks();
+            if ((maxTasks > 0) && (report.load.getRunningTasks() >= maxTasks)) {
+                full = true;
+            }
+            if (report.load.getCpuLoad() > 0) {
+                score += CPU_WEIGHT * report.load.getCpuLoad();
+            }
+            if (report.load.getMemoryUsage() > 0) {
+                score += MEMORY_WEIGHT * report.load.getMemoryUsage();
+            }
+        }
+        if (full) {
+            score += FULL_PENALTY;
+        }
+        return score + tasks;
+    }
+
+    private List<Agent> getAgents(long teamId) {
+        long now = System.currentTimeMillis();
+        TeamAgents cached = this.teamAgents.get(teamId);
+        if ((cached != null) && ((now - cached.loadTime) <= CACHE_EXPIRE)) {
+            return cached.agents;
+        }
+        long gen = this.generation.get();
+        List<Agent> agents = Collections.unmodifiableList(this.agentService.list(teamId, true));
+        if (gen == this.generation.get()) {
+            this.teamAgents.put(teamId, new TeamAgents(agents, now));
+        }
+        return agents;
+    }
+
+    public void onApplicationEvent(AgentChangedEvent event) {
+        // 修改team后原team和新team的列表都会变，直接全部失效
+        this.generation.incrementAndGet();
+        this.teamAgents.clear();
+    }
+
+    public void onStarted(long agentId) {
+        AtomicInteger inflight = this.inflights.get(agentId);
+        if (inflight == null) {
+            inflight = new AtomicInteger();
+            AtomicInteger old = this.inflights.putIfAbsent(agentId, inflight);
+            if (old != null) {
+                inflight = old;
+            }
+        }
+        inflight.incrementAndGet();
+    }
+
+    public void onFinished(long agentId) {
+        AtomicInteger inflight = this.inflights.get(agentId);
+        if (inflight != null) {
+            inflight.decrementAndGet();
+        }
+    }
+
+    public void onLoadReported(long agentId, AgentLoad load) {
+        this.reports.put(agentId, new Report(load, System.currentTimeMillis()));
+        this.busyTimes.remove(agentId);
+    }
+
+    public void onBusy(long agentId) {
+        this.busyTimes.put(agentId, System.currentTimeMillis());
+    }
+
+    public String getMetricsName() {
+        return "agentLoadbalance";
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("strategy", this.strategy);
+        metrics.put("cachedTeams", this.teamAgents.size());
+        Map<Long, Map<String, Object>> agents = new TreeMap<Long, Map<String, Object>>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, AtomicInteger> entry : this.inflights.entrySet()) {
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            item.put("inflight", entry.getValue().get());
+            agents.put(entry.getKey(), item);
+        }
+        for (Map.Entry<Long, Report> entry : this.reports.entrySet()) {
+            Map<String, Object> item = agents.get(entry.getKey());
+            if (item == null) {
+                item = new LinkedHashMap<String, Object>();
+                item.put("inflight", 0);
+                agents.put(entry.getKey(), item);
+            }
+            AgentLoad load = entry.getValue().load;
+            item.put("reportedRunning", load.getRunningTasks());
+            item.put("reportedPending", load.getPendingTasks());
+            item.put("maxTasks", load.getMaxTasks());
+            item.put("cpuLoad", load.getCpuLoad());
+            item.put("memoryUsage", load.getMemoryUsage());
+            item.put("reportAgeMs", now - entry.getValue().time);
+        }
+        for (Map.Entry<Long, Map<String, Object>> entry : agents.entrySet()) {
+            entry.getValue().put("score", score(entry.getKey()));
+        }
+        metrics.put("agents", agents);
+        return metrics;
+    }
+
+    private static class Report {
+
+        final AgentLoad load;
+        final long      time;
+
+        Report(AgentLoad load, long time) {
+            this.load = load;
+            this.time = time;
+        }
+    }
+
+    private static class TeamAgents {
+
+        final List<Agent> agents;
+        final long        loadTime;
+
+        TeamAgents(List<Agent> agents, long loadTime) {
+            this.agents = agents;
+            this.loadTime = loadTime;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.yeahmobi.yscheduler.metrics;
+
+import java.util.Map;
+
+/**
+ * 对外暴露运行指标的组件，由web的metrics接口统一汇总输出
+ */
+public interface MetricsSource {
+
+    String getMetricsName();
+
+    Map<String, Object> getMetrics();
+
+}
@@ -12,6 +12,14 @@ public interface ActiveAgentManager {
 
     void heartbeat(long agentId);
 
+    /**
+     * agent主动发送的心跳，按名字找agent
+     *
+     * @return agentId
+     * @throws IllegalArgumentException 找不到对应的agent
+     */
+    long heartbeat(String agentName, String agentVersion);
+
     public boolean isActive(long agentId);
 
     List<Agent> getActiveList(long teamId);
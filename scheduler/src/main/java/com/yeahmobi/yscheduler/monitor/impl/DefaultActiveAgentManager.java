@@ -1,38 +1,93 @@
 package com.yeahmobi.yscheduler.monitor.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import com.yeahmobi.yscheduler.metrics.MetricsSource;
 import com.yeahmobi.yscheduler.model.Agent;
+import com.yeahmobi.yscheduler.model.common.AgentChangedEvent;
 import com.yeahmobi.yscheduler.model.service.AgentService;
+import com.yeahmobi.yscheduler.model.service.TaskService;
 import com.yeahmobi.yscheduler.monitor.ActiveAgentManager;
 
+/**
+ * agent存活表：心跳只更新内存，超过thresholdMillis没有心跳的agent视为不可用。<br>
+ * 每隔FLUSH_INTERVAL把变化批量写回agent表：版本变化、存活状态变化，以及每个agent每PERSIST_INTERVAL最多一次的heartbeat_time；
+ * 同时读回其他调度节点写入的heartbeat_time，心跳发到任一节点，各节点都能看到。<br>
+ * 原生心跳按agent名字查找，找不到的名字记下来，直到下次flush或agent变化前不再查库。<br>
+ * agent开始发送原生心跳后，暂停它原来用于心跳的定时任务；agent变为不可用时重新开启，原生心跳停止(如agent回退版本)后仍能靠定时任务恢复。
+ */
 @Service
-public class DefaultActiveAgentManager implements ActiveAgentManager {
+public class DefaultActiveAgentManager implements ActiveAgentManager, MetricsSource,
+                                       ApplicationListener<AgentChangedEvent> {
 
-    /** 30min 清理一下过期数据 */
-    private static final int              CLEAR_INTERVAL            = 30 * 60 * 1000;
+    private static final Logger                     LOGGER           = LoggerFactory.getLogger(DefaultActiveAgentManager.class);
 
-    // <agentId,lastHeartbeatTime>
-    private ConcurrentHashMap<Long, Long> agentId2LastHeartbeatTime = new ConcurrentHashMap<Long, Long>();
+    private static final long                       FLUSH_INTERVAL   = 15 * 1000L;
 
-    // <agentId,version+putTime>
-    private ConcurrentHashMap<Long, Pair> agentId2Version           = new ConcurrentHashMap<Long, Pair>();
+    /** heartbeat_time的写库间隔，需明显小于thresholdMillis，其他节点才能据此判断存活 */
+    private static final long                       PERSIST_INTERVAL = 60 * 1000L;
+
+    /** 最多记住的未知名字数，超过时清空，避免随意的名字占满内存 */
+    private static final int                        UNKNOWN_LIMIT    = 10000;
+
+    /** 是否在收到原生心跳后暂停agent的心跳任务 */
+    private final boolean                           pauseTask        = Boolean.parseBoolean(System.getProperty("ysheduler.agent.pauseHeartbeatTask",
+                                                                                                               "true"));
+
+    // <agentId,存活信息>
+    private final ConcurrentHashMap<Long, Liveness> livenesses       = new ConcurrentHashMap<Long, Liveness>();
+
+    // <name,agentId>，flush时刷新
+    private volatile Map<String, Long>              nameToId         = Collections.emptyMap();
+
+    /** 库中找不到的agent名字，flush或agent变化时清空 */
+    private final Set<String>                       unknownNames     = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** 开始发送原生心跳、心跳任务待暂停的agent */
+    private final Set<Long>                         nativeAgents     = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final AtomicLong                        nativeHeartbeats = new AtomicLong();
+
+    private final AtomicLong                        taskHeartbeats   = new AtomicLong();
+
+    private final AtomicLong                        dbWrites         = new AtomicLong();
+
+    private volatile long                           lastFlushTime;
+
+    private ScheduledExecutorService                flusher;
 
     @Autowired
-    private AgentService                  agentService;
+    private AgentService                            agentService;
 
-    // default 3min
-    private long                          thresholdMillis           = 180000;
+    @Autowired
+    private TaskService                             taskService;
 
-    private long                          lastClearTime             = System.currentTimeMillis();
+    // default 3min
+    private long                                    thresholdMillis  = 180000;
 
     // 从数据库加载所有agent(enable)
     // 加载后，默认都是active的agent
@@ -43,78 +98,112 @@ public class DefaultActiveAgentManager implements ActiveAgentManager {
         long curTime = System.currentTimeMillis();
         for (Agent agent : list) {
             if (agent.getEnable()) {
-                this.agentId2LastHeartbeatTime.put(agent.getId(), curTime);
+                this.livenesses.put(agent.getId(), new Liveness(curTime));
+            }
+        }
+        refreshIndex(list);
+        this.lastFlushTime = curTime;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("agent-liveness-flusher-"));
+        this.flusher.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error when flush agent liveness", e);
+                }
             }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        this.flusher.shutdownNow();
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.error("Error when flush agent liveness", e);
         }
     }
 
     // 新增agent后，agent heartbeat会出现，进而会调用该方法，此时能自动追加active列表（所以在agent时，无须处理）
     public void heartbeat(long agentId) {
-        long curTime = System.currentTimeMillis();
-        this.agentId2LastHeartbeatTime.put(agentId, curTime);
-
-        // 每30分钟，清理一次数据(把过期的清除)
-        if ((curTime - this.lastClearTime) > CLEAR_INTERVAL) {
-            for (Long agentId0 : this.agentId2LastHeartbeatTime.keySet()) {
-                Long lastHeartbeatTime = this.agentId2LastHeartbeatTime.get(agentId0);
-                if (lastHeartbeatTime != null) {
-                    long duration = System.currentTimeMillis() - lastHeartbeatTime;
-                    if (duration > this.thresholdMillis) {
-                        this.agentId2LastHeartbeatTime.remove(agentId0);
-                    }
-                }
+        this.taskHeartbeats.incrementAndGet();
+        touch(agentId, null);
+    }
+
+    public long heartbeat(String agentName, String agentVersion) {
+        Long agentId = findAgentId(agentName);
+        if (agentId == null) {
+            throw new IllegalArgumentException(String.format("Agent(name=%s) not found", agentName));
+        }
+        this.nativeHeartbeats.incrementAndGet();
+        Liveness liveness = touch(agentId, agentVersion);
+        if (!liveness.nativeHeartbeat) {
+            liveness.nativeHeartbeat = true;
+            if (this.pauseTask) {
+                this.nativeAgents.add(agentId);
             }
-            this.lastClearTime = curTime;
         }
+        return agentId;
     }
 
-    public void checkAndUpdateAgentVersion(long agentId, String agentVersion) {
-        if (StringUtils.isNotBlank(agentVersion)) {
-            if (this.agentId2Version.containsKey(agentId)) {
-                if (!this.agentId2Version.get(agentId).getVersion().equals(agentVersion)) {
-                    this.agentService.updateVersion(agentId, agentVersion);
-                    this.agentId2Version.put(agentId, this.agentId2Version.get(agentId).updateVersion(agentVersion));
-                }
-            } else {
-                String version = this.agentService.get(agentId).getVersion();
-                if (!agentVersion.equals(version)) {
-                    this.agentService.updateVersion(agentId, agentVersion);
-                }
-                this.agentId2Version.put(agentId, new Pair(agentVersion));
-            }
+    private Long findAgentId(String agentName) {
+        if (StringUtils.isBlank(agentName)) {
+            return null;
+        }
+        Long agentId = this.nameToId.get(agentName);
+        if ((agentId != null) || this.unknownNames.contains(agentName)) {
+            return agentId;
+        }
+        // 新增的agent，下次flush之前索引中还没有
+        Agent agent = this.agentService.get(agentName);
+        if (agent != null) {
+            return agent.getId();
+        }
+        if (this.unknownNames.size() >= UNKNOWN_LIMIT) {
+            this.unknownNames.clear();
         }
-        // 每30分钟，清理一次数据(把过期的清除)
-        clearAgentVersionCache();
+        this.unknownNames.add(agentName);
+        return null;
     }
 
-    private void clearAgentVersionCache() {
+    public void onApplicationEvent(AgentChangedEvent event) {
+        // 新增或改名的agent可能在其中
+        this.unknownNames.clear();
+    }
+
+    private Liveness touch(long agentId, String agentVersion) {
         long curTime = System.currentTimeMillis();
-        if ((curTime - this.lastClearTime) > CLEAR_INTERVAL) {
-            for (Long agentId0 : this.agentId2Version.keySet()) {
-                Pair pair = this.agentId2Version.get(agentId0);
-                long duration = System.currentTimeMillis() - pair.putTime;
-                if (duration > CLEAR_INTERVAL) {
-                    this.agentId2Version.remove(agentId0);
-                }
+        Liveness liveness = this.livenesses.get(agentId);
+        if (liveness == null) {
+            liveness = new Liveness(curTime);
+            Liveness old = this.livenesses.putIfAbsent(agentId, liveness);
+            if (old != null) {
+                liveness = old;
             }
-            this.lastClearTime = curTime;
         }
+        liveness.lastSeen = curTime;
+        liveness.beaten = true;
+        if (StringUtils.isNotBlank(agentVersion)) {
+            liveness.version = agentVersion;
+        }
+        return liveness;
     }
 
-    public boolean isActive(long agentId) {
-        Long lastHeartbeatTime = this.agentId2LastHeartbeatTime.get(agentId);
-        if (lastHeartbeatTime == null) {
-            lastHeartbeatTime = -1L;
-        }
-        long duration = System.currentTimeMillis() - lastHeartbeatTime;
-        if (duration > this.thresholdMillis) {
-            this.agentId2LastHeartbeatTime.remove(agentId);
-            return false;
-        } else {
-            return true;
+    public void checkAndUpdateAgentVersion(long agentId, String agentVersion) {
+        // 只记在内存中，由flush写库
+        if (StringUtils.isNotBlank(agentVersion)) {
+            touch(agentId, agentVersion);
         }
     }
 
+    public boolean isActive(long agentId) {
+        Liveness liveness = this.livenesses.get(agentId);
+        return (liveness != null) && ((System.currentTimeMillis() - liveness.lastSeen) <= this.thresholdMillis);
+    }
+
     public void setThresholdMinute(long thresholdMinute) {
         this.thresholdMillis = thresholdMinute * 60 * 1000;
     }
@@ -135,26 +224,137 @@ public class DefaultActiveAgentManager implements ActiveAgentManager {
 
     }
 
-    private static class Pair {
+    /**
+     * 合并库中其他节点写入的心跳时间，再把本节点的变化批量写库
+     */
+    synchronized void flush() {
+        long curTime = System.currentTimeMillis();
+        List<Agent> agents = this.agentService.list();
+        refreshIndex(agents);
 
-        String version;
-        long   putTime;
+        Map<Long, Agent> agentMap = new HashMap<Long, Agent>();
+        List<Agent> updates = new ArrayList<Agent>();
+        List<Agent> dead = new ArrayList<Agent>();
+        for (Agent agent : agents) {
+            agentMap.put(agent.getId(), agent);
+            long persistedSeen = agent.getHeartbeatTime() == null ? 0 : agent.getHeartbeatTime().getTime();
+            Liveness liveness = this.livenesses.get(agent.getId());
+            if (liveness == null) {
+                if ((curTime - persistedSeen) > this.thresholdMillis) {
+                    continue;
+                }
+                liveness = new Liveness(persistedSeen);
+                Liveness old = this.livenesses.putIfAbsent(agent.getId(), liveness);
+                if (old != null) {
+                    liveness = old;
+                }
+            }
+            if (persistedSeen > liveness.lastSeen) {
+                liveness.lastSeen = persistedSeen;
+            }
 
-        public Pair(String version) {
-            super();
-            this.version = version;
-            this.putTime = System.currentTimeMillis();
+            Agent update = new Agent();
+            boolean changed = false;
+            if ((liveness.version != null) && !liveness.version.equals(agent.getVersion())) {
+                update.setVersion(liveness.version);
+                changed = true;
+            }
+            boolean alive = (curTime - liveness.lastSeen) <= this.thresholdMillis;
+            if (!alive) {
+                // 之后再收到原生心跳时重新暂停心跳任务
+                liveness.nativeHeartbeat = false;
+            }
+            if (!Boolean.valueOf(alive).equals(agent.getAlive())) {
+                update.setAlive(alive);
+                changed = true;
+                if (!alive) {
+                    dead.add(agent);
+                }
+            }
+            // 启动时默认存活的agent在收到心跳之前没有真实的心跳时间
+            if (liveness.beaten && ((liveness.lastSeen - persistedSeen) >= PERSIST_INTERVAL)) {
+                update.setHeartbeatTime(new Date(liveness.lastSeen));
+                changed = true;
+            }
+            if (changed) {
+                update.setId(agent.getId());
+                updates.add(update);
+            }
         }
+        // 已删除的agent
+        this.livenesses.keySet().retainAll(agentMap.keySet());
 
-        public Pair updateVersion(String version) {
-            this.version = version;
-            this.putTime = System.currentTimeMillis();
-            return this;
+        if (!updates.isEmpty()) {
+            this.agentService.updateHeartbeats(updates);
+            this.dbWrites.addAndGet(updates.size());
         }
 
-        public String getVersion() {
-            return this.version;
+        for (Iterator<Long> it = this.nativeAgents.iterator(); it.hasNext();) {
+            Agent agent = agentMap.get(it.next());
+            it.remove();
+            if (agent != null) {
+                this.taskService.pauseHeartbeatTask(agent.getId(), agent.getName());
+                LOGGER.info("Agent(id={}, name={}) sends native heartbeat, its heartbeat task is paused",
+                            agent.getId(), agent.getName());
+            }
+        }
+        // 由存活变为不可用时开启，只修改已暂停的，多个节点同时开启也没有影响
+        if (this.pauseTask) {
+            for (Agent agent : dead) {
+                this.taskService.resumeHeartbeatTask(agent.getId(), agent.getName());
+            }
+        }
+        this.lastFlushTime = curTime;
+    }
+
+    private void refreshIndex(List<Agent> agents) {
+        Map<String, Long> names = new HashMap<String, Long>();
+        for (Agent agent : agents) {
+            names.put(agent.getName(), agent.getId());
+        }
+        this.nameToId = names;
+        // 其他调度节点新增的agent随索引刷新可见
+        this.unknownNames.clear();
+    }
+
+    public String getMetricsName() {
+        return "activeAgentManager";
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        long curTime = System.currentTimeMillis();
+        int active = 0;
+        int nativeCount = 0;
+        for (Liveness liveness : this.livenesses.values()) {
+            if ((curTime - liveness.lastSeen) <= this.thresholdMillis) {
+                active++;
+            }
+            if (liveness.nativeHeartbeat) {
+                nativeCount++;
+            }
         }
+        metrics.put("agents", this.livenesses.size());
+        metrics.put("active", active);
+        metrics.put("nativeHeartbeatAgents", nativeCount);
+        metrics.put("nativeHeartbeats", this.nativeHeartbeats.get());
+        metrics.put("taskHeartbeats", this.taskHeartbeats.get());
+        metrics.put("dbWrites", this.dbWrites.get());
+        metrics.put("unknownNames", this.unknownNames.size());
+        metrics.put("lastFlushAgoMs", curTime - this.lastFlushTime);
+        return metrics;
+    }
+
+    private static class Liveness {
 
+        volatile long    lastSeen;
+        volatile String  version;
+        /** 是否收到过心跳，启动时默认存活的agent为false */
+        volatile boolean beaten;
+        volatile boolean nativeHeartbeat;
+
+        Liveness(long lastSeen) {
+            this.lastSeen = lastSeen;
+        }
     }
 }
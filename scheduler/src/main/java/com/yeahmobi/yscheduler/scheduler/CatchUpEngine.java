@@ -0,0 +1,285 @@
+package com.yeahmobi.yscheduler.scheduler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.yeahmobi.yscheduler.cluster.PartitionManager;
+import com.yeahmobi.yscheduler.common.CronExpression;
+import com.yeahmobi.yscheduler.common.CrontabUtils;
+import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
+import com.yeahmobi.yscheduler.model.Task;
+import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.Workflow;
+import com.yeahmobi.yscheduler.model.WorkflowInstance;
+import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
+import com.yeahmobi.yscheduler.model.service.TaskService;
+import com.yeahmobi.yscheduler.model.service.WorkflowInstanceService;
+import com.yeahmobi.yscheduler.model.service.WorkflowService;
+import com.yeahmobi.yscheduler.model.type.DependingStatus;
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+import com.yeahmobi.yscheduler.model.type.TaskStatus;
+import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
+import com.yeahmobi.yscheduler.model.type.WorkflowStatus;
+import com.yeahmobi.yscheduler.notice.NoticeService;
+import com.yeahmobi.yscheduler.workflow.WorkflowExecutor;
+
+/**
+ * 调度器停机后，一次性补齐所有task和workflow错过的调度，不再按INTERVAL逐轮回放。<br>
+ * 1. 可跳过（canSkip）的：除最近一次外都记为SKIPPED并发出跳过通知，最近一次留给正常调度（会检查条件和未完成的实例）<br>
+ * 2. 不可跳过且不依赖上次状态的：全部生成READY/INITED，按限速逐个提交执行，避免瞬间压垮agent<br>
+ * 3. 不可跳过且依赖上次状态的：必须串行，仍交给正常调度逐个处理<br>
+ * 实例按批插入，(id, schedule_time)重复的忽略。
+ */
+@Service
+public class CatchUpEngine {
+
+    private static final Logger           LOGGER      = LoggerFactory.getLogger(CatchUpEngine.class);
+
+    /** 每秒最多提交多少个补跑的实例 */
+    private final double                  rate        = Double.parseDouble(System.getProperty("ysheduler.schedule.catchup.rate",
+                                                                                              "10"));
+
+    /** 每批插入的实例数 */
+    private final int                     batchSize   = Integer.parseInt(System.getProperty("ysheduler.schedule.catchup.batchSize",
+                                                                                           "500"));
+
+    private final BlockingQueue<Runnable> submissions = new LinkedBlockingQueue<Runnable>();
+
+    private AtomicBoolean                 closed      = new AtomicBoolean(false);
+
+    private SubmitThread                  submitThread;
+
+    @Autowired
+    private WorkflowExecutor              workflowExecutor;
+
+    @Autowired
+    private WorkflowService               workflowService;
+
+    @Autowired
+    private WorkflowInstanceService       workflowInstanceService;
+
+    @Autowired
+    private TaskInstanceExecutor          taskInstanceExecutor;
+
+    @Autowired
+    private TaskService                   taskService;
+
+    @Autowired
+    private TaskInstanceService           taskInstanceService;
+
+    @Autowired
+    private PartitionManager              partitionManager;
+
+    @Autowired
+    private NoticeService                 noticeService;
+
+    /**
+     * 补齐本节点负责的所有不晚于time的调度，返回生成的实例数
+     */
+    public int catchUp(long time) {
+        long begin = System.currentTimeMillis();
+        int count = 0;
+
+        List<Workflow> workflowList = this.workflowService.listAll(WorkflowStatus.OPEN);
+        if (workflowList != null) {
+            for (Workflow workflow : workflowList) {
+                if (!this.partitionManager.ownsWorkflow(workflow.getId())) {
+                    continue;
+                }
+                try {
+                    count += catchUp(workflow, time);
+                } catch (Exception e) {
+                    LOGGER.error(String.format("Error when catch up workflow(id=%s)", workflow.getId()), e);
+                }
+            }
+        }
+        List<Task> taskList = this.taskService.list(TaskStatus.OPEN);
+        if (taskList != null) {
+            for (Task task : taskList) {
+                if (!this.partitionManager.ownsTask(task.getId())) {
+                    continue;
+                }
+                try {
+                    count += catchUp(task, time);
+                } catch (Exception e) {
+                    LOGGER.error(String.format("Error when catch up task(id=%s)", task.getId()), e);
+                }
+            }
+        }
+
+        if (!this.submissions.isEmpty()) {
+            startSubmitThread();
+        }
+        LOGGER.info(String.format("Catch up to %s done, %s instances created in %s ms, %s to be submitted",
+                                  new Date(time), count, System.currentTimeMillis() - begin, this.submissions.size()));
+        return count;
+    }
+
+    private int catchUp(final Workflow workflow, long time) {
+        boolean canSkip = (workflow.getCanSkip() == null) || workflow.getCanSkip();
+        boolean dependOnLast = (workflow.getLastStatusDependency() != null)
+                               && (workflow.getLastStatusDependency() != DependingStatus.NONE);
+        if (!canSkip && dependOnLast) {
+            return 0;
+        }
+        List<Date> missed = listMissed(workflow.getCrontab(), workflow.getLastScheduleTime(), time);
+        if (canSkip) {
+            // 最近一次交给正常调度
+            if (missed.size() <= 1) {
+                return 0;
+            }
+            missed = missed.subList(0, missed.size() - 1);
+        } else if (missed.isEmpty()) {
+            return 0;
+        }
+
+        WorkflowInstanceStatus status = canSkip ? WorkflowInstanceStatus.SKIPPED : WorkflowInstanceStatus.INITED;
+        List<WorkflowInstance> batch = new ArrayList<WorkflowInstance>(Math.min(missed.size(), this.batchSize));
+        for (Date scheduleTime : missed) {
+            WorkflowInstance instance = new WorkflowInstance();
+            instance.setWorkflowId(workflow.getId());
+            instance.setScheduleTime(scheduleTime);
+            instance.setStatus(status);
+            batch.add(instance);
+            if (batch.size() >= this.batchSize) {
+                this.workflowInstanceService.saveBatch(batch);
+                batch = new ArrayList<WorkflowInstance>(this.batchSize);
+            }
+        }
+        this.workflowInstanceService.saveBatch(batch);
+
+        Date first = missed.get(0);
+        Date last = missed.get(missed.size() - 1);
+        this.workflowService.updateScheduleTime(workflow.getId(), last);
+
+        for (final WorkflowInstance instance : this.workflowInstanceService.listScheduled(workflow.getId(), status,
+                                                                                          first, last)) {
+            if (canSkip) {
+                this.noticeService.workflowSkip(instance.getId(), instance.getScheduleTime());
+            } else {
+                this.submissions.add(new Runnable() {
+
+                    public void run() {
+                        CatchUpEngine.this.workflowExecutor.submit(workflow, instance);
+                    }
+                });
+            }
+        }
+        return missed.size();
+    }
+
+    private int catchUp(Task task, long time) {
+        boolean canSkip = (task.getCanSkip() == null) || task.getCanSkip();
+        boolean dependOnLast = (task.getLastStatusDependency() != null)
+                               && (task.getLastStatusDependency() != DependingStatus.NONE);
+        if (!canSkip && dependOnLast) {
+            return 0;
+        }
+        List<Date> missed = listMissed(task.getCrontab(), task.getLastScheduleTime(), time);
+        if (canSkip) {
+            // 最近一次交给正常调度
+            if (missed.size() <= 1) {
+                return 0;
+            }
+            missed = missed.subList(0, missed.size() - 1);
+        } else if (missed.isEmpty()) {
+            return 0;
+        }
+
+        TaskInstanceStatus status = canSkip ? TaskInstanceStatus.SKIPPED : TaskInstanceStatus.READY;
+        List<TaskInstance> batch = new ArrayList<TaskInstance>(Math.min(missed.size(), this.batchSize));
+        for (Date scheduleTime : missed) {
+            TaskInstance instance = new TaskInstance();
+            instance.setTaskId(task.getId());
+            instance.setScheduleTime(scheduleTime);
+            instance.setStatus(status);
+            batch.add(instance);
+            if (batch.size() >= this.batchSize) {
+                this.taskInstanceService.saveBatch(batch);
+                batch = new ArrayList<TaskInstance>(this.batchSize);
+            }
+        }
+        this.taskInstanceService.saveBatch(batch);
+
+        Date first = missed.get(0);
+        Date last = missed.get(missed.size() - 1);
+        this.taskService.updateLastScheduleTime(task.getId(), last);
+
+        for (final TaskInstance instance : this.taskInstanceService.listScheduled(task.getId(), status, first, last)) {
+            if (canSkip) {
+                this.noticeService.taskSkip(instance.getId(), instance.getScheduleTime());
+            } else {
+                this.submissions.add(new Runnable() {
+
+                    public void run() {
+                        CatchUpEngine.this.taskInstanceExecutor.submit(instance);
+                    }
+                });
+            }
+        }
+        return missed.size();
+    }
+
+    private List<Date> listMissed(String crontab, Date lastScheduleTime, long time) {
+        CronExpression expression = CrontabUtils.compile(crontab);
+        List<Date> result = new ArrayList<Date>();
+        long next = expression.next(lastScheduleTime.getTime());
+        while (next <= time) {
+            result.add(new Date(next));
+            next = expression.next(next);
+        }
+        return result;
+    }
+
+    private synchronized void startSubmitThread() {
+        if (this.submitThread == null) {
+            this.submitThread = new SubmitThread();
+            this.submitThread.setName("catch-up-submitter");
+            this.submitThread.setDaemon(true);
+            this.submitThread.start();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (this.closed.compareAndSet(false, true) && (this.submitThread != null)) {
+            this.submitThread.interrupt();
+        }
+    }
+
+    /**
+     * 按限速提交补跑的实例，提交完即退出；未提交的实例已是READY/INITED，重启后会被各executor重新加载
+     */
+    private class SubmitThread extends Thread {
+
+        @Override
+        public void run() {
+            RateLimiter rateLimiter = RateLimiter.create(CatchUpEngine.this.rate);
+            Runnable submission;
+            while (!CatchUpEngine.this.closed.get() && ((submission = CatchUpEngine.this.submissions.poll()) != null)) {
+                rateLimiter.acquire();
+                try {
+                    submission.run();
+                } catch (Exception e) {
+                    LOGGER.error("Error when submit catch up instance", e);
+                }
+            }
+            synchronized (CatchUpEngine.this) {
+                CatchUpEngine.this.submitThread = null;
+            }
+        }
+    }
+
+}
@@ -1,7 +1,11 @@
 package com.yeahmobi.yscheduler.scheduler;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.LockSupport;
 
@@ -14,10 +18,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
+import com.yeahmobi.yscheduler.cluster.PartitionListener;
+import com.yeahmobi.yscheduler.cluster.PartitionManager;
 import com.yeahmobi.yscheduler.common.CrontabUtils;
 import com.yeahmobi.yscheduler.condition.ConditionChecker;
 import com.yeahmobi.yscheduler.condition.ConditionContext;
 import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
+import com.yeahmobi.yscheduler.metrics.MetricsSource;
 import com.yeahmobi.yscheduler.model.Task;
 import com.yeahmobi.yscheduler.model.TaskInstance;
 import com.yeahmobi.yscheduler.model.Workflow;
@@ -34,19 +41,49 @@ import com.yeahmobi.yscheduler.model.type.WorkflowStatus;
 import com.yeahmobi.yscheduler.notice.NoticeService;
 import com.yeahmobi.yscheduler.workflow.WorkflowExecutor;
 
+/**
+ * 默认每隔INTERVAL调度一轮，触发误差最多INTERVAL；ysheduler.schedule.precise=true时由TriggerDispatcher按到期时间精确触发，
+ * 同时支持秒级的crontab。
+ */
 @Service
-public class DefaultSchedulerExecutor implements SchedulerExecutor {
+public class DefaultSchedulerExecutor implements SchedulerExecutor, MetricsSource {
 
     private static final Logger     LOGGER   = LoggerFactory.getLogger(DefaultSchedulerExecutor.class);
 
-    private static final long       INTERVAL = 10 * 1000;
+    private static final long       INTERVAL           = 10 * 1000;
 
-    private AtomicBoolean           closed   = new AtomicBoolean(false);
+    /** 增量同步时往前多查的时间，容忍web与数据库的时钟偏差 */
+    private static final long       SYNC_OVERLAP       = 60 * 1000;
+
+    /** 每隔一段时间全量重建一次索引，兜底增量同步可能的遗漏 */
+    private static final long       FULL_LOAD_INTERVAL = 30 * 60 * 1000;
+
+    private AtomicBoolean           closed             = new AtomicBoolean(false);
 
     private ScheduleThread          controllerThread;
 
     private long                    currentScheduleTime;
 
+    private final TriggerIndex      triggerIndex       = new TriggerIndex();
+
+    private long                    lastSyncTime;
+
+    private long                    lastFullLoadTime;
+
+    /** 本节点持有的分区有变化，下一轮重建索引 */
+    private volatile boolean        partitionsChanged;
+
+    /** 是否按到期时间精确触发，需与web的设置一致(决定是否允许秒级crontab) */
+    private final boolean           precise            = CrontabUtils.isSecondLevelEnabled();
+
+    /** 精确触发时执行触发的线程数 */
+    private final int               preciseThreads     = Integer.parseInt(System.getProperty("ysheduler.schedule.precise.threads",
+                                                                                             "8"));
+
+    private TriggerDispatcher       dispatcher;
+
+    private final LatenessRecorder  lateness           = new LatenessRecorder();
+
     @Autowired
     private ScheduleProgressService scheduleProgressService;
 
@@ -74,17 +111,67 @@ public class DefaultSchedulerExecutor implements SchedulerExecutor {
     @Autowired
     private ConditionChecker        conditionChecker;
 
+    @Autowired
+    private CatchUpEngine           catchUpEngine;
+
+    @Autowired
+    private PartitionManager        partitionManager;
+
     @PostConstruct
     public void init() {
         boolean recover = Boolean.parseBoolean(System.getProperty("ysheduler.schedule.recover", "true"));
 
         if (recover) {
-            Long scheduleTime = this.scheduleProgressService.getCurrentScheduleTime();
+            // 从本节点负责的分区中最早的进度开始
+            Long scheduleTime = this.scheduleProgressService.getCurrentScheduleTime(this.partitionManager.getOwned());
             this.currentScheduleTime = scheduleTime != null ? scheduleTime : System.currentTimeMillis();
         } else {
             this.currentScheduleTime = System.currentTimeMillis();
         }
 
+        // 一次性补齐停机期间错过的调度，之后直接从当前时间开始调度
+        boolean catchUp = Boolean.parseBoolean(System.getProperty("ysheduler.schedule.catchup", "true"));
+        if (catchUp) {
+            long now = System.currentTimeMillis();
+            this.catchUpEngine.catchUp(now);
+            if (this.currentScheduleTime < now) {
+                this.currentScheduleTime = now;
+            }
+        }
+
+        loadTriggers();
+        this.partitionManager.addListener(new PartitionListener() {
+
+            public void onAssigned(Set<Integer> partitions, Set<Integer> recovering) {
+                DefaultSchedulerExecutor.this.partitionsChanged = true;
+            }
+
+            public void onRevoked(Set<Integer> partitions) {
+                DefaultSchedulerExecutor.this.partitionsChanged = true;
+            }
+
+            public Set<Integer> getBusyPartitions() {
+                return Collections.emptySet();
+            }
+        });
+
+        if (this.precise) {
+            this.dispatcher = new TriggerDispatcher(this.triggerIndex, new TriggerDispatcher.Handler() {
+
+                public void sync(long now) {
+                    syncTriggers();
+                    DefaultSchedulerExecutor.this.currentScheduleTime = now;
+                    saveCurrentScheduleTime();
+                }
+
+                public long fire(TriggerIndex.Trigger trigger, long now) {
+                    return DefaultSchedulerExecutor.this.fire(trigger, new Date(now));
+                }
+            }, this.preciseThreads, INTERVAL, INTERVAL);
+            this.dispatcher.start();
+            return;
+        }
+
         // 启动后台执行线程
         this.controllerThread = new ScheduleThread();
         this.controllerThread.setName("scheduler");
@@ -95,7 +182,86 @@ public class DefaultSchedulerExecutor implements SchedulerExecutor {
     @PreDestroy
     public void close() {
         if (this.closed.compareAndSet(false, true)) {
-            this.controllerThread.interrupt();
+            if (this.dispatcher != null) {
+                this.dispatcher.close();
+            } else {
+                this.controllerThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 从数据库全量加载本节点负责的OPEN状态的task和workflow，重建触发索引
+     */
+    private void loadTriggers() {
+        long now = System.currentTimeMillis();
+        this.triggerIndex.clear();
+        List<Workflow> workflowList = this.workflowService.listAll(WorkflowStatus.OPEN);
+        if (workflowList != null) {
+            for (Workflow workflow : workflowList) {
+                refreshTrigger(workflow);
+            }
+        }
+        List<Task> taskList = this.taskService.list(TaskStatus.OPEN);
+        if (taskList != null) {
+            for (Task task : taskList) {
+                refreshTrigger(task);
+            }
+        }
+        this.lastFullLoadTime = now;
+        this.lastSyncTime = now;
+        LOGGER.info("Trigger index loaded, size: " + this.triggerIndex.size());
+    }
+
+    /**
+     * 按update_time增量同步新建、修改、暂停、删除的task和workflow；物理删除的在到期时再剔除
+     */
+    private void syncTriggers() {
+        long now = System.currentTimeMillis();
+        if (this.partitionsChanged || ((now - this.lastFullLoadTime) >= FULL_LOAD_INTERVAL)) {
+            this.partitionsChanged = false;
+            loadTriggers();
+            return;
+        }
+        Date since = new Date(this.lastSyncTime - SYNC_OVERLAP);
+        List<Workflow> workflowList = this.workflowService.listUpdatedSince(since);
+        if (workflowList != null) {
+            for (Workflow workflow : workflowList) {
+                refreshTrigger(workflow);
+            }
+        }
+        List<Task> taskList = this.taskService.listUpdatedSince(since);
+        if (taskList != null) {
+            for (Task task : taskList) {
+                refreshTrigger(task);
+            }
+        }
+        this.lastSyncTime = now;
+    }
+
+    private void refreshTrigger(Workflow workflow) {
+        if ((workflow.getStatus() != WorkflowStatus.OPEN) || !this.partitionManager.ownsWorkflow(workflow.getId())) {
+            this.triggerIndex.remove(TriggerIndex.Type.WORKFLOW, workflow.getId());
+            return;
+        }
+        try {
+            Date scheduleTime = CrontabUtils.next(workflow.getCrontab(), workflow.getLastScheduleTime());
+            this.triggerIndex.put(TriggerIndex.Type.WORKFLOW, workflow.getId(), scheduleTime.getTime());
+        } catch (Exception e) {
+            LOGGER.error(String.format("Invalid crontab of workflow(id=%s)", workflow.getId()), e);
+        }
+    }
+
+    private void refreshTrigger(Task task) {
+        if ((task.getStatus() != TaskStatus.OPEN) || !this.partitionManager.ownsTask(task.getId())) {
+            this.triggerIndex.remove(TriggerIndex.Type.TASK, task.getId());
+            return;
+        }
+        try {
+            Date scheduleTime = CrontabUtils.next(task.getCrontab(), task.getLastScheduleTime());
+            this.triggerIndex.put(TriggerIndex.Type.TASK, task.getId(), scheduleTime.getTime());
+        } catch (Exception e) {
+            LOGGER.error(String.format("Invalid crontab of task(id=%s)", task.getId()), e);
         }
     }
 
@@ -106,123 +272,35 @@ public class DefaultSchedulerExecutor implements SchedulerExecutor {
 
             while (!DefaultSchedulerExecutor.this.closed.get()) {
                 try {
-                    List<Workflow> workflowList = DefaultSchedulerExecutor.this.workflowService.listAll(WorkflowStatus.OPEN);
-                    List<Task> taskList = DefaultSchedulerExecutor.this.taskService.list(TaskStatus.OPEN);
                     // 当前调度时间
                     Date curDate = new Date(DefaultSchedulerExecutor.this.currentScheduleTime);
 
-                    if (workflowList != null) {
-
-                        for (Workflow workflow : workflowList) {
-                            Date scheduleTime = CrontabUtils.next(workflow.getCrontab(), workflow.getLastScheduleTime());
-
-                            long diff = curDate.getTime() - scheduleTime.getTime();
-                            if (diff >= 0) {
-                                // 判断是否存在未完成的workflow（Inited和RUNNING），如有，则不触发调度; 被跳过，也持久化到数据库
-                                boolean existUncompleted = DefaultSchedulerExecutor.this.workflowInstanceService.existUncompleted(workflow.getId());
-
-                                WorkflowInstance instance = new WorkflowInstance();
-                                instance.setScheduleTime(scheduleTime);
-                                instance.setWorkflowId(workflow.getId());
-                                if (!existUncompleted || ((workflow.getCanSkip() != null) && !workflow.getCanSkip())) {
-                                    ConditionContext context = new ConditionContext(workflow, instance, null, null,
-                                                                                    null, null);
-                                    if (DefaultSchedulerExecutor.this.conditionChecker.satisfy(context)) {
-
-                                        instance.setStatus(WorkflowInstanceStatus.INITED);
-
-                                        try {
-                                            DefaultSchedulerExecutor.this.workflowInstanceService.save(instance);
-                                            DefaultSchedulerExecutor.this.workflowExecutor.submit(workflow, instance);
-                                            DefaultSchedulerExecutor.this.workflowService.updateScheduleTime(workflow.getId(),
-                                                                                                             scheduleTime);
-
-                                        } catch (DuplicateKeyException e) {
-                                            // ignored 重复了说明有被调度，调度时间应该更新
-                                            DefaultSchedulerExecutor.this.workflowService.updateScheduleTime(workflow.getId(),
-                                                                                                             scheduleTime);
-                                        } catch (Exception e) {
-                                            LOGGER.error(e.getMessage(), e);
-                                        }
-                                    }
-                                } else {
-                                    instance.setStatus(WorkflowInstanceStatus.SKIPPED);
-                                    try {
-                                        DefaultSchedulerExecutor.this.workflowInstanceService.save(instance);
-                                        DefaultSchedulerExecutor.this.noticeService.workflowSkip(instance.getId(),
-                                                                                                 scheduleTime);
-                                        DefaultSchedulerExecutor.this.workflowService.updateScheduleTime(workflow.getId(),
-                                                                                                         scheduleTime);
-                                    } catch (DuplicateKeyException e) {
-                                        // ignored 重复了说明有被调度，调度时间应该更新
-                                        DefaultSchedulerExecutor.this.workflowService.updateScheduleTime(workflow.getId(),
-                                                                                                         scheduleTime);
-                                    } catch (Exception e) {
-                                        LOGGER.error(e.getMessage(), e);
-                                    }
-                                }
-                            }
-                        }
+                    try {
+                        syncTriggers();
+                    } catch (Exception e) {
+                        LOGGER.error("Error when sync the trigger index", e);
                     }
 
-                    if (taskList != null) {
-                        for (Task task : taskList) {
-                            Date scheduleTime = CrontabUtils.next(task.getCrontab(), task.getLastScheduleTime());
-
-                            long diff = curDate.getTime() - scheduleTime.getTime();
-                            if (diff >= 0) {
-                                // 判断是否存在(相同taskId,存在schedule，状态未完成的)task（Inited和RUNNING），如有，则不触发调度; 被跳过，也持久化到数据库
-                                boolean existUncompleted = DefaultSchedulerExecutor.this.taskInstanceService.existUncompletedScheduled(task.getId());
-
-                                TaskInstance instance = new TaskInstance();
-                                instance.setTaskId(task.getId());
-                                instance.setScheduleTime(scheduleTime);
-                                if (!existUncompleted || ((task.getCanSkip() != null) && !task.getCanSkip())) {
-                                    ConditionContext context = new ConditionContext(null, null, null, task, instance,
-                                                                                    null);
-                                    if (DefaultSchedulerExecutor.this.conditionChecker.satisfy(context)) {
-                                        instance.setStatus(TaskInstanceStatus.READY);
-                                        try {
-                                            DefaultSchedulerExecutor.this.taskInstanceService.save(instance);
-                                            DefaultSchedulerExecutor.this.taskInstanceExecutor.submit(instance);
-                                            DefaultSchedulerExecutor.this.taskService.updateLastScheduleTime(task.getId(),
-                                                                                                             scheduleTime);
-                                        } catch (DuplicateKeyException e) {
-                                            // ignored 重复了说明有被调度，调度时间应该更新
-                                            DefaultSchedulerExecutor.this.taskService.updateLastScheduleTime(task.getId(),
-                                                                                                             scheduleTime);
-                                        } catch (Exception e) {
-                                            LOGGER.error(e.getMessage(), e);
-                                        }
-                                    }
-                                } else {
-                                    instance.setStatus(TaskInstanceStatus.SKIPPED);
-                                    try {
-                                        DefaultSchedulerExecutor.this.taskInstanceService.save(instance);
-                                        DefaultSchedulerExecutor.this.noticeService.taskSkip(instance.getId(),
-                                                                                             scheduleTime);
-                                        DefaultSchedulerExecutor.this.taskService.updateLastScheduleTime(task.getId(),
-                                                                                                         scheduleTime);
-                                    } catch (DuplicateKeyException e) {
-                                        // ignored 重复了说明有被调度，调度时间应该更新
-                                        DefaultSchedulerExecutor.this.taskService.updateLastScheduleTime(task.getId(),
-                                                                                                         scheduleTime);
-                                    } catch (Exception e) {
-                                        LOGGER.error(e.getMessage(), e);
-                                    }
-                                }
+                    // 只处理已到期的task和workflow
+                    List<TriggerIndex.Trigger> dueTriggers = DefaultSchedulerExecutor.this.triggerIndex.pollDue(curDate.getTime());
+                    for (TriggerIndex.Trigger trigger : dueTriggers) {
+                        try {
+                            long next = fire(trigger, curDate);
+                            if (next >= 0) {
+                                DefaultSchedulerExecutor.this.triggerIndex.put(trigger.getType(), trigger.getId(), next);
                             }
+                        } catch (Exception e) {
+                            LOGGER.error(e.getMessage(), e);
+                            // 下一轮重试
+                            DefaultSchedulerExecutor.this.triggerIndex.put(trigger.getType(), trigger.getId(),
+                                                                           trigger.getNextFireTime());
                         }
                     }
 
                     // 每隔 INTERVAL 时间调度一次
                     DefaultSchedulerExecutor.this.currentScheduleTime += INTERVAL;
                     // 持久化进度
-                    try {
-                        DefaultSchedulerExecutor.this.scheduleProgressService.saveCurrentScheduleTime(DefaultSchedulerExecutor.this.currentScheduleTime);
-                    } catch (Exception e) {
-                        LOGGER.error("Error when save the currentScheduleTime", e);
-                    }
+                    saveCurrentScheduleTime();
 
                     try {
                         if (System.currentTimeMillis() < DefaultSchedulerExecutor.this.currentScheduleTime) {
@@ -241,6 +319,156 @@ public class DefaultSchedulerExecutor implements SchedulerExecutor {
         }
     }
 
+    private void saveCurrentScheduleTime() {
+        try {
+            this.scheduleProgressService.saveCurrentScheduleTime(this.partitionManager.getOwned(),
+                                                                 this.currentScheduleTime);
+        } catch (Exception e) {
+            LOGGER.error("Error when save the currentScheduleTime", e);
+        }
+    }
+
+    /**
+     * 执行到期的触发，并记录触发延迟
+     *
+     * @return 下次触发时间，-1表示不再放回索引
+     */
+    private long fire(TriggerIndex.Trigger trigger, Date curDate) {
+        this.lateness.record(System.currentTimeMillis() - trigger.getNextFireTime());
+        if (trigger.getType() == TriggerIndex.Type.WORKFLOW) {
+            return scheduleWorkflow(trigger.getId(), curDate);
+        }
+        return scheduleTask(trigger.getId(), curDate);
+    }
+
+    private long scheduleWorkflow(long workflowId, Date curDate) {
+        // 到期时再从数据库取最新的workflow，已删除、非OPEN或已不属于本节点的不再放回索引
+        Workflow workflow = this.workflowService.get(workflowId);
+        if ((workflow == null) || (workflow.getStatus() != WorkflowStatus.OPEN)
+            || !this.partitionManager.ownsWorkflow(workflowId)) {
+            return -1;
+        }
+        Date lastScheduleTime = workflow.getLastScheduleTime();
+        Date scheduleTime = CrontabUtils.next(workflow.getCrontab(), lastScheduleTime);
+
+        long diff = curDate.getTime() - scheduleTime.getTime();
+        if (diff >= 0) {
+            // 判断是否存在未完成的workflow（Inited和RUNNING），如有，则不触发调度; 被跳过，也持久化到数据库
+            boolean existUncompleted = this.workflowInstanceService.existUncompleted(workflow.getId());
+
+            WorkflowInstance instance = new WorkflowInstance();
+            instance.setScheduleTime(scheduleTime);
+            instance.setWorkflowId(workflow.getId());
+            if (!existUncompleted || ((workflow.getCanSkip() != null) && !workflow.getCanSkip())) {
+                ConditionContext context = new ConditionContext(workflow, instance, null, null, null, null);
+                if (this.conditionChecker.satisfy(context)) {
+
+                    instance.setStatus(WorkflowInstanceStatus.INITED);
+
+                    try {
+                        this.workflowInstanceService.save(instance);
+                        this.workflowExecutor.submit(workflow, instance);
+                        this.workflowService.updateScheduleTime(workflow.getId(), scheduleTime);
+                        lastScheduleTime = scheduleTime;
+                    } catch (DuplicateKeyException e) {
+                        // ignored 重复了说明有被调度，调度时间应该更新
+                        this.workflowService.updateScheduleTime(workflow.getId(), scheduleTime);
+                        lastScheduleTime = scheduleTime;
+                    } catch (Exception e) {
+                        LOGGER.error(e.getMessage(), e);
+                    }
+                }
+            } else {
+                instance.setStatus(WorkflowInstanceStatus.SKIPPED);
+                try {
+                    this.workflowInstanceService.save(instance);
+                    this.noticeService.workflowSkip(instance.getId(), scheduleTime);
+                    this.workflowService.updateScheduleTime(workflow.getId(), scheduleTime);
+                    lastScheduleTime = scheduleTime;
+                } catch (DuplicateKeyException e) {
+                    // ignored 重复了说明有被调度，调度时间应该更新
+                    this.workflowService.updateScheduleTime(workflow.getId(), scheduleTime);
+                    lastScheduleTime = scheduleTime;
+                } catch (Exception e) {
+                    LOGGER.error(e.getMessage(), e);
+                }
+            }
+        }
+
+        // 未能调度的（条件不满足或出错），下一次触发时间不变，下一轮会重试
+        return CrontabUtils.next(workflow.getCrontab(), lastScheduleTime).getTime();
+    }
+
+    private long scheduleTask(long taskId, Date curDate) {
+        // 到期时再从数据库取最新的task，已删除、非OPEN或已不属于本节点的不再放回索引
+        Task task = this.taskService.get(taskId);
+        if ((task == null) || (task.getStatus() != TaskStatus.OPEN) || !this.partitionManager.ownsTask(taskId)) {
+            return -1;
+        }
+        Date lastScheduleTime = task.getLastScheduleTime();
+        Date scheduleTime = CrontabUtils.next(task.getCrontab(), lastScheduleTime);
+
+        long diff = curDate.getTime() - scheduleTime.getTime();
+        if (diff >= 0) {
+            // 判断是否存在(相同taskId,存在schedule，状态未完成的)task（Inited和RUNNING），如有，则不触发调度; 被跳过，也持久化到数据库
+            boolean existUncompleted = this.taskInstanceService.existUncompletedScheduled(task.getId());
+
+            TaskInstance instance = new TaskInstance();
+            instance.setTaskId(task.getId());
+            instance.setScheduleTime(scheduleTime);
+            if (!existUncompleted || ((task.getCanSkip() != null) && !task.getCanSkip())) {
+                ConditionContext context = new ConditionContext(null, null, null, task, instance, null);
+                if (this.conditionChecker.satisfy(context)) {
+                    instance.setStatus(TaskInstanceStatus.READY);
+                    try {
+                        this.taskInstanceService.save(instance);
+                        this.taskInstanceExecutor.submit(instance);
+                        this.taskService.updateLastScheduleTime(task.getId(), scheduleTime);
+                        lastScheduleTime = scheduleTime;
+                    } catch (DuplicateKeyException e) {
+                        // ignored 重复了说明有被调度，调度时间应该更新
+                        this.taskService.updateLastScheduleTime(task.getId(), scheduleTime);
+                        lastScheduleTime = scheduleTime;
+                    } catch (Exception e) {
+                        LOGGER.error(e.getMessage(), e);
+                    }
+                }
+            } else {
+                instance.setStatus(TaskInstanceStatus.SKIPPED);
+                try {
+                    this.taskInstanceService.save(instance);
+                    this.noticeService.taskSkip(instance.getId(), scheduleTime);
+                    this.taskService.updateLastScheduleTime(task.getId(), scheduleTime);
+                    lastScheduleTime = scheduleTime;
+                } catch (DuplicateKeyException e) {
+                    // ignored 重复了说明有被调度，调度时间应该更新
+                    this.taskService.updateLastScheduleTime(task.getId(), scheduleTime);
+                    lastScheduleTime = scheduleTime;
+                } catch (Exception e) {
+                    LOGGER.error(e.getMessage(), e);
+                }
+            }
+        }
+
+        // 未能调度的（条件不满足或出错），下一次触发时间不变，下一轮会重试
+        return CrontabUtils.next(task.getCrontab(), lastScheduleTime).getTime();
+    }
+
+    public String getMetricsName() {
+        return "scheduler";
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("mode", this.precise ? "precise" : "interval");
+        metrics.put("triggers", this.triggerIndex.size());
+        if (this.dispatcher != null) {
+            metrics.put("inflight", this.dispatcher.getInflightCount());
+        }
+        metrics.put("latenessMs", this.lateness.snapshot());
+        return metrics;
+    }
+
     private void parkUntil(long absTime) throws InterruptedException {
         while (System.currentTimeMillis() < absTime) {
             LockSupport.parkUntil(absTime);
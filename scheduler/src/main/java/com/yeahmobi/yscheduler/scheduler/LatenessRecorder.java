@@ -0,0 +1,45 @@
+package com.yeahmobi.yscheduler.scheduler;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 记录最近SIZE次触发的延迟(实际触发时间 - 应触发时间，毫秒)，输出分位数
+ */
+class LatenessRecorder {
+
+    private static final int SIZE    = 10000;
+
+    private final long[]     samples = new long[SIZE];
+
+    private long             count;
+
+    public synchronized void record(long lateness) {
+        this.samples[(int) (this.count % SIZE)] = Math.max(0, lateness);
+        this.count++;
+    }
+
+    public Map<String, Object> snapshot() {
+        long[] sorted;
+        long total;
+        synchronized (this) {
+            total = this.count;
+            sorted = Arrays.copyOf(this.samples, (int) Math.min(total, SIZE));
+        }
+        Arrays.sort(sorted);
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("count", total);
+        if (sorted.length > 0) {
+            result.put("p50", percentile(sorted, 50));
+            result.put("p90", percentile(sorted, 90));
+            result.put("p99", percentile(sorted, 99));
+            result.put("max", sorted[sorted.length - 1]);
+        }
+        return result;
+    }
+
+    static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, (sorted.length * percent) / 100)];
+    }
+}
@@ -0,0 +1,172 @@
+package com.yeahmobi.yscheduler.scheduler;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * 精确触发：调度线程park到索引中最早的触发时间(或下一次同步时间)，到期的触发交给线程池执行，
+ * 执行完返回下次触发时间，再由调度线程放回索引。<br>
+ * 索引只在调度线程中访问；执行中的触发在同步后从索引中去掉，避免同一个task/workflow并发触发。<br>
+ * 没能触发的(条件不满足或出错)在retryDelay之后重试，不会原地反复触发。
+ */
+public class TriggerDispatcher {
+
+    private static final Logger             LOGGER      = LoggerFactory.getLogger(TriggerDispatcher.class);
+
+    private final TriggerIndex              triggerIndex;
+
+    private final Handler                   handler;
+
+    private final long                      syncInterval;
+
+    private final long                      retryDelay;
+
+    private final ExecutorService           workers;
+
+    /** 执行完的触发 */
+    private final Queue<Completion>         completions = new ConcurrentLinkedQueue<Completion>();
+
+    /** 执行中的触发 */
+    private final Set<TriggerIndex.Trigger> inflights   = Collections.newSetFromMap(new ConcurrentHashMap<TriggerIndex.Trigger, Boolean>());
+
+    private volatile boolean                closed;
+
+    private Thread                          thread;
+
+    public interface Handler {
+
+        /**
+         * 在调度线程中调用，同步索引
+         */
+        void sync(long now);
+
+        /**
+         * 在线程池中调用，执行到期的触发
+         *
+         * @return 下次触发时间，小于0表示不再触发
+         */
+        long fire(TriggerIndex.Trigger trigger, long now) throws Exception;
+    }
+
+    public TriggerDispatcher(TriggerIndex triggerIndex, Handler handler, int threads, long syncInterval,
+                             long retryDelay) {
+        this.triggerIndex = triggerIndex;
+        this.handler = handler;
+        this.syncInterval = syncInterval;
+        this.retryDelay = retryDelay;
+        this.workers = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("trigger-worker-"));
+    }
+
+    public void start() {
+        this.thread = new Thread(new Runnable() {
+
+            public void run() {
+                loop();
+            }
+        }, "scheduler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public void close() {
+        this.closed = true;
+        this.thread.interrupt();
+        this.workers.shutdownNow();
+    }
+
+    private void loop() {
+        long nextSync = 0;
+        while (!this.closed) {
+            try {
+                drainCompletions();
+
+                long now = System.currentTimeMillis();
+                if (now >= nextSync) {
+                    try {
+                        this.handler.sync(now);
+                    } catch (Exception e) {
+                        LOGGER.error("Error when sync the trigger index", e);
+                    }
+                    // 同步时可能把执行中的放回了索引，执行完会再放回
+                    for (TriggerIndex.Trigger trigger : this.inflights) {
+                        this.triggerIndex.remove(trigger.getType(), trigger.getId());
+                    }
+                    nextSync = now + this.syncInterval;
+                }
+
+                for (final TriggerIndex.Trigger trigger : this.triggerIndex.pollDue(now)) {
+                    this.inflights.add(trigger);
+                    this.workers.execute(new Runnable() {
+
+                        public void run() {
+                            fire(trigger);
+                        }
+                    });
+                }
+
+                // 执行完的触发会unpark调度线程
+                long wakeup = Math.min(this.triggerIndex.nextFireTime(), nextSync);
+                if (this.completions.isEmpty() && (System.currentTimeMillis() < wakeup)) {
+                    LockSupport.parkUntil(wakeup);
+                }
+            } catch (Throwable e) {
+                // log for check the code
+                LOGGER.error("No Error should reach here, please check the code", e);
+            }
+        }
+    }
+
+    private void fire(TriggerIndex.Trigger trigger) {
+        long next;
+        try {
+            next = this.handler.fire(trigger, System.currentTimeMillis());
+        } catch (Throwable e) {
+            LOGGER.error(e.getMessage(), e);
+            next = trigger.getNextFireTime();
+        }
+        this.completions.offer(new Completion(trigger, next));
+        LockSupport.unpark(this.thread);
+    }
+
+    private void drainCompletions() {
+        Completion completion;
+        while ((completion = this.completions.poll()) != null) {
+            TriggerIndex.Trigger trigger = completion.trigger;
+            long next = completion.next;
+            this.inflights.remove(trigger);
+            if (next < 0) {
+                continue;
+            }
+            // 没能触发的，下次触发时间没有前进
+            if (next <= trigger.getNextFireTime()) {
+                next = System.currentTimeMillis() + this.retryDelay;
+            }
+            this.triggerIndex.put(trigger.getType(), trigger.getId(), next);
+        }
+    }
+
+    public int getInflightCount() {
+        return this.inflights.size();
+    }
+
+    private static class Completion {
+
+        final TriggerIndex.Trigger trigger;
+        final long                 next;
+
+        Completion(TriggerIndex.Trigger trigger, long next) {
+            this.trigger = trigger;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.yeahmobi.yscheduler.scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 按下次触发时间排序的最小堆，调度线程每次只需要取出已到期的条目，不再全表扫描。<br>
+ * 更新或删除时采用惰性删除：旧条目标记为失效，出堆时丢弃。<br>
+ * 非线程安全，只在调度线程中使用。
+ */
+public class TriggerIndex {
+
+    public enum Type {
+        TASK, WORKFLOW
+    }
+
+    private final PriorityQueue<Trigger> queue    = new PriorityQueue<Trigger>();
+
+    private final Map<Key, Trigger>      triggers = new HashMap<Key, Trigger>();
+
+    /**
+     * 新增或替换某个task/workflow的下次触发时间
+     */
+    public void put(Type type, long id, long nextFireTime) {
+        Key key = new Key(type, id);
+        Trigger old = this.triggers.get(key);
+        if (old != null) {
+            if (old.nextFireTime == nextFireTime) {
+                return;
+            }
+            old.cancelled = true;
+        }
+        Trigger trigger = new Trigger(key, nextFireTime);
+        this.triggers.put(key, trigger);
+        this.queue.offer(trigger);
+        compactIfNeeded();
+    }
+
+    public void remove(Type type, long id) {
+        Trigger old = this.triggers.remove(new Key(type, id));
+        if (old != null) {
+            old.cancelled = true;
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * 取出所有触发时间不晚于time的条目，取出的条目同时从索引中移除，处理完后需要重新put
+     */
+    public List<Trigger> pollDue(long time) {
+        List<Trigger> result = new ArrayList<Trigger>();
+        Trigger trigger;
+        while (((trigger = this.queue.peek()) != null) && (trigger.nextFireTime <= time)) {
+            this.queue.poll();
+            if (!trigger.cancelled) {
+                this.triggers.remove(trigger.key);
+                result.add(trigger);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 最早的触发时间，没有条目时返回Long.MAX_VALUE
+     */
+    public long nextFireTime() {
+        Trigger trigger;
+        while (((trigger = this.queue.peek()) != null) && trigger.cancelled) {
+            this.queue.poll();
+        }
+        return trigger == null ? Long.MAX_VALUE : trigger.nextFireTime;
+    }
+
+    public int size() {
+        return this.triggers.size();
+    }
+
+    public void clear() {
+        this.queue.clear();
+        this.triggers.clear();
+    }
+
+    /**
+     * 失效条目过多时重建堆，避免频繁更新导致堆无限增长
+     */
+    private void compactIfNeeded() {
+        if (this.queue.size() > ((this.triggers.size() * 2) + 1024)) {
+            this.queue.clear();
+            this.queue.addAll(this.triggers.values());
+        }
+    }
+
+    private static class Key {
+
+        private final Type type;
+        private final long id;
+
+        Key(Type type, long id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * this.type.hashCode()) + (int) (this.id ^ (this.id >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return (this.type == other.type) && (this.id == other.id);
+        }
+    }
+
+    public static class Trigger implements Comparable<Trigger> {
+
+        private final Key  key;
+        private final long nextFireTime;
+        private boolean    cancelled;
+
+        Trigger(Key key, long nextFireTime) {
+            this.key = key;
+            this.nextFireTime = nextFireTime;
+        }
+
+        public Type getType() {
+            return this.key.type;
+        }
+
+        public long getId() {
+            return this.key.id;
+        }
+
+        public long getNextFireTime() {
+            return this.nextFireTime;
+        }
+
+        public int compareTo(Trigger o) {
+            return this.nextFireTime < o.nextFireTime ? -1 : (this.nextFireTime == o.nextFireTime ? 0 : 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Trigger [type=" + this.key.type + ", id=" + this.key.id + ", nextFireTime=" + this.nextFireTime
+                   + "]";
+        }
+    }
+
+}
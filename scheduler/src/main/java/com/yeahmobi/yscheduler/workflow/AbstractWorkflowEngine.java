@@ -1,17 +1,25 @@
 package com.yeahmobi.yscheduler.workflow;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -20,13 +28,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.yeahmobi.yscheduler.cluster.PartitionListener;
+import com.yeahmobi.yscheduler.cluster.PartitionManager;
 import com.yeahmobi.yscheduler.condition.ConditionChecker;
 import com.yeahmobi.yscheduler.condition.ConditionContext;
 import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
+import com.yeahmobi.yscheduler.executor.TaskInstanceListener;
+import com.yeahmobi.yscheduler.metrics.MetricsSource;
 import com.yeahmobi.yscheduler.model.Task;
 import com.yeahmobi.yscheduler.model.TaskInstance;
 import com.yeahmobi.yscheduler.model.Workflow;
+import com.yeahmobi.yscheduler.model.WorkflowDetail;
 import com.yeahmobi.yscheduler.model.WorkflowInstance;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraph;
 import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
 import com.yeahmobi.yscheduler.model.service.TaskService;
 import com.yeahmobi.yscheduler.model.service.UserService;
@@ -38,13 +52,42 @@ import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
 import com.yeahmobi.yscheduler.notice.NoticeService;
 
 /**
+ * 工作流按DAG事件驱动执行：每个节点记录尚未成功的依赖数，task instance成功的事件到达后只递减其后继，
+ * 依赖数减为0的节点立即检查条件并提交，不再每隔几秒遍历所有工作流的所有节点。<br>
+ * 失败、取消等少见的情况仍走完整的checkAndExecute；依赖已满足但其他条件(如延迟)未满足的节点每隔
+ * getCheckIntervalMilliseconds重新检查；另外每隔RECONCILE_INTERVAL全量检查一遍作为兜底。<br>
+ * 工作流实例按id散列到多个shard，每个shard有自己的线程和事件队列，只处理自己拥有的工作流实例，
+ * 工作流的状态只在其所属shard的线程中修改，不需要加锁。开启work stealing时，空闲的shard可以从积压的shard
+ * 接手整个工作流实例，交接由被窃取的shard在两个事件之间完成。
+ *
  * @author Leo Liang
  */
-public abstract class AbstractWorkflowEngine implements WorkflowEngine {
+public abstract class AbstractWorkflowEngine implements WorkflowEngine, TaskInstanceListener, MetricsSource {
 
     private static final Logger           LOGGER                         = LoggerFactory.getLogger(AbstractWorkflowEngine.class);
 
+    /** 兜底的全量检查间隔 */
+    private static final long             RECONCILE_INTERVAL             = 60 * 1000;
+
+    /** 空闲的shard检查是否需要窃取的间隔 */
+    private static final long             STEAL_INTERVAL                 = 100;
+
+    /** 事件积压超过该数量的shard才会被窃取 */
+    private static final int              STEAL_THRESHOLD                = 8;
+
+    /** worker shard数 */
+    private final int                     shardCount                     = Integer.parseInt(System.getProperty("ysheduler.workflow.shards",
+                                                                                                               "4"));
+
+    private final boolean                 workStealing                   = Boolean.parseBoolean(System.getProperty("ysheduler.workflow.workStealing",
+                                                                                                                   "false"));
+
     protected Map<Long, Pair>             runningWorkflows               = new ConcurrentHashMap<Long, Pair>();
+
+    /** taskInstanceId -> workflowInstanceId，用于把task instance的事件交给所属的工作流 */
+    protected Map<Long, Long>             taskInstanceToWorkflow         = new ConcurrentHashMap<Long, Long>();
+
+    private Shard[]                       shards;
     @Autowired
     protected TaskInstanceExecutor        taskInstanceExecutor;
     @Autowired
@@ -63,8 +106,9 @@ public abstract class AbstractWorkflowEngine implements WorkflowEngine {
     protected NoticeService               noticeService;
     @Autowired
     protected ConditionChecker            conditionChecker;
+    @Autowired
+    protected PartitionManager            partitionManager;
 
-    protected Thread                      worker;
     protected AtomicBoolean               closed                         = new AtomicBoolean(false);
     protected ConcurrentSkipListSet<Long> cancelledWorkflowInstanceIdSet = new ConcurrentSkipListSet<Long>();
     protected ConcurrentSkipListSet<Long> timeoutWorkflowInstanceIdSet   = new ConcurrentSkipListSet<Long>();
@@ -78,48 +122,198 @@ public abstract class AbstractWorkflowEngine implements WorkflowEngine {
 
     protected abstract void checkAndExecute(Entry<Long, Pair> runningWorkflowEntry);
 
+    /**
+     * 节点成功后的增量处理，节点状态和Pair的计数已更新
+     */
+    protected abstract void onTaskSuccess(Long workflowInstanceId, Pair pair, TaskInstanceWithDependency taskInstanceWd);
+
     // abstract method end
 
     @PostConstruct
     public void init() {
+        this.shards = new Shard[Math.max(1, this.shardCount)];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard(i);
+        }
+        this.taskInstanceExecutor.addListener(this);
+        recover(this.partitionManager.getRecoveringOnStartup());
+        this.partitionManager.addListener(new PartitionListener() {
+
+            public void onAssigned(Set<Integer> partitions, Set<Integer> recovering) {
+                if (!recovering.isEmpty()) {
+                    recover(recovering);
+                }
+            }
+
+            public void onRevoked(Set<Integer> partitions) {
+                // 租约过期被接手时，已在运行的工作流继续在本节点完成
+            }
+
+            public Set<Integer> getBusyPartitions() {
+                Set<Integer> busy = new HashSet<Integer>();
+                for (Pair pair : AbstractWorkflowEngine.this.runningWorkflows.values()) {
+                    busy.add(AbstractWorkflowEngine.this.partitionManager.partitionOf(pair.workflow.getId()));
+                }
+                return busy;
+            }
+        });
+        for (Shard shard : this.shards) {
+            shard.setName(getName() + "-" + shard.index);
+            shard.setDaemon(true);
+            shard.start();
+        }
+    }
+
+    /**
+     * 加载属于partitions、尚未在本节点运行的RUNNING工作流实例
+     */
+    private void recover(Set<Integer> partitions) {
         List<WorkflowInstance> workflowInstances = getAllRunningWorkflowInstances();
         for (WorkflowInstance workflowInstance : workflowInstances) {
             Long workflowInstanceId = workflowInstance.getId();
+            if (this.runningWorkflows.containsKey(workflowInstanceId)
+                || !partitions.contains(this.partitionManager.partitionOf(workflowInstance.getWorkflowId()))) {
+                continue;
+            }
             Map<Long, TaskInstanceWithDependency> dependenciesMapping = buildWorkflowAndDependencies(workflowInstance.getWorkflowId(),
                                                                                                      workflowInstanceId,
                                                                                                      this.taskInstanceService.listByWorkflowInstanceId(workflowInstanceId));
             submitToWorker(this.workflowService.get(workflowInstance.getWorkflowId()), workflowInstanceId,
                            dependenciesMapping);
         }
-        this.worker = new Thread(new Runnable() {
+    }
 
-            public void run() {
-                while (!AbstractWorkflowEngine.this.closed.get()) {
-                    for (Map.Entry<Long, Pair> entry : AbstractWorkflowEngine.this.runningWorkflows.entrySet()) {
-                        try {
-                            checkAndExecute(entry);
-                        } catch (Exception e) {
-                            LOGGER.error(e.getMessage(), e);
-                        }
-                    }
-                    try {
-                        TimeUnit.MILLISECONDS.sleep(getCheckIntervalMilliseconds());
-                    } catch (InterruptedException e) {
-                        // ignore
+    @PreDestroy
+    public void close() {
+        if (this.closed.compareAndSet(false, true)) {
+            for (Shard shard : this.shards) {
+                shard.interrupt();
+            }
+        }
+    }
+
+    public void onCompleted(long instanceId, TaskInstanceStatus status) {
+        Long workflowInstanceId = this.taskInstanceToWorkflow.get(instanceId);
+        if (workflowInstanceId != null) {
+            dispatch(new Event(workflowInstanceId, instanceId, status));
+        }
+    }
+
+    public String getMetricsName() {
+        return getName();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("runningWorkflows", this.runningWorkflows.size());
+        metrics.put("workStealing", this.workStealing);
+        List<Map<String, Object>> shardMetrics = new ArrayList<Map<String, Object>>();
+        if (this.shards != null) {
+            for (Shard shard : this.shards) {
+                shardMetrics.add(shard.getMetrics());
+            }
+        }
+        metrics.put("shards", shardMetrics);
+        return metrics;
+    }
+
+    /**
+     * 把事件交给工作流实例当前所属的shard
+     */
+    private void dispatch(Event event) {
+        Pair pair = this.runningWorkflows.get(event.workflowInstanceId);
+        Shard shard = pair == null ? null : pair.owner;
+        if (shard == null) {
+            shard = this.shards[(int) (Math.abs(event.workflowInstanceId % this.shards.length))];
+        }
+        shard.events.offer(event);
+    }
+
+    private void reconcile(Shard shard) {
+        for (Map.Entry<Long, Pair> entry : this.runningWorkflows.entrySet()) {
+            if (this.closed.get()) {
+                return;
+            }
+            if (entry.getValue().owner != shard) {
+                continue;
+            }
+            try {
+                checkAndExecute(entry);
+                entry.getValue().recount();
+            } catch (Exception e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 检查超时，并重新检查依赖已满足、但其他条件未满足的节点
+     */
+    private void checkWaiting(Shard shard) {
+        for (Map.Entry<Long, Pair> entry : this.runningWorkflows.entrySet()) {
+            Long workflowInstanceId = entry.getKey();
+            Pair pair = entry.getValue();
+            if ((pair.owner != shard) || (pair.workflowInstance == null) || this.cancelledWorkflowInstanceIdSet.contains(workflowInstanceId)) {
+                continue;
+            }
+            try {
+                checkTimeout(pair.workflow, pair.workflowInstance);
+                Iterator<TaskInstanceWithDependency> it = pair.waiting.iterator();
+                while (it.hasNext()) {
+                    TaskInstanceWithDependency taskInstanceWd = it.next();
+                    submitToTaskInstanceExecutorIfConditionSatisfy(pair.workflow, pair.workflowInstance, taskInstanceWd);
+                    if (taskInstanceWd.getTaskInstance().getStatus() != TaskInstanceStatus.DEPENDENCY_WAIT) {
+                        it.remove();
                     }
                 }
+            } catch (Exception e) {
+                LOGGER.error(e.getMessage(), e);
             }
+        }
+    }
 
-        });
-        this.worker.setName(getName());
-        this.worker.setDaemon(true);
-        this.worker.start();
+    private void handle(Shard shard, Event event) {
+        Long workflowInstanceId = event.workflowInstanceId;
+        Pair pair = this.runningWorkflows.get(workflowInstanceId);
+        if (pair == null) {
+            return;
+        }
+        if (pair.owner != shard) {
+            // 分发时工作流正被其他shard接手
+            pair.owner.events.offer(event);
+            return;
+        }
+        if (event.taskInstanceId != null) {
+            TaskInstanceWithDependency taskInstanceWd = pair.taskInstances.get(event.taskInstanceId);
+            if ((taskInstanceWd == null) || (taskInstanceWd.getTaskInstance().getStatus() == event.status)) {
+                // 兜底检查已处理过
+                return;
+            }
+            if ((event.status == TaskInstanceStatus.SUCCESS) && (pair.workflowInstance != null)
+                && !this.cancelledWorkflowInstanceIdSet.contains(workflowInstanceId)) {
+                pair.setStatus(taskInstanceWd, TaskInstanceStatus.SUCCESS);
+                onTaskSuccess(workflowInstanceId, pair, taskInstanceWd);
+                return;
+            }
+        }
+        // 提交、取消、失败等情况，完整检查该工作流
+        checkAndExecute(new AbstractMap.SimpleEntry<Long, Pair>(workflowInstanceId, pair));
+        pair.recount();
     }
 
-    @PreDestroy
-    public void close() {
-        if (this.closed.compareAndSet(false, true)) {
-            this.worker.interrupt();
+    /**
+     * 递减后继的依赖数，依赖全部成功的后继立即检查条件并提交
+     */
+    protected void submitSuccessors(Pair pair, TaskInstanceWithDependency taskInstanceWd) {
+        for (TaskInstanceWithDependency successor : taskInstanceWd.getSuccessors()) {
+            successor.setPendingDependencies(successor.getPendingDependencies() - 1);
+            if ((successor.getPendingDependencies() == 0)
+                && (successor.getTaskInstance().getStatus() == TaskInstanceStatus.DEPENDENCY_WAIT)) {
+                submitToTaskInstanceExecutorIfConditionSatisfy(pair.workflow, pair.workflowInstance, successor);
+                if (successor.getTaskInstance().getStatus() == TaskInstanceStatus.DEPENDENCY_WAIT) {
+                    pair.waiting.add(successor);
+                }
+            }
         }
     }
 
@@ -132,26 +326,56 @@ public abstract class AbstractWorkflowEngine implements WorkflowEngine {
             taskIdToInstanceMap.put(taskInstance.getTaskId(), taskInstance);
         }
 
+        // 依赖、task和team都从缓存的依赖图中取，不再每个节点查询
+        WorkflowGraph graph = this.workflowDetailService.getGraph(workflowId);
         for (TaskInstance taskInstance : taskInstances) {
-            List<Long> dependencyTaskIds = this.workflowDetailService.listDependencyTaskIds(workflowId,
-                                                                                            taskInstance.getTaskId());
+            int node = graph == null ? -1 : graph.indexOf(taskInstance.getTaskId());
             List<Long> dependencyTaskInstanceIds = new ArrayList<Long>();
-            for (Long id : dependencyTaskIds) {
-                dependencyTaskInstanceIds.add(taskIdToInstanceMap.get(id).getId());
+            Task task;
+            Long teamId;
+            if (node >= 0) {
+                for (int i = 0; i < graph.getPredecessorCount(node); i++) {
+                    long id = graph.getTaskId(graph.getPredecessor(node, i));
+                    dependencyTaskInstanceIds.add(taskIdToInstanceMap.get(id).getId());
+                }
+                task = graph.getTask(node);
+                teamId = graph.getTeamId(node);
+            } else {
+                // 节点已从workflow中删除
+                task = this.taskService.get(taskInstance.getTaskId());
+                teamId = this.userService.get(task.getOwner()).getTeamId();
             }
-            Task task = this.taskService.get(taskInstance.getTaskId());
-            Long teamId = this.userService.get(task.getOwner()).getTeamId();
             TaskInstanceWithDependency taskInstanceWd = new TaskInstanceWithDependency(task, teamId, taskInstance,
                                                                                        dependencyTaskInstanceIds);
+            if (node >= 0) {
+                taskInstanceWd.setDetail(graph.getDetail(node));
+            }
             dependenciesMapping.put(taskInstance.getId(), taskInstanceWd);
         }
 
+        // 建立前驱和后继
+        for (TaskInstanceWithDependency taskInstanceWd : dependenciesMapping.values()) {
+            for (Long dependency : taskInstanceWd.getDependencies()) {
+                TaskInstanceWithDependency predecessor = dependenciesMapping.get(dependency);
+                taskInstanceWd.getPredecessors().add(predecessor);
+                predecessor.getSuccessors().add(taskInstanceWd);
+            }
+        }
+
         return dependenciesMapping;
     }
 
     protected void submitToWorker(Workflow workflow, Long workflowInstanceId,
                                   Map<Long, TaskInstanceWithDependency> dependenciesMapping) {
-        this.runningWorkflows.put(workflowInstanceId, new Pair(workflow, dependenciesMapping));
+        Pair pair = new Pair(workflow, dependenciesMapping);
+        pair.recount();
+        pair.owner = this.shards[(int) (Math.abs(workflowInstanceId % this.shards.length))];
+        for (Long taskInstanceId : dependenciesMapping.keySet()) {
+            this.taskInstanceToWorkflow.put(taskInstanceId, workflowInstanceId);
+        }
+        this.runningWorkflows.put(workflowInstanceId, pair);
+        // 立即检查一次，不必等到下个周期
+        dispatch(new Event(workflowInstanceId, null, null));
     }
 
     public void submit(Workflow workflow, WorkflowInstance workflowInstance, List<TaskInstance> taskIntances) {
@@ -245,7 +469,12 @@ public abstract class AbstractWorkflowEngine implements WorkflowEngine {
     }
 
     private void clearRunningEntry(Long workflowInstanceId) {
-        this.runningWorkflows.remove(workflowInstanceId);
+        Pair pair = this.runningWorkflows.remove(workflowInstanceId);
+        if (pair != null) {
+            for (Long taskInstanceId : pair.taskInstances.keySet()) {
+                this.taskInstanceToWorkflow.remove(taskInstanceId);
+            }
+        }
 
         this.timeoutWorkflowInstanceIdSet.remove(workflowInstanceId);
         clearCancelledIdSet();
@@ -354,30 +583,31 @@ public abstract class AbstractWorkflowEngine implements WorkflowEngine {
 
     public void cancel(long workflowInstanceId) {
         this.cancelledWorkflowInstanceIdSet.add(workflowInstanceId);
+        dispatch(new Event(workflowInstanceId, null, null));
     }
 
     protected void submitToTaskInstanceExecutorIfConditionSatisfy(Workflow workflow,
                                                                   WorkflowInstance workflowInstance,
-                                                                  Collection<TaskInstanceWithDependency> taskInstanceWithDependencies,
                                                                   TaskInstanceWithDependency taskInstanceWd) {
         TaskInstance taskInstance = taskInstanceWd.getTaskInstance();
+        // 依赖未全部成功时不必检查其他条件
+        if ((taskInstance.getStatus() != TaskInstanceStatus.DEPENDENCY_WAIT)
+            || (taskInstanceWd.getPendingDependencies() > 0)) {
+            return;
+        }
 
         List<TaskInstance> dependencyTaskInstances = new ArrayList<TaskInstance>();
-
-        for (TaskInstanceWithDependency wd : taskInstanceWithDependencies) {
-            if (taskInstanceWd.getDependencies().contains(wd.getTaskInstance().getId())) {
-                dependencyTaskInstances.add(wd.getTaskInstance());
-            }
+        for (TaskInstanceWithDependency predecessor : taskInstanceWd.getPredecessors()) {
+            dependencyTaskInstances.add(predecessor.getTaskInstance());
         }
 
         Long taskId = taskInstance.getTaskId();
-        ConditionContext context = new ConditionContext(
-                                                        workflow,
-                                                        workflowInstance,
-                                                        this.workflowDetailService.get(workflowInstance.getWorkflowId(),
-                                                                                       taskId),
-                                                        this.taskService.get(taskId), taskInstance,
-                                                        dependencyTaskInstances);
+        WorkflowDetail detail = taskInstanceWd.getDetail();
+        if (detail == null) {
+            detail = this.workflowDetailService.get(workflowInstance.getWorkflowId(), taskId);
+        }
+        ConditionContext context = new ConditionContext(workflow, workflowInstance, detail, this.taskService.get(taskId),
+                                                        taskInstance, dependencyTaskInstances);
         if ((taskInstance.getStatus() == TaskInstanceStatus.DEPENDENCY_WAIT) && this.conditionChecker.satisfy(context)) {
             taskInstance.setStatus(TaskInstanceStatus.READY);
             this.taskInstanceService.updateStatus(taskInstance.getId(), TaskInstanceStatus.READY);
@@ -389,10 +619,218 @@ public abstract class AbstractWorkflowEngine implements WorkflowEngine {
 
         Workflow                              workflow;
         Map<Long, TaskInstanceWithDependency> taskInstances;
+        /** 最近一次checkAndExecute取到的工作流实例 */
+        WorkflowInstance                      workflowInstance;
+        int                                   successCount;
+        int                                   completedCount;
+        /** 依赖已全部成功、但其他条件尚未满足的节点 */
+        List<TaskInstanceWithDependency>      waiting = new ArrayList<TaskInstanceWithDependency>();
+        /** 处理该工作流实例的shard，只在交接时由原shard修改 */
+        volatile Shard                        owner;
 
         public Pair(Workflow workflow, Map<Long, TaskInstanceWithDependency> taskInstances) {
             this.workflow = workflow;
             this.taskInstances = taskInstances;
         }
+
+        /**
+         * 按节点当前状态重新计算计数和依赖数，节点状态被批量修改后调用
+         */
+        void recount() {
+            this.successCount = 0;
+            this.completedCount = 0;
+            this.waiting.clear();
+            for (TaskInstanceWithDependency taskInstanceWd : this.taskInstances.values()) {
+                TaskInstanceStatus status = taskInstanceWd.getTaskInstance().getStatus();
+                if (status == TaskInstanceStatus.SUCCESS) {
+                    this.successCount++;
+                }
+                if (status.isCompleted()) {
+                    this.completedCount++;
+                }
+                int pending = 0;
+                for (TaskInstanceWithDependency predecessor : taskInstanceWd.getPredecessors()) {
+                    if (predecessor.getTaskInstance().getStatus() != TaskInstanceStatus.SUCCESS) {
+                        pending++;
+                    }
+                }
+                taskInstanceWd.setPendingDependencies(pending);
+                if ((pending == 0) && (status == TaskInstanceStatus.DEPENDENCY_WAIT)) {
+                    this.waiting.add(taskInstanceWd);
+                }
+            }
+        }
+
+        /**
+         * 事件驱动时修改单个节点的状态，同时维护计数
+         */
+        void setStatus(TaskInstanceWithDependency taskInstanceWd, TaskInstanceStatus status) {
+            TaskInstanceStatus old = taskInstanceWd.getTaskInstance().getStatus();
+            taskInstanceWd.getTaskInstance().setStatus(status);
+            if ((status == TaskInstanceStatus.SUCCESS) && (old != TaskInstanceStatus.SUCCESS)) {
+                this.successCount++;
+            }
+            if (status.isCompleted() && !old.isCompleted()) {
+                this.completedCount++;
+            }
+        }
+    }
+
+    private static class Event {
+
+        final Long               workflowInstanceId;
+        /** 为null表示需要完整检查该工作流 */
+        final Long               taskInstanceId;
+        final TaskInstanceStatus status;
+        final long               createTime = System.currentTimeMillis();
+
+        Event(Long workflowInstanceId, Long taskInstanceId, TaskInstanceStatus status) {
+            this.workflowInstanceId = workflowInstanceId;
+            this.taskInstanceId = taskInstanceId;
+            this.status = status;
+        }
+    }
+
+    /**
+     * 一个worker线程，处理散列到自己或接手过来的工作流实例
+     */
+    private class Shard extends Thread {
+
+        final int                    index;
+        final BlockingQueue<Event>   events       = new LinkedBlockingQueue<Event>();
+        /** 请求本shard交出一个工作流实例的空闲shard */
+        final AtomicReference<Shard> stealRequest = new AtomicReference<Shard>();
+
+        final AtomicLong             handledCount = new AtomicLong();
+        final AtomicLong             totalLag     = new AtomicLong();
+        volatile long                maxLag;
+        /** 正在处理的事件开始的时间，空闲时为0 */
+        volatile long                busySince;
+        final AtomicLong             stolenCount  = new AtomicLong();
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            AbstractWorkflowEngine engine = AbstractWorkflowEngine.this;
+            long nextCheckTime = 0;
+            // 各shard的全量检查错开
+            long nextReconcileTime = (RECONCILE_INTERVAL * this.index) / engine.shards.length;
+            while (!engine.closed.get()) {
+                try {
+                    long now = System.currentTimeMillis();
+                    if (now >= nextReconcileTime) {
+                        reconcile(this);
+                        nextReconcileTime = now + RECONCILE_INTERVAL;
+                        nextCheckTime = now + getCheckIntervalMilliseconds();
+                        continue;
+                    }
+                    if (now >= nextCheckTime) {
+                        checkWaiting(this);
+                        nextCheckTime = now + getCheckIntervalMilliseconds();
+                        continue;
+                    }
+
+                    long timeout = Math.min(nextCheckTime, nextReconcileTime) - now;
+                    if (engine.workStealing) {
+                        timeout = Math.min(timeout, STEAL_INTERVAL);
+                    }
+                    Event event = this.events.poll(timeout, TimeUnit.MILLISECONDS);
+                    if (event != null) {
+                        long start = System.currentTimeMillis();
+                        recordLag(start - event.createTime);
+                        this.busySince = start;
+                        try {
+                            handle(this, event);
+                        } finally {
+                            this.busySince = 0;
+                        }
+                        handOffIfRequested();
+                    } else if (engine.workStealing) {
+                        requestSteal();
+                    }
+                } catch (InterruptedException e) {
+                    // ignore
+                } catch (Throwable e) {
+                    LOGGER.error(e.getMessage(), e);
+                }
+            }
+        }
+
+        private void recordLag(long lag) {
+            this.handledCount.incrementAndGet();
+            this.totalLag.addAndGet(lag);
+            if (lag > this.maxLag) {
+                this.maxLag = lag;
+            }
+        }
+
+        /**
+         * 空闲时找积压最多的shard，请求它交出一个工作流实例
+         */
+        private void requestSteal() {
+            Shard victim = null;
+            for (Shard shard : AbstractWorkflowEngine.this.shards) {
+                if ((shard != this) && (shard.events.size() >= STEAL_THRESHOLD)
+                    && ((victim == null) || (shard.events.size() > victim.events.size()))) {
+                    victim = shard;
+                }
+            }
+            if (victim != null) {
+                victim.stealRequest.compareAndSet(null, this);
+            }
+        }
+
+        /**
+         * 在两个事件之间，把队首事件所属的工作流实例连同它排队的事件交给请求的shard
+         */
+        private void handOffIfRequested() {
+            Shard thief = this.stealRequest.getAndSet(null);
+            if (thief == null) {
+                return;
+            }
+            Event head = this.events.peek();
+            Pair pair = head == null ? null : AbstractWorkflowEngine.this.runningWorkflows.get(head.workflowInstanceId);
+            if ((pair == null) || (pair.owner != this)) {
+                return;
+            }
+            pair.owner = thief;
+            Iterator<Event> it = this.events.iterator();
+            while (it.hasNext()) {
+                Event event = it.next();
+                if (event.workflowInstanceId.equals(head.workflowInstanceId)) {
+                    it.remove();
+                    thief.events.offer(event);
+                }
+            }
+            thief.stolenCount.incrementAndGet();
+        }
+
+        Map<String, Object> getMetrics() {
+            Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+            int workflows = 0;
+            for (Pair pair : AbstractWorkflowEngine.this.runningWorkflows.values()) {
+                if (pair.owner == this) {
+                    workflows++;
+                }
+            }
+            long handled = this.handledCount.get();
+            long busySince = this.busySince;
+            Event head = this.events.peek();
+            long now = System.currentTimeMillis();
+            metrics.put("name", getName());
+            metrics.put("workflows", workflows);
+            metrics.put("queueSize", this.events.size());
+            metrics.put("handledCount", handled);
+            metrics.put("lagAvgMs", handled == 0 ? 0 : this.totalLag.get() / handled);
+            metrics.put("lagMaxMs", this.maxLag);
+            // 队首事件已等待的时间
+            metrics.put("headLagMs", head == null ? 0 : now - head.createTime);
+            metrics.put("busyMs", busySince == 0 ? 0 : now - busySince);
+            metrics.put("stolenCount", this.stolenCount.get());
+            return metrics;
+        }
     }
 }
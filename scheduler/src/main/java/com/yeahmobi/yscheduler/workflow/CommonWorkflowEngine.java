@@ -1,28 +1,23 @@
 package com.yeahmobi.yscheduler.workflow;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import javax.annotation.PostConstruct;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Maps;
 import com.yeahmobi.yscheduler.common.Constants;
 import com.yeahmobi.yscheduler.model.TaskInstance;
 import com.yeahmobi.yscheduler.model.Team;
+import com.yeahmobi.yscheduler.model.TeamWorkflowInstanceStatus;
 import com.yeahmobi.yscheduler.model.Workflow;
 import com.yeahmobi.yscheduler.model.WorkflowInstance;
 import com.yeahmobi.yscheduler.model.service.TeamService;
 import com.yeahmobi.yscheduler.model.service.TeamWorkflowStatusInstanceService;
-import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
 import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
 
 /**
@@ -39,6 +34,9 @@ public class CommonWorkflowEngine extends AbstractWorkflowEngine {
     @Autowired
     private TeamService                         teamService;
 
+    /** workflowInstanceId -> team状态汇总，只在工作流所属的shard线程中修改 */
+    private Map<Long, TeamStatusAggregator>     teamStatus     = new ConcurrentHashMap<Long, TeamStatusAggregator>();
+
     @Override
     protected List<WorkflowInstance> getAllRunningWorkflowInstances() {
         return this.workflowInstanceService.getAllRunning(true);
@@ -54,31 +52,6 @@ public class CommonWorkflowEngine extends AbstractWorkflowEngine {
         return CHECK_INTERVAL;
     }
 
-    @Override
-    @PostConstruct
-    public void init() {
-        super.init();
-        for (Map.Entry<Long, Pair> runningWorkflowEntry : this.runningWorkflows.entrySet()) {
-            Long workflowInstanceId = runningWorkflowEntry.getKey();
-            Map<Long, TaskInstanceWithDependency> taskInstanceWdMap = runningWorkflowEntry.getValue().taskInstances;
-
-            Collection<TaskInstanceWithDependency> taskInstanceWithDependencies = taskInstanceWdMap.values();
-
-            Collection<TaskInstanceWithDependency> taskInstanceWithDependenciesChanged = new ArrayList<TaskInstanceWithDependency>();
-            if (taskInstanceWithDependencies != null) {
-                for (TaskInstanceWithDependency instance : taskInstanceWithDependencies) {
-                    // 和fetchLatestStatus逻辑一样，排除DEPENDENCY_WAIT
-                    if (instance.getTaskInstance().getStatus() != TaskInstanceStatus.DEPENDENCY_WAIT) {
-                        taskInstanceWithDependenciesChanged.add(instance);
-                    }
-                }
-            }
-
-            // 处理team的状态。
-            updateTeamStatus(workflowInstanceId, taskInstanceWdMap, taskInstanceWithDependenciesChanged);
-        }
-    }
-
     @Override
     protected void checkAndExecute(Map.Entry<Long, Pair> runningWorkflowEntry) {
 
@@ -90,14 +63,15 @@ public class CommonWorkflowEngine extends AbstractWorkflowEngine {
             return;
         }
 
+        runningWorkflowEntry.getValue().workflowInstance = workflowInstance;
+
         Collection<TaskInstanceWithDependency> taskInstanceWithDependencies = taskInstanceWdMap.values();
 
-        List<TaskInstanceWithDependency> taskInstancesStatusChanged = fetchLatestStatus(taskInstanceWithDependencies);
+        fetchLatestStatus(taskInstanceWithDependencies);
+        runningWorkflowEntry.getValue().recount();
 
-        // 处理状态变化的team的节点。
-        if (taskInstancesStatusChanged.size() > 0) {
-            updateTeamStatus(workflowInstanceId, taskInstanceWdMap, taskInstancesStatusChanged);
-        }
+        // 只在内存中比较各节点已计入的状态，取消等本地修改的状态也会在这里汇总
+        updateTeamStatus(workflowInstanceId, taskInstanceWdMap, taskInstanceWithDependencies);
 
         boolean cancelled = handleCancelIfNeeded(workflowInstanceId, taskInstanceWithDependencies);
 
@@ -107,120 +81,87 @@ public class CommonWorkflowEngine extends AbstractWorkflowEngine {
             if (!cancelled) {
                 // 判断依赖是否满足
                 for (TaskInstanceWithDependency taskInstanceWd : taskInstanceWdMap.values()) {
-                    submitToTaskInstanceExecutorIfConditionSatisfy(workflow, workflowInstance,
-                                                                   taskInstanceWithDependencies, taskInstanceWd);
+                    submitToTaskInstanceExecutorIfConditionSatisfy(workflow, workflowInstance, taskInstanceWd);
                 }
             }
         }
 
     }
 
+    @Override
+    protected void onTaskSuccess(Long workflowInstanceId, Pair pair, TaskInstanceWithDependency taskInstanceWd) {
+        List<TaskInstanceWithDependency> changed = Collections.singletonList(taskInstanceWd);
+        updateTeamStatus(workflowInstanceId, pair.taskInstances, changed);
+
+        if (pair.completedCount == pair.taskInstances.size()) {
+            workflowSuccess(workflowInstanceId);
+            return;
+        }
+        submitSuccessors(pair, taskInstanceWd);
+    }
+
+    @Override
+    protected void workflowSuccess(Long workflowInstanceId) {
+        super.workflowSuccess(workflowInstanceId);
+        this.teamStatus.remove(workflowInstanceId);
+    }
+
     private void updateTeamStatus(Long workflowInstanceId, Map<Long, TaskInstanceWithDependency> taskInstanceWdMap,
                                   Collection<TaskInstanceWithDependency> taskInstancesStatusChanged) {
-        Map<Long, WorkflowInstanceStatus> teamIdToWorkflowInstanceStatusMap = calStatus(taskInstanceWdMap,
-                                                                                        taskInstancesStatusChanged);
-        for (Map.Entry<Long, WorkflowInstanceStatus> entry : teamIdToWorkflowInstanceStatusMap.entrySet()) {
+        TeamStatusAggregator aggregator = this.teamStatus.get(workflowInstanceId);
+        if (aggregator == null) {
+            aggregator = createAggregator(workflowInstanceId, taskInstanceWdMap);
+            this.teamStatus.put(workflowInstanceId, aggregator);
+        } else {
+            for (TaskInstanceWithDependency taskInstanceWd : taskInstancesStatusChanged) {
+                TaskInstance taskInstance = taskInstanceWd.getTaskInstance();
+                aggregator.update(taskInstance.getId(), taskInstance.getStatus());
+            }
+        }
+        for (Map.Entry<Long, WorkflowInstanceStatus> entry : aggregator.drainChanged().entrySet()) {
             long teamId = entry.getKey();
             WorkflowInstanceStatus status = entry.getValue();
             this.teamWorkflowInstanceStatusService.updateStatus(teamId, workflowInstanceId, status);
         }
     }
 
-    private Map<Long, WorkflowInstanceStatus> calStatus(Map<Long, TaskInstanceWithDependency> taskInstanceWdMap,
-                                                        Collection<TaskInstanceWithDependency> taskInstancesStatusChanged) {
-        Set<Long> teamIds = new HashSet<Long>();
-        for (TaskInstanceWithDependency taskInstanceWithDependency : taskInstancesStatusChanged) {
-            Long teamId = getRealTeamId(taskInstanceWithDependency);
-
-            if (teamId != null) {
-                teamIds.add(teamId);
-            }
-        }
-        Map<Long, List<TaskInstance>> teamIdToTaskInstancesMap = new HashMap<Long, List<TaskInstance>>();
+    /**
+     * 工作流实例提交或调度器重启后第一次汇总：确定每个节点实际所属的team，并读取库中已有的team状态
+     */
+    private TeamStatusAggregator createAggregator(Long workflowInstanceId,
+                                                  Map<Long, TaskInstanceWithDependency> taskInstanceWdMap) {
+        TeamStatusAggregator aggregator = new TeamStatusAggregator();
+        Map<String, Long> rootTeamIds = new HashMap<String, Long>();
         for (TaskInstanceWithDependency taskInstanceWd : taskInstanceWdMap.values()) {
-            Long teamId = getRealTeamId(taskInstanceWd);
-            if (teamId == null) {
-                continue;
-            }
-            if (teamIds.contains(teamId)) {
-                if (!teamIdToTaskInstancesMap.containsKey(teamId)) {
-                    teamIdToTaskInstancesMap.put(teamId, new ArrayList<TaskInstance>());
-                }
-                teamIdToTaskInstancesMap.get(teamId).add(taskInstanceWd.getTaskInstance());
-            }
+            TaskInstance taskInstance = taskInstanceWd.getTaskInstance();
+            aggregator.add(taskInstance.getId(), getRealTeamId(taskInstanceWd, rootTeamIds), taskInstance.getStatus());
         }
-        return Maps.transformValues(teamIdToTaskInstancesMap,
-                                    new Function<List<TaskInstance>, WorkflowInstanceStatus>() {
-
-                                        public WorkflowInstanceStatus apply(List<TaskInstance> taskInstances) {
-                                            return calStatusByTaskInstance(taskInstances);
-                                        }
-                                    });
-
+        List<TeamWorkflowInstanceStatus> writtenStatuses = this.teamWorkflowInstanceStatusService.listByWorkflowInstanceId(workflowInstanceId);
+        for (TeamWorkflowInstanceStatus written : writtenStatuses) {
+            aggregator.setWritten(written.getTeamId(), written.getStatus());
+        }
+        return aggregator;
     }
 
-    private Long getRealTeamId(TaskInstanceWithDependency taskInstanceWithDependency) {
+    /**
+     * team根节点属于它代表的team，其他节点属于owner的team
+     */
+    private Long getRealTeamId(TaskInstanceWithDependency taskInstanceWithDependency, Map<String, Long> rootTeamIds) {
         Long teamId = null;
         List<Long> dependencies = taskInstanceWithDependency.getDependencies();
         String taskName = taskInstanceWithDependency.getTask().getName();
         boolean isTeamRoot = (dependencies.size() == 1) && this.taskService.isRootTask(taskName);
         if (isTeamRoot) {
-            Team team = this.teamService.get(taskName.substring(1, taskName.length() - Constants.ROOT_NODE.length()));
-            teamId = team.getId();
+            teamId = rootTeamIds.get(taskName);
+            if (teamId == null) {
+                String teamName = taskName.substring(1, taskName.length() - Constants.ROOT_NODE.length());
+                Team team = this.teamService.get(teamName);
+                teamId = team.getId();
+                rootTeamIds.put(taskName, teamId);
+            }
         } else {
             teamId = taskInstanceWithDependency.getTeamId();
         }
         return teamId;
     }
-
-    private WorkflowInstanceStatus calStatusByTaskInstance(List<TaskInstance> taskInstances) {
-        WorkflowInstanceStatus workflowInstanceStatus = null;
-
-        int statusMark = 0;
-        for (TaskInstance instance : taskInstances) {
-            TaskInstanceStatus status = instance.getStatus();
-            if (!status.isCompleted()) {
-                statusMark |= (1 << 3);
-                workflowInstanceStatus = WorkflowInstanceStatus.RUNNING;
-                break;
-            } else if (status == TaskInstanceStatus.FAILED) {
-                statusMark |= (1 << 2);
-            } else if (status == TaskInstanceStatus.CANCELLED) {
-                statusMark |= (1 << 1);
-            } else if (status == TaskInstanceStatus.SUCCESS) {
-                statusMark |= 1;
-            } else {// 其他状态也当作是fail
-                statusMark |= (1 << 2);
-            }
-        }
-        if (workflowInstanceStatus == null) {
-            int m = getLeftStatusMark(statusMark);
-            switch (m) {
-                case 4:
-                    workflowInstanceStatus = WorkflowInstanceStatus.RUNNING;
-                    break;
-                case 3:
-                    workflowInstanceStatus = WorkflowInstanceStatus.FAILED;
-                    break;
-                case 2:
-                    workflowInstanceStatus = WorkflowInstanceStatus.CANCELLED;
-                    break;
-                case 1:
-                    workflowInstanceStatus = WorkflowInstanceStatus.SUCCESS;
-                    break;
-            }
-        }
-
-        return workflowInstanceStatus;
-    }
-
-    /**
-     * 得到statusMark的最左1的位置，位置從左数起。
-     */
-    private static int getLeftStatusMark(int statusMark) {
-        int i = 1;
-        while ((statusMark >>> i) != 0)
-            i++;
-        return i;
-    }
 }
@@ -1,7 +1,9 @@
 package com.yeahmobi.yscheduler.workflow;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
 
@@ -9,6 +11,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import com.yeahmobi.yscheduler.cluster.PartitionListener;
+import com.yeahmobi.yscheduler.cluster.PartitionManager;
 import com.yeahmobi.yscheduler.model.TaskInstance;
 import com.yeahmobi.yscheduler.model.Workflow;
 import com.yeahmobi.yscheduler.model.WorkflowDetail;
@@ -46,11 +50,38 @@ public class DefaultWorkflowExecutor implements WorkflowExecutor {
     @Qualifier("common")
     private WorkflowEngine          commonWorkflowEngine;
 
+    @Autowired
+    private PartitionManager        partitionManager;
+
     @PostConstruct
     public void init() {
+        recover(this.partitionManager.getRecoveringOnStartup());
+        this.partitionManager.addListener(new PartitionListener() {
+
+            public void onAssigned(Set<Integer> partitions, Set<Integer> recovering) {
+                if (!recovering.isEmpty()) {
+                    recover(recovering);
+                }
+            }
+
+            public void onRevoked(Set<Integer> partitions) {
+            }
+
+            public Set<Integer> getBusyPartitions() {
+                return Collections.emptySet();
+            }
+        });
+    }
+
+    /**
+     * 提交属于partitions的INITED工作流实例
+     */
+    private void recover(Set<Integer> partitions) {
         List<WorkflowInstance> instances = this.workflowInstanceService.getAllInits();
         for (WorkflowInstance instance : instances) {
-            submit(this.workflowService.get(instance.getWorkflowId()), instance);
+            if (partitions.contains(this.partitionManager.partitionOf(instance.getWorkflowId()))) {
+                submit(this.workflowService.get(instance.getWorkflowId()), instance);
+            }
         }
     }
 
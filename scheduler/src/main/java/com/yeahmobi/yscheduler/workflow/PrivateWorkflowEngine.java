@@ -43,9 +43,12 @@ public class PrivateWorkflowEngine extends AbstractWorkflowEngine {
             return;
         }
 
+        runningWorkflowEntry.getValue().workflowInstance = workflowInstance;
+
         Collection<TaskInstanceWithDependency> taskInstanceWithDependencies = taskInstances.values();
 
         fetchLatestStatus(taskInstanceWithDependencies);
+        runningWorkflowEntry.getValue().recount();
 
         boolean cancelled = handleCancelIfNeeded(workflowInstanceId, taskInstanceWithDependencies);
 
@@ -83,10 +86,18 @@ public class PrivateWorkflowEngine extends AbstractWorkflowEngine {
 
             // 判断依赖是否满足
             for (TaskInstanceWithDependency taskInstanceWd : taskInstances.values()) {
-                submitToTaskInstanceExecutorIfConditionSatisfy(workflow, workflowInstance,
-                                                               taskInstanceWithDependencies, taskInstanceWd);
+                submitToTaskInstanceExecutorIfConditionSatisfy(workflow, workflowInstance, taskInstanceWd);
             }
         }
 
     }
+
+    @Override
+    protected void onTaskSuccess(Long workflowInstanceId, Pair pair, TaskInstanceWithDependency taskInstanceWd) {
+        if (pair.successCount == pair.taskInstances.size()) {
+            workflowSuccess(workflowInstanceId);
+            return;
+        }
+        submitSuccessors(pair, taskInstanceWd);
+    }
 }
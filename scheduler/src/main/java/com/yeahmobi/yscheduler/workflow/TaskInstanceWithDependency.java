@@ -1,22 +1,35 @@
 package com.yeahmobi.yscheduler.workflow;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.yeahmobi.yscheduler.model.Task;
 import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.WorkflowDetail;
 
 /**
  * @author Ryan Sun
  */
 public class TaskInstanceWithDependency {
 
-    private Task         task;
+    private Task                             task;
 
-    private Long         teamId;
+    private Long                             teamId;
 
-    private TaskInstance taskInstance;
+    private WorkflowDetail                   detail;
 
-    private List<Long>   dependencies;
+    private TaskInstance                     taskInstance;
+
+    private List<Long>                       dependencies;
+
+    /** 依赖的节点 */
+    private List<TaskInstanceWithDependency> predecessors = new ArrayList<TaskInstanceWithDependency>();
+
+    /** 依赖本节点的节点 */
+    private List<TaskInstanceWithDependency> successors   = new ArrayList<TaskInstanceWithDependency>();
+
+    /** 尚未成功的依赖数，为0时才需要检查其他执行条件 */
+    private int                              pendingDependencies;
 
     public TaskInstanceWithDependency(Task task, Long teamId, TaskInstance taskInstance, List<Long> dependencies) {
         super();
@@ -42,6 +55,14 @@ public class TaskInstanceWithDependency {
         this.teamId = teamId;
     }
 
+    public WorkflowDetail getDetail() {
+        return this.detail;
+    }
+
+    public void setDetail(WorkflowDetail detail) {
+        this.detail = detail;
+    }
+
     public TaskInstance getTaskInstance() {
         return this.taskInstance;
     }
@@ -58,4 +79,20 @@ public class TaskInstanceWithDependency {
         this.dependencies = dependencies;
     }
 
+    public List<TaskInstanceWithDependency> getPredecessors() {
+        return this.predecessors;
+    }
+
+    public List<TaskInstanceWithDependency> getSuccessors() {
+        return this.successors;
+    }
+
+    public int getPendingDependencies() {
+        return this.pendingDependencies;
+    }
+
+    public void setPendingDependencies(int pendingDependencies) {
+        this.pendingDependencies = pendingDependencies;
+    }
+
 }
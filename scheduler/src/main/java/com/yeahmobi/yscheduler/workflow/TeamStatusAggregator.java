@@ -0,0 +1,141 @@
+package com.yeahmobi.yscheduler.workflow;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
+
+/**
+ * 公共工作流实例中各team状态的增量汇总：每个team按运行中、失败、取消、成功四类计数，
+ * 节点状态变化时只调整它所属team的计数，team状态由计数O(1)得出。<br>
+ * 记录每个team最近写入的状态，只有状态真正变化的team才需要写库。只在工作流所属的shard线程中使用。
+ */
+class TeamStatusAggregator {
+
+    private static final int                        RUNNING   = 0;
+
+    /** FAILED以及其他非取消、非成功的结束状态 */
+    private static final int                        FAILED    = 1;
+
+    private static final int                        CANCELLED = 2;
+
+    private static final int                        SUCCESS   = 3;
+
+    /** taskInstanceId -> 节点 */
+    private final Map<Long, Node>                   nodes     = new HashMap<Long, Node>();
+
+    private final Map<Long, int[]>                  counters  = new HashMap<Long, int[]>();
+
+    /** team最近写入(或库中已有)的状态 */
+    private final Map<Long, WorkflowInstanceStatus> written   = new HashMap<Long, WorkflowInstanceStatus>();
+
+    /** 计数变化后尚未检查的team */
+    private final Set<Long>                         dirty     = new LinkedHashSet<Long>();
+
+    /**
+     * @param teamId 节点实际所属的team，team根节点属于它代表的team；为null的节点不参与汇总
+     */
+    void add(long taskInstanceId, Long teamId, TaskInstanceStatus status) {
+        if (teamId == null) {
+            return;
+        }
+        int category = categorize(status);
+        this.nodes.put(taskInstanceId, new Node(teamId, category));
+        int[] counter = this.counters.get(teamId);
+        if (counter == null) {
+            counter = new int[4];
+            this.counters.put(teamId, counter);
+        }
+        counter[category]++;
+        this.dirty.add(teamId);
+    }
+
+    /**
+     * 记录库中已有的team状态，相同的状态不再重复写入
+     */
+    void setWritten(long teamId, WorkflowInstanceStatus status) {
+        this.written.put(teamId, status);
+    }
+
+    /**
+     * 节点状态可能变化时调用，只有分类变化才会调整计数
+     */
+    void update(long taskInstanceId, TaskInstanceStatus status) {
+        Node node = this.nodes.get(taskInstanceId);
+        if (node == null) {
+            return;
+        }
+        int category = categorize(status);
+        if (category != node.category) {
+            int[] counter = this.counters.get(node.teamId);
+            counter[node.category]--;
+            counter[category]++;
+            node.category = category;
+            this.dirty.add(node.teamId);
+        }
+    }
+
+    /**
+     * 返回状态与最近写入不同的team及其新状态，并视为已写入
+     */
+    Map<Long, WorkflowInstanceStatus> drainChanged() {
+        if (this.dirty.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Long, WorkflowInstanceStatus> changed = new LinkedHashMap<Long, WorkflowInstanceStatus>();
+        for (Long teamId : this.dirty) {
+            WorkflowInstanceStatus status = getStatus(teamId);
+            if (status != this.written.get(teamId)) {
+                this.written.put(teamId, status);
+                changed.put(teamId, status);
+            }
+        }
+        this.dirty.clear();
+        return changed;
+    }
+
+    /**
+     * 与原来按节点逐个计算的规则一致：有未结束的为RUNNING，否则依次看是否有失败、取消，都没有为SUCCESS
+     */
+    WorkflowInstanceStatus getStatus(long teamId) {
+        int[] counter = this.counters.get(teamId);
+        if (counter == null) {
+            return null;
+        }
+        if (counter[RUNNING] > 0) {
+            return WorkflowInstanceStatus.RUNNING;
+        } else if (counter[FAILED] > 0) {
+            return WorkflowInstanceStatus.FAILED;
+        } else if (counter[CANCELLED] > 0) {
+            return WorkflowInstanceStatus.CANCELLED;
+        }
+        return WorkflowInstanceStatus.SUCCESS;
+    }
+
+    private static int categorize(TaskInstanceStatus status) {
+        if (!status.isCompleted()) {
+            return RUNNING;
+        } else if (status == TaskInstanceStatus.SUCCESS) {
+            return SUCCESS;
+        } else if (status == TaskInstanceStatus.CANCELLED) {
+            return CANCELLED;
+        }
+        return FAILED;
+    }
+
+    private static class Node {
+
+        final long teamId;
+        int        category;
+
+        Node(long teamId, int category) {
+            this.teamId = teamId;
+            this.category = category;
+        }
+    }
+}
@@ -0,0 +1,611 @@
+package com.yeahmobi.yscheduler.cluster;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
+import com.yeahmobi.yscheduler.executor.TaskInstanceListener;
+import com.yeahmobi.yscheduler.model.SchedulerCommand;
+import com.yeahmobi.yscheduler.model.SchedulerLease;
+import com.yeahmobi.yscheduler.model.SchedulerNode;
+import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.Workflow;
+import com.yeahmobi.yscheduler.model.WorkflowInstance;
+import com.yeahmobi.yscheduler.model.dao.SchedulerLeaseDao;
+import com.yeahmobi.yscheduler.model.service.SchedulerLeaseService;
+import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
+import com.yeahmobi.yscheduler.model.service.WorkflowInstanceService;
+import com.yeahmobi.yscheduler.model.service.WorkflowService;
+import com.yeahmobi.yscheduler.model.service.impl.SchedulerLeaseServiceImpl;
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+import com.yeahmobi.yscheduler.workflow.WorkflowEngineTest;
+import com.yeahmobi.yscheduler.workflow.WorkflowExecutor;
+
+/**
+ * 在同一个JVM中启动多个调度节点，共用内存中的租约表，验证分区的划分、移交、故障接手和命令路由
+ */
+public class PartitionClusterTest {
+
+    private static final int      PARTITIONS = 16;
+
+    /** 续约间隔为LEASE_TIME/3，线程停顿超过2/3个LEASE_TIME时getOwned()会变空，留足余量 */
+    private static final long     LEASE_TIME = 1500;
+
+    private MemoryLeaseDao        dao;
+
+    private SchedulerLeaseService schedulerLeaseService;
+
+    private final List<Node>      nodes      = new ArrayList<Node>();
+
+    @Before
+    public void before() {
+        this.dao = new MemoryLeaseDao();
+        this.schedulerLeaseService = new SchedulerLeaseServiceImpl();
+        inject(this.schedulerLeaseService, "schedulerLeaseDao", this.dao);
+        System.setProperty("ysheduler.cluster.enabled", "true");
+        System.setProperty("ysheduler.cluster.partitions", String.valueOf(PARTITIONS));
+        System.setProperty("ysheduler.cluster.leaseTime", String.valueOf(LEASE_TIME));
+        System.setProperty("ysheduler.cluster.commandInterval", "50");
+    }
+
+    @After
+    public void after() {
+        for (Node node : this.nodes) {
+            node.close();
+        }
+        System.clearProperty("ysheduler.cluster.enabled");
+        System.clearProperty("ysheduler.cluster.partitions");
+        System.clearProperty("ysheduler.cluster.leaseTime");
+        System.clearProperty("ysheduler.cluster.commandInterval");
+        System.clearProperty("ysheduler.cluster.nodeId");
+    }
+
+    @Test
+    public void testJoinRebalance() throws Exception {
+        final Node node1 = start("node-1");
+        Assert.assertEquals(PARTITIONS, node1.manager.getHeld().size());
+        Node node2 = start("node-2");
+        Node node3 = start("node-3");
+        waitBalanced(node1, node2, node3);
+
+        // 新获得的分区都要恢复，包括正常移交过来的
+        Assert.assertEquals(allPartitions(), node1.recovered);
+        for (final Node node : new Node[] { node2, node3 }) {
+            // 加入时可能先多拿后移交，持有的是恢复过的一部分
+            waitFor(new Condition() {
+
+                public boolean check() {
+                    return node.recovered.containsAll(node.manager.getHeld());
+                }
+            });
+            Assert.assertEquals(node.assigned, node.recovered);
+        }
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return !node1.revoked.isEmpty();
+            }
+        });
+    }
+
+    /**
+     * 节点失联，租约过期后由存活节点接手并恢复
+     */
+    @Test
+    public void testFailover() throws Exception {
+        Node node1 = start("node-1");
+        Node node2 = start("node-2");
+        waitBalanced(node1, node2);
+        Set<Integer> orphans = new TreeSet<Integer>(node2.manager.getHeld());
+        node1.recovered.clear();
+
+        this.dao.disconnect("node-2");
+        waitRecovered(node1, orphans);
+        Assert.assertEquals(PARTITIONS, node1.manager.getOwned().size());
+        Assert.assertTrue(node2.manager.getOwned().isEmpty());
+    }
+
+    /**
+     * 正常停止的节点租约立即过期，由存活节点接手并恢复
+     */
+    @Test
+    public void testClose() throws Exception {
+        Node node1 = start("node-1");
+        Node node2 = start("node-2");
+        waitBalanced(node1, node2);
+        Set<Integer> orphans = new TreeSet<Integer>(node2.manager.getHeld());
+        node1.recovered.clear();
+
+        long begin = System.currentTimeMillis();
+        node2.close();
+        waitRecovered(node1, orphans);
+        Assert.assertEquals(PARTITIONS, node1.manager.getOwned().size());
+        Assert.assertTrue((System.currentTimeMillis() - begin) < (LEASE_TIME * 3));
+    }
+
+    /**
+     * 仍有运行中实例的分区不移交，只停止调度；实例结束后再移交
+     */
+    @Test
+    public void testBusyNotHandedOff() throws Exception {
+        final Node node1 = start("node-1");
+        node1.busy.addAll(allPartitions());
+        Node node2 = start("node-2");
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return node1.manager.getOwned().size() == (PARTITIONS / 2);
+            }
+        });
+        // 再过几轮续约，仍不移交
+        TimeUnit.MILLISECONDS.sleep(LEASE_TIME);
+        Assert.assertEquals(PARTITIONS, node1.manager.getHeld().size());
+        Assert.assertEquals(PARTITIONS / 2, node1.manager.getOwned().size());
+        Assert.assertTrue(node2.manager.getHeld().isEmpty());
+        Assert.assertTrue(node1.revoked.isEmpty());
+        Set<Integer> draining = new TreeSet<Integer>(allPartitions());
+        draining.removeAll(node1.manager.getOwned());
+        for (Integer partition : draining) {
+            Assert.assertFalse(node1.manager.ownsTask(partition));
+        }
+
+        node1.busy.clear();
+        waitBalanced(node1, node2);
+        Assert.assertEquals(draining, node2.manager.getHeld());
+        waitRecovered(node2, draining);
+    }
+
+    /**
+     * 待移交的分区又不需要移交时，重新开始调度
+     */
+    @Test
+    public void testUndrain() throws Exception {
+        final Node node1 = start("node-1");
+        node1.busy.addAll(allPartitions());
+        Node node2 = start("node-2");
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return node1.manager.getOwned().size() == (PARTITIONS / 2);
+            }
+        });
+        node1.assigned.clear();
+        node1.recovered.clear();
+        this.dao.disconnect("node-2");
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return node1.assigned.size() == (PARTITIONS / 2);
+            }
+        });
+        Assert.assertEquals(PARTITIONS, node1.manager.getOwned().size());
+        // 一直由本节点持有，不需要恢复
+        Assert.assertTrue(node1.recovered.isEmpty());
+        Assert.assertTrue(node2.manager.getHeld().isEmpty());
+    }
+
+    @Test
+    public void testCommandRouting() throws Exception {
+        Node node1 = start("node-1");
+        Node node2 = start("node-2");
+        waitBalanced(node1, node2);
+        // partitionOf(id) = id % PARTITIONS
+        long local = node1.manager.getHeld().iterator().next();
+        long remote = node2.manager.getHeld().iterator().next();
+
+        final Map<Long, TaskInstance> instances = new HashMap<Long, TaskInstance>();
+        final Map<Long, WorkflowInstance> workflowInstances = new HashMap<Long, WorkflowInstance>();
+        for (long id : new long[] { local, remote }) {
+            TaskInstance instance = new TaskInstance();
+            instance.setId(id + 100);
+            instance.setTaskId(id);
+            instance.setStatus(TaskInstanceStatus.READY);
+            instances.put(instance.getId(), instance);
+            WorkflowInstance workflowInstance = new WorkflowInstance();
+            workflowInstance.setId(id + 200);
+            workflowInstance.setWorkflowId(id);
+            workflowInstances.put(workflowInstance.getId(), workflowInstance);
+        }
+        Object instanceDelegate = new Object() {
+
+            public TaskInstance get(long id) {
+                return instances.get(id);
+            }
+        };
+        Object workflowInstanceDelegate = new Object() {
+
+            public WorkflowInstance get(long id) {
+                return workflowInstances.get(id);
+            }
+        };
+        TaskInstanceService taskInstanceService = WorkflowEngineTest.stub(TaskInstanceService.class, instanceDelegate);
+        WorkflowInstanceService workflowInstanceService = WorkflowEngineTest.stub(WorkflowInstanceService.class,
+                                                                                  workflowInstanceDelegate);
+        WorkflowService workflowService = WorkflowEngineTest.stub(WorkflowService.class, new Object());
+        node1.startRouter(taskInstanceService, workflowInstanceService, workflowService);
+        node2.startRouter(taskInstanceService, workflowInstanceService, workflowService);
+
+        // 本节点的分区直接执行
+        node1.router.submitTaskInstance(instances.get(local + 100));
+        Assert.assertEquals(Collections.singletonList("submit " + (local + 100)), node1.calls);
+
+        // 其他节点的分区交给持有节点执行
+        node1.calls.clear();
+        node1.router.submitTaskInstance(instances.get(remote + 100));
+        node1.router.cancelTaskInstance(remote + 100);
+        node1.router.cancelWorkflowInstance(remote + 200);
+        waitCalls(node2, 3);
+        Assert.assertEquals(Arrays.asList("submit " + (remote + 100), "cancel " + (remote + 100), "cancelWorkflow "
+                                                                                                  + (remote + 200)),
+                            new ArrayList<String>(node2.calls));
+        // 取消先在本节点执行一次，其余不在本节点执行
+        Assert.assertEquals(Arrays.asList("cancel " + (remote + 100), "cancelWorkflow " + (remote + 200)),
+                            new ArrayList<String>(node1.calls));
+        Assert.assertTrue(this.dao.selectCommands(new ArrayList<Integer>(allPartitions())).isEmpty());
+    }
+
+    private Node start(String nodeId) {
+        System.setProperty("ysheduler.cluster.nodeId", nodeId);
+        Node node = new Node();
+        this.nodes.add(node);
+        node.start();
+        return node;
+    }
+
+    private void waitBalanced(final Node... nodes) throws InterruptedException {
+        waitFor(new Condition() {
+
+            public boolean check() {
+                int target = ((PARTITIONS + nodes.length) - 1) / nodes.length;
+                Set<Integer> union = new TreeSet<Integer>();
+                int total = 0;
+                for (Node node : nodes) {
+                    Set<Integer> held = node.manager.getHeld();
+                    if ((held.size() > target) || !node.manager.getOwned().equals(held)) {
+                        return false;
+                    }
+                    total += held.size();
+                    union.addAll(held);
+                }
+                // 不重叠且全部分区都有节点持有
+                return (total == PARTITIONS) && (union.size() == PARTITIONS);
+            }
+        });
+        // 库中的owner与各节点持有的一致
+        for (Node node : nodes) {
+            for (Integer partition : node.manager.getHeld()) {
+                Assert.assertEquals(node.manager.getNodeId(), this.dao.owner(partition));
+            }
+        }
+    }
+
+    /**
+     * 监听者在租约更新之后才收到通知，等通知而不是等getOwned()
+     */
+    private static void waitRecovered(final Node node, final Set<Integer> partitions) throws InterruptedException {
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return node.recovered.equals(partitions);
+            }
+        });
+    }
+
+    private static void waitCalls(final Node node, final int count) throws InterruptedException {
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return node.calls.size() >= count;
+            }
+        });
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (!condition.check()) {
+            Assert.assertTrue("timeout", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static Set<Integer> allPartitions() {
+        Set<Integer> partitions = new TreeSet<Integer>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.add(i);
+        }
+        return partitions;
+    }
+
+    private static void inject(Object target, String name, Object value) {
+        for (Class<?> clazz = target.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+            try {
+                Field field = clazz.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                continue;
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private interface Condition {
+
+        boolean check();
+    }
+
+    /**
+     * 一个调度节点：PartitionManager加上记录分区变化的监听者，以及可选的CommandRouter
+     */
+    private class Node implements PartitionListener {
+
+        final PartitionManager manager   = new PartitionManager();
+        final Set<Integer>     busy      = Collections.synchronizedSet(new HashSet<Integer>());
+        final Set<Integer>     assigned  = Collections.synchronizedSet(new TreeSet<Integer>());
+        final Set<Integer>     recovered = Collections.synchronizedSet(new TreeSet<Integer>());
+        final Set<Integer>     revoked   = Collections.synchronizedSet(new TreeSet<Integer>());
+        final List<String>     calls     = new CopyOnWriteArrayList<String>();
+        CommandRouter          router;
+
+        void start() {
+            inject(this.manager, "schedulerLeaseService", PartitionClusterTest.this.schedulerLeaseService);
+            this.manager.init();
+            this.recovered.addAll(this.manager.getRecoveringOnStartup());
+            this.manager.addListener(this);
+            this.manager.onApplicationEvent(null);
+        }
+
+        void startRouter(TaskInstanceService taskInstanceService, WorkflowInstanceService workflowInstanceService,
+                         WorkflowService workflowService) {
+            CommandRouter router = new CommandRouter();
+            inject(router, "partitionManager", this.manager);
+            inject(router, "schedulerLeaseService", PartitionClusterTest.this.schedulerLeaseService);
+            inject(router, "taskInstanceService", taskInstanceService);
+            inject(router, "workflowInstanceService", workflowInstanceService);
+            inject(router, "workflowService", workflowService);
+            inject(router, "taskInstanceExecutor", new TaskInstanceExecutor() {
+
+                public void submit(TaskInstance instance) {
+                    Node.this.calls.add("submit " + instance.getId());
+                }
+
+                public TaskInstanceStatus getStatus(long instanceId) {
+                    return TaskInstanceStatus.RUNNING;
+                }
+
+                public void cancel(long instanceId) {
+                    Node.this.calls.add("cancel " + instanceId);
+                }
+
+                public void addListener(TaskInstanceListener listener) {
+                }
+            });
+            inject(router, "workflowExecutor", new WorkflowExecutor() {
+
+                public void submit(Workflow workflow, WorkflowInstance workflowInstance) {
+                    Node.this.calls.add("submitWorkflow " + workflowInstance.getId());
+                }
+
+                public void restore(WorkflowInstance workflowInstance) {
+                    Node.this.calls.add("restoreWorkflow " + workflowInstance.getId());
+                }
+
+                public void cancel(long workflowInstanceId) {
+                    Node.this.calls.add("cancelWorkflow " + workflowInstanceId);
+                }
+            });
+            router.init();
+            this.router = router;
+        }
+
+        void close() {
+            if (this.router != null) {
+                this.router.close();
+            }
+            this.manager.close();
+        }
+
+        public void onAssigned(Set<Integer> partitions, Set<Integer> recovering) {
+            this.assigned.addAll(partitions);
+            this.recovered.addAll(recovering);
+        }
+
+        public void onRevoked(Set<Integer> partitions) {
+            this.revoked.addAll(partitions);
+        }
+
+        public Set<Integer> getBusyPartitions() {
+            synchronized (this.busy) {
+                return new HashSet<Integer>(this.busy);
+            }
+        }
+    }
+
+    /**
+     * 内存中的租约表，语义与SchedulerLeaseDao.xml一致；失联的节点的读写都不生效
+     */
+    private static class MemoryLeaseDao implements SchedulerLeaseDao {
+
+        private final Map<Integer, SchedulerLease> leases         = new TreeMap<Integer, SchedulerLease>();
+        private final Map<String, SchedulerNode>   schedulerNodes = new TreeMap<String, SchedulerNode>();
+        private final Map<Long, SchedulerCommand>  commands       = new TreeMap<Long, SchedulerCommand>();
+        private final Set<String>                  disconnected   = new HashSet<String>();
+        private long                               commandId;
+
+        synchronized void disconnect(String nodeId) {
+            this.disconnected.add(nodeId);
+        }
+
+        synchronized String owner(int partitionId) {
+            return this.leases.get(partitionId).getOwner();
+        }
+
+        public synchronized List<SchedulerLease> selectAll() {
+            List<SchedulerLease> leases = new ArrayList<SchedulerLease>();
+            for (SchedulerLease lease : this.leases.values()) {
+                leases.add(copy(lease));
+            }
+            return leases;
+        }
+
+        public synchronized int insert(SchedulerLease lease) {
+            if (this.leases.containsKey(lease.getPartitionId())) {
+                throw new DuplicateKeyException(String.valueOf(lease.getPartitionId()));
+            }
+            SchedulerLease inserted = copy(lease);
+            inserted.setVersion(0L);
+            this.leases.put(lease.getPartitionId(), inserted);
+            return 1;
+        }
+
+        public synchronized int acquire(SchedulerLease lease) {
+            SchedulerLease current = this.leases.get(lease.getPartitionId());
+            if (this.disconnected.contains(lease.getOwner()) || (current == null)
+                || !current.getVersion().equals(lease.getVersion())) {
+                return 0;
+            }
+            if ((current.getOwner() != null) && !current.getExpireTime().before(lease.getUpdateTime())
+                && !current.getOwner().equals(lease.getOwner())) {
+                return 0;
+            }
+            current.setOwner(lease.getOwner());
+            current.setExpireTime(lease.getExpireTime());
+            current.setVersion(current.getVersion() + 1);
+            current.setUpdateTime(lease.getUpdateTime());
+            return 1;
+        }
+
+        public synchronized int renew(SchedulerLease lease) {
+            SchedulerLease current = ownedBy(lease);
+            if (current == null) {
+                return 0;
+            }
+            current.setExpireTime(lease.getExpireTime());
+            current.setVersion(current.getVersion() + 1);
+            current.setUpdateTime(lease.getUpdateTime());
+            return 1;
+        }
+
+        public synchronized int handOff(SchedulerLease lease) {
+            SchedulerLease current = ownedBy(lease);
+            if (current == null) {
+                return 0;
+            }
+            current.setOwner(null);
+            current.setExpireTime(lease.getExpireTime());
+            current.setVersion(current.getVersion() + 1);
+            current.setUpdateTime(lease.getUpdateTime());
+            return 1;
+        }
+
+        public synchronized int expire(SchedulerLease lease) {
+            SchedulerLease current = ownedBy(lease);
+            if (current == null) {
+                return 0;
+            }
+            current.setExpireTime(lease.getExpireTime());
+            current.setVersion(current.getVersion() + 1);
+            current.setUpdateTime(lease.getUpdateTime());
+            return 1;
+        }
+
+        public synchronized int updateHeartbeat(SchedulerNode node) {
+            SchedulerNode current = this.schedulerNodes.get(node.getNodeId());
+            if (this.disconnected.contains(node.getNodeId())) {
+                return 1;
+            }
+            if (current == null) {
+                return 0;
+            }
+            current.setHeartbeatTime(node.getHeartbeatTime());
+            return 1;
+        }
+
+        public synchronized int insertNode(SchedulerNode node) {
+            if (this.schedulerNodes.containsKey(node.getNodeId())) {
+                throw new DuplicateKeyException(node.getNodeId());
+            }
+            SchedulerNode inserted = new SchedulerNode();
+            inserted.setNodeId(node.getNodeId());
+            inserted.setHeartbeatTime(node.getHeartbeatTime());
+            inserted.setCreateTime(node.getCreateTime());
+            this.schedulerNodes.put(node.getNodeId(), inserted);
+            return 1;
+        }
+
+        public synchronized List<SchedulerNode> selectAliveNodes(Date heartbeatAfter) {
+            List<SchedulerNode> alive = new ArrayList<SchedulerNode>();
+            for (SchedulerNode node : this.schedulerNodes.values()) {
+                if (node.getHeartbeatTime().after(heartbeatAfter)) {
+                    alive.add(node);
+                }
+            }
+            return alive;
+        }
+
+        public synchronized int deleteNode(String nodeId) {
+            return this.schedulerNodes.remove(nodeId) == null ? 0 : 1;
+        }
+
+        public synchronized int insertCommand(SchedulerCommand command) {
+            command.setId(++this.commandId);
+            this.commands.put(command.getId(), command);
+            return 1;
+        }
+
+        public synchronized List<SchedulerCommand> selectCommands(List<Integer> partitionIds) {
+            List<SchedulerCommand> selected = new ArrayList<SchedulerCommand>();
+            for (SchedulerCommand command : this.commands.values()) {
+                if (partitionIds.contains(command.getPartitionId())) {
+                    selected.add(command);
+                }
+            }
+            return selected;
+        }
+
+        public synchronized int deleteCommand(long id) {
+            return this.commands.remove(id) == null ? 0 : 1;
+        }
+
+        private SchedulerLease ownedBy(SchedulerLease lease) {
+            SchedulerLease current = this.leases.get(lease.getPartitionId());
+            if (this.disconnected.contains(lease.getOwner()) || (current == null)
+                || !lease.getOwner().equals(current.getOwner())) {
+                return null;
+            }
+            return current;
+        }
+
+        private static SchedulerLease copy(SchedulerLease lease) {
+            SchedulerLease copy = new SchedulerLease();
+            copy.setPartitionId(lease.getPartitionId());
+            copy.setOwner(lease.getOwner());
+            copy.setExpireTime(lease.getExpireTime());
+            copy.setVersion(lease.getVersion());
+            copy.setUpdateTime(lease.getUpdateTime());
+            return copy;
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdmissionQueueTest {
+
+    private static final Map<Long, Integer> NONE = Collections.emptyMap();
+
+    @Test
+    public void testPriorityThenFifo() {
+        AdmissionQueue<String> queue = new AdmissionQueue<String>(0, 0, NONE, NONE);
+        queue.offer("a", 1, 0, 0);
+        queue.offer("b", 1, 5, 0);
+        queue.offer("c", 1, 0, 0);
+        queue.offer("d", 1, 5, 0);
+        Assert.assertEquals(4, queue.getWaiting());
+
+        Assert.assertEquals("b", queue.poll(0));
+        Assert.assertEquals("d", queue.poll(0));
+        Assert.assertEquals("a", queue.poll(0));
+        Assert.assertEquals("c", queue.poll(0));
+        Assert.assertNull(queue.poll(0));
+        Assert.assertEquals(0, queue.getWaiting());
+        Assert.assertEquals(4, queue.getRunning());
+    }
+
+    @Test
+    public void testMaxRunningAndRelease() {
+        AdmissionQueue<String> queue = new AdmissionQueue<String>(2, 0, NONE, NONE);
+        queue.offer("a", 1, 0, 0);
+        queue.offer("b", 1, 0, 0);
+        queue.offer("c", 1, 0, 0);
+        Assert.assertEquals("a", queue.poll(0));
+        Assert.assertEquals("b", queue.poll(0));
+        Assert.assertNull(queue.poll(0));
+
+        queue.release(1);
+        Assert.assertEquals("c", queue.poll(0));
+        // 多余的release不会使运行数为负
+        queue.release(1);
+        queue.release(1);
+        queue.release(1);
+        queue.release(2);
+        Assert.assertEquals(0, queue.getRunning());
+    }
+
+    @Test
+    public void testTeamCap() {
+        Map<Long, Integer> caps = new HashMap<Long, Integer>();
+        caps.put(2L, 2);
+        AdmissionQueue<String> queue = new AdmissionQueue<String>(0, 1, caps, NONE);
+        queue.offer("a1", 1, 0, 0);
+        queue.offer("a2", 1, 0, 0);
+        queue.offer("b1", 2, 0, 0);
+        queue.offer("b2", 2, 0, 0);
+        queue.offer("b3", 2, 0, 0);
+
+        List<String> polled = new ArrayList<String>();
+        String item;
+        while ((item = queue.poll(0)) != null) {
+            polled.add(item);
+        }
+        // team 1使用默认上限1，team 2上限2
+        Assert.assertEquals(3, polled.size());
+        Assert.assertTrue(polled.containsAll(Arrays.asList("a1", "b1", "b2")));
+        Assert.assertEquals(2, queue.getWaiting());
+
+        queue.release(2);
+        Assert.assertEquals("b3", queue.poll(0));
+        Assert.assertNull(queue.poll(0));
+    }
+
+    /**
+     * 按运行数/权重分享名额
+     */
+    @Test
+    public void testWeights() {
+        Map<Long, Integer> weights = new HashMap<Long, Integer>();
+        weights.put(1L, 3);
+        AdmissionQueue<String> queue = new AdmissionQueue<String>(8, 0, NONE, weights);
+        for (int i = 0; i < 10; i++) {
+            queue.offer("a" + i, 1, 0, 0);
+            queue.offer("b" + i, 2, 0, 0);
+        }
+        int team1 = 0;
+        String item;
+        while ((item = queue.poll(0)) != null) {
+            if (item.startsWith("a")) {
+                team1++;
+            }
+        }
+        Assert.assertEquals(8, queue.getRunning());
+        Assert.assertEquals(6, team1);
+    }
+
+    @Test
+    public void testRemoveAndAddRunning() {
+        AdmissionQueue<String> queue = new AdmissionQueue<String>(2, 0, NONE, NONE);
+        queue.addRunning(1);
+        queue.offer("a", 1, 0, 0);
+        queue.offer("b", 1, 0, 0);
+        Assert.assertTrue(queue.remove("a", 1));
+        Assert.assertFalse(queue.remove("a", 1));
+        Assert.assertFalse(queue.remove("b", 2));
+        Assert.assertEquals(1, queue.getWaiting());
+
+        // 恢复的attempt占用名额
+        Assert.assertEquals("b", queue.poll(0));
+        queue.offer("c", 1, 0, 0);
+        Assert.assertNull(queue.poll(0));
+        queue.release(1);
+        Assert.assertEquals("c", queue.poll(0));
+    }
+
+    @Test
+    public void testParseTeamValues() {
+        Map<Long, Integer> values = AdmissionQueue.parseTeamValues(" 1:10, 2:x,3 : 5,4,,5:6:7 ");
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        expected.put(1L, 10);
+        expected.put(3L, 5);
+        Assert.assertEquals(expected, values);
+        Assert.assertTrue(AdmissionQueue.parseTeamValues(null).isEmpty());
+        Assert.assertTrue(AdmissionQueue.parseTeamValues(" ").isEmpty());
+    }
+
+    @Test
+    public void testWaitTimeMetrics() {
+        AdmissionQueue<String> queue = new AdmissionQueue<String>(0, 0, NONE, NONE);
+        queue.offer("a", 1, 0, 1000);
+        queue.offer("b", 1, 0, 1000);
+        queue.poll(1050);
+        queue.poll(3000);
+
+        Map<String, Object> metrics = queue.getMetrics();
+        Map<?, ?> waitTime = (Map<?, ?>) metrics.get("waitTime");
+        Assert.assertEquals(2L, waitTime.get("count"));
+        Assert.assertEquals(1025L, waitTime.get("avgMs"));
+        Assert.assertEquals(2000L, waitTime.get("maxMs"));
+        Map<?, ?> buckets = (Map<?, ?>) waitTime.get("buckets");
+        Assert.assertEquals(1L, buckets.get("<=100ms"));
+        Assert.assertEquals(1L, buckets.get("<=5s"));
+
+        Map<?, ?> team = (Map<?, ?>) ((List<?>) metrics.get("teams")).get(0);
+        Assert.assertEquals(1L, team.get("teamId"));
+        Assert.assertEquals(2, team.get("running"));
+        Assert.assertEquals(0, team.get("waiting"));
+    }
+
+    /**
+     * 共用50个名额：team1一次展开1000个task，1秒后其他4个team各提交20个task，每个attempt运行10秒。
+     * 不分team先进先出时小team要等team1的task全部派发，按team公平派发时只等几轮
+     */
+    @Test
+    public void testFairShareAgainstFifo() {
+        List<Job> jobs = new ArrayList<Job>();
+        for (int i = 0; i < 1000; i++) {
+            jobs.add(new Job(jobs.size(), 1, 0));
+        }
+        for (long team = 2; team <= 5; team++) {
+            for (int i = 0; i < 20; i++) {
+                jobs.add(new Job(jobs.size(), team, 1000));
+            }
+        }
+        Map<Long, Long> fifo = simulate(jobs, false);
+        Map<Long, Long> fair = simulate(jobs, true);
+        for (long team = 2; team <= 5; team++) {
+            Assert.assertTrue(fifo.get(team) > 200 * 1000);
+            Assert.assertTrue(fair.get(team) < 30 * 1000);
+        }
+    }
+
+    /**
+     * 在虚拟时钟上运行，返回各team的最大等待时间
+     */
+    private static Map<Long, Long> simulate(List<Job> jobs, boolean fair) {
+        AdmissionQueue<Job> queue = new AdmissionQueue<Job>(50, 0, NONE, NONE);
+        // 按时间排列的入队和结束事件
+        PriorityQueue<long[]> events = new PriorityQueue<long[]>(16, new Comparator<long[]>() {
+
+            public int compare(long[] o1, long[] o2) {
+                return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < jobs.size(); i++) {
+            events.add(new long[] { jobs.get(i).submitTime, i, 0 });
+        }
+        Map<Long, Long> maxWaits = new HashMap<Long, Long>();
+        while (!events.isEmpty()) {
+            long[] event = events.poll();
+            long now = event[0];
+            Job job = jobs.get((int) event[1]);
+            long queueTeam = fair ? job.teamId : 0;
+            if (event[2] == 0) {
+                queue.offer(job, queueTeam, 0, now);
+            } else {
+                queue.release(queueTeam);
+            }
+            Job next;
+            while ((next = queue.poll(now)) != null) {
+                Long max = maxWaits.get(next.teamId);
+                maxWaits.put(next.teamId, Math.max(max == null ? 0 : max, now - next.submitTime));
+                events.add(new long[] { now + (10 * 1000), next.index, 1 });
+            }
+        }
+        return maxWaits;
+    }
+
+    private static class Job {
+
+        final int  index;
+        final long teamId;
+        final long submitTime;
+
+        Job(int index, long teamId, long submitTime) {
+            this.index = index;
+            this.teamId = teamId;
+            this.submitTime = submitTime;
+        }
+    }
+}
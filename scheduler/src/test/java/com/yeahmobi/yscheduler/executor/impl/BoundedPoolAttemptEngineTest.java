@@ -0,0 +1,122 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.executor.AttemptStateMachine;
+
+public class BoundedPoolAttemptEngineTest {
+
+    private static final int         POOL_SIZE = 2;
+
+    private BoundedPoolAttemptEngine engine;
+
+    private final AtomicInteger      inStep    = new AtomicInteger();
+
+    private final AtomicInteger      maxInStep = new AtomicInteger();
+
+    @Before
+    public void before() {
+        this.engine = new BoundedPoolAttemptEngine(POOL_SIZE);
+    }
+
+    @After
+    public void after() {
+        this.engine.close();
+    }
+
+    /**
+     * 等待期间不占用线程：远多于线程数的attempt同时处于等待中，总耗时接近单个attempt的耗时
+     */
+    @Test
+    public void testWaitDoesNotHoldThread() throws Exception {
+        int attempts = 50;
+        CountDownLatch finished = new CountDownLatch(attempts);
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < attempts; i++) {
+            this.engine.execute(new Machine(3, 200, finished));
+        }
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - begin;
+
+        // 每个线程占着attempt直到结束的话需要 50 / 2 * 3 * 200ms = 15s
+        Assert.assertTrue("elapsed " + elapsed, elapsed < 3000);
+        // 同时执行的步骤数不超过线程数
+        Assert.assertTrue(this.maxInStep.get() <= POOL_SIZE);
+        waitForIdle();
+        Assert.assertEquals(0, this.engine.getActiveCount());
+        Assert.assertEquals(0, this.engine.getQueueSize());
+        Assert.assertEquals((long) attempts, this.engine.getMetrics().get("admittedCount"));
+    }
+
+    @Test
+    public void testStepsWithoutDelay() throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        Machine machine = new Machine(100, 0, finished);
+        this.engine.execute(machine);
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(101, machine.steps.get());
+    }
+
+    @Test
+    public void testStepThrows() throws Exception {
+        final CountDownLatch called = new CountDownLatch(1);
+        this.engine.execute(new AttemptStateMachine() {
+
+            public long step() {
+                called.countDown();
+                throw new IllegalStateException("test");
+            }
+        });
+        Assert.assertTrue(called.await(5, TimeUnit.SECONDS));
+        waitForIdle();
+        Assert.assertEquals(0, this.engine.getActiveCount());
+    }
+
+    private void waitForIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((this.engine.getActiveCount() > 0) && (System.currentTimeMillis() < deadline)) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    /**
+     * 执行waits次等待，每次等delay毫秒，然后结束
+     */
+    private class Machine implements AttemptStateMachine {
+
+        private final int            waits;
+        private final long           delay;
+        private final CountDownLatch finished;
+        private final AtomicInteger  steps = new AtomicInteger();
+
+        Machine(int waits, long delay, CountDownLatch finished) {
+            this.waits = waits;
+            this.delay = delay;
+            this.finished = finished;
+        }
+
+        public long step() {
+            int current = BoundedPoolAttemptEngineTest.this.inStep.incrementAndGet();
+            int max;
+            while (current > (max = BoundedPoolAttemptEngineTest.this.maxInStep.get())) {
+                BoundedPoolAttemptEngineTest.this.maxInStep.compareAndSet(max, current);
+            }
+            try {
+                if (this.steps.getAndIncrement() < this.waits) {
+                    return this.delay;
+                }
+                this.finished.countDown();
+                return -1;
+            } finally {
+                BoundedPoolAttemptEngineTest.this.inStep.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.common.fileserver.FileServer;
+import com.yeahmobi.yscheduler.common.fileserver.FileServerException;
+import com.yeahmobi.yscheduler.executor.AttemptListener;
+import com.yeahmobi.yscheduler.loadbalance.AgentLoadbalance;
+import com.yeahmobi.yscheduler.model.Agent;
+import com.yeahmobi.yscheduler.model.Attempt;
+import com.yeahmobi.yscheduler.model.Task;
+import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.service.AgentService;
+import com.yeahmobi.yscheduler.model.service.AttemptService;
+import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
+import com.yeahmobi.yscheduler.model.service.TaskService;
+import com.yeahmobi.yscheduler.model.type.AttemptStatus;
+import com.yeahmobi.yscheduler.model.type.TaskType;
+import com.yeahmobi.yscheduler.notice.NoticeService;
+import com.yeahmobi.yscheduler.workflow.WorkflowEngineTest;
+
+public class DefaultAttemptExecutorTest {
+
+    /** 结束的attempt，按结束顺序 */
+    private final BlockingQueue<Attempt> completed = new LinkedBlockingQueue<Attempt>();
+
+    /** 负载均衡的onStarted/onFinished调用，onFinished记为负的agentId */
+    private final List<Long>             lbCalls   = new ArrayList<Long>();
+
+    private final List<String>           alerts    = new ArrayList<String>();
+
+    private BoundedPoolAttemptEngine     engine;
+
+    private DefaultAttemptExecutor       executor;
+
+    @Before
+    public void before() throws Exception {
+        this.executor = new DefaultAttemptExecutor();
+        this.engine = new BoundedPoolAttemptEngine(1);
+        inject(this.executor, "engine", this.engine);
+        inject(this.executor, "taskService", WorkflowEngineTest.stub(TaskService.class, new Object() {
+
+            public Task get(long id) {
+                Task task = new Task();
+                task.setId(id);
+                task.setName("task-" + id);
+                task.setType(TaskType.SHELL);
+                task.setCommand("echo 1");
+                return task;
+            }
+        }));
+        inject(this.executor, "taskInstanceService", WorkflowEngineTest.stub(TaskInstanceService.class, new Object() {
+
+            public TaskInstance get(long id) {
+                TaskInstance instance = new TaskInstance();
+                instance.setId(id);
+                return instance;
+            }
+        }));
+        AttemptService attemptService = WorkflowEngineTest.stub(AttemptService.class, new Object() {
+
+            public String getOutputFileName(Attempt attempt) {
+                return attempt.getId() + ".log";
+            }
+        });
+        inject(this.executor, "attemptService", attemptService);
+        inject(this.executor, "statusWriter",
+               new StatusWriter(attemptService, WorkflowEngineTest.stub(TaskInstanceService.class, new Object())));
+        inject(this.executor, "agentService", WorkflowEngineTest.stub(AgentService.class, new Object() {
+
+            public Agent get(long id) {
+                Agent agent = new Agent();
+                agent.setId(id);
+                agent.setIp("127.0.0.1:1");
+                return agent;
+            }
+        }));
+        inject(this.executor, "agentLoadbalance", WorkflowEngineTest.stub(AgentLoadbalance.class, new Object() {
+
+            public void onStarted(long agentId) {
+                synchronized (DefaultAttemptExecutorTest.this.lbCalls) {
+                    DefaultAttemptExecutorTest.this.lbCalls.add(agentId);
+                }
+            }
+
+            public void onFinished(long agentId) {
+                synchronized (DefaultAttemptExecutorTest.this.lbCalls) {
+                    DefaultAttemptExecutorTest.this.lbCalls.add(-agentId);
+                }
+            }
+        }));
+        inject(this.executor, "noticeService", WorkflowEngineTest.stub(NoticeService.class, new Object() {
+
+            public void alertInnerError(String msg) {
+                synchronized (DefaultAttemptExecutorTest.this.alerts) {
+                    DefaultAttemptExecutorTest.this.alerts.add(msg);
+                }
+            }
+        }));
+        this.executor.addListener(new AttemptListener() {
+
+            public void onCompleted(Attempt attempt) {
+                DefaultAttemptExecutorTest.this.completed.add(attempt);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        this.executor.close();
+    }
+
+    /**
+     * 写不了fileserver时报警，attempt以未知状态结束：移出运行中、通知监听者并归还负载均衡计数
+     */
+    @Test
+    public void testFileServerFailure() throws Exception {
+        inject(this.executor, "fileServer", WorkflowEngineTest.stub(FileServer.class, new Object() {
+
+            public void write(String nameSpace, String fileName, byte[] data, boolean append)
+                                                                                            throws FileServerException {
+                throw new FileServerException("disk full");
+            }
+
+            public void write(String nameSpace, String fileName, byte[] data, int offset, int length, boolean append)
+                                                                                                                   throws FileServerException {
+                throw new FileServerException("disk full");
+            }
+        }));
+
+        Attempt attempt = new Attempt();
+        attempt.setId(10L);
+        attempt.setInstanceId(100L);
+        attempt.setTaskId(1000L);
+        attempt.setAgentId(5L);
+        attempt.setStatus(AttemptStatus.RUNNING);
+        this.executor.submit(attempt);
+
+        Attempt finished = this.completed.poll(5, TimeUnit.SECONDS);
+        Assert.assertSame(attempt, finished);
+        Assert.assertEquals(AttemptStatus.COMPLETE_WITH_UNKNOWN_STATUS, finished.getStatus());
+        Assert.assertNotNull(finished.getEndTime());
+        Assert.assertFalse(this.executor.isRunning(100L));
+        Assert.assertEquals(0, this.executor.getMetrics().get("runningAttempts"));
+        synchronized (this.lbCalls) {
+            Assert.assertEquals(Arrays.asList(5L, -5L), this.lbCalls);
+        }
+        synchronized (this.alerts) {
+            Assert.assertEquals(1, this.alerts.size());
+        }
+        Assert.assertNull(this.completed.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private static void inject(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
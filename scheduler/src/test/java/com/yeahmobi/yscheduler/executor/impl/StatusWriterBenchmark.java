@@ -0,0 +1,112 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.yeahmobi.yscheduler.model.Attempt;
+import com.yeahmobi.yscheduler.model.service.AttemptService;
+import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
+import com.yeahmobi.yscheduler.model.type.AttemptStatus;
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+
+/**
+ * 在虚拟时钟上模拟2000个同时运行的attempt：每个attempt每5秒轮询一次并刷新duration，运行1~30分钟后结束，
+ * 结束后立即补上一个新的attempt。对比原实现(每次修改单独一条UPDATE、一个事务)与StatusWriter(按10秒合并，
+ * 结束状态立即写出)在30分钟内的UPDATE行数和事务数，直接运行main即可。
+ */
+public class StatusWriterBenchmark {
+
+    private static final int  RUNNING        = 2000;
+
+    private static final long POLL_INTERVAL  = 5000;
+
+    private static final long FLUSH_INTERVAL = 10000;
+
+    private static final long DURATION       = 30 * 60 * 1000L;
+
+    public static void main(String[] args) {
+        final long[] rows = new long[2];
+        final long[] transactions = new long[2];
+        InvocationHandler handler = new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("updateBatch".equals(method.getName())) {
+                    rows[1] += ((List<?>) args[0]).size();
+                    transactions[1]++;
+                }
+                return null;
+            }
+        };
+        AttemptService attemptService = (AttemptService) Proxy.newProxyInstance(StatusWriterBenchmark.class.getClassLoader(),
+                                                                                new Class<?>[] { AttemptService.class },
+                                                                                handler);
+        TaskInstanceService instanceService = (TaskInstanceService) Proxy.newProxyInstance(StatusWriterBenchmark.class.getClassLoader(),
+                                                                                           new Class<?>[] { TaskInstanceService.class },
+                                                                                           handler);
+        StatusWriter writer = new StatusWriter(attemptService, instanceService);
+
+        // {下次轮询时间, attemptId, 结束时间, 开始时间}
+        PriorityQueue<long[]> polls = new PriorityQueue<long[]>(RUNNING, new Comparator<long[]>() {
+
+            public int compare(long[] o1, long[] o2) {
+                return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+            }
+        });
+        Random random = new Random(0);
+        long nextId = 1;
+        for (int i = 0; i < RUNNING; i++) {
+            long start = -random.nextInt(30 * 60 * 1000);
+            polls.add(new long[] { random.nextInt((int) POLL_INTERVAL), nextId++, start + randomDuration(random),
+                    start });
+        }
+
+        long finished = 0;
+        long nextFlush = FLUSH_INTERVAL;
+        while (polls.peek()[0] < DURATION) {
+            long[] poll = polls.poll();
+            long now = poll[0];
+            while (nextFlush <= now) {
+                writer.flush();
+                nextFlush += FLUSH_INTERVAL;
+            }
+            Attempt attempt = new Attempt();
+            attempt.setId(poll[1]);
+            attempt.setDuration(now - poll[3]);
+            rows[0]++;
+            transactions[0]++;
+            if (now < poll[2]) {
+                writer.updateAttempt(attempt, false);
+                poll[0] = now + POLL_INTERVAL;
+                polls.add(poll);
+                continue;
+            }
+            // 结束：attempt和instance各写一次结束状态，再提交一个新的attempt
+            attempt.setStatus(AttemptStatus.SUCCESS);
+            writer.updateAttempt(attempt, true);
+            writer.updateInstanceStatus(poll[1], TaskInstanceStatus.SUCCESS);
+            rows[0]++;
+            transactions[0]++;
+            finished++;
+            polls.add(new long[] { now + POLL_INTERVAL, nextId++, now + randomDuration(random), now });
+        }
+        writer.flush();
+
+        long seconds = DURATION / 1000;
+        System.out.println(String.format("%d running attempts, poll every %d ms, %d attempts finished in %d s",
+                                         RUNNING, POLL_INTERVAL, finished, seconds));
+        System.out.println(String.format("%14s %14s %14s %16s", "", "rows", "rows/s", "transactions/s"));
+        System.out.println(String.format("%14s %14d %14.1f %16.1f", "per update", rows[0], (double) rows[0] / seconds,
+                                         (double) transactions[0] / seconds));
+        System.out.println(String.format("%14s %14d %14.1f %16.1f", "statusWriter", rows[1],
+                                         (double) rows[1] / seconds, (double) transactions[1] / seconds));
+    }
+
+    private static long randomDuration(Random random) {
+        return 60 * 1000L + random.nextInt(29 * 60 * 1000);
+    }
+}
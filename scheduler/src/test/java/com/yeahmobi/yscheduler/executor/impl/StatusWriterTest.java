@@ -0,0 +1,187 @@
+package com.yeahmobi.yscheduler.executor.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.model.Attempt;
+import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.service.AttemptService;
+import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
+import com.yeahmobi.yscheduler.model.type.AttemptStatus;
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+import com.yeahmobi.yscheduler.workflow.WorkflowEngineTest;
+
+public class StatusWriterTest {
+
+    /** 每次updateBatch写出的行 */
+    private final List<List<Attempt>>      attemptBatches  = new ArrayList<List<Attempt>>();
+
+    private final List<List<TaskInstance>> instanceBatches = new ArrayList<List<TaskInstance>>();
+
+    /** 大于0时updateBatch抛出异常并减1 */
+    private int                            failures;
+
+    private StatusWriter                   writer;
+
+    @Before
+    public void before() {
+        AttemptService attemptService = WorkflowEngineTest.stub(AttemptService.class, new Object() {
+
+            public void updateBatch(List<Attempt> attempts) {
+                fail();
+                StatusWriterTest.this.attemptBatches.add(attempts);
+            }
+        });
+        TaskInstanceService instanceService = WorkflowEngineTest.stub(TaskInstanceService.class, new Object() {
+
+            public void updateBatch(List<TaskInstance> instances) {
+                fail();
+                StatusWriterTest.this.instanceBatches.add(instances);
+            }
+        });
+        this.writer = new StatusWriter(attemptService, instanceService);
+    }
+
+    private void fail() {
+        if (this.failures > 0) {
+            this.failures--;
+            throw new IllegalStateException("database unavailable");
+        }
+    }
+
+    /**
+     * 周期内同一行的多次修改合并为一行，保留每个字段最新的值
+     */
+    @Test
+    public void testMergeUntilFlush() {
+        Attempt attempt = attempt(1);
+        attempt.setTransactionId(100L);
+        attempt.setDuration(5L);
+        this.writer.updateAttempt(attempt, false);
+        attempt.setTransactionId(null);
+        attempt.setDuration(10L);
+        this.writer.updateAttempt(attempt, false);
+        this.writer.updateAttempt(attempt(2), false);
+        Assert.assertTrue(this.attemptBatches.isEmpty());
+
+        this.writer.flush();
+        Assert.assertEquals(1, this.attemptBatches.size());
+        List<Attempt> batch = this.attemptBatches.get(0);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals(Long.valueOf(1), batch.get(0).getId());
+        Assert.assertEquals(Long.valueOf(100), batch.get(0).getTransactionId());
+        Assert.assertEquals(Long.valueOf(10), batch.get(0).getDuration());
+
+        // 没有修改时不写库
+        this.writer.flush();
+        Assert.assertEquals(1, this.attemptBatches.size());
+        Assert.assertEquals(3L, this.writer.getMetrics().get("submitted"));
+        Assert.assertEquals(2L, this.writer.getMetrics().get("written"));
+    }
+
+    /**
+     * flushNow立即写出这一行，连同之前缓存的修改，其他行仍然缓存
+     */
+    @Test
+    public void testFlushNow() {
+        Attempt attempt = attempt(1);
+        attempt.setDuration(10L);
+        this.writer.updateAttempt(attempt, false);
+        this.writer.updateAttempt(attempt(2), false);
+        attempt.setDuration(null);
+        attempt.setStatus(AttemptStatus.SUCCESS);
+        this.writer.updateAttempt(attempt, true);
+
+        Assert.assertEquals(1, this.attemptBatches.size());
+        Attempt written = this.attemptBatches.get(0).get(0);
+        Assert.assertEquals(1, this.attemptBatches.get(0).size());
+        Assert.assertEquals(AttemptStatus.SUCCESS, written.getStatus());
+        Assert.assertEquals(Long.valueOf(10), written.getDuration());
+        Assert.assertEquals(1, this.writer.getMetrics().get("pendingAttempts"));
+    }
+
+    /**
+     * RUNNING缓存到下次flush，结束状态立即写出，保留缓存中的开始时间
+     */
+    @Test
+    public void testInstanceStatus() {
+        this.writer.updateInstanceStatus(1, TaskInstanceStatus.RUNNING);
+        Assert.assertTrue(this.instanceBatches.isEmpty());
+        this.writer.updateInstanceStatus(1, TaskInstanceStatus.FAILED);
+
+        Assert.assertEquals(1, this.instanceBatches.size());
+        TaskInstance written = this.instanceBatches.get(0).get(0);
+        Assert.assertEquals(TaskInstanceStatus.FAILED, written.getStatus());
+        Assert.assertNotNull(written.getStartTime());
+        Assert.assertNotNull(written.getEndTime());
+        Assert.assertEquals(0, this.writer.getMetrics().get("pendingInstances"));
+    }
+
+    /**
+     * 写失败的修改放回缓存，之后的修改覆盖在上面，下次flush一起写出
+     */
+    @Test
+    public void testFailedWriteRetried() {
+        Attempt attempt = attempt(1);
+        attempt.setTransactionId(100L);
+        attempt.setDuration(5L);
+        this.writer.updateAttempt(attempt, false);
+        this.writer.updateInstanceStatus(1, TaskInstanceStatus.RUNNING);
+
+        this.failures = 1;
+        try {
+            this.writer.flush();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(1L, this.writer.getMetrics().get("failures"));
+        Assert.assertEquals(1, this.writer.getMetrics().get("pendingAttempts"));
+        Assert.assertEquals(1, this.writer.getMetrics().get("pendingInstances"));
+
+        attempt.setTransactionId(null);
+        attempt.setDuration(8L);
+        this.writer.updateAttempt(attempt, false);
+        this.writer.flush();
+        Attempt written = this.attemptBatches.get(0).get(0);
+        Assert.assertEquals(Long.valueOf(100), written.getTransactionId());
+        Assert.assertEquals(Long.valueOf(8), written.getDuration());
+        Assert.assertEquals(TaskInstanceStatus.RUNNING, this.instanceBatches.get(0).get(0).getStatus());
+    }
+
+    /**
+     * 200个运行中的attempt每5秒刷新一次duration，10秒flush一次：写出的行数减半，事务数降到每次flush一个
+     */
+    @Test
+    public void testFewerWrites() {
+        int running = 200;
+        int polls = 0;
+        for (long now = 5000; now <= (10 * 60 * 1000L); now += 5000) {
+            for (long id = 1; id <= running; id++) {
+                Attempt attempt = attempt(id);
+                attempt.setDuration(now);
+                this.writer.updateAttempt(attempt, false);
+                polls++;
+            }
+            if ((now % 10000) == 0) {
+                this.writer.flush();
+            }
+        }
+        int rows = 0;
+        for (List<Attempt> batch : this.attemptBatches) {
+            rows += batch.size();
+        }
+        Assert.assertEquals(polls / 2, rows);
+        Assert.assertEquals(polls / running / 2, this.attemptBatches.size());
+    }
+
+    private static Attempt attempt(long id) {
+        Attempt attempt = new Attempt();
+        attempt.setId(id);
+        return attempt;
+    }
+}
@@ -0,0 +1,185 @@
+package com.yeahmobi.yscheduler.loadbalance.impl;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+import com.yeahmobi.yscheduler.model.Agent;
+import com.yeahmobi.yscheduler.model.common.AgentChangedEvent;
+import com.yeahmobi.yscheduler.model.service.AgentService;
+import com.yeahmobi.yscheduler.monitor.ActiveAgentManager;
+import com.yeahmobi.yscheduler.workflow.WorkflowEngineTest;
+
+public class LoadAwareAgentLoadbalanceTest {
+
+    private static final long TEAM_ID = 1;
+
+    /**
+     * 负载分按上报的运行数、排队数、cpu和内存排序
+     */
+    @Test
+    public void testRankByReportedLoad() {
+        LoadAwareAgentLoadbalance loadbalance = new LoadAwareAgentLoadbalance(LoadAwareAgentLoadbalance.LEAST_LOADED);
+        List<Agent> agents = agents(4);
+        loadbalance.onLoadReported(1, load(5, 0, 0, -1));
+        loadbalance.onLoadReported(2, load(0, 3, 0, -1));
+        loadbalance.onLoadReported(3, load(0, 0, 0.5, 0.25));
+        loadbalance.onLoadReported(4, load(1, 0, -1, -1));
+
+        Assert.assertEquals(5, loadbalance.score(1), 0.001);
+        Assert.assertEquals(3, loadbalance.score(2), 0.001);
+        Assert.assertEquals(3, loadbalance.score(3), 0.001);
+        Assert.assertEquals(1, loadbalance.score(4), 0.001);
+        Assert.assertEquals(4L, loadbalance.select(TEAM_ID, agents).getId().longValue());
+
+        // 只有本节点提交的attempt计入时，按本节点的运行数
+        loadbalance.onStarted(4);
+        loadbalance.onStarted(4);
+        loadbalance.onStarted(4);
+        Assert.assertEquals(3, loadbalance.score(4), 0.001);
+        loadbalance.onFinished(4);
+        Assert.assertEquals(2, loadbalance.score(4), 0.001);
+        Assert.assertEquals(4L, loadbalance.select(TEAM_ID, agents).getId().longValue());
+
+        // agent上报的运行数包含其他调度节点的，取大的
+        loadbalance.onLoadReported(4, load(6, 0, -1, -1));
+        Assert.assertEquals(6, loadbalance.score(4), 0.001);
+        Set<Long> selected = new HashSet<Long>();
+        for (int i = 0; i < 4; i++) {
+            selected.add(loadbalance.select(TEAM_ID, agents).getId());
+        }
+        // 2和3分数相同，轮流选
+        Assert.assertEquals(new HashSet<Long>(Arrays.asList(2L, 3L)), selected);
+    }
+
+    /**
+     * 名额已满或返回BUSY的agent排在其他agent之后，上报新负载后恢复
+     */
+    @Test
+    public void testFullAgentsLast() {
+        LoadAwareAgentLoadbalance loadbalance = new LoadAwareAgentLoadbalance(LoadAwareAgentLoadbalance.LEAST_LOADED);
+        List<Agent> agents = agents(2);
+        AgentLoad full = load(4, 0, -1, -1);
+        full.setMaxTasks(4);
+        loadbalance.onLoadReported(1, full);
+        loadbalance.onLoadReported(2, load(10, 0, -1, -1));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(2L, loadbalance.select(TEAM_ID, agents).getId().longValue());
+        }
+
+        loadbalance.onLoadReported(1, load(0, 0, -1, -1));
+        loadbalance.onBusy(1);
+        Assert.assertEquals(2L, loadbalance.select(TEAM_ID, agents).getId().longValue());
+        loadbalance.onLoadReported(1, load(0, 0, -1, -1));
+        Assert.assertEquals(1L, loadbalance.select(TEAM_ID, agents).getId().longValue());
+    }
+
+    @Test
+    public void testRoundRobinIgnoresLoad() {
+        LoadAwareAgentLoadbalance loadbalance = new LoadAwareAgentLoadbalance(LoadAwareAgentLoadbalance.ROUND_ROBIN);
+        List<Agent> agents = agents(3);
+        loadbalance.onLoadReported(1, load(100, 0, -1, -1));
+        List<Long> order = new ArrayList<Long>();
+        for (int i = 0; i < 6; i++) {
+            order.add(loadbalance.select(TEAM_ID, agents).getId());
+        }
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 1L, 2L, 3L), order);
+        // 每个team单独计数
+        Assert.assertEquals(1L, loadbalance.select(TEAM_ID + 1, agents).getId().longValue());
+    }
+
+    /**
+     * 两个agent时p2c总是选负载小的
+     */
+    @Test
+    public void testP2c() {
+        LoadAwareAgentLoadbalance loadbalance = new LoadAwareAgentLoadbalance(LoadAwareAgentLoadbalance.P2C);
+        List<Agent> agents = agents(2);
+        loadbalance.onLoadReported(1, load(3, 0, -1, -1));
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(2L, loadbalance.select(TEAM_ID, agents).getId().longValue());
+        }
+    }
+
+    @Test
+    public void testUnknownStrategy() {
+        LoadAwareAgentLoadbalance loadbalance = new LoadAwareAgentLoadbalance("random");
+        Assert.assertEquals(LoadAwareAgentLoadbalance.LEAST_LOADED, loadbalance.getMetrics().get("strategy"));
+    }
+
+    /**
+     * team的agent列表缓存到AgentChangedEvent为止，只在active的agent中选择
+     */
+    @Test
+    public void testActiveAgentsAndCache() throws Exception {
+        final List<Agent> enabled = new ArrayList<Agent>(agents(3));
+        final Set<Long> active = new HashSet<Long>(Arrays.asList(2L, 3L));
+        final AtomicInteger loads = new AtomicInteger();
+        LoadAwareAgentLoadbalance loadbalance = new LoadAwareAgentLoadbalance(LoadAwareAgentLoadbalance.LEAST_LOADED);
+        inject(loadbalance, "agentService", WorkflowEngineTest.stub(AgentService.class, new Object() {
+
+            public List<Agent> list(long teamId, boolean enable) {
+                loads.incrementAndGet();
+                return new ArrayList<Agent>(enabled);
+            }
+        }));
+        inject(loadbalance, "activeAgentManager", WorkflowEngineTest.stub(ActiveAgentManager.class, new Object() {
+
+            public boolean isActive(long agentId) {
+                return active.contains(agentId);
+            }
+        }));
+        loadbalance.onLoadReported(2, load(1, 0, -1, -1));
+
+        Assert.assertEquals(3L, loadbalance.getActiveAgent(TEAM_ID).getId().longValue());
+        Assert.assertEquals(3L, loadbalance.getActiveAgent(TEAM_ID).getId().longValue());
+        Assert.assertEquals(1, loads.get());
+
+        enabled.remove(2);
+        Assert.assertEquals(3L, loadbalance.getActiveAgent(TEAM_ID).getId().longValue());
+        loadbalance.onApplicationEvent(new AgentChangedEvent(this, 3));
+        Assert.assertEquals(2L, loadbalance.getActiveAgent(TEAM_ID).getId().longValue());
+        Assert.assertEquals(2, loads.get());
+
+        active.clear();
+        try {
+            loadbalance.getActiveAgent(TEAM_ID);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static List<Agent> agents(int count) {
+        List<Agent> agents = new ArrayList<Agent>();
+        for (long id = 1; id <= count; id++) {
+            Agent agent = new Agent();
+            agent.setId(id);
+            agents.add(agent);
+        }
+        return agents;
+    }
+
+    private static AgentLoad load(int running, int pending, double cpuLoad, double memoryUsage) {
+        AgentLoad load = new AgentLoad();
+        load.setRunningTasks(running);
+        load.setPendingTasks(pending);
+        load.setCpuLoad(cpuLoad);
+        load.setMemoryUsage(memoryUsage);
+        return load;
+    }
+
+    private static void inject(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
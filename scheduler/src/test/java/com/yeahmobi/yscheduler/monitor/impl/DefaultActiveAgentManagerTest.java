@@ -0,0 +1,165 @@
+package com.yeahmobi.yscheduler.monitor.impl;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.model.Agent;
+import com.yeahmobi.yscheduler.model.common.AgentChangedEvent;
+import com.yeahmobi.yscheduler.model.service.AgentService;
+import com.yeahmobi.yscheduler.model.service.TaskService;
+import com.yeahmobi.yscheduler.workflow.WorkflowEngineTest;
+
+public class DefaultActiveAgentManagerTest {
+
+    private final List<Agent>         agents    = new ArrayList<Agent>();
+
+    /** 按名字查库的次数 */
+    private final AtomicInteger       lookups   = new AtomicInteger();
+
+    /** 对心跳任务的暂停和开启 */
+    private final List<String>        taskCalls = new ArrayList<String>();
+
+    private DefaultActiveAgentManager manager;
+
+    @Before
+    public void before() throws Exception {
+        this.agents.add(agent(1, "agent-1"));
+        this.manager = new DefaultActiveAgentManager();
+        inject(this.manager, "agentService", WorkflowEngineTest.stub(AgentService.class, new Object() {
+
+            public List<Agent> list() {
+                return new ArrayList<Agent>(DefaultActiveAgentManagerTest.this.agents);
+            }
+
+            public Agent get(String name) {
+                DefaultActiveAgentManagerTest.this.lookups.incrementAndGet();
+                for (Agent agent : DefaultActiveAgentManagerTest.this.agents) {
+                    if (agent.getName().equals(name)) {
+                        return agent;
+                    }
+                }
+                return null;
+            }
+
+            public void updateHeartbeats(List<Agent> updates) {
+                for (Agent update : updates) {
+                    for (Agent agent : DefaultActiveAgentManagerTest.this.agents) {
+                        if (agent.getId().equals(update.getId()) && (update.getAlive() != null)) {
+                            agent.setAlive(update.getAlive());
+                        }
+                    }
+                }
+            }
+        }));
+        inject(this.manager, "taskService", WorkflowEngineTest.stub(TaskService.class, new Object() {
+
+            public void pauseHeartbeatTask(long agentId, String name) {
+                DefaultActiveAgentManagerTest.this.taskCalls.add("pause " + name);
+            }
+
+            public void resumeHeartbeatTask(long agentId, String name) {
+                DefaultActiveAgentManagerTest.this.taskCalls.add("resume " + name);
+            }
+        }));
+        this.manager.init();
+    }
+
+    @After
+    public void after() {
+        this.manager.close();
+    }
+
+    @Test
+    public void testHeartbeatByName() {
+        Assert.assertEquals(1, this.manager.heartbeat("agent-1", "1.0"));
+        Assert.assertTrue(this.manager.isActive(1));
+        Assert.assertEquals(0, this.lookups.get());
+    }
+
+    /**
+     * 找不到的名字只查一次库，agent变化或flush后重新查
+     */
+    @Test
+    public void testUnknownNameCached() {
+        for (int i = 0; i < 3; i++) {
+            assertNotFound("agent-2");
+        }
+        Assert.assertEquals(1, this.lookups.get());
+
+        this.agents.add(agent(2, "agent-2"));
+        assertNotFound("agent-2");
+        this.manager.onApplicationEvent(new AgentChangedEvent(this, 2));
+        Assert.assertEquals(2, this.manager.heartbeat("agent-2", "1.0"));
+        Assert.assertEquals(2, this.lookups.get());
+
+        assertNotFound("agent-3");
+        this.agents.add(agent(3, "agent-3"));
+        this.manager.flush();
+        Assert.assertEquals(3, this.manager.heartbeat("agent-3", "1.0"));
+        // flush后索引中已有，不再查库
+        Assert.assertEquals(3, this.lookups.get());
+    }
+
+    /**
+     * 收到原生心跳后暂停心跳任务，agent变为不可用时重新开启，之后再收到原生心跳时再暂停
+     */
+    @Test
+    public void testHeartbeatTaskPausedAndResumed() throws Exception {
+        inject(this.manager, "thresholdMillis", 200L);
+        this.manager.heartbeat("agent-1", "1.0");
+        this.manager.flush();
+        this.manager.heartbeat("agent-1", "1.0");
+        this.manager.flush();
+        Assert.assertEquals(Arrays.asList("pause agent-1"), this.taskCalls);
+        Assert.assertTrue(this.agents.get(0).getAlive());
+
+        Thread.sleep(300);
+        this.manager.flush();
+        this.manager.flush();
+        Assert.assertEquals(Arrays.asList("pause agent-1", "resume agent-1"), this.taskCalls);
+        Assert.assertFalse(this.agents.get(0).getAlive());
+
+        this.manager.heartbeat("agent-1", "1.0");
+        this.manager.flush();
+        Assert.assertEquals(Arrays.asList("pause agent-1", "resume agent-1", "pause agent-1"), this.taskCalls);
+    }
+
+    @Test
+    public void testBlankName() {
+        assertNotFound(null);
+        assertNotFound(" ");
+        Assert.assertEquals(0, this.lookups.get());
+    }
+
+    private void assertNotFound(String name) {
+        try {
+            this.manager.heartbeat(name, "1.0");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static Agent agent(long id, String name) {
+        Agent agent = new Agent();
+        agent.setId(id);
+        agent.setName(name);
+        agent.setIp("127.0.0.1");
+        agent.setEnable(true);
+        return agent;
+    }
+
+    private static void inject(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
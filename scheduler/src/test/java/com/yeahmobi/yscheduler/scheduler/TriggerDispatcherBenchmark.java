@@ -0,0 +1,107 @@
+package com.yeahmobi.yscheduler.scheduler;
+
+import java.util.Date;
+import java.util.Map;
+
+import com.yeahmobi.yscheduler.common.CrontabUtils;
+
+/**
+ * 实际运行30秒，测量触发延迟(实际触发时间 - 应触发时间)的分布：2000个每10秒触发一次的秒级crontab，
+ * 每次触发耗时2ms(模拟查库、插入实例等)。对比原来每隔10秒调度一轮(interval)与TriggerDispatcher精确触发(precise)，
+ * 以及所有触发集中在同一秒的情况(burst)，直接运行main即可。
+ */
+public class TriggerDispatcherBenchmark {
+
+    private static final int  TRIGGERS  = 2000;
+
+    private static final long FIRE_COST = 2;
+
+    private static final long DURATION  = 30 * 1000L;
+
+    private static final long INTERVAL  = 10 * 1000L;
+
+    private static final int  THREADS   = 8;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("ysheduler.schedule.precise", "true");
+
+        System.out.println(String.format("%d triggers, %d ms per fire, %d s per run, %d threads", TRIGGERS,
+                                         FIRE_COST, DURATION / 1000, THREADS));
+        System.out.println(String.format("%10s %10s %10s %10s %10s %10s", "", "count", "p50 ms", "p90 ms", "p99 ms",
+                                         "max ms"));
+        print("interval", runInterval(crontabs(false)));
+        print("precise", runPrecise(crontabs(false)));
+        print("burst", runPrecise(crontabs(true)));
+    }
+
+    /**
+     * burst为false时均匀分布在10秒内的每一秒(每秒200个)，否则都在第0秒
+     */
+    private static String[] crontabs(boolean burst) {
+        String[] crontabs = new String[TRIGGERS];
+        for (int i = 0; i < TRIGGERS; i++) {
+            crontabs[i] = (burst ? 0 : (i % 10)) + "/10 * * * * ?";
+        }
+        return crontabs;
+    }
+
+    private static long fire(String crontab, TriggerIndex.Trigger trigger, LatenessRecorder lateness)
+                                                                                                     throws InterruptedException {
+        lateness.record(System.currentTimeMillis() - trigger.getNextFireTime());
+        Thread.sleep(FIRE_COST);
+        return CrontabUtils.next(crontab, new Date(trigger.getNextFireTime())).getTime();
+    }
+
+    private static Map<String, Object> runPrecise(final String[] crontabs) throws Exception {
+        final LatenessRecorder lateness = new LatenessRecorder();
+        final TriggerIndex index = new TriggerIndex();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < TRIGGERS; i++) {
+            index.put(TriggerIndex.Type.TASK, i, CrontabUtils.next(crontabs[i], new Date(now)).getTime());
+        }
+        TriggerDispatcher dispatcher = new TriggerDispatcher(index, new TriggerDispatcher.Handler() {
+
+            public void sync(long now) {
+            }
+
+            public long fire(TriggerIndex.Trigger trigger, long now) throws Exception {
+                return TriggerDispatcherBenchmark.fire(crontabs[(int) trigger.getId()], trigger, lateness);
+            }
+        }, THREADS, INTERVAL, INTERVAL);
+        dispatcher.start();
+        Thread.sleep(DURATION);
+        dispatcher.close();
+        return lateness.snapshot();
+    }
+
+    /**
+     * 与原DefaultSchedulerExecutor的调度线程相同：每隔INTERVAL取出到期的触发，逐个执行
+     */
+    private static Map<String, Object> runInterval(String[] crontabs) throws Exception {
+        LatenessRecorder lateness = new LatenessRecorder();
+        TriggerIndex index = new TriggerIndex();
+        long current = System.currentTimeMillis();
+        for (int i = 0; i < TRIGGERS; i++) {
+            index.put(TriggerIndex.Type.TASK, i, CrontabUtils.next(crontabs[i], new Date(current)).getTime());
+        }
+        long end = current + DURATION;
+        while (current < end) {
+            for (TriggerIndex.Trigger trigger : index.pollDue(current)) {
+                int id = (int) trigger.getId();
+                index.put(TriggerIndex.Type.TASK, id, fire(crontabs[id], trigger, lateness));
+            }
+            current += INTERVAL;
+            long sleep = current - System.currentTimeMillis();
+            if (sleep > 0) {
+                Thread.sleep(sleep);
+            }
+        }
+        return lateness.snapshot();
+    }
+
+    private static void print(String name, Map<String, Object> snapshot) {
+        System.out.println(String.format("%10s %10s %10s %10s %10s %10s", name, snapshot.get("count"),
+                                         snapshot.get("p50"), snapshot.get("p90"), snapshot.get("p99"),
+                                         snapshot.get("max")));
+    }
+}
@@ -0,0 +1,200 @@
+package com.yeahmobi.yscheduler.scheduler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.scheduler.TriggerIndex.Trigger;
+import com.yeahmobi.yscheduler.scheduler.TriggerIndex.Type;
+
+public class TriggerDispatcherTest {
+
+    private static final long  SYNC_INTERVAL = 60 * 1000L;
+
+    private static final long  RETRY_DELAY   = 200;
+
+    private TriggerIndex       index;
+
+    private TriggerDispatcher  dispatcher;
+
+    private final List<String> fired         = new CopyOnWriteArrayList<String>();
+
+    private LatenessRecorder   lateness;
+
+    @Before
+    public void before() {
+        this.index = new TriggerIndex();
+        this.lateness = new LatenessRecorder();
+    }
+
+    @After
+    public void after() {
+        if (this.dispatcher != null) {
+            this.dispatcher.close();
+        }
+    }
+
+    /**
+     * 在触发时间到达时触发，不等下一轮同步(测试中为1分钟)
+     */
+    @Test
+    public void testFireOnTime() throws Exception {
+        long now = System.currentTimeMillis();
+        for (long id = 1; id <= 5; id++) {
+            this.index.put(Type.TASK, id, now + (id * 100));
+        }
+        // 一个线程，启动慢时同时到期的也按触发时间顺序执行
+        start(new Firing() {
+
+            public long fire(Trigger trigger, long now) {
+                return -1;
+            }
+        }, 1, SYNC_INTERVAL);
+
+        waitFired(5);
+        Assert.assertEquals("TASK 1", this.fired.get(0));
+        Assert.assertEquals("TASK 5", this.fired.get(4));
+        assertMaxLateness(1000);
+        Assert.assertEquals(0, this.index.size());
+    }
+
+    /**
+     * 执行完返回的下次触发时间放回索引
+     */
+    @Test
+    public void testReschedule() throws Exception {
+        this.index.put(Type.WORKFLOW, 1, System.currentTimeMillis());
+        start(new Firing() {
+
+            public long fire(Trigger trigger, long now) {
+                return trigger.getNextFireTime() + 50;
+            }
+        }, 1, SYNC_INTERVAL);
+
+        waitFired(5);
+        assertMaxLateness(1000);
+    }
+
+    /**
+     * 没能触发(下次时间没有前进)或出错的，在retryDelay之后重试，不会原地反复触发
+     */
+    @Test
+    public void testRetryDelay() throws Exception {
+        final long start = System.currentTimeMillis();
+        this.index.put(Type.TASK, 1, start);
+        this.index.put(Type.TASK, 2, start);
+        start(new Firing() {
+
+            public long fire(Trigger trigger, long now) {
+                if (trigger.getId() == 2) {
+                    throw new IllegalStateException("failed");
+                }
+                return trigger.getNextFireTime();
+            }
+        }, 2, SYNC_INTERVAL);
+
+        TimeUnit.MILLISECONDS.sleep(RETRY_DELAY * 3);
+        int count = this.fired.size();
+        // 每个触发在这段时间内最多4次
+        Assert.assertTrue(count >= 4);
+        Assert.assertTrue(count <= 8);
+    }
+
+    /**
+     * 同步时放回索引的执行中的触发会被去掉，同一个触发不会并发执行
+     */
+    @Test
+    public void testNoConcurrentFire() throws Exception {
+        final long start = System.currentTimeMillis();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        this.index.put(Type.TASK, 1, start);
+        this.dispatcher = new TriggerDispatcher(this.index, new TriggerDispatcher.Handler() {
+
+            public void sync(long now) {
+                // 模拟从库中重新加载，触发时间仍是之前的
+                TriggerDispatcherTest.this.index.put(Type.TASK, 1, start);
+            }
+
+            public long fire(Trigger trigger, long now) throws Exception {
+                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                TriggerDispatcherTest.this.fired.add(trigger.getType() + " " + trigger.getId());
+                TimeUnit.MILLISECONDS.sleep(100);
+                running.decrementAndGet();
+                return now + 1000;
+            }
+        }, 4, 10, RETRY_DELAY);
+        this.dispatcher.start();
+
+        waitFired(2);
+        Assert.assertEquals(1, maxRunning.get());
+    }
+
+    /**
+     * 同一时刻到期的大量触发由线程池并行执行
+     */
+    @Test
+    public void testBurst() throws Exception {
+        long at = System.currentTimeMillis() + 100;
+        for (long id = 1; id <= 400; id++) {
+            this.index.put(Type.TASK, id, at);
+        }
+        start(new Firing() {
+
+            public long fire(Trigger trigger, long now) throws Exception {
+                TimeUnit.MILLISECONDS.sleep(10);
+                return -1;
+            }
+        }, 8, SYNC_INTERVAL);
+
+        waitFired(400);
+        // 串行执行需要4秒，8个线程500ms
+        assertMaxLateness(2000);
+        long deadline = System.currentTimeMillis() + 1000;
+        while (this.dispatcher.getInflightCount() > 0) {
+            Assert.assertTrue("timeout", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.assertEquals(0, this.index.size());
+    }
+
+    private void start(final Firing firing, int threads, long syncInterval) {
+        this.dispatcher = new TriggerDispatcher(this.index, new TriggerDispatcher.Handler() {
+
+            public void sync(long now) {
+            }
+
+            public long fire(Trigger trigger, long now) throws Exception {
+                TriggerDispatcherTest.this.lateness.record(now - trigger.getNextFireTime());
+                TriggerDispatcherTest.this.fired.add(trigger.getType() + " " + trigger.getId());
+                return firing.fire(trigger, now);
+            }
+        }, threads, syncInterval, RETRY_DELAY);
+        this.dispatcher.start();
+    }
+
+    private void waitFired(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.fired.size() < count) {
+            Assert.assertTrue("timeout", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private void assertMaxLateness(long millis) {
+        Map<String, Object> snapshot = this.lateness.snapshot();
+        Assert.assertTrue(snapshot.toString(), (Long) snapshot.get("max") < millis);
+    }
+
+    private interface Firing {
+
+        long fire(Trigger trigger, long now) throws Exception;
+    }
+}
@@ -0,0 +1,90 @@
+package com.yeahmobi.yscheduler.scheduler;
+
+import java.util.Date;
+import java.util.List;
+
+import com.yeahmobi.yscheduler.common.CrontabUtils;
+
+/**
+ * 对比全表扫描与触发索引两种调度方式的每轮耗时和数据库查询次数，直接运行main即可。<br>
+ * 数据库访问按DefaultSchedulerExecutor的实现计数（不含两种方式都有的触发本身的读写）：<br>
+ * 全表扫描每轮2次list，读出全部N行；触发索引每轮2次增量查询，加上每个到期条目1次get，
+ * 增量查询会再读到刚被更新了last_schedule_time的行，因此每个到期条目按2行计。
+ */
+public class TriggerIndexBenchmark {
+
+    private static final long     INTERVAL  = 10 * 1000;
+
+    private static final int      TICKS     = 12;
+
+    private static final String[] CRONTABS  = { "0 * * * * *", "0 */5 * * * *", "0 0 * * * *", "0 30 2 * * *" };
+
+    private static final long     BASE_TIME = 1420070400000L;
+
+    public static void main(String[] args) {
+        // 预热
+        run(1000, false);
+
+        System.out.println(String.format("%8s %14s %14s %14s %14s %14s %14s", "tasks", "scan ticks/s",
+                                         "index ticks/s", "scan qry/tick", "index qry/tick", "scan rows/tick",
+                                         "index rows/tick"));
+        for (int n : new int[] { 1000, 10000, 100000 }) {
+            run(n, true);
+        }
+    }
+
+    private static void run(int n, boolean print) {
+        String[] crontabs = new String[n];
+        Date[] lastScheduleTimes = new Date[n];
+        for (int i = 0; i < n; i++) {
+            crontabs[i] = CRONTABS[i % CRONTABS.length];
+            lastScheduleTimes[i] = new Date(BASE_TIME);
+        }
+
+        // 全表扫描：每轮对所有task计算一次next
+        Date[] scanLast = lastScheduleTimes.clone();
+        long scanQueries = 0;
+        long begin = System.nanoTime();
+        for (int tick = 1; tick <= TICKS; tick++) {
+            long cur = BASE_TIME + (tick * INTERVAL);
+            scanQueries += 2;
+            for (int i = 0; i < n; i++) {
+                Date scheduleTime = CrontabUtils.next(crontabs[i], scanLast[i]);
+                if (scheduleTime.getTime() <= cur) {
+                    scanLast[i] = scheduleTime;
+                }
+            }
+        }
+        long scanNanos = System.nanoTime() - begin;
+
+        // 触发索引：启动时加载一次，之后每轮只处理到期的条目
+        Date[] indexLast = lastScheduleTimes.clone();
+        long indexQueries = 2;
+        long indexRows = n;
+        begin = System.nanoTime();
+        TriggerIndex index = new TriggerIndex();
+        for (int i = 0; i < n; i++) {
+            index.put(TriggerIndex.Type.TASK, i, CrontabUtils.next(crontabs[i], indexLast[i]).getTime());
+        }
+        for (int tick = 1; tick <= TICKS; tick++) {
+            long cur = BASE_TIME + (tick * INTERVAL);
+            indexQueries += 2;
+            List<TriggerIndex.Trigger> dueTriggers = index.pollDue(cur);
+            for (TriggerIndex.Trigger trigger : dueTriggers) {
+                int i = (int) trigger.getId();
+                indexQueries++;
+                indexRows += 2;
+                indexLast[i] = new Date(trigger.getNextFireTime());
+                index.put(TriggerIndex.Type.TASK, i, CrontabUtils.next(crontabs[i], indexLast[i]).getTime());
+            }
+        }
+        long indexNanos = System.nanoTime() - begin;
+
+        if (print) {
+            System.out.println(String.format("%8d %14.1f %14.1f %14.1f %14.1f %14d %14.1f", n,
+                                             (TICKS * 1e9) / scanNanos, (TICKS * 1e9) / indexNanos,
+                                             (double) scanQueries / TICKS, (double) indexQueries / TICKS, n,
+                                             (double) indexRows / TICKS));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.yeahmobi.yscheduler.scheduler;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.scheduler.TriggerIndex.Trigger;
+import com.yeahmobi.yscheduler.scheduler.TriggerIndex.Type;
+
+public class TriggerIndexTest {
+
+    private TriggerIndex index;
+
+    @Before
+    public void before() {
+        this.index = new TriggerIndex();
+    }
+
+    @Test
+    public void testPollDueInOrder() {
+        this.index.put(Type.TASK, 1, 3000);
+        this.index.put(Type.TASK, 2, 1000);
+        this.index.put(Type.WORKFLOW, 1, 2000);
+        this.index.put(Type.TASK, 3, 5000);
+
+        Assert.assertEquals(4, this.index.size());
+        Assert.assertEquals(1000, this.index.nextFireTime());
+
+        List<Trigger> due = this.index.pollDue(3000);
+        Assert.assertEquals(3, due.size());
+        assertTrigger(due.get(0), Type.TASK, 2, 1000);
+        assertTrigger(due.get(1), Type.WORKFLOW, 1, 2000);
+        assertTrigger(due.get(2), Type.TASK, 1, 3000);
+
+        // 取出的条目从索引中移除
+        Assert.assertEquals(1, this.index.size());
+        Assert.assertTrue(this.index.pollDue(3000).isEmpty());
+        Assert.assertEquals(5000, this.index.nextFireTime());
+    }
+
+    @Test
+    public void testTaskAndWorkflowWithSameId() {
+        this.index.put(Type.TASK, 1, 1000);
+        this.index.put(Type.WORKFLOW, 1, 2000);
+        Assert.assertEquals(2, this.index.size());
+
+        this.index.remove(Type.TASK, 1);
+        List<Trigger> due = this.index.pollDue(2000);
+        Assert.assertEquals(1, due.size());
+        assertTrigger(due.get(0), Type.WORKFLOW, 1, 2000);
+    }
+
+    @Test
+    public void testReplace() {
+        this.index.put(Type.TASK, 1, 1000);
+        this.index.put(Type.TASK, 1, 4000);
+        Assert.assertEquals(1, this.index.size());
+
+        // 旧的触发时间已失效
+        Assert.assertTrue(this.index.pollDue(3000).isEmpty());
+        Assert.assertEquals(4000, this.index.nextFireTime());
+
+        List<Trigger> due = this.index.pollDue(4000);
+        Assert.assertEquals(1, due.size());
+        assertTrigger(due.get(0), Type.TASK, 1, 4000);
+        Assert.assertEquals(0, this.index.size());
+    }
+
+    @Test
+    public void testReplaceEarlier() {
+        this.index.put(Type.TASK, 1, 4000);
+        this.index.put(Type.TASK, 1, 1000);
+
+        List<Trigger> due = this.index.pollDue(4000);
+        Assert.assertEquals(1, due.size());
+        assertTrigger(due.get(0), Type.TASK, 1, 1000);
+    }
+
+    @Test
+    public void testRemove() {
+        this.index.put(Type.TASK, 1, 1000);
+        this.index.put(Type.TASK, 2, 2000);
+        this.index.remove(Type.TASK, 1);
+        // 删除不存在的条目
+        this.index.remove(Type.TASK, 3);
+
+        Assert.assertEquals(1, this.index.size());
+        Assert.assertEquals(2000, this.index.nextFireTime());
+
+        this.index.remove(Type.TASK, 2);
+        Assert.assertEquals(0, this.index.size());
+        Assert.assertEquals(Long.MAX_VALUE, this.index.nextFireTime());
+        Assert.assertTrue(this.index.pollDue(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testPutAgainAfterPoll() {
+        this.index.put(Type.TASK, 1, 1000);
+        Assert.assertEquals(1, this.index.pollDue(1000).size());
+
+        this.index.put(Type.TASK, 1, 2000);
+        Assert.assertEquals(1, this.index.size());
+        Assert.assertTrue(this.index.pollDue(1999).isEmpty());
+        Assert.assertEquals(1, this.index.pollDue(2000).size());
+    }
+
+    @Test
+    public void testClear() {
+        this.index.put(Type.TASK, 1, 1000);
+        this.index.put(Type.WORKFLOW, 2, 2000);
+        this.index.clear();
+
+        Assert.assertEquals(0, this.index.size());
+        Assert.assertTrue(this.index.pollDue(Long.MAX_VALUE).isEmpty());
+    }
+
+    /**
+     * 大量更新后，堆中的失效条目被压缩，取出的结果与最后一次put一致
+     */
+    @Test
+    public void testManyUpdates() {
+        int count = 1000;
+        long[] expected = new long[count];
+        Random random = new Random(0);
+        for (int round = 0; round < 20; round++) {
+            for (int id = 0; id < count; id++) {
+                expected[id] = random.nextInt(100000);
+                this.index.put(Type.TASK, id, expected[id]);
+            }
+        }
+        Assert.assertEquals(count, this.index.size());
+
+        List<Trigger> due = this.index.pollDue(Long.MAX_VALUE);
+        Assert.assertEquals(count, due.size());
+        long last = Long.MIN_VALUE;
+        for (Trigger trigger : due) {
+            Assert.assertEquals(expected[(int) trigger.getId()], trigger.getNextFireTime());
+            Assert.assertTrue(trigger.getNextFireTime() >= last);
+            last = trigger.getNextFireTime();
+        }
+        Assert.assertEquals(0, this.index.size());
+    }
+
+    private void assertTrigger(Trigger trigger, Type type, long id, long nextFireTime) {
+        Assert.assertEquals(type, trigger.getType());
+        Assert.assertEquals(id, trigger.getId());
+        Assert.assertEquals(nextFireTime, trigger.getNextFireTime());
+    }
+}
@@ -0,0 +1,141 @@
+package com.yeahmobi.yscheduler.workflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
+
+public class TeamStatusAggregatorTest {
+
+    @Test
+    public void testStatusRules() {
+        TeamStatusAggregator aggregator = new TeamStatusAggregator();
+        aggregator.add(1, 10L, TaskInstanceStatus.SUCCESS);
+        aggregator.add(2, 10L, TaskInstanceStatus.CANCELLED);
+        aggregator.add(3, 10L, TaskInstanceStatus.RUNNING);
+        Assert.assertEquals(WorkflowInstanceStatus.RUNNING, aggregator.getStatus(10));
+
+        aggregator.update(3, TaskInstanceStatus.SUCCESS);
+        Assert.assertEquals(WorkflowInstanceStatus.CANCELLED, aggregator.getStatus(10));
+
+        // 失败优先于取消，其他非成功的结束状态按失败处理
+        aggregator.update(1, TaskInstanceStatus.WORKFLOW_FAILED);
+        Assert.assertEquals(WorkflowInstanceStatus.FAILED, aggregator.getStatus(10));
+
+        aggregator.update(1, TaskInstanceStatus.SUCCESS);
+        aggregator.update(2, TaskInstanceStatus.SUCCESS);
+        Assert.assertEquals(WorkflowInstanceStatus.SUCCESS, aggregator.getStatus(10));
+
+        Assert.assertNull(aggregator.getStatus(20));
+    }
+
+    @Test
+    public void testDrainOnlyChanged() {
+        TeamStatusAggregator aggregator = new TeamStatusAggregator();
+        aggregator.add(1, 10L, TaskInstanceStatus.DEPENDENCY_WAIT);
+        aggregator.add(2, 10L, TaskInstanceStatus.DEPENDENCY_WAIT);
+        aggregator.add(3, 20L, TaskInstanceStatus.DEPENDENCY_WAIT);
+        // 不属于任何team的节点不参与汇总
+        aggregator.add(4, null, TaskInstanceStatus.FAILED);
+        aggregator.setWritten(20, WorkflowInstanceStatus.RUNNING);
+
+        Map<Long, WorkflowInstanceStatus> changed = aggregator.drainChanged();
+        Assert.assertEquals(Collections.singletonMap(10L, WorkflowInstanceStatus.RUNNING), changed);
+        Assert.assertTrue(aggregator.drainChanged().isEmpty());
+
+        // 分类不变的状态变化不影响team
+        aggregator.update(1, TaskInstanceStatus.READY);
+        aggregator.update(1, TaskInstanceStatus.RUNNING);
+        aggregator.update(4, TaskInstanceStatus.SUCCESS);
+        Assert.assertTrue(aggregator.drainChanged().isEmpty());
+
+        aggregator.update(1, TaskInstanceStatus.SUCCESS);
+        Assert.assertTrue(aggregator.drainChanged().isEmpty());
+        aggregator.update(2, TaskInstanceStatus.SUCCESS);
+        aggregator.update(3, TaskInstanceStatus.FAILED);
+        changed = aggregator.drainChanged();
+        Assert.assertEquals(2, changed.size());
+        Assert.assertEquals(WorkflowInstanceStatus.SUCCESS, changed.get(10L));
+        Assert.assertEquals(WorkflowInstanceStatus.FAILED, changed.get(20L));
+    }
+
+    /**
+     * 随机的状态变化序列下，每一步写出的team状态与按全部节点重算的结果一致
+     */
+    @Test
+    public void testMatchesFullRecompute() {
+        int teams = 10;
+        int nodes = 300;
+        Random random = new Random(0);
+        TeamStatusAggregator aggregator = new TeamStatusAggregator();
+        long[] teamIds = new long[nodes];
+        TaskInstanceStatus[] statuses = new TaskInstanceStatus[nodes];
+        for (int i = 0; i < nodes; i++) {
+            teamIds[i] = i % teams;
+            statuses[i] = TaskInstanceStatus.DEPENDENCY_WAIT;
+            aggregator.add(i, teamIds[i], statuses[i]);
+        }
+        Map<Long, WorkflowInstanceStatus> written = new HashMap<Long, WorkflowInstanceStatus>(aggregator.drainChanged());
+
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < nodes; i++) {
+            order.add(i);
+        }
+        TaskInstanceStatus[] finals = { TaskInstanceStatus.SUCCESS, TaskInstanceStatus.FAILED,
+                TaskInstanceStatus.CANCELLED, TaskInstanceStatus.SKIPPED };
+        for (int round = 0; round < 2; round++) {
+            Collections.shuffle(order, random);
+            for (int i : order) {
+                if (round == 0) {
+                    statuses[i] = TaskInstanceStatus.RUNNING;
+                } else {
+                    statuses[i] = random.nextInt(20) == 0 ? finals[random.nextInt(finals.length)] : TaskInstanceStatus.SUCCESS;
+                }
+                aggregator.update(i, statuses[i]);
+                Map<Long, WorkflowInstanceStatus> changed = aggregator.drainChanged();
+                for (Map.Entry<Long, WorkflowInstanceStatus> entry : changed.entrySet()) {
+                    // 只写出真正变化的team
+                    Assert.assertFalse(entry.getValue() == written.get(entry.getKey()));
+                }
+                written.putAll(changed);
+                Assert.assertEquals(recompute(teamIds, statuses, teamIds[i]), written.get(teamIds[i]));
+            }
+        }
+        for (long team = 0; team < teams; team++) {
+            Assert.assertEquals(recompute(teamIds, statuses, team), written.get(team));
+        }
+    }
+
+    /**
+     * 原CommonWorkflowEngine按team遍历全部节点计算状态的规则
+     */
+    private static WorkflowInstanceStatus recompute(long[] teamIds, TaskInstanceStatus[] statuses, long teamId) {
+        boolean failed = false;
+        boolean cancelled = false;
+        for (int i = 0; i < statuses.length; i++) {
+            if (teamIds[i] != teamId) {
+                continue;
+            }
+            TaskInstanceStatus status = statuses[i];
+            if (!status.isCompleted()) {
+                return WorkflowInstanceStatus.RUNNING;
+            } else if (status == TaskInstanceStatus.CANCELLED) {
+                cancelled = true;
+            } else if (status != TaskInstanceStatus.SUCCESS) {
+                failed = true;
+            }
+        }
+        if (failed) {
+            return WorkflowInstanceStatus.FAILED;
+        }
+        return cancelled ? WorkflowInstanceStatus.CANCELLED : WorkflowInstanceStatus.SUCCESS;
+    }
+}
@@ -0,0 +1,238 @@
+package com.yeahmobi.yscheduler.workflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.yeahmobi.yscheduler.common.Constants;
+import com.yeahmobi.yscheduler.model.Task;
+import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
+
+/**
+ * 在50个team、2000个节点的公共工作流上，对比每次节点状态变化都遍历全部节点重算team状态（原实现）
+ * 与TeamStatusAggregator增量汇总的耗时、team查询次数和写库次数，直接运行main即可。<br>
+ * 每个节点依次变为RUNNING和结束状态，约2%的节点失败；结束后校验两者得到的各team状态一致。
+ */
+public class TeamStatusBenchmark {
+
+    private static final int TEAMS = 50;
+
+    private static final int NODES = 2000;
+
+    public static void main(String[] args) {
+        List<TaskInstanceWithDependency> nodes = buildWorkflow();
+        List<Change> changes = buildChanges(nodes);
+
+        // 预热
+        runOld(buildWorkflow(), changes, new Stats());
+        runNew(buildWorkflow(), changes, new Stats());
+
+        Stats oldStats = new Stats();
+        long begin = System.nanoTime();
+        Map<Long, WorkflowInstanceStatus> oldResult = runOld(buildWorkflow(), changes, oldStats);
+        long oldNanos = System.nanoTime() - begin;
+
+        Stats newStats = new Stats();
+        begin = System.nanoTime();
+        Map<Long, WorkflowInstanceStatus> newResult = runNew(buildWorkflow(), changes, newStats);
+        long newNanos = System.nanoTime() - begin;
+
+        if (!oldResult.equals(newResult)) {
+            throw new IllegalStateException("Team status differs: " + oldResult + " vs " + newResult);
+        }
+        System.out.println(String.format("%d teams, %d nodes, %d status changes, verified", TEAMS, nodes.size(),
+                                         changes.size()));
+        System.out.println(String.format("%6s %12s %14s %12s", "", "total ms", "team lookups", "db writes"));
+        System.out.println(String.format("%6s %12.1f %14d %12d", "old", oldNanos / 1e6, oldStats.lookups,
+                                         oldStats.writes));
+        System.out.println(String.format("%6s %12.1f %14d %12d", "new", newNanos / 1e6, newStats.lookups,
+                                         newStats.writes));
+    }
+
+    /**
+     * 一个全局根节点，每个team一个依赖全局根的team根节点，其余节点依赖所属team的根节点
+     */
+    private static List<TaskInstanceWithDependency> buildWorkflow() {
+        List<TaskInstanceWithDependency> nodes = new ArrayList<TaskInstanceWithDependency>();
+        long id = 1;
+        nodes.add(newNode(id++, String.format(Constants.ROOT_NODE_PATTERN, ""), 0L, new ArrayList<Long>()));
+        for (int team = 1; team <= TEAMS; team++) {
+            nodes.add(newNode(id++, String.format(Constants.ROOT_NODE_PATTERN, "team" + team), 0L,
+                              Collections.singletonList(1L)));
+        }
+        while (nodes.size() < NODES) {
+            long team = ((nodes.size() - TEAMS - 1) % TEAMS) + 1;
+            nodes.add(newNode(id++, "task" + id, team, Collections.singletonList(team + 1)));
+        }
+        return nodes;
+    }
+
+    private static TaskInstanceWithDependency newNode(long id, String name, long teamId, List<Long> dependencies) {
+        Task task = new Task();
+        task.setId(id);
+        task.setName(name);
+        TaskInstance instance = new TaskInstance();
+        instance.setId(id);
+        instance.setTaskId(id);
+        instance.setStatus(TaskInstanceStatus.DEPENDENCY_WAIT);
+        return new TaskInstanceWithDependency(task, teamId, instance, dependencies);
+    }
+
+    private static List<Change> buildChanges(List<TaskInstanceWithDependency> nodes) {
+        Random random = new Random(0);
+        List<Change> changes = new ArrayList<Change>();
+        List<Integer> rest = new ArrayList<Integer>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i <= TEAMS) {
+                changes.add(new Change(i, TaskInstanceStatus.RUNNING));
+                changes.add(new Change(i, TaskInstanceStatus.SUCCESS));
+            } else {
+                rest.add(i);
+            }
+        }
+        Collections.shuffle(rest, random);
+        for (int i : rest) {
+            changes.add(new Change(i, TaskInstanceStatus.RUNNING));
+        }
+        Collections.shuffle(rest, random);
+        for (int i : rest) {
+            changes.add(new Change(i, random.nextInt(50) == 0 ? TaskInstanceStatus.FAILED : TaskInstanceStatus.SUCCESS));
+        }
+        return changes;
+    }
+
+    private static Map<Long, WorkflowInstanceStatus> runNew(List<TaskInstanceWithDependency> nodes,
+                                                            List<Change> changes, Stats stats) {
+        TeamStatusAggregator aggregator = new TeamStatusAggregator();
+        Map<String, Long> rootTeamIds = new HashMap<String, Long>();
+        for (TaskInstanceWithDependency node : nodes) {
+            TaskInstance instance = node.getTaskInstance();
+            aggregator.add(instance.getId(), getRealTeamId(node, rootTeamIds, stats), instance.getStatus());
+        }
+        write(aggregator.drainChanged(), null, stats);
+
+        Map<Long, WorkflowInstanceStatus> result = new HashMap<Long, WorkflowInstanceStatus>();
+        for (Change change : changes) {
+            TaskInstance instance = nodes.get(change.node).getTaskInstance();
+            instance.setStatus(change.status);
+            aggregator.update(instance.getId(), change.status);
+            write(aggregator.drainChanged(), result, stats);
+        }
+        return result;
+    }
+
+    private static Map<Long, WorkflowInstanceStatus> runOld(List<TaskInstanceWithDependency> nodes,
+                                                            List<Change> changes, Stats stats) {
+        Map<Long, WorkflowInstanceStatus> result = new HashMap<Long, WorkflowInstanceStatus>();
+        for (Change change : changes) {
+            TaskInstanceWithDependency node = nodes.get(change.node);
+            node.getTaskInstance().setStatus(change.status);
+            write(oldCalStatus(nodes, Collections.singletonList(node), stats), result, stats);
+        }
+        return result;
+    }
+
+    private static void write(Map<Long, WorkflowInstanceStatus> statuses, Map<Long, WorkflowInstanceStatus> result,
+                              Stats stats) {
+        stats.writes += statuses.size();
+        if (result != null) {
+            result.putAll(statuses);
+        }
+    }
+
+    /**
+     * 原CommonWorkflowEngine.calStatus：收集变化节点的team，再遍历全部节点重算这些team的状态
+     */
+    private static Map<Long, WorkflowInstanceStatus> oldCalStatus(List<TaskInstanceWithDependency> nodes,
+                                                                  List<TaskInstanceWithDependency> changed,
+                                                                  Stats stats) {
+        Set<Long> teamIds = new HashSet<Long>();
+        for (TaskInstanceWithDependency node : changed) {
+            Long teamId = getRealTeamId(node, null, stats);
+            if (teamId != null) {
+                teamIds.add(teamId);
+            }
+        }
+        Map<Long, List<TaskInstance>> teamIdToTaskInstancesMap = new HashMap<Long, List<TaskInstance>>();
+        for (TaskInstanceWithDependency node : nodes) {
+            Long teamId = getRealTeamId(node, null, stats);
+            if ((teamId != null) && teamIds.contains(teamId)) {
+                if (!teamIdToTaskInstancesMap.containsKey(teamId)) {
+                    teamIdToTaskInstancesMap.put(teamId, new ArrayList<TaskInstance>());
+                }
+                teamIdToTaskInstancesMap.get(teamId).add(node.getTaskInstance());
+            }
+        }
+        Map<Long, WorkflowInstanceStatus> result = new HashMap<Long, WorkflowInstanceStatus>();
+        for (Map.Entry<Long, List<TaskInstance>> entry : teamIdToTaskInstancesMap.entrySet()) {
+            result.put(entry.getKey(), oldCalStatusByTaskInstance(entry.getValue()));
+        }
+        return result;
+    }
+
+    private static WorkflowInstanceStatus oldCalStatusByTaskInstance(List<TaskInstance> taskInstances) {
+        int statusMark = 0;
+        for (TaskInstance instance : taskInstances) {
+            TaskInstanceStatus status = instance.getStatus();
+            if (!status.isCompleted()) {
+                return WorkflowInstanceStatus.RUNNING;
+            } else if (status == TaskInstanceStatus.CANCELLED) {
+                statusMark |= (1 << 1);
+            } else if (status == TaskInstanceStatus.SUCCESS) {
+                statusMark |= 1;
+            } else {
+                statusMark |= (1 << 2);
+            }
+        }
+        if ((statusMark & (1 << 2)) != 0) {
+            return WorkflowInstanceStatus.FAILED;
+        } else if ((statusMark & (1 << 1)) != 0) {
+            return WorkflowInstanceStatus.CANCELLED;
+        }
+        return WorkflowInstanceStatus.SUCCESS;
+    }
+
+    /**
+     * team根节点按名字查team，每次查询计一次lookup；rootTeamIds不为null时缓存查询结果
+     */
+    private static Long getRealTeamId(TaskInstanceWithDependency node, Map<String, Long> rootTeamIds, Stats stats) {
+        String taskName = node.getTask().getName();
+        if ((node.getDependencies().size() == 1) && taskName.endsWith(Constants.ROOT_NODE)) {
+            Long teamId = rootTeamIds == null ? null : rootTeamIds.get(taskName);
+            if (teamId == null) {
+                stats.lookups++;
+                String teamName = taskName.substring(1, taskName.length() - Constants.ROOT_NODE.length());
+                teamId = Long.parseLong(teamName.substring("team".length()));
+                if (rootTeamIds != null) {
+                    rootTeamIds.put(taskName, teamId);
+                }
+            }
+            return teamId;
+        }
+        return node.getTeamId();
+    }
+
+    private static class Change {
+
+        final int                node;
+        final TaskInstanceStatus status;
+
+        Change(int node, TaskInstanceStatus status) {
+            this.node = node;
+            this.status = status;
+        }
+    }
+
+    private static class Stats {
+
+        long lookups;
+        long writes;
+    }
+}
@@ -0,0 +1,276 @@
+package com.yeahmobi.yscheduler.workflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.cluster.PartitionManager;
+import com.yeahmobi.yscheduler.condition.ConditionChecker;
+import com.yeahmobi.yscheduler.condition.ConditionContext;
+import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
+import com.yeahmobi.yscheduler.executor.TaskInstanceListener;
+import com.yeahmobi.yscheduler.model.Task;
+import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.Workflow;
+import com.yeahmobi.yscheduler.model.WorkflowDetail;
+import com.yeahmobi.yscheduler.model.WorkflowInstance;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraph;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraphRow;
+import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
+import com.yeahmobi.yscheduler.model.service.TaskService;
+import com.yeahmobi.yscheduler.model.service.WorkflowDetailService;
+import com.yeahmobi.yscheduler.model.service.WorkflowInstanceService;
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
+import com.yeahmobi.yscheduler.notice.NoticeService;
+
+/**
+ * 验证工作流实例在shard间的归属：按id散列到shard，事件由所属shard的线程处理；开启work stealing后
+ * 空闲的shard接手积压shard的工作流实例，之后该工作流的事件都交给新的shard
+ */
+public class WorkflowEngineShardTest {
+
+    private static final int                            SHARDS     = 4;
+
+    private static final long                           TASK_ID    = 1;
+
+    private PrivateWorkflowEngine                       engine;
+
+    /** 检查每个工作流实例时所在的线程 */
+    private final ConcurrentHashMap<Long, List<String>> checkedBy  = new ConcurrentHashMap<Long, List<String>>();
+
+    /** 工作流实例结束时所在的线程 */
+    private final Map<Long, String>                     finishedBy = new ConcurrentHashMap<Long, String>();
+
+    private final List<TaskInstance>                    submitted  = new CopyOnWriteArrayList<TaskInstance>();
+
+    private volatile TaskInstanceListener               listener;
+
+    @After
+    public void after() {
+        if (this.engine != null) {
+            this.engine.close();
+        }
+        System.clearProperty("ysheduler.workflow.shards");
+        System.clearProperty("ysheduler.workflow.workStealing");
+    }
+
+    @Test
+    public void testShardOwnership() throws Exception {
+        start(false, 0);
+        for (long id = 100; id < 108; id++) {
+            submit(id);
+        }
+        waitSubmitted(8);
+
+        for (long id = 100; id < 108; id++) {
+            Assert.assertEquals(Collections.singletonList(shardName(id % SHARDS)), this.checkedBy.get(id));
+        }
+        Map<String, Object> metrics = this.engine.getMetrics();
+        Assert.assertEquals(8, metrics.get("runningWorkflows"));
+        for (Object shard : (List<?>) metrics.get("shards")) {
+            Assert.assertEquals(2, ((Map<?, ?>) shard).get("workflows"));
+        }
+
+        // 节点成功的事件也在所属shard处理
+        for (long id = 100; id < 108; id++) {
+            this.listener.onCompleted(taskInstanceId(id), TaskInstanceStatus.SUCCESS);
+        }
+        waitFinished(8);
+        for (long id = 100; id < 108; id++) {
+            Assert.assertEquals(shardName(id % SHARDS), this.finishedBy.get(id));
+        }
+        Assert.assertTrue(this.engine.runningWorkflows.isEmpty());
+    }
+
+    /**
+     * 散列到同一shard的工作流积压时，其他shard接手部分工作流，每个工作流只被处理一次
+     */
+    @Test
+    public void testWorkStealing() throws Exception {
+        start(true, 20);
+        int count = 40;
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < count; i++) {
+            // 全部散列到shard 0
+            long id = (i + 1) * SHARDS;
+            ids.add(id);
+            submit(id);
+        }
+        waitSubmitted(count);
+
+        List<Long> stolen = new ArrayList<Long>();
+        for (Long id : ids) {
+            List<String> threads = this.checkedBy.get(id);
+            Assert.assertEquals(1, threads.size());
+            if (!threads.get(0).equals(shardName(0))) {
+                stolen.add(id);
+            }
+        }
+        Assert.assertFalse(stolen.isEmpty());
+        long stolenCount = 0;
+        for (Object shard : (List<?>) this.engine.getMetrics().get("shards")) {
+            stolenCount += (Long) ((Map<?, ?>) shard).get("stolenCount");
+        }
+        Assert.assertTrue(stolenCount > 0);
+
+        // 被接手的工作流，之后的事件由接手的shard处理
+        for (Long id : ids) {
+            this.listener.onCompleted(taskInstanceId(id), TaskInstanceStatus.SUCCESS);
+        }
+        waitFinished(count);
+        for (Long id : stolen) {
+            Assert.assertEquals(this.checkedBy.get(id).get(0), this.finishedBy.get(id));
+        }
+    }
+
+    @Test
+    public void testNoStealingWhenDisabled() throws Exception {
+        start(false, 20);
+        for (int i = 0; i < 20; i++) {
+            submit((i + 1) * SHARDS);
+        }
+        waitSubmitted(20);
+        for (List<String> threads : this.checkedBy.values()) {
+            Assert.assertEquals(Collections.singletonList(shardName(0)), threads);
+        }
+    }
+
+    private void start(boolean workStealing, final long checkMillis) throws InterruptedException {
+        System.setProperty("ysheduler.workflow.shards", String.valueOf(SHARDS));
+        System.setProperty("ysheduler.workflow.workStealing", String.valueOf(workStealing));
+
+        final WorkflowGraph graph = buildGraph();
+        this.engine = new PrivateWorkflowEngine();
+        this.engine.taskInstanceExecutor = new TaskInstanceExecutor() {
+
+            public void submit(TaskInstance instance) {
+                WorkflowEngineShardTest.this.submitted.add(instance);
+            }
+
+            public TaskInstanceStatus getStatus(long instanceId) {
+                return TaskInstanceStatus.RUNNING;
+            }
+
+            public void cancel(long instanceId) {
+            }
+
+            public void addListener(TaskInstanceListener listener) {
+                WorkflowEngineShardTest.this.listener = listener;
+            }
+        };
+        this.engine.workflowInstanceService = WorkflowEngineTest.stub(WorkflowInstanceService.class, new Object() {
+
+            public WorkflowInstance get(long id) {
+                List<String> threads = new CopyOnWriteArrayList<String>();
+                List<String> old = WorkflowEngineShardTest.this.checkedBy.putIfAbsent(id, threads);
+                (old == null ? threads : old).add(Thread.currentThread().getName());
+                // 模拟较慢的检查，使事件积压
+                try {
+                    TimeUnit.MILLISECONDS.sleep(checkMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return workflowInstance(id);
+            }
+
+            public void updateStatus(Long instanceId, WorkflowInstanceStatus status) {
+                if (status == WorkflowInstanceStatus.SUCCESS) {
+                    WorkflowEngineShardTest.this.finishedBy.put(instanceId, Thread.currentThread().getName());
+                }
+            }
+        });
+        this.engine.taskInstanceService = WorkflowEngineTest.stub(TaskInstanceService.class, new Object());
+        this.engine.taskService = WorkflowEngineTest.stub(TaskService.class, new Object() {
+
+            public Task get(long id) {
+                return graph.getTask(0);
+            }
+        });
+        this.engine.workflowDetailService = WorkflowEngineTest.stub(WorkflowDetailService.class, new Object() {
+
+            public WorkflowGraph getGraph(long workflowId) {
+                return graph;
+            }
+        });
+        this.engine.noticeService = WorkflowEngineTest.stub(NoticeService.class, new Object());
+        this.engine.conditionChecker = new ConditionChecker() {
+
+            public boolean satisfy(ConditionContext context) {
+                return true;
+            }
+        };
+        this.engine.partitionManager = new PartitionManager();
+        this.engine.partitionManager.init();
+        this.engine.init();
+        // 等shard启动时的全量检查结束，之后60秒内不会再有
+        TimeUnit.MILLISECONDS.sleep(100);
+    }
+
+    private void submit(long workflowInstanceId) {
+        Workflow workflow = new Workflow();
+        workflow.setId(1L);
+        workflow.setTimeout(60);
+        TaskInstance instance = new TaskInstance();
+        instance.setId(taskInstanceId(workflowInstanceId));
+        instance.setTaskId(TASK_ID);
+        instance.setWorkflowInstanceId(workflowInstanceId);
+        instance.setStatus(TaskInstanceStatus.DEPENDENCY_WAIT);
+        this.engine.submit(workflow, workflowInstance(workflowInstanceId), Collections.singletonList(instance));
+    }
+
+    private void waitSubmitted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.submitted.size() < count) {
+            Assert.assertTrue("timeout", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private void waitFinished(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.finishedBy.size() < count) {
+            Assert.assertTrue("timeout", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static String shardName(long index) {
+        return "PrivateWorkflowEngine-" + index;
+    }
+
+    private static long taskInstanceId(long workflowInstanceId) {
+        return (workflowInstanceId * 10) + 1;
+    }
+
+    private static WorkflowInstance workflowInstance(long id) {
+        WorkflowInstance workflowInstance = new WorkflowInstance();
+        workflowInstance.setId(id);
+        workflowInstance.setWorkflowId(1L);
+        workflowInstance.setScheduleTime(new Date());
+        return workflowInstance;
+    }
+
+    private static WorkflowGraph buildGraph() {
+        WorkflowDetail detail = new WorkflowDetail();
+        detail.setId(1L);
+        detail.setWorkflowId(1L);
+        detail.setTaskId(TASK_ID);
+        Task task = new Task();
+        task.setId(TASK_ID);
+        WorkflowGraphRow row = new WorkflowGraphRow();
+        row.setDetailId(1L);
+        row.setDetail(detail);
+        row.setTask(task);
+        return WorkflowGraph.build(1L, new Date(), Collections.singletonList(row));
+    }
+}
@@ -0,0 +1,369 @@
+package com.yeahmobi.yscheduler.workflow;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yeahmobi.yscheduler.cluster.PartitionManager;
+import com.yeahmobi.yscheduler.condition.ConditionChecker;
+import com.yeahmobi.yscheduler.condition.ConditionContext;
+import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
+import com.yeahmobi.yscheduler.executor.TaskInstanceListener;
+import com.yeahmobi.yscheduler.model.Task;
+import com.yeahmobi.yscheduler.model.TaskInstance;
+import com.yeahmobi.yscheduler.model.Workflow;
+import com.yeahmobi.yscheduler.model.WorkflowDetail;
+import com.yeahmobi.yscheduler.model.WorkflowInstance;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraph;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraphRow;
+import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
+import com.yeahmobi.yscheduler.model.service.TaskService;
+import com.yeahmobi.yscheduler.model.service.WorkflowDetailService;
+import com.yeahmobi.yscheduler.model.service.WorkflowInstanceService;
+import com.yeahmobi.yscheduler.model.type.TaskInstanceStatus;
+import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
+import com.yeahmobi.yscheduler.notice.NoticeService;
+
+/**
+ * 用桩服务驱动PrivateWorkflowEngine：菱形DAG A -> B、A -> C、B,C -> D，验证事件驱动的推进和失败传播
+ */
+public class WorkflowEngineTest {
+
+    private static final long                     WORKFLOW_ID          = 1;
+
+    private static final long                     WORKFLOW_INSTANCE_ID = 100;
+
+    private static final long                     A                    = 11, B = 12, C = 13, D = 14;
+
+    private PrivateWorkflowEngine                 engine;
+
+    private StubExecutor                          executor;
+
+    /** taskInstanceService.updateStatus写入的状态 */
+    private final Map<Long, TaskInstanceStatus>   taskInstanceStatuses = new ConcurrentHashMap<Long, TaskInstanceStatus>();
+
+    /** workflowInstanceService.updateStatus写入的状态 */
+    private final List<WorkflowInstanceStatus>    workflowStatuses     = new CopyOnWriteArrayList<WorkflowInstanceStatus>();
+
+    private final List<String>                    notices              = new CopyOnWriteArrayList<String>();
+
+    @Before
+    public void before() {
+        this.executor = new StubExecutor();
+        final WorkflowGraph graph = buildGraph();
+        final WorkflowInstance workflowInstance = new WorkflowInstance();
+        workflowInstance.setId(WORKFLOW_INSTANCE_ID);
+        workflowInstance.setWorkflowId(WORKFLOW_ID);
+        workflowInstance.setScheduleTime(new Date());
+
+        this.engine = new PrivateWorkflowEngine();
+        this.engine.taskInstanceExecutor = this.executor;
+        this.engine.workflowInstanceService = stub(WorkflowInstanceService.class, new Object() {
+
+            public WorkflowInstance get(long id) {
+                return workflowInstance;
+            }
+
+            public void updateStatus(Long instanceId, WorkflowInstanceStatus status) {
+                WorkflowEngineTest.this.workflowStatuses.add(status);
+            }
+        });
+        this.engine.taskInstanceService = stub(TaskInstanceService.class, new Object() {
+
+            public void updateStatus(Long instanceId, TaskInstanceStatus status) {
+                WorkflowEngineTest.this.taskInstanceStatuses.put(instanceId, status);
+            }
+        });
+        this.engine.taskService = stub(TaskService.class, new Object() {
+
+            public Task get(long id) {
+                return graph.getTask(graph.indexOf(id));
+            }
+        });
+        this.engine.workflowDetailService = stub(WorkflowDetailService.class, new Object() {
+
+            public WorkflowGraph getGraph(long workflowId) {
+                return graph;
+            }
+        });
+        this.engine.noticeService = stub(NoticeService.class, new Object() {
+
+            public void workflowFail(long id) {
+                WorkflowEngineTest.this.notices.add("fail " + id);
+            }
+
+            public void workflowSuccess(long id) {
+                WorkflowEngineTest.this.notices.add("success " + id);
+            }
+        });
+        this.engine.conditionChecker = new ConditionChecker() {
+
+            public boolean satisfy(ConditionContext context) {
+                return true;
+            }
+        };
+        this.engine.partitionManager = new PartitionManager();
+        this.engine.partitionManager.init();
+        this.engine.init();
+
+        Workflow workflow = new Workflow();
+        workflow.setId(WORKFLOW_ID);
+        workflow.setTimeout(60);
+        List<TaskInstance> instances = new ArrayList<TaskInstance>();
+        for (long taskId : new long[] { A, B, C, D }) {
+            TaskInstance instance = new TaskInstance();
+            // task instance id为task id的10倍
+            instance.setId(taskId * 10);
+            instance.setTaskId(taskId);
+            instance.setWorkflowInstanceId(WORKFLOW_INSTANCE_ID);
+            instance.setStatus(TaskInstanceStatus.DEPENDENCY_WAIT);
+            instances.add(instance);
+        }
+        this.engine.submit(workflow, workflowInstance, instances);
+    }
+
+    @After
+    public void after() {
+        this.engine.close();
+    }
+
+    /**
+     * 依赖全部成功后才提交后继，全部节点成功后工作流成功
+     */
+    @Test
+    public void testAdvance() throws Exception {
+        waitSubmitted(A);
+        Thread.sleep(100);
+        Assert.assertEquals(Arrays.asList(A), this.executor.submittedTasks());
+        Assert.assertEquals(TaskInstanceStatus.READY, this.taskInstanceStatuses.get(A * 10));
+
+        complete(A, TaskInstanceStatus.SUCCESS);
+        waitSubmitted(A, B, C);
+
+        complete(B, TaskInstanceStatus.SUCCESS);
+        Thread.sleep(100);
+        // D还在等待C
+        Assert.assertEquals(3, this.executor.submitted.size());
+
+        complete(C, TaskInstanceStatus.SUCCESS);
+        waitSubmitted(A, B, C, D);
+        Assert.assertFalse(this.workflowStatuses.contains(WorkflowInstanceStatus.SUCCESS));
+
+        complete(D, TaskInstanceStatus.SUCCESS);
+        waitWorkflowStatus(WorkflowInstanceStatus.SUCCESS);
+        Assert.assertTrue(this.engine.runningWorkflows.isEmpty());
+        Assert.assertTrue(this.engine.taskInstanceToWorkflow.isEmpty());
+        Assert.assertFalse(this.notices.contains("fail " + WORKFLOW_INSTANCE_ID));
+    }
+
+    /**
+     * 节点失败：等待依赖的节点置为WORKFLOW_FAILED，运行中的节点被取消，全部结束后工作流失败并通知
+     */
+    @Test
+    public void testFailurePropagation() throws Exception {
+        waitSubmitted(A);
+        complete(A, TaskInstanceStatus.SUCCESS);
+        waitSubmitted(A, B, C);
+
+        complete(B, TaskInstanceStatus.FAILED);
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return WorkflowEngineTest.this.executor.cancelled.contains(C * 10);
+            }
+        });
+        Assert.assertEquals(TaskInstanceStatus.WORKFLOW_FAILED, this.taskInstanceStatuses.get(D * 10));
+        Assert.assertEquals(3, this.executor.submitted.size());
+        // C尚未结束，工作流还未失败
+        Assert.assertFalse(this.workflowStatuses.contains(WorkflowInstanceStatus.FAILED));
+
+        complete(C, TaskInstanceStatus.CANCELLED);
+        waitWorkflowStatus(WorkflowInstanceStatus.FAILED);
+        Assert.assertEquals(Collections.singletonList("fail " + WORKFLOW_INSTANCE_ID), this.notices);
+        Assert.assertFalse(this.workflowStatuses.contains(WorkflowInstanceStatus.SUCCESS));
+        Assert.assertTrue(this.engine.runningWorkflows.isEmpty());
+    }
+
+    /**
+     * 取消工作流：等待依赖的节点置为CANCELLED，运行中的节点被取消，全部结束后工作流取消
+     */
+    @Test
+    public void testCancel() throws Exception {
+        waitSubmitted(A);
+        this.engine.cancel(WORKFLOW_INSTANCE_ID);
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return WorkflowEngineTest.this.executor.cancelled.contains(A * 10);
+            }
+        });
+        for (long taskId : new long[] { B, C, D }) {
+            Assert.assertEquals(TaskInstanceStatus.CANCELLED, this.taskInstanceStatuses.get(taskId * 10));
+        }
+
+        complete(A, TaskInstanceStatus.CANCELLED);
+        waitWorkflowStatus(WorkflowInstanceStatus.CANCELLED);
+        Assert.assertEquals(Arrays.asList(A), this.executor.submittedTasks());
+    }
+
+    private void complete(long taskId, TaskInstanceStatus status) {
+        long instanceId = taskId * 10;
+        this.executor.statuses.put(instanceId, status);
+        this.executor.listener.onCompleted(instanceId, status);
+    }
+
+    private void waitSubmitted(final Long... taskIds) throws InterruptedException {
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return WorkflowEngineTest.this.executor.submittedTasks().size() >= taskIds.length;
+            }
+        });
+        List<Long> submitted = this.executor.submittedTasks();
+        Collections.sort(submitted);
+        Assert.assertEquals(Arrays.asList(taskIds), submitted);
+    }
+
+    private void waitWorkflowStatus(final WorkflowInstanceStatus status) throws InterruptedException {
+        waitFor(new Condition() {
+
+            public boolean check() {
+                return WorkflowEngineTest.this.workflowStatuses.contains(status);
+            }
+        });
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.check()) {
+            Assert.assertTrue("timeout", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static WorkflowGraph buildGraph() {
+        List<WorkflowGraphRow> rows = new ArrayList<WorkflowGraphRow>();
+        rows.add(row(A, null));
+        rows.add(row(B, A));
+        rows.add(row(C, A));
+        rows.add(row(D, B));
+        rows.add(row(D, C));
+        return WorkflowGraph.build(WORKFLOW_ID, new Date(), rows);
+    }
+
+    private static WorkflowGraphRow row(long taskId, Long dependencyTaskId) {
+        WorkflowDetail detail = new WorkflowDetail();
+        detail.setId(taskId);
+        detail.setWorkflowId(WORKFLOW_ID);
+        detail.setTaskId(taskId);
+        Task task = new Task();
+        task.setId(taskId);
+        task.setName("task" + taskId);
+        WorkflowGraphRow row = new WorkflowGraphRow();
+        row.setDetailId(taskId);
+        row.setDependencyTaskId(dependencyTaskId);
+        row.setTeamId(1L);
+        row.setDetail(detail);
+        row.setTask(task);
+        return row;
+    }
+
+    /**
+     * 用delegate中同名同参数的public方法实现接口，其余方法返回默认值
+     */
+    public static <T> T stub(Class<T> type, final Object delegate) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                                                new InvocationHandler() {
+
+                                                    public Object invoke(Object proxy, Method method, Object[] args)
+                                                                                                                    throws Throwable {
+                                                        Method target;
+                                                        try {
+                                                            target = delegate.getClass().getMethod(method.getName(),
+                                                                                                   method.getParameterTypes());
+                                                        } catch (NoSuchMethodException e) {
+                                                            return defaultValue(method.getReturnType());
+                                                        }
+                                                        target.setAccessible(true);
+                                                        try {
+                                                            return target.invoke(delegate, args);
+                                                        } catch (InvocationTargetException e) {
+                                                            throw e.getCause();
+                                                        }
+                                                    }
+                                                }));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == List.class) {
+            return new ArrayList<Object>();
+        }
+        return null;
+    }
+
+    private interface Condition {
+
+        boolean check();
+    }
+
+    /**
+     * 记录提交和取消，执行中和结束的状态由测试通过complete设置，其余取taskInstanceService写入的状态
+     */
+    private class StubExecutor implements TaskInstanceExecutor {
+
+        private final List<TaskInstance>              submitted = new CopyOnWriteArrayList<TaskInstance>();
+        private final List<Long>                      cancelled = new CopyOnWriteArrayList<Long>();
+        private final Map<Long, TaskInstanceStatus>   statuses  = new ConcurrentHashMap<Long, TaskInstanceStatus>();
+        private volatile TaskInstanceListener         listener;
+
+        public void submit(TaskInstance instance) {
+            this.statuses.put(instance.getId(), TaskInstanceStatus.RUNNING);
+            this.submitted.add(instance);
+        }
+
+        public TaskInstanceStatus getStatus(long instanceId) {
+            TaskInstanceStatus status = this.statuses.get(instanceId);
+            if (status == null) {
+                status = WorkflowEngineTest.this.taskInstanceStatuses.get(instanceId);
+            }
+            return status == null ? TaskInstanceStatus.DEPENDENCY_WAIT : status;
+        }
+
+        public void cancel(long instanceId) {
+            this.cancelled.add(instanceId);
+        }
+
+        public void addListener(TaskInstanceListener listener) {
+            this.listener = listener;
+        }
+
+        List<Long> submittedTasks() {
+            List<Long> taskIds = new ArrayList<Long>();
+            for (TaskInstance instance : this.submitted) {
+                taskIds.add(instance.getTaskId());
+            }
+            return taskIds;
+        }
+    }
+}
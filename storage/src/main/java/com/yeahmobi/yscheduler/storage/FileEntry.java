@@ -9,11 +9,17 @@ import java.io.InputStream;
 public class FileEntry {
 	String fileName;
 	InputStream inputStream;
+	/** 内容长度，-1表示以inputStream.available()为准 */
+	long size = -1;
 	
 	public FileEntry(String fileName, InputStream inputStream) {
 		this.fileName = fileName;
 		this.inputStream = inputStream;
 	}
+	public FileEntry(String fileName, InputStream inputStream, long size) {
+		this(fileName, inputStream);
+		this.size = size;
+	}
 	public String getFileName() {
 		return fileName;
 	}
@@ -26,5 +32,11 @@ public class FileEntry {
 	public void setInputStream(InputStream inputStream) {
 		this.inputStream = inputStream;
 	}
+	public long getSize() {
+		return size;
+	}
+	public void setSize(long size) {
+		this.size = size;
+	}
 	
 }
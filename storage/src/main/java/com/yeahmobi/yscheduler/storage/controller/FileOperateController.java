@@ -24,8 +24,10 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.view.RedirectView;
 
+import com.alibaba.fastjson.JSON;
 import com.yeahmobi.yscheduler.storage.FileEntry;
 import com.yeahmobi.yscheduler.storage.FileKey;
+import com.yeahmobi.yscheduler.storage.FileManifest;
 import com.yeahmobi.yscheduler.storage.service.FileService;
 
 /**
@@ -80,7 +82,7 @@ public class FileOperateController {
     }
 
     /**
-     * 下载
+     * 下载。带manifest=true时返回sha256清单(json)；带entry时只返回zip中的该条目
      *
      * @throws IOException
      * @throws Exception
@@ -97,8 +99,18 @@ public class FileOperateController {
             if (StringUtils.isBlank(version)) {
                 version = "0";
             }
-            FileEntry fileEntry = this.fileService.get(new FileKey(nameSpace, key), Long.valueOf(version));
-            downloadFile(request, response, fileEntry);
+            FileKey fileKey = new FileKey(nameSpace, key);
+            String entry = ServletRequestUtils.getStringParameter(request, "entry");
+            if (ServletRequestUtils.getBooleanParameter(request, "manifest", false)) {
+                FileManifest manifest = this.fileService.getManifest(fileKey, Long.valueOf(version));
+                response.setContentType("application/json;charset=UTF-8");
+                response.getOutputStream().write(JSON.toJSONBytes(manifest));
+            } else if (StringUtils.isNotBlank(entry)) {
+                downloadFile(request, response, this.fileService.getEntry(fileKey, Long.valueOf(version), entry));
+            } else {
+                FileEntry fileEntry = this.fileService.get(fileKey, Long.valueOf(version));
+                downloadFile(request, response, fileEntry);
+            }
         } catch (IllegalArgumentException e) {
             response.setStatus(412);// HTTP 错误 412 前提条件失败
             response.setContentType("text/html; charset=utf-8");
@@ -119,7 +131,8 @@ public class FileOperateController {
         response.setHeader("filename", fileEntry.getFileName());
         response.setHeader("Content-disposition", "attachment; filename="
                                                   + new String(fileEntry.getFileName().getBytes("utf-8"), "ISO8859-1"));
-        response.setHeader("Content-Length", String.valueOf(fileEntry.getInputStream().available()));
+        long length = fileEntry.getSize() >= 0 ? fileEntry.getSize() : fileEntry.getInputStream().available();
+        response.setHeader("Content-Length", String.valueOf(length));
 
         BufferedInputStream bis = null;
         BufferedOutputStream bos = null;
@@ -5,18 +5,27 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.alibaba.fastjson.JSON;
 import com.yeahmobi.yscheduler.storage.FileEntry;
 import com.yeahmobi.yscheduler.storage.FileKey;
+import com.yeahmobi.yscheduler.storage.FileManifest;
 
 /**
  * @author Abel.Cui
@@ -24,9 +33,15 @@ import com.yeahmobi.yscheduler.storage.FileKey;
  */
 public class DefaultFileServiceImpl implements FileService {
 
-    private String basePath;
+    private static final Logger LOGGER          = LoggerFactory.getLogger(DefaultFileServiceImpl.class);
 
-    private long   maxUploadSize = 100;
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    private static final String ZIP_SUFFIX      = ".zip";
+
+    private String              basePath;
+
+    private long                maxUploadSize   = 100;
 
     public String getBasePath() {
         return this.basePath;
@@ -67,23 +82,125 @@ public class DefaultFileServiceImpl implements FileService {
             for (String name : file.list()) {
                 if ((name.length() > 1) && StringUtils.isNumeric(name)) {
                     FileUtils.deleteDirectory(new File(path + name + IOUtils.DIR_SEPARATOR_UNIX));
+                } else if (name.endsWith(MANIFEST_SUFFIX)) {
+                    FileUtils.deleteQuietly(new File(path + name));
                 }
             }
         }
     }
 
     public FileEntry get(FileKey fileKey, long version) throws FileNotFoundException {
+        File file = getFile(fileKey, version);
+        InputStream inputStream;
+        inputStream = new FileInputStream(file);
+        return new FileEntry(file.getName(), new BufferedInputStream(inputStream));
+    }
+
+    private File getFile(FileKey fileKey, long version) throws FileNotFoundException {
         StringBuffer sb = new StringBuffer(this.basePath);
         spliceDownloadPath(fileKey, version, sb);
         File file = new File(sb.toString());
         if (file.exists() && (file.listFiles().length > 0)) {
-            InputStream inputStream;
-            inputStream = new FileInputStream(file.listFiles()[0]);
-            return new FileEntry(file.list()[0], new BufferedInputStream(inputStream));
+            return file.listFiles()[0];
         }
         throw new FileNotFoundException("该文件不存在！");
     }
 
+    public FileManifest getManifest(FileKey fileKey, long version) throws IOException {
+        File file = getFile(fileKey, version);
+        File versionDir = file.getParentFile();
+        // 清单在第一次请求时计算，存在版本目录旁边，新版本上传时一起删除
+        File manifestFile = new File(versionDir.getParentFile(), versionDir.getName() + MANIFEST_SUFFIX);
+        if (manifestFile.exists()) {
+            return JSON.parseObject(FileUtils.readFileToString(manifestFile, "UTF-8"), FileManifest.class);
+        }
+
+        FileManifest manifest = new FileManifest();
+        manifest.setVersion(Long.parseLong(versionDir.getName()));
+        manifest.setFileName(file.getName());
+        manifest.setSize(file.length());
+        InputStream input = new FileInputStream(file);
+        try {
+            manifest.setSha256(DigestUtils.sha256Hex(input));
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        if (StringUtils.endsWithIgnoreCase(file.getName(), ZIP_SUFFIX)) {
+            manifest.setEntries(getZipEntries(file));
+        }
+
+        // 先写临时文件再改名，并发的请求不会读到写了一半的清单
+        File tmp = new File(manifestFile.getPath() + "." + Thread.currentThread().getId());
+        FileUtils.writeStringToFile(tmp, JSON.toJSONString(manifest), "UTF-8");
+        if (!tmp.renameTo(manifestFile)) {
+            FileUtils.deleteQuietly(tmp);
+        }
+        return manifest;
+    }
+
+    /**
+     * @return zip无法解析时返回null，agent会整个下载
+     */
+    private List<FileManifest.Entry> getZipEntries(File file) {
+        List<FileManifest.Entry> entries = new ArrayList<FileManifest.Entry>();
+        ZipFile zipFile = null;
+        try {
+            zipFile = new ZipFile(file);
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                FileManifest.Entry entry = new FileManifest.Entry();
+                entry.setName(zipEntry.getName());
+                entry.setDirectory(zipEntry.isDirectory());
+                if (!zipEntry.isDirectory()) {
+                    InputStream input = zipFile.getInputStream(zipEntry);
+                    try {
+                        entry.setSha256(DigestUtils.sha256Hex(input));
+                    } finally {
+                        IOUtils.closeQuietly(input);
+                    }
+                    entry.setSize(zipEntry.getSize());
+                }
+                entries.add(entry);
+            }
+            return entries;
+        } catch (Exception e) {
+            // 如文件名不是UTF-8编码
+            LOGGER.warn("Fail to read entries of " + file + ", entries are not listed in the manifest", e);
+            return null;
+        } finally {
+            if (zipFile != null) {
+                try {
+                    zipFile.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    public FileEntry getEntry(FileKey fileKey, long version, String entryName) throws IOException {
+        final ZipFile zipFile = new ZipFile(getFile(fileKey, version));
+        ZipEntry zipEntry = zipFile.getEntry(entryName);
+        if ((zipEntry == null) || zipEntry.isDirectory()) {
+            zipFile.close();
+            throw new FileNotFoundException("该条目不存在！");
+        }
+        // 关闭条目的流时一起关闭zip文件
+        InputStream input = new FilterInputStream(zipFile.getInputStream(zipEntry)) {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    zipFile.close();
+                }
+            }
+        };
+        return new FileEntry(new File(entryName).getName(), new BufferedInputStream(input), zipEntry.getSize());
+    }
+
     private void writeFile(FileEntry fileEntry, StringBuffer sb) throws IOException {
         FileOutputStream outputStream = null;
         try {
@@ -1,9 +1,11 @@
 package com.yeahmobi.yscheduler.storage.service;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 import com.yeahmobi.yscheduler.storage.FileEntry;
 import com.yeahmobi.yscheduler.storage.FileKey;
+import com.yeahmobi.yscheduler.storage.FileManifest;
 
 /**
  * 文件存取服务器接口
@@ -33,5 +35,26 @@ public interface FileService {
      */
     public FileEntry get(FileKey fileKey, long version) throws FileNotFoundException;
 
+    /**
+     * 功能： 获取文件的sha256清单，zip文件带上每个条目的sha256
+     *
+     * @param fileKey
+     * @param version 0表示最新版本
+     * @return 清单，version为实际的版本
+     * @throws IOException
+     */
+    public FileManifest getManifest(FileKey fileKey, long version) throws IOException;
+
+    /**
+     * 功能： 获取zip文件中的一个条目(解压后的内容)
+     *
+     * @param fileKey
+     * @param version
+     * @param entryName
+     * @return 包装了条目名和条目内容的FileEntry对象
+     * @throws IOException
+     */
+    public FileEntry getEntry(FileKey fileKey, long version, String entryName) throws IOException;
+
     public long getMaxUploadSize();
 }
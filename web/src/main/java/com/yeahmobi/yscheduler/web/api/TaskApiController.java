@@ -122,6 +122,9 @@ public class TaskApiController extends ApiBaseController {
         String retry = request.get("retryTimes");
         setRetryTimes(task, retry);
 
+        String priority = request.get("priority");
+        setPriority(task, priority);
+
         String timeoutStr = request.get("timeout");
         setTimeout(task, timeoutStr);
 
@@ -282,6 +285,14 @@ public class TaskApiController extends ApiBaseController {
         }
     }
 
+    private void setPriority(Task task, String priority) {
+        if (StringUtils.isNotBlank(priority) && StringUtils.isNumeric(priority)) {
+            task.setPriority(Integer.parseInt(priority));
+        } else {
+            task.setPriority(0);
+        }
+    }
+
     private void updateTaskStatus(final String taskName, final String userName, final String userToken,
                                   TaskStatus status, ApiResponse apiResponse) {
 
@@ -2,12 +2,15 @@ package com.yeahmobi.yscheduler.web.controller.heartbeat;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,6 +20,9 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.agentframework.meta.AgentLoad;
+import com.yeahmobi.yscheduler.loadbalance.AgentLoadbalance;
+import com.yeahmobi.yscheduler.metrics.MetricsSource;
 import com.yeahmobi.yscheduler.monitor.ActiveAgentManager;
 import com.yeahmobi.yscheduler.web.controller.AbstractController;
 
@@ -34,6 +40,12 @@ public class HeartbeatController extends AbstractController {
     @Autowired
     private ActiveAgentManager  activeAgentManager;
 
+    @Autowired
+    private AgentLoadbalance    agentLoadbalance;
+
+    @Autowired(required = false)
+    private List<MetricsSource> metricsSources;
+
     @RequestMapping(value = { "agent/active" }, method = RequestMethod.GET, produces = "application/json; charset=utf-8")
     @ResponseBody
     public Object hearbeat(HttpServletRequest request, HttpServletResponse response, long agentId, String agentVersion)
@@ -53,6 +65,39 @@ public class HeartbeatController extends AbstractController {
         return JSON.toJSONString(map);
     }
 
+    /**
+     * agent主动发送的心跳，按agentName找到agent，同时上报版本和负载
+     */
+    @RequestMapping(value = { "agent/beat" }, method = RequestMethod.POST, produces = "application/json; charset=utf-8")
+    @ResponseBody
+    public Object beat(HttpServletRequest request, HttpServletResponse response, String agentName,
+                       String agentVersion, Integer runningTasks, Double cpuLoad, Double memoryUsage,
+                       Integer maxTasks, Integer pendingTasks) throws ServletException, IOException {
+        Map<String, Object> map = new HashMap<String, Object>();
+        try {
+            if (StringUtils.isBlank(agentName)) {
+                throw new IllegalArgumentException("agentName is required");
+            }
+            long agentId = this.activeAgentManager.heartbeat(agentName, agentVersion);
+            if (runningTasks != null) {
+                AgentLoad load = new AgentLoad();
+                load.setRunningTasks(runningTasks);
+                load.setCpuLoad(cpuLoad == null ? -1 : cpuLoad);
+                load.setMemoryUsage(memoryUsage == null ? -1 : memoryUsage);
+                load.setMaxTasks(maxTasks == null ? 0 : maxTasks);
+                load.setPendingTasks(pendingTasks == null ? 0 : pendingTasks);
+                this.agentLoadbalance.onLoadReported(agentId, load);
+            }
+            map.put("agentId", agentId);
+            map.put("success", true);
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage(), e);
+            map.put("notice", e.getMessage());
+            map.put("success", false);
+        }
+        return JSON.toJSONString(map);
+    }
+
     @RequestMapping(value = { "agent/isActive" }, method = RequestMethod.GET, produces = "application/json; charset=utf-8")
     @ResponseBody
     public Object isActive(HttpServletRequest request, HttpServletResponse response, long agentId)
@@ -72,4 +117,20 @@ public class HeartbeatController extends AbstractController {
         return JSON.toJSONString(map);
     }
 
+    /**
+     * 输出调度器各组件的运行指标，供监控采集
+     */
+    @RequestMapping(value = { "metrics" }, method = RequestMethod.GET, produces = "application/json; charset=utf-8")
+    @ResponseBody
+    public Object metrics(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+                                                                                   IOException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        if (this.metricsSources != null) {
+            for (MetricsSource source : this.metricsSources) {
+                map.put(source.getMetricsName(), source.getMetrics());
+            }
+        }
+        return JSON.toJSONString(map);
+    }
+
 }
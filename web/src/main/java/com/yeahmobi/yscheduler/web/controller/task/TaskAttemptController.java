@@ -34,9 +34,12 @@ import com.yeahmobi.yscheduler.web.controller.AbstractController;
 @RequestMapping(value = { TaskAttemptController.SCREEN_NAME })
 public class TaskAttemptController extends AbstractController {
 
-    public static final String  SCREEN_NAME = "task/instance/attempt";
+    public static final String  SCREEN_NAME    = "task/instance/attempt";
 
-    private static final Logger LOGGER      = LoggerFactory.getLogger(TaskAttemptController.class);
+    private static final Logger LOGGER         = LoggerFactory.getLogger(TaskAttemptController.class);
+
+    /** 每次读取日志的最大字节数 */
+    private static final int    LOG_CHUNK_SIZE = 64 * 1024;
 
     @Autowired
     private TaskService         taskService;
@@ -70,18 +73,31 @@ public class TaskAttemptController extends AbstractController {
         return screen(map, SCREEN_NAME);
     }
 
+    /**
+     * 增量读取日志：不带offset时返回日志的最后一段，之后带上返回的offset继续读取新增的内容
+     */
     @RequestMapping(value = "/getLog", method = RequestMethod.GET, produces = "application/json; charset=utf-8")
     @ResponseBody
-    public Object getAttemptLog(HttpSession session, long attemptId) {
+    public Object getAttemptLog(HttpSession session, long attemptId, Long offset) {
         Map<String, Object> map = new HashMap<String, Object>();
         try {
             Attempt attempt = this.attemptService.get(attemptId);
             if (this.fileServer.exists(Constants.FILESERVER_NAMESPACE_ATTEMPTLOG, attempt.getOutput())) {
-                map.put("log",
-                        "First 4k content only: \n"
-                                + new String(this.fileServer.getContent(Constants.FILESERVER_NAMESPACE_ATTEMPTLOG,
-                                                                        attempt.getOutput(), 4096),
-                                             Constants.LOG_FILE_ENCODE));
+                long length = this.fileServer.getLength(Constants.FILESERVER_NAMESPACE_ATTEMPTLOG, attempt.getOutput());
+                long start = (offset != null) ? offset : Math.max(0, length - LOG_CHUNK_SIZE);
+                byte[] data = this.fileServer.getContent(Constants.FILESERVER_NAMESPACE_ATTEMPTLOG,
+                                                         attempt.getOutput(), start, LOG_CHUNK_SIZE);
+                // 从中间开始读时跳过不完整的首字符，末尾不完整的字符留到下次读取
+                int begin = (offset == null) && (start > 0) ? skipContinuationBytes(data) : 0;
+                int end = completeLength(data);
+                if (end < begin) {
+                    end = begin;
+                }
+
+                map.put("log", new String(data, begin, end - begin, Constants.LOG_FILE_ENCODE));
+                map.put("offset", start + end);
+                map.put("truncated", (offset == null) && (start > 0));
+                map.put("more", (start + end) < length);
                 map.put("logLink",
                         this.fileServer.getDownloadLink(Constants.FILESERVER_NAMESPACE_ATTEMPTLOG, attempt.getOutput()));
             } else {
@@ -100,4 +116,29 @@ public class TaskAttemptController extends AbstractController {
         return JSON.toJSONString(map);
 
     }
+
+    private static int skipContinuationBytes(byte[] data) {
+        int i = 0;
+        while ((i < data.length) && ((data[i] & 0xC0) == 0x80)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 去掉末尾不完整的UTF-8字符后的长度
+     */
+    private static int completeLength(byte[] data) {
+        int i = data.length - 1;
+        // 找到最后一个字符的首字节
+        while ((i >= 0) && (i > (data.length - 4)) && ((data[i] & 0xC0) == 0x80)) {
+            i--;
+        }
+        if (i < 0) {
+            return data.length;
+        }
+        int b = data[i] & 0xFF;
+        int size = b < 0x80 ? 1 : (b >= 0xF0 ? 4 : (b >= 0xE0 ? 3 : (b >= 0xC0 ? 2 : 1)));
+        return (i + size) <= data.length ? data.length : i;
+    }
 }
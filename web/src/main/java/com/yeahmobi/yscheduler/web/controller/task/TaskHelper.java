@@ -44,6 +44,13 @@ public class TaskHelper {
             result.setRetryTimes(0);
         }
 
+        String priority = request.getParameter("priority");
+        if (StringUtils.isNotBlank(priority) && StringUtils.isNumeric(priority)) {
+            result.setPriority(Integer.parseInt(priority));
+        } else {
+            result.setPriority(0);
+        }
+
         String timeoutStr = request.getParameter("timeout");
         if (StringUtils.isNotBlank(timeoutStr) && StringUtils.isNumeric(timeoutStr)) {
             int timeout = Integer.parseInt(timeoutStr);
@@ -17,8 +17,8 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
 import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.cluster.CommandRouter;
 import com.yeahmobi.yscheduler.common.Paginator;
-import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
 import com.yeahmobi.yscheduler.model.Attempt;
 import com.yeahmobi.yscheduler.model.Task;
 import com.yeahmobi.yscheduler.model.TaskInstance;
@@ -62,7 +62,7 @@ public class TaskInstanceController extends AbstractController {
     private WorkflowService         workflowService;
 
     @Autowired
-    private TaskInstanceExecutor    instanceExecutor;
+    private CommandRouter           commandRouter;
 
     private static final String     WORKFLOW_INSTANCE_TASK_URL = WorkflowInstanceTasksController.SCREEN_NAME
                                                                  + "?instanceId=";
@@ -152,7 +152,7 @@ public class TaskInstanceController extends AbstractController {
     public Object cancel(HttpSession session, long instanceId) {
         Map<String, Object> map = new HashMap<String, Object>();
         try {
-            this.instanceExecutor.cancel(instanceId);
+            this.commandRouter.cancelTaskInstance(instanceId);
 
             map.put("success", true);
         } catch (IllegalArgumentException e) {
@@ -174,7 +174,7 @@ public class TaskInstanceController extends AbstractController {
         try {
             this.taskInstanceService.updateStatus(instanceId, TaskInstanceStatus.READY);
             TaskInstance instance = this.taskInstanceService.get(instanceId);
-            this.instanceExecutor.submit(instance);
+            this.commandRouter.submitTaskInstance(instance);
             map.put("success", true);
         } catch (IllegalArgumentException e) {
             map.put("success", false);
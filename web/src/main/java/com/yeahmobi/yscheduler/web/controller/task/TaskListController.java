@@ -22,8 +22,8 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
 import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.cluster.CommandRouter;
 import com.yeahmobi.yscheduler.common.Paginator;
-import com.yeahmobi.yscheduler.executor.TaskInstanceExecutor;
 import com.yeahmobi.yscheduler.model.Task;
 import com.yeahmobi.yscheduler.model.TaskInstance;
 import com.yeahmobi.yscheduler.model.User;
@@ -59,7 +59,7 @@ public class TaskListController extends AbstractController {
     private UserService          userService;
 
     @Autowired
-    private TaskInstanceExecutor instanceExecutor;
+    private CommandRouter        commandRouter;
 
     @RequestMapping(value = { "" }, method = RequestMethod.GET)
     public ModelAndView index(Integer taskType, Integer taskStatus, String name, Long owner, Integer pageNum) {
@@ -164,7 +164,7 @@ public class TaskListController extends AbstractController {
             instance.setTaskId(taskId);
             // 创建instance，保存instance到数据库
             this.taskInstanceService.save(instance);
-            this.instanceExecutor.submit(instance);
+            this.commandRouter.submitTaskInstance(instance);
 
             map.put("success", true);
         } catch (IllegalArgumentException e) {
@@ -14,6 +14,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
 import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.cluster.CommandRouter;
 import com.yeahmobi.yscheduler.common.Paginator;
 import com.yeahmobi.yscheduler.model.WorkflowInstance;
 import com.yeahmobi.yscheduler.model.common.Query;
@@ -22,7 +23,6 @@ import com.yeahmobi.yscheduler.model.service.WorkflowInstanceService;
 import com.yeahmobi.yscheduler.model.service.WorkflowService;
 import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
 import com.yeahmobi.yscheduler.web.controller.AbstractController;
-import com.yeahmobi.yscheduler.workflow.WorkflowExecutor;
 
 /**
  * @author Leo.Liang
@@ -40,7 +40,7 @@ public class WorkflowInstanceController extends AbstractController {
     private WorkflowInstanceService instanceService;
 
     @Autowired
-    private WorkflowExecutor        workflowExecutor;
+    private CommandRouter           commandRouter;
 
     @RequestMapping(value = { "" })
     public ModelAndView index(Integer workflowInstanceStatus, Integer workflowScheduleType, Integer pageNum,
@@ -99,7 +99,7 @@ public class WorkflowInstanceController extends AbstractController {
     public Object cancel(HttpSession session, long workflowInstanceId) {
         Map<String, Object> map = new HashMap<String, Object>();
         try {
-            this.workflowExecutor.cancel(workflowInstanceId);
+            this.commandRouter.cancelWorkflowInstance(workflowInstanceId);
 
             map.put("success", true);
         } catch (IllegalArgumentException e) {
@@ -118,7 +118,7 @@ public class WorkflowInstanceController extends AbstractController {
     public Object rerun(long instanceId) {
         Map<String, Object> map = new HashMap<String, Object>();
         try {
-            this.workflowExecutor.restore(this.instanceService.get(instanceId));
+            this.commandRouter.restoreWorkflowInstance(this.instanceService.get(instanceId));
             map.put("success", true);
         } catch (IllegalArgumentException e) {
             map.put("success", false);
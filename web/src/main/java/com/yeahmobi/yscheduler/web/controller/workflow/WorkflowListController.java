@@ -18,6 +18,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
 import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.cluster.CommandRouter;
 import com.yeahmobi.yscheduler.common.Paginator;
 import com.yeahmobi.yscheduler.model.User;
 import com.yeahmobi.yscheduler.model.Workflow;
@@ -32,7 +33,6 @@ import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
 import com.yeahmobi.yscheduler.model.type.WorkflowStatus;
 import com.yeahmobi.yscheduler.web.controller.AbstractController;
 import com.yeahmobi.yscheduler.web.vo.WorkflowVO;
-import com.yeahmobi.yscheduler.workflow.WorkflowExecutor;
 
 /**
  * @author Leo.Liang
@@ -53,7 +53,7 @@ public class WorkflowListController extends AbstractController {
     private UserService             userService;
 
     @Autowired
-    private WorkflowExecutor        workflowExecutor;
+    private CommandRouter           commandRouter;
 
     @RequestMapping(value = { "" }, method = RequestMethod.GET)
     public ModelAndView index(Integer workflowStatus, String name, Long owner, Integer pageNum) {
@@ -128,7 +128,7 @@ public class WorkflowListController extends AbstractController {
                 instance.setWorkflowId(workflowId);
                 // 创建instance，保存instance到数据库
                 this.workflowInstanceService.save(instance);
-                this.workflowExecutor.submit(this.workflowService.get(instance.getWorkflowId()), instance);
+                this.commandRouter.submitWorkflowInstance(this.workflowService.get(instance.getWorkflowId()), instance);
                 targetUrl = "/workflow/instance?workflowId=" + workflowId;
             } else if ("delete".equals(action)) {
                 workflow.setStatus(WorkflowStatus.REMOVED);
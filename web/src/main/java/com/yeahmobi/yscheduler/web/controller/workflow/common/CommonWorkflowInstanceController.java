@@ -17,6 +17,7 @@ import org.springframework.web.servlet.ModelAndView;
 import com.alibaba.fastjson.JSON;
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
+import com.yeahmobi.yscheduler.cluster.CommandRouter;
 import com.yeahmobi.yscheduler.common.Paginator;
 import com.yeahmobi.yscheduler.model.TeamWorkflowInstanceStatus;
 import com.yeahmobi.yscheduler.model.WorkflowInstance;
@@ -28,7 +29,6 @@ import com.yeahmobi.yscheduler.model.service.WorkflowInstanceService;
 import com.yeahmobi.yscheduler.model.service.WorkflowService;
 import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
 import com.yeahmobi.yscheduler.web.controller.AbstractController;
-import com.yeahmobi.yscheduler.workflow.WorkflowExecutor;
 
 /**
  * @author Leo.Liang
@@ -49,7 +49,7 @@ public class CommonWorkflowInstanceController extends AbstractController {
     private TeamWorkflowStatusInstanceService teamInstanceService;
 
     @Autowired
-    private WorkflowExecutor                  workflowExecutor;
+    private CommandRouter                     commandRouter;
 
     @RequestMapping(value = { "" })
     public ModelAndView index(Integer workflowInstanceStatus, Integer workflowScheduleType, Integer pageNum,
@@ -158,7 +158,7 @@ public class CommonWorkflowInstanceController extends AbstractController {
     public Object cancel(HttpSession session, long workflowInstanceId) {
         Map<String, Object> map = new HashMap<String, Object>();
         try {
-            this.workflowExecutor.cancel(workflowInstanceId);
+            this.commandRouter.cancelWorkflowInstance(workflowInstanceId);
 
             map.put("success", true);
         } catch (IllegalArgumentException e) {
@@ -177,7 +177,7 @@ public class CommonWorkflowInstanceController extends AbstractController {
     public Object rerun(long instanceId) {
         Map<String, Object> map = new HashMap<String, Object>();
         try {
-            this.workflowExecutor.restore(this.instanceService.get(instanceId));
+            this.commandRouter.restoreWorkflowInstance(this.instanceService.get(instanceId));
             map.put("success", true);
         } catch (IllegalArgumentException e) {
             map.put("success", false);
@@ -18,6 +18,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
 import com.alibaba.fastjson.JSON;
+import com.yeahmobi.yscheduler.cluster.CommandRouter;
 import com.yeahmobi.yscheduler.common.Paginator;
 import com.yeahmobi.yscheduler.model.Workflow;
 import com.yeahmobi.yscheduler.model.WorkflowInstance;
@@ -31,7 +32,6 @@ import com.yeahmobi.yscheduler.model.type.WorkflowInstanceStatus;
 import com.yeahmobi.yscheduler.model.type.WorkflowStatus;
 import com.yeahmobi.yscheduler.web.controller.AbstractController;
 import com.yeahmobi.yscheduler.web.vo.WorkflowVO;
-import com.yeahmobi.yscheduler.workflow.WorkflowExecutor;
 
 /**
  * @author Leo.Liang
@@ -52,7 +52,7 @@ public class CommonWorkflowListController extends AbstractController {
     private UserService             userService;
 
     @Autowired
-    private WorkflowExecutor        workflowExecutor;
+    private CommandRouter           commandRouter;
 
     @RequestMapping(value = { "" }, method = RequestMethod.GET)
     public ModelAndView index(Integer pageNum) {
@@ -108,7 +108,7 @@ public class CommonWorkflowListController extends AbstractController {
                 instance.setWorkflowId(workflowId);
                 // 创建instance，保存instance到数据库
                 this.workflowInstanceService.save(instance);
-                this.workflowExecutor.submit(workflow, instance);
+                this.commandRouter.submitWorkflowInstance(workflow, instance);
 
                 targetUrl = "/common/instance?workflowId=" + workflowId;
             } else if ("delete".equals(action)) {
@@ -13,12 +13,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.yeahmobi.yscheduler.common.Constants;
-import com.yeahmobi.yscheduler.model.Task;
 import com.yeahmobi.yscheduler.model.TaskInstance;
 import com.yeahmobi.yscheduler.model.Team;
 import com.yeahmobi.yscheduler.model.User;
-import com.yeahmobi.yscheduler.model.WorkflowDetail;
 import com.yeahmobi.yscheduler.model.WorkflowInstance;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraph;
 import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
 import com.yeahmobi.yscheduler.model.service.TaskService;
 import com.yeahmobi.yscheduler.model.service.TeamService;
@@ -51,18 +50,17 @@ public class CommonWorkflowTopoService implements WorkflowTopoService {
 
     private List<WorkflowDetailVO> getWorkflowDetail(long workflowId) {
         List<WorkflowDetailVO> raw = new ArrayList<WorkflowDetailVO>();
-        List<WorkflowDetail> details = this.detailService.list(workflowId);
+        WorkflowGraph graph = this.detailService.getGraph(workflowId);
+        if (graph == null) {
+            return raw;
+        }
 
-        for (WorkflowDetail detail : details) {
+        for (int node = 0; node < graph.size(); node++) {
             WorkflowDetailVO detailVO = new WorkflowDetailVO();
-            Long taskId = detail.getTaskId();
-            List<Long> dependencies = this.detailService.listDependencyTaskIds(workflowId, taskId);
-            detailVO.setWorkflowDetail(detail);
-            detailVO.setDependencies(dependencies);
-            Task task = this.taskService.get(taskId);
-            Long teamId = this.userService.get(task.getOwner()).getTeamId();
-            detailVO.setTaskName(task.getName());
-            detailVO.setTeamId(teamId);
+            detailVO.setWorkflowDetail(graph.getDetail(node));
+            detailVO.setDependencies(graph.getDependencyTaskIds(node));
+            detailVO.setTaskName(graph.getTask(node).getName());
+            detailVO.setTeamId(graph.getTeamId(node));
             raw.add(detailVO);
         }
         return raw;
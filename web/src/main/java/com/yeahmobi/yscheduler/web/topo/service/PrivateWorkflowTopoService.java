@@ -11,10 +11,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.yeahmobi.yscheduler.model.TaskInstance;
-import com.yeahmobi.yscheduler.model.WorkflowDetail;
 import com.yeahmobi.yscheduler.model.WorkflowInstance;
+import com.yeahmobi.yscheduler.model.common.WorkflowGraph;
 import com.yeahmobi.yscheduler.model.service.TaskInstanceService;
-import com.yeahmobi.yscheduler.model.service.TaskService;
 import com.yeahmobi.yscheduler.model.service.WorkflowDetailService;
 import com.yeahmobi.yscheduler.model.service.WorkflowInstanceService;
 import com.yeahmobi.yscheduler.web.controller.topo.TopoNode;
@@ -29,23 +28,21 @@ public class PrivateWorkflowTopoService implements WorkflowTopoService {
     @Autowired
     private WorkflowDetailService   detailService;
 
-    @Autowired
-    private TaskService             taskService;
-
     @Autowired
     private TaskInstanceService     taskInstanceService;
 
     private List<WorkflowDetailVO> getWorkflowDetail(long workflowId) {
         List<WorkflowDetailVO> raw = new ArrayList<WorkflowDetailVO>();
-        List<WorkflowDetail> details = this.detailService.list(workflowId);
+        WorkflowGraph graph = this.detailService.getGraph(workflowId);
+        if (graph == null) {
+            return raw;
+        }
 
-        for (WorkflowDetail detail : details) {
+        for (int node = 0; node < graph.size(); node++) {
             WorkflowDetailVO detailVO = new WorkflowDetailVO();
-            Long taskId = detail.getTaskId();
-            List<Long> dependencies = this.detailService.listDependencyTaskIds(workflowId, taskId);
-            detailVO.setWorkflowDetail(detail);
-            detailVO.setDependencies(dependencies);
-            detailVO.setTaskName(this.taskService.get(taskId).getName());
+            detailVO.setWorkflowDetail(graph.getDetail(node));
+            detailVO.setDependencies(graph.getDependencyTaskIds(node));
+            detailVO.setTaskName(graph.getTask(node).getName());
             raw.add(detailVO);
         }
         return raw;
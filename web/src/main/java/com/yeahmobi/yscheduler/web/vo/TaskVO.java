@@ -27,6 +27,8 @@ public class TaskVO {
 
     private Integer    retryTimes;
 
+    private Integer    priority;
+
     private String     description;
 
     private Date       createTime;
@@ -47,6 +49,7 @@ public class TaskVO {
         this.status = task.getStatus();
         this.timeout = task.getTimeout();
         this.retryTimes = task.getRetryTimes();
+        this.priority = task.getPriority();
         this.description = task.getDescription();
         this.createTime = task.getCreateTime();
         this.updateTime = task.getUpdateTime();
@@ -125,6 +128,14 @@ public class TaskVO {
         this.retryTimes = retryTimes;
     }
 
+    public Integer getPriority() {
+        return this.priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
     public String getDescription() {
         return this.description;
     }
@@ -429,8 +429,9 @@
 			}
 		},
 		"openInstanceLogModal" : function(attemptId) {
-			app.getAttemptLogTask(attemptId);
 			$("#instanceLogModal pre[log]").text("");
+			app["logOffset_" + attemptId] = null;
+			app.getAttemptLogTask(attemptId);
 			$('#instanceLogModal').modal('show');
 
 			// 自动刷新log
@@ -442,17 +443,26 @@
 		"getAttemptLogTask" : function(attemptId) {
 			var param = new Object();
 			param.attemptId = attemptId;
+			// 首次不带offset，返回日志最后一段，之后只取新增的内容
+			if (app["logOffset_" + attemptId] != null) {
+				param.offset = app["logOffset_" + attemptId];
+			}
 			$.ajax({
 				type : "get",
 				url : w.contextPath + "/task/instance/attempt/getLog",
 				data : param,
 				dataType : "json",
-				success : app.getAttemptLogTaskDone(attemptId),
+				success : app.getAttemptLogTaskDone(attemptId, param.offset),
 				error : app.httpError
 			});
 		},
-		"getAttemptLogTaskDone" : function(attemptId) {
+		"getAttemptLogTaskDone" : function(attemptId, requestOffset) {
 			return function(data) {
+				// 重新打开窗口后，之前未返回的请求已过期，丢弃以免日志重复
+				if (data.offset != null
+						&& requestOffset != app["logOffset_" + attemptId]) {
+					return;
+				}
 				if (data.success == false) {
 					$("#instanceLogModal div[alertMessage]").html(
 							$("#alert_error").html());
@@ -460,17 +470,33 @@
 							data.errorMsg);
 				} else {
 					if (app["autoGetLog_" + attemptId]) {
-						var text = $("#instanceLogModal pre[log]").text();
-						if (text == null || text != data.log) {
-							$("#instanceLogModal pre[log]").text(data.log);
+						var pre = $("#instanceLogModal pre[log]");
+						if (data.offset == null) {
+							// 日志不在文件中，整体替换
+							if (pre.text() != data.log) {
+								pre.text(data.log);
+							}
+						} else if (data.log) {
+							var atBottom = pre[0].scrollTop + pre[0].clientHeight >= pre[0].scrollHeight - 5;
+							if (data.truncated) {
+								pre.append(document.createTextNode("......(前面的日志请下载查看)\n"));
+							}
+							pre.append(document.createTextNode(data.log));
+							if (atBottom) {
+								pre.scrollTop(pre[0].scrollHeight);
+							}
+						}
+						if (data.offset != null) {
+							app["logOffset_" + attemptId] = data.offset;
 						}
 						if (data.logLink) {
 							$("#instanceLogModal a[logLink]").attr("href",
 									data.logLink);
 						}
+						// 还有未读完的内容时立即继续读取
 						setTimeout(function() {
 							app.getAttemptLogTask(attemptId);
-						}, 2000);
+						}, data.more ? 0 : 2000);
 					}
 				}
 			}
@@ -9,6 +9,7 @@ CREATE TABLE agent (
   upgrade_task_id bigint,
   create_time datetime DEFAULT CURRENT_TIMESTAMP,
   update_time datetime NOT NULL,
+  heartbeat_time datetime DEFAULT NULL,
   PRIMARY KEY (id),
   UNIQUE KEY `INDEX_NAME` (`name`)
 );
@@ -99,6 +100,7 @@ CREATE TABLE task (
   last_status_dependency tinyint NOT NULL DEFAULT '1',
   timeout int NOT NULL DEFAULT '60',
   retry_times int NOT NULL DEFAULT '0',
+  priority int NOT NULL DEFAULT '0',
   description varchar(1024) DEFAULT NULL,
   last_schedule_time datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
   attachment varchar(200) DEFAULT NULL,